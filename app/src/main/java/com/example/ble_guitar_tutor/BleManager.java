@@ -3,40 +3,68 @@ package com.example.ble_guitar_tutor;
 import android.app.AlertDialog;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Handler;
+import android.os.ParcelUuid;
 import android.util.Log;
+import android.widget.ArrayAdapter;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Bluetooth Low Energy 기기 스캔 및 통신을 보조하는 객체
+ *
+ * 스레드 구조
+ * - GATT 동작(연결, 서비스 탐색, Descriptor/Characteristic write)과 GATT 콜백 처리는 모두 BLE 전용 스레드(mBleExecutor)에서 순서대로 실행됨.
+ * - Toast, Dialog, Deliverable 콜백처럼 UI 와 관련된 작업은 메인 스레드 Handler(mHandler)로 넘겨서 실행함.
+ * - 스캔은 ScanCallback 이 메인 스레드에서 호출되므로 메인 스레드에서 처리함.
+ *
+ * 스캔
+ * - SERVICE_UUID 를 광고하는 기기만 찾음.
+ * - 처음에는 LOW_LATENCY 로 빠르게 찾고, 찾지 못하면 BALANCED, LOW_POWER 로 점점 덜 자주 스캔함 (SCAN_PHASES).
+ * - 기타를 하나 찾으면 SCAN_SETTLE_MILLIS 동안 주변 기타를 더 찾은 뒤 바로 멈춤.
+ * - 찾은 기기는 Dialog 에 바로 보여주고, 결과가 올 때마다 RSSI 순서로 다시 정렬함 (ScanDeviceList).
+ *
+ * 다시 연결
+ * - 마지막으로 연결한 기기의 주소와 프로토콜 버전을 SharedPreferences 에 저장해 두고,
+ *   reconnectLastDevice() 로 스캔 없이 바로 연결함. 저장된 버전이 있으면 Characteristic 읽기를 기다리지 않고,
+ *   나중에 읽은 버전이 다르면 진행 중인 업로드를 취소하고 새 버전으로 바꿈 (GattLink).
+ * - 연결이 예상치 않게 끊기면 ReconnectBackoff 간격으로 같은 기기에 다시 연결하고,
+ *   진행 중이던 업로드는 기기가 받아 둔 부분 뒤부터 이어서 보냄 (ScoreUploader.suspend/resume).
  */
 public class BleManager {
     /* Constant */
     private final String TAG = "BleManager";
-    private static final long SCAN_PERIOD = 1000;  // 스캔 제한 시간
-    private static final UUID SERVICE_UUID = UUID.fromString("19B10000-E8F2-537E-4F6C-D104768A1214"); // BLE Service UUID
-    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("19B10001-E8F2-537E-4F6C-D104768A1214"); // BLE Characteristic UUID
-    private static final UUID DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"); // BLE Descriptor UUID
-    private final int MAX_LENGTH = 300; // BLE 기기의 StringCharacteristic 최대 길이
+    private static final int[] SCAN_PHASE_MODES = {
+            ScanSettings.SCAN_MODE_LOW_LATENCY, ScanSettings.SCAN_MODE_BALANCED, ScanSettings.SCAN_MODE_LOW_POWER};
+    private static final long[] SCAN_PHASE_MILLIS = {2000, 4000, 6000}; // 단계별 스캔 시간 (Android 는 30초에 5번까지만 startScan 허용)
+    private static final long SCAN_SETTLE_MILLIS = 500; // 첫 기타를 찾은 뒤 다른 기타를 더 찾는 시간
+    static final UUID SERVICE_UUID = UUID.fromString("19B10000-E8F2-537E-4F6C-D104768A1214"); // BLE Service UUID
+    static final UUID CHARACTERISTIC_UUID = UUID.fromString("19B10001-E8F2-537E-4F6C-D104768A1214"); // BLE Characteristic UUID
+    static final UUID DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"); // BLE Descriptor UUID
+    static final int MAX_LENGTH = 300; // BLE 기기의 StringCharacteristic 최대 길이
+    private static final String PREFS_NAME = "ble_guitar_tutor";
+    private static final String KEY_LAST_DEVICE = "last_device_address";
 
     /* BLE Scan Field */
     private BluetoothAdapter mBluetoothAdapter;
@@ -44,20 +72,58 @@ public class BleManager {
     private Context mContext;
     private boolean mScanning = false;
     private HashMap<String, BluetoothDevice> mScanResults;
+    private final ScanDeviceList mScanList = new ScanDeviceList();
     private BleScanCallback mScanCallback;
     private BluetoothLeScanner mBluetoothScanner;
+    private int mScanPhase;
+    private final Runnable mNextScanPhaseTask = this::nextScanPhase;
+    private final Runnable mStopScanTask = this::stopScan;
+    private AlertDialog mScanDialog;
+    private ArrayAdapter<String> mScanAdapter;
+    private List<ScanDeviceList.Device> mShownDevices = new ArrayList<>(); // Dialog 에 보이는 순서
+
+    /* BLE Thread */
+    private final ScheduledExecutorService mBleExecutor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "BleThread"));
 
     /* BLE Connect Field*/
-    private BluetoothGatt mGatt;
-    private boolean mConnected = false;
-    private boolean mInitialized = false;
-    private boolean mBeforeWrite = true; // "writeCharacteristic()"을 통해 데이터를 보내면 onChanged()가 onWrite()보다 먼저 호출되는 경우를 방지
-    private String mSendMessage = "";
+    private volatile GattLink mLink; // 연결 중인 기기, 없으면 null
+    private volatile boolean mConnected = false;
+    private volatile boolean mInitialized = false;
+    private volatile int mPayloadSize = BleProtocol.DEFAULT_MTU - BleProtocol.ATT_HEADER_LENGTH;
+    private volatile double mLastThroughput = 0;
+    private volatile long mAckRttNanos = 0;
+    private final GuitarProtocol mProtocol = new GuitarProtocol(new GattTransport(), NanoClock.SYSTEM, (delayMillis, task) -> {
+        try {
+            mBleExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "BLE thread already closed");
+        }
+    }); // 전송/수신 프로토콜 처리, BLE 스레드 전용
+
+    /* Reconnect (BLE 스레드 전용) */
+    private final SharedPreferences mPrefs;
+    private final ReconnectBackoff mBackoff = new ReconnectBackoff();
+    private volatile String mTargetAddress = null; // 연결을 유지하려는 기기, 사용자가 연결을 끊으면 null
+    private int mConnectGeneration = 0; // 예약된 재연결이 아직 유효한지 확인하는 번호
+    private volatile long mReadyStartNanos = 0; // 스캔 또는 연결 요청 시각 (time-to-ready 측정용)
+    private volatile String mReadyPath = "";
+    private volatile long mLastTimeToReadyMillis = 0;
+
+    /* Metrics */
+    private static final long METRICS_PERIOD_MILLIS = 1000;
+    private ScheduledFuture<?> mMetricsTask = null; // 측정값을 주기적으로 보내는 작업, Listener 가 없으면 null
+
+    /* Session Recording (BLE 스레드 전용) */
+    private static final long RECORDING_MAX_BYTES = 32L * 1024 * 1024;
+    private SessionRecorder mRecorder = null; // 기록 중이 아니면 null
+    private volatile boolean mRecording = false;
+
+    /* Score Parsing (BLE 스레드 전용) */
+    private StreamingScoreParser mInboundParser = null; // 기기가 보내는 악보 문자열 해석용
 
     /* Callback to transfer BLE Characteristic data */
-    private Deliverable deliverable = null;
-    private BluetoothGattService service;
-    private BluetoothGattCharacteristic characteristic;
+    private volatile Deliverable deliverable = null;
 
     /**
      * BLE Device로부터 받은 데이터를 외부 클래스에서 전달 받을 수 있도록 콜백 메소드를 정의한 인터페이스
@@ -70,6 +136,36 @@ public class BleManager {
         this.deliverable = deliverable;
     }
 
+    /**
+     * 기기가 Notification 으로 보내는 악보 문자열을 음 단위로 받을 수 있도록 콜백을 등록하는 메소드
+     * Notification 이 어떻게 나뉘어 와도 이어서 해석함.
+     *
+     * @param listener 음 단위 콜백, null 이면 해석하지 않음
+     */
+    public void setScoreListener(StreamingScoreParser.Listener listener) {
+        runOnBleThread(() -> mInboundParser = listener == null ? null : new StreamingScoreParser(listener));
+    }
+
+    /**
+     * 기기에서 보낸 Notification 이 폰에 도착하기까지의 지연 추정값을 반환하는 메소드 (PlayAlongScorer 지연 보정용)
+     * 전송 중 측정한 write -> ack 왕복 시간의 절반으로, 연결 간격(connection interval)이 길수록 커짐.
+     *
+     * @return nanos, 아직 전송한 적이 없으면 0
+     */
+    public long getEstimatedLatencyNanos() {
+        return mAckRttNanos / 2;
+    }
+
+    /**
+     * 기기가 보내는 실시간 운지 이벤트 버퍼를 반환하는 메소드
+     * 운지 이벤트는 Deliverable 로 전달되지 않고 이 버퍼에만 쌓이므로, 한 스레드(UI 또는 채점)에서 drain() 으로 꺼내야 함.
+     *
+     * @return 운지 이벤트 버퍼
+     */
+    public FretEventBuffer getFretEvents() {
+        return mProtocol.getFretEvents(); // 생산자 : BLE 스레드
+    }
+
     /**
      * BLE 연결 상태를 반환하는 메소드
      *
@@ -79,6 +175,33 @@ public class BleManager {
         return  mConnected;
     }
 
+    /**
+     * 협상된 MTU 와 Characteristic 최대 길이를 반영한, 한 번의 write 에 담기는 실제 데이터 크기를 반환하는 메소드
+     *
+     * @return 조각당 바이트 수
+     */
+    public int getEffectivePayloadSize() {
+        return mPayloadSize;
+    }
+
+    /**
+     * 마지막으로 완료된 전송의 처리량을 반환하는 메소드 (기기별 성능 비교용)
+     *
+     * @return bytes/sec
+     */
+    public double getLastThroughput() {
+        return mLastThroughput;
+    }
+
+    /**
+     * 스캔 또는 연결 요청부터 전송할 준비가 끝날 때까지 걸린 시간을 반환하는 메소드
+     *
+     * @return millis, 아직 연결한 적이 없으면 0
+     */
+    public long getLastTimeToReadyMillis() {
+        return mLastTimeToReadyMillis;
+    }
+
     /**
      * BLE Manager 생성자
      * 1. 현재 안드로이드 기기가 BLE 지원이 되는지 확인
@@ -88,50 +211,135 @@ public class BleManager {
         mContext = context;
         mHandler = handler;
         mBluetoothAdapter = bluetoothAdapter;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mProtocol.getTransfer().setLegacyChunkLength(MAX_LENGTH);
+        mProtocol.setListener(new TransferListener());
 
         Log.d(TAG, "Created BleManager");
     }
 
+    /**
+     * 연결을 끊는 메소드. 다시 연결하지 않고 진행 중인 업로드도 취소함. (교실 모드로 바꿀 때 사용)
+     */
+    public void disconnect() {
+        runOnBleThread(this::disconnectGattServer);
+    }
+
+    /**
+     * 연결을 끊고 BLE 스레드를 종료하는 메소드 (Activity 종료 시 호출)
+     */
+    public void close() {
+        runOnBleThread(this::disconnectGattServer);
+        runOnBleThread(this::closeRecorder);
+        mBleExecutor.shutdown();
+    }
+
+    /**
+     * BLE 스레드에서 작업을 실행하는 메소드
+     * close() 이후에 늦게 도착한 GATT 콜백은 무시함.
+     *
+     * @param task 실행할 작업
+     */
+    private void runOnBleThread(Runnable task) {
+        try {
+            mBleExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "BLE thread already closed");
+        }
+    }
+
+    /**
+     * UI 스레드에서 Toast 를 보여주는 메소드 (어느 스레드에서 호출해도 됨)
+     *
+     * @param message 보여줄 문자열
+     */
+    private void showToast(String message) {
+        mHandler.post(() -> Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show());
+    }
+
     /**
      * BLE 기기를 스캔하는 메소드
      * 1. Bluetooth 권한 획득 : hasPermission()
-     * 2. 스캔
-     * 3. SCAN_PERIOD 후에 stopScan() 호출
+     * 2. SERVICE_UUID 로 거른 스캔을 SCAN_PHASES 순서대로 실행
+     * 3. 기타를 찾으면 SCAN_SETTLE_MILLIS 후에, 못 찾으면 마지막 단계가 끝난 뒤 stopScan() 호출
      */
     public void startScan() {
         if (mScanning) {
             return;
         }
 
+        mBluetoothScanner = mBluetoothAdapter.getBluetoothLeScanner();
+        if (mBluetoothScanner == null) {
+            Toast.makeText(mContext, "블루투스를 활성화 해주세요.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
         Toast.makeText(mContext, "BLE Scan Start", Toast.LENGTH_SHORT).show();
+        mReadyStartNanos = System.nanoTime();
+        mReadyPath = "scan";
 
-        List<ScanFilter> filters = new ArrayList<>();
+        mScanResults = new HashMap<>();
+        mScanList.clear();
+        mShownDevices = new ArrayList<>();
+        mScanDialog = null;
+        mScanCallback = new BleScanCallback();
+        mScanning = true;
+        mScanPhase = 0;
+        startScanPhase();
+    }
+
+    /**
+     * 현재 단계의 스캔 모드로 스캔을 시작하고, 단계가 끝나면 다음 단계로 넘어가도록 예약하는 메소드
+     */
+    private void startScanPhase() {
+        List<ScanFilter> filters = Collections.singletonList(new ScanFilter.Builder()
+                .setServiceUuid(new ParcelUuid(SERVICE_UUID))
+                .build());
 
         ScanSettings settings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
+                .setScanMode(SCAN_PHASE_MODES[mScanPhase])
                 .build();
 
-        mScanResults = new HashMap<>();
-        mScanCallback = new BleScanCallback();
-        mBluetoothScanner = mBluetoothAdapter.getBluetoothLeScanner();
+        Log.d(TAG, "Scan phase " + mScanPhase + " : mode " + SCAN_PHASE_MODES[mScanPhase]);
         mBluetoothScanner.startScan(filters, settings, mScanCallback);
-        mScanning = true;
-        mHandler.postDelayed(this::stopScan, SCAN_PERIOD);
+        mHandler.postDelayed(mNextScanPhaseTask, SCAN_PHASE_MILLIS[mScanPhase]);
+    }
+
+    private void nextScanPhase() {
+        if (!mScanning) {
+            return;
+        }
+        if (mScanPhase + 1 >= SCAN_PHASE_MODES.length) {
+            stopScan();
+            return;
+        }
+
+        // 스캔 모드는 실행 중에 바꿀 수 없으므로 멈췄다가 다시 시작
+        if (mBluetoothAdapter.isEnabled()) {
+            mBluetoothScanner.stopScan(mScanCallback);
+        }
+        mScanPhase++;
+        startScanPhase();
     }
 
     /**
      * 스캔을 종료하고 Scan 에 사용된 필드값들을 초기화
      */
     private void stopScan() {
-        Toast.makeText(mContext, "BLE Scan Stop", Toast.LENGTH_SHORT).show();
+        if (!mScanning) {
+            return;
+        }
 
-        if (mScanning && mBluetoothAdapter != null && mBluetoothAdapter.isEnabled() && mBluetoothScanner != null) {
+        Toast.makeText(mContext, "BLE Scan Stop", Toast.LENGTH_SHORT).show();
+        mHandler.removeCallbacks(mNextScanPhaseTask);
+        mHandler.removeCallbacks(mStopScanTask);
+        if (mBluetoothAdapter != null && mBluetoothAdapter.isEnabled() && mBluetoothScanner != null) {
             mBluetoothScanner.stopScan(mScanCallback);
-            scanComplete();
         }
 
         mScanCallback = null;
         mScanning = false;
+        scanComplete();
     }
 
     /**
@@ -139,16 +347,34 @@ public class BleManager {
      */
     private void scanComplete() {
         Log.d(TAG, "Scan Complete");
-        if (mScanResults.isEmpty()) {
+        if (mScanList.isEmpty()) {
             Toast.makeText(mContext, "No BLE Device", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        for (String deviceAddress : mScanResults.keySet()) {
-            Log.d(TAG, "Found Device Address : " + deviceAddress);
+        for (ScanDeviceList.Device device : mScanList.getRanked()) {
+            Log.d(TAG, "Found Device Address : " + device.getAddress() + " (" + device.getRssi() + " dBm, "
+                    + device.getSeenCount() + " adv)");
         }
+    }
 
-        showScanResults(new ArrayList<>(mScanResults.values()));
+    /**
+     * 마지막 스캔에서 찾은 기기를 신호가 센 순서로 반환하는 메소드 (메인 스레드에서 호출)
+     *
+     * @return 찾은 기기 목록, 스캔한 적이 없으면 빈 목록
+     */
+    public List<BluetoothDevice> getScannedDevices() {
+        List<BluetoothDevice> devices = new ArrayList<>();
+        if (mScanResults == null) {
+            return devices;
+        }
+        for (ScanDeviceList.Device device : mScanList.getRanked()) {
+            BluetoothDevice bluetoothDevice = mScanResults.get(device.getAddress());
+            if (bluetoothDevice != null) {
+                devices.add(bluetoothDevice);
+            }
+        }
+        return devices;
     }
 
     /**
@@ -173,9 +399,112 @@ public class BleManager {
         }
 
         private void addScanResult(ScanResult result) {
+            if (!mScanning || mScanCallback != this) {
+                return; // 멈춘 뒤에 늦게 도착한 결과
+            }
+
             BluetoothDevice device = result.getDevice();
             String deviceAddress = device.getAddress();
             mScanResults.put(deviceAddress, device);
+            boolean changed = mScanList.update(deviceAddress, device.getName(), result.getRssi());
+
+            if (mScanDialog == null) {
+                // 첫 기타를 찾았으므로 남은 단계는 건너뛰고 조금만 더 찾은 뒤 멈춤
+                mHandler.removeCallbacks(mNextScanPhaseTask);
+                mHandler.postDelayed(mStopScanTask, SCAN_SETTLE_MILLIS);
+                showScanResults();
+                changed = true;
+            }
+            if (changed) {
+                updateScanResults();
+            }
+        }
+    }
+
+    /**
+     * 전송 측정값(BleMetrics)을 METRICS_PERIOD_MILLIS 마다 메인 스레드에서 받을 콜백을 등록하는 메소드
+     * 측정값은 Listener 가 없어도 항상 모으고, 복사본은 Listener 가 있을 때만 만듦.
+     *
+     * @param listener 콜백, null 이면 받지 않음
+     */
+    public synchronized void setMetricsListener(BleMetrics.Listener listener) {
+        if (mMetricsTask != null) {
+            mMetricsTask.cancel(false);
+            mMetricsTask = null;
+        }
+        if (listener == null) {
+            return;
+        }
+
+        try {
+            mMetricsTask = mBleExecutor.scheduleAtFixedRate(() -> {
+                BleMetrics.Snapshot snapshot = mProtocol.getMetrics().snapshot(System.nanoTime());
+                mHandler.post(() -> listener.onMetrics(snapshot));
+            }, 0, METRICS_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "BLE thread already closed");
+        }
+    }
+
+    /**
+     * 보낸 조각, write 완료, 받은 Notification 을 파일에 기록하기 시작하는 메소드 (SessionRecorder)
+     * 이미 기록 중이면 이전 기록을 끝내고 새로 시작함. 기록은 SessionReplay 로 JVM 에서 재현할 수 있음.
+     *
+     * @param file 기록 파일
+     */
+    public void startRecording(File file) {
+        mRecording = true;
+        runOnBleThread(() -> {
+            closeRecorder();
+            try {
+                mRecorder = SessionRecorder.create(file, RECORDING_MAX_BYTES, System.nanoTime());
+            } catch (IOException e) {
+                Log.e(TAG, "startRecording: " + e.getMessage());
+                mRecording = false;
+                showToast("기록 파일을 만들 수 없습니다.");
+                return;
+            }
+            if (mInitialized) {
+                recordLink(mProtocol.getCapabilities()); // 연결 중에 시작하면 현재 전송 방식부터 기록
+            }
+            Log.d(TAG, "startRecording: " + file);
+        });
+    }
+
+    public void stopRecording() {
+        mRecording = false;
+        runOnBleThread(this::closeRecorder);
+    }
+
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    private void closeRecorder() {
+        SessionRecorder recorder = mRecorder;
+        if (recorder == null) {
+            return;
+        }
+        mRecorder = null;
+        try {
+            recorder.close();
+            Log.d(TAG, "stopRecording: " + recorder.getRecordCount() + " records, " + recorder.getLength() + " bytes"
+                    + (recorder.getDroppedCount() > 0 ? ", dropped " + recorder.getDroppedCount() : ""));
+        } catch (IOException e) {
+            Log.e(TAG, "stopRecording: " + e.getMessage());
+        }
+    }
+
+    private void recordLink(DeviceCapabilities capabilities) {
+        GattLink link = mLink;
+        if (mRecorder != null && link != null) {
+            mRecorder.recordLink(System.nanoTime(), capabilities, link.getMaxWriteLength(true), link.supportsWriteWithoutResponse());
+        }
+    }
+
+    private void recordMark(String text) {
+        if (mRecorder != null) {
+            mRecorder.recordMark(System.nanoTime(), text);
         }
     }
 
@@ -188,151 +517,284 @@ public class BleManager {
     public void connectDevice(BluetoothDevice device) {
         Log.d(TAG, "Device Name : " + device.getName());
         Log.d(TAG, "Device UUID : " + Arrays.toString(device.getUuids()));
-        Toast.makeText(mContext, "BLE Device Connected : " + device.getName(), Toast.LENGTH_SHORT).show();
+        showToast("BLE Device Connected : " + device.getName());
 
-        GattClientCallback gattClientCallback = new GattClientCallback();
-        mGatt = device.connectGatt(mContext, false, gattClientCallback);
+        runOnBleThread(() -> {
+            if (!device.getAddress().equals(mTargetAddress)) {
+                mProtocol.cancel(); // 다른 기기로 보내던 업로드는 이어서 보낼 수 없음
+            }
+            if (mReadyStartNanos == 0) {
+                mReadyStartNanos = System.nanoTime();
+                mReadyPath = "connect";
+            }
+            mBackoff.reset();
+            connectGatt(device);
+        });
     }
 
     /**
-     * GATT 통신에 필요한 콜백 메소드 구현
+     * 마지막으로 연결했던 기기에 스캔 없이 바로 연결하는 메소드
+     *
+     * @return 저장된 기기가 없으면 false
      */
-    private class GattClientCallback extends BluetoothGattCallback {
+    public boolean reconnectLastDevice() {
+        String address = mPrefs.getString(KEY_LAST_DEVICE, null);
+        if (address == null || mBluetoothAdapter == null || !BluetoothAdapter.checkBluetoothAddress(address)) {
+            return false;
+        }
 
-        /**
-         * GATT 통신 상태가 변경될 때 호출되는 콜백 메소드
-         *
-         * @param gatt     GATT
-         * @param status   기존의 연결 상태
-         * @param newState 변경된 연결 상태
-         */
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            super.onConnectionStateChange(gatt, status, newState);
-            Log.d(TAG, "BluetoothGatt : " + gatt);
-            Log.d(TAG, "Status : " + status);
-            Log.d(TAG, "New Status : " + newState);
-
-            if (status == BluetoothGatt.GATT_FAILURE) {
-                disconnectGattServer();
-                return;
-            } else if (status != BluetoothGatt.GATT_SUCCESS) {
-                disconnectGattServer();
-                return;
-            }
+        Log.d(TAG, "Reconnect to last device : " + address);
+        mReadyStartNanos = System.nanoTime();
+        mReadyPath = "direct";
+        connectDevice(mBluetoothAdapter.getRemoteDevice(address));
+        return true;
+    }
 
-            // After receiving GATT_SUCCESS and STATE_CONNECTED
-            // We Must DISCOVER the services of the GATT Server
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                mConnected = true;
-                gatt.discoverServices(); // onServicesDiscovered 콜백 메소드로 넘어감.
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                Toast.makeText(mContext, "블루투스 연결이 끊겼습니다.", Toast.LENGTH_SHORT).show();
-                disconnectGattServer();
-            }
+    /**
+     * 기기와 GATT 연결을 시작하는 메소드 (BLE 스레드에서 호출)
+     * 자동 연결(autoConnect)은 연결되기까지 오래 걸리므로 사용하지 않고, 끊기면 onConnectionLost() 에서 다시 시도함.
+     *
+     * @param device 연결할 기기
+     */
+    private void connectGatt(BluetoothDevice device) {
+        closeGatt();
+        mTargetAddress = device.getAddress();
+        mConnectGeneration++;
+        // 스캔으로 찾은 기기는 스캔 시간부터, 그 밖에는 연결 요청부터 단계별 시간을 잼
+        long now = System.nanoTime();
+        BleMetrics metrics = mProtocol.getMetrics();
+        if ("scan".equals(mReadyPath) && mReadyStartNanos != 0) {
+            metrics.beginSetup(mReadyStartNanos);
+            metrics.markPhase(BleMetrics.Phase.SCAN, now);
+        } else {
+            metrics.beginSetup(now);
+        }
+        mLink = new GattLink(mContext, device, mBleExecutor, mPrefs, new LinkListener());
+        mLink.connect();
+    }
 
+    /**
+     * GattLink 에서 연결 상태와 받은 데이터를 전달받는 Listener (BLE 스레드에서 호출됨)
+     */
+    private class LinkListener implements GattLink.Listener {
+        @Override
+        public void onConnected() {
+            mConnected = true;
+            mProtocol.getMetrics().markPhase(BleMetrics.Phase.CONNECT, System.nanoTime());
             Log.d(TAG, "Connected with GattServer");
         }
 
+        @Override
+        public void onServicesDiscovered() {
+            mProtocol.getMetrics().markPhase(BleMetrics.Phase.DISCOVER, System.nanoTime());
+            mProtocol.getTransfer().cancel();
+        }
+
+        @Override
+        public void onSetupCommand(GattCommand command) {
+            Log.d(TAG, "Setup " + command.type + " : " + command.getStatus());
+            recordGattCommand(command);
+            if (command.type == GattCommand.Type.WRITE_DESCRIPTOR) {
+                mProtocol.getMetrics().markPhase(BleMetrics.Phase.DESCRIPTOR, System.nanoTime());
+            } else if (command.type == GattCommand.Type.REQUEST_MTU) {
+                mProtocol.getMetrics().markPhase(BleMetrics.Phase.MTU, System.nanoTime());
+            }
+        }
+
         /**
-         * 연결된 Device가 가지고 있는 GATT에서 Service 정보를 얻는 메소드
-         * Service 획득 -> Service 안에 Characteristic 참조 + Characteristic을 구독하는 Descriptor 생성
+         * 연결 준비가 끝나면 프로토콜 버전에 맞게 전송 방식을 결정하는 메소드
+         * 기기가 버전 2 이상을 지원하면 순번이 붙은 프레임을 연속으로 보내고, 아니면 기존의 ack 방식 사용 (GuitarProtocol.applyCapabilities)
          *
-         * @param gatt 연결된 Device의 GATT
-         * @param status 연결 상태
+         * @param capabilities 기기와 협상된 프로토콜 버전
          */
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            super.onServicesDiscovered(gatt, status);
-            if (status != BluetoothGatt.GATT_SUCCESS) {
-                return;
+        public void onReady(DeviceCapabilities capabilities) {
+            mProtocol.getMetrics().markPhase(BleMetrics.Phase.CAPABILITIES, System.nanoTime());
+            applyCapabilities(capabilities);
+            mInitialized = true;
+            mBackoff.reset();
+            GattLink link = mLink;
+            if (link != null) {
+                mPrefs.edit().putString(KEY_LAST_DEVICE, link.getAddress()).apply();
             }
 
-            service = gatt.getService(SERVICE_UUID);
-            characteristic = service.getCharacteristic(CHARACTERISTIC_UUID);
-
-            // Write 에 사용할 Characteristic 설정
-            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-            mInitialized = gatt.setCharacteristicNotification(characteristic, true);
-            Log.d(TAG, "GATT Initialized : " + mInitialized);
-
-            // Characteristic 을 구독하는 Descriptor 설정
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(DESCRIPTOR_UUID);
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            boolean descriptorInitialized = mGatt.writeDescriptor(descriptor);
-            Log.d(TAG, "Descriptor Initialized : " + descriptorInitialized);
+            long startNanos = mReadyStartNanos;
+            mReadyStartNanos = 0;
+            if (startNanos != 0) {
+                mLastTimeToReadyMillis = (System.nanoTime() - startNanos) / 1_000_000;
+                Log.d(TAG, "Time to ready : " + mLastTimeToReadyMillis + " ms (" + mReadyPath + ")");
+            }
+            showToast("블루투스 기기와 연결되었습니다.");
 
-            if (mInitialized && descriptorInitialized) {
-                mHandler.post(() -> Toast.makeText(mContext, "블루투스 기기와 연결되었습니다.", Toast.LENGTH_SHORT).show());
+            if (mProtocol.hasSuspendedUpload()) {
+                Log.d(TAG, "Resume suspended upload >> " + mProtocol.resume());
             }
         }
 
         /**
-         * Characteristic을 Write 하면 호출되는 콜백 메소드
-         * 한글은 지원하지 않음(write 가능하지만, 반대편에서 읽지 못함)
-         * CharacteristicWrite와 Changed가 거의 동시에 일어나면 혼선이 일어나는 것 같음.
+         * 저장해 둔 프로토콜 버전으로 준비를 끝낸 뒤 읽은 버전이 다른 경우 (펌웨어가 바뀜)
+         * 이전 버전의 형식으로 보내던 업로드나 이어 보내려고 보관한 업로드는 새 버전으로 이어 보낼 수 없으므로 취소하고,
+         * 새 버전을 바로 반영함.
          *
-         * @param gatt 연결된 Device의 GATT
-         * @param characteristic 연결된 Device와 공유하는 Characteristic
-         * @param status 연결 상태
+         * @param capabilities 기기에서 읽은 프로토콜 버전
          */
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicWrite(gatt, characteristic, status);
+        public void onCapabilitiesChanged(DeviceCapabilities capabilities) {
+            if (mProtocol.isBusy() || mProtocol.hasSuspendedUpload()) {
+                Log.w(TAG, "Capabilities changed during upload, cancel upload");
+                mProtocol.cancel();
+                showToast("기타의 펌웨어가 바뀌어 전송을 취소했습니다. 다시 보내 주세요.");
+            }
+            applyCapabilities(capabilities);
+        }
 
-            mBeforeWrite = false;
+        @Override
+        public boolean isSequencedWrite(byte[] value) {
+            return mProtocol.isSequencedWrite(value);
+        }
 
-            String characteristicStringValue = characteristic.getStringValue(0);
-            Log.d(TAG, "onWrite : " + characteristicStringValue);
+        @Override
+        public void onWriteComplete(int writeId, GattCommand command) {
+            Log.d(TAG, "onWrite #" + writeId + " : " + command.getStatus() + " (attempts " + command.getAttempts() + ")");
+            recordGattCommand(command);
+            if (mRecorder != null) {
+                mRecorder.recordWriteComplete(System.nanoTime(), writeId, command.isSuccess());
+            }
+            mProtocol.onWriteComplete(writeId, command.isSuccess());
         }
 
-        /**
-         * Characteristic의 값이 변경되면 호출되는 메소드
-         * 반드시 "Descriptor"를 설정 해줘야함! (onServicesDiscovered 참고)
-         *
-         * @param gatt 연결된 Device의 GATT
-         * @param characteristic 연결된 Device와 공유하는 Characteristic
-         */
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            if(mBeforeWrite) {
-                return;
+        public void onNotification(byte[] value, long receiveNanos) {
+            if (mRecorder != null) {
+                mRecorder.recordNotification(receiveNanos, value);
+            }
+            // ack, 캐시 응답, 운지 이벤트는 GuitarProtocol 에서 처리하고 외부로 전달하지 않음
+            switch (mProtocol.onNotification(value, receiveNanos)) {
+                case ACK:
+                    Log.d(TAG, "onChanged : ack");
+                    return;
+                case CACHE_STATUS:
+                    Log.d(TAG, "onChanged : cache status " + value[1] + " (hit " + mProtocol.getUploader().getDeviceHitCount()
+                            + ", miss " + mProtocol.getUploader().getDeviceMissCount() + ")");
+                    return;
+                case FRET_EVENT:
+                    return;
+                default:
+                    break;
             }
-            super.onCharacteristicChanged(gatt, characteristic);
 
-            String receivedValue = characteristic.getStringValue(0);
+            String receivedValue = new String(value, StandardCharsets.UTF_8);
             Log.d(TAG, "onChanged : " + receivedValue);
-            mBeforeWrite = true;
 
-            if(receivedValue.equals("") && !mSendMessage.isEmpty()) {
-                writeCharacteristic(mSendMessage);
+            Deliverable target = deliverable;
+            if (target != null) {
+                mHandler.post(() -> target.onReceiveCharacteristicChanged(receivedValue));
             }
 
-            if (deliverable != null) {
-                deliverable.onReceiveCharacteristicChanged(characteristic.getStringValue(0));
+            if (mInboundParser != null && !mInboundParser.feed(value, 0, value.length)) {
+                Log.w(TAG, "Received score error : " + mInboundParser.getError() + " at " + mInboundParser.getErrorOffset());
+                mInboundParser.reset();
             }
         }
 
-        /**
-         * GATT Server와 통신을 끊는 메소드
-         */
-        private void disconnectGattServer() {
-            mConnected = false;
-            mInitialized = false;
-            if (mGatt != null) {
-                mGatt.disconnect();
-                mGatt.close();
-            }
+        @Override
+        public void onDisconnected(int status) {
+            Log.d(TAG, "Disconnected : status " + status);
+            onConnectionLost();
+        }
+    }
+
+    /**
+     * 협상된 프로토콜 버전에 맞게 전송 방식을 설정하는 메소드
+     *
+     * @param capabilities 기기와 협상된 프로토콜 버전
+     */
+    private void applyCapabilities(DeviceCapabilities capabilities) {
+        mProtocol.applyCapabilities(capabilities);
+        recordLink(capabilities);
+        mPayloadSize = mProtocol.getTransfer().getPayloadSize();
+        Log.d(TAG, "Protocol Version : " + capabilities.getVersion() + ", Transfer Mode : " + mProtocol.getTransfer().getMode()
+                + ", payload : " + mPayloadSize + ", compression : " + mProtocol.isCompressing()
+                + ", integrity check : " + mProtocol.isCheckingIntegrity());
+    }
+
+    /**
+     * GATT Server와 통신을 끊는 메소드 (BLE 스레드에서 호출)
+     * 사용자가 끊는 경우이므로 다시 연결하지 않고 업로드도 취소함.
+     */
+    private void disconnectGattServer() {
+        mTargetAddress = null;
+        mConnectGeneration++; // 예약된 재연결 취소
+        mProtocol.cancel();
+        closeGatt();
+
+        Log.d(TAG, "disconnectGattServer: Disconnected");
+    }
 
-            Log.d(TAG, "disconnectGattServer: Disconnected");
+    /**
+     * 연결이 예상치 않게 끊기거나 연결하지 못했을 때 호출되는 메소드 (BLE 스레드에서 호출)
+     * 진행 중인 업로드를 보관하고, ReconnectBackoff 간격 후 같은 기기에 다시 연결함.
+     */
+    private void onConnectionLost() {
+        boolean wasReady = mInitialized;
+        boolean suspended = mProtocol.suspend();
+        closeGatt();
+
+        String address = mTargetAddress;
+        if (address == null) {
+            return;
+        }
+        long delayMillis = mBackoff.nextDelayMillis();
+        if (delayMillis == ReconnectBackoff.GIVE_UP) {
+            Log.w(TAG, "Reconnect : give up after " + mBackoff.getAttempts() + " attempts");
+            mTargetAddress = null;
+            mProtocol.cancel();
+            showToast("블루투스 연결이 끊겼습니다.");
+            return;
+        }
+
+        if (wasReady) {
+            showToast("블루투스 연결이 끊겼습니다. 다시 연결합니다.");
+            mReadyStartNanos = System.nanoTime();
+            mReadyPath = "reconnect";
+        }
+        Log.d(TAG, "Reconnect : attempt " + mBackoff.getAttempts() + " in " + delayMillis + " ms"
+                + (suspended ? " (upload suspended)" : ""));
+
+        final int generation = ++mConnectGeneration;
+        try {
+            mBleExecutor.schedule(() -> {
+                if (generation == mConnectGeneration && address.equals(mTargetAddress)) {
+                    connectGatt(mBluetoothAdapter.getRemoteDevice(address));
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "BLE thread already closed");
         }
     }
 
     /**
-     * GATT의 Characteristic의 값을 설정하여 데이터를 보내는 메소드
+     * GATT 연결을 닫고 연결 상태를 초기화하는 메소드 (BLE 스레드에서 호출)
+     */
+    private void closeGatt() {
+        mConnected = false;
+        mInitialized = false;
+        mProtocol.reset();
+        GattLink link = mLink;
+        mLink = null;
+        if (link != null) {
+            link.close();
+        }
+    }
+
+    /**
+     * 악보를 GuitarProtocol 로 보내는 메소드
+     * 기기가 바이너리 악보를 지원하면 ScoreCodec 으로 변환해서 보내고, 아니면 문자열 끝에 '$'를 붙여 보냄.
+     * 기기가 악보 캐시를 지원하면 먼저 해시로 확인해서, 이미 가진 곡이면 보내지 않음 (ScoreUploader).
+     * 기기가 악보 패치도 지원하면, 그 기기에 마지막으로 보낸 악보와 비교해 바뀐 마디만 보냄 (ScoreDiff).
+     * 조각을 나누고 다음 조각을 보내는 일은 ChunkTransfer 가 write/notification 콜백에 맞춰 처리함.
      *
-     * mSendingMessage : 보내려는 최종 문자열.
-     * message : 인자값으로 들어온 문자열, mSendingMessage가 있을 경우에는 mSendingMessage의 나머지 부분으로 덮어쓰여짐.
+     * 악보 검사와 변환도 BLE 스레드에서 처리하므로 UI 스레드에서 바로 호출해도 됨.
      *
      * @param message 보내려는 String 값
      */
@@ -342,52 +804,244 @@ public class BleManager {
             return;
         }
 
-        if(mSendMessage.isEmpty()) {
-            mSendMessage = message + "$";
+        runOnBleThread(() -> startTransfer(message));
+    }
+
+    private void startTransfer(String message) {
+        if (!mConnected || !mInitialized) {
+            return;
         }
 
-        if(mSendMessage.length() > MAX_LENGTH) {
-            message = mSendMessage.substring(0, MAX_LENGTH);
-            mSendMessage = mSendMessage.substring(MAX_LENGTH);
-        } else {
-            message = mSendMessage;
-            mSendMessage = "";
+        if (mProtocol.isBusy()) {
+            Log.d(TAG, "writeCharacteristic: transfer already in progress");
+            return;
+        }
+
+        GattLink link = mLink;
+        if (link == null) {
+            return;
         }
 
-        byte[] messageBytes = (message).getBytes(StandardCharsets.UTF_8);
-        characteristic.setValue(messageBytes);
-        Log.d(TAG, "writeCharacteristic: " + message + " >> " + mGatt.writeCharacteristic(characteristic));
+        recordMark("writeCharacteristic " + message.length() + " chars");
+        boolean started;
+        try {
+            started = mProtocol.send(message, link.getAddress());
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "writeCharacteristic: invalid score, " + e.getMessage());
+            showToast("악보 형식이 올바르지 않습니다.");
+            return;
+        }
+
+        int patchLength = mProtocol.getLastPatchLength();
+        ScoreCache scoreCache = mProtocol.getScoreCache();
+        Log.d(TAG, "writeCharacteristic: " + mProtocol.getLastPayloadLength() + " bytes"
+                + (patchLength > 0 ? " (patch " + patchLength + " bytes)" : "") + " >> " + started
+                + " (score cache hit " + scoreCache.getHitCount() + ", miss " + scoreCache.getMissCount() + ")");
     }
 
     /**
-     * 스캔 결과 BluetoothDevice의 이름과 주소를 AlertDialog로 보여주는 메소드
+     * 곡 보관함의 곡을 보내는 메소드
+     * 곡 본문은 BLE 스레드에서 읽으므로 UI 스레드에서 바로 호출해도 됨.
      *
-     * @param deviceList 스캔된 주변 BluetoothDevice 목록
+     * @param library 곡 보관함
+     * @param index   보낼 곡 번호
      */
-    private void showScanResults(ArrayList<BluetoothDevice> deviceList) {
-        AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
+    public void writeSong(SongLibrary library, int index) {
+        if (!mConnected || !mInitialized) {
+            Toast.makeText(mContext, "BLE NOT CONNECTED!", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        runOnBleThread(() -> startSongTransfer(library, index));
+    }
+
+    private void startSongTransfer(SongLibrary library, int index) {
+        GattLink link = mLink;
+        if (!mConnected || !mInitialized || link == null) {
+            return;
+        }
+
+        if (mProtocol.isBusy()) {
+            Log.d(TAG, "writeSong: transfer already in progress");
+            return;
+        }
+
+        boolean started;
+        try {
+            recordMark("writeSong #" + index + " " + library.getTitle(index));
+            started = mProtocol.upload(library, index, link.getAddress());
+        } catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            Log.e(TAG, "writeSong: cannot load song " + index + ", " + e.getMessage());
+            showToast("곡을 읽을 수 없습니다.");
+            return;
+        }
+        int patchLength = mProtocol.getLastPatchLength();
+        Log.d(TAG, "writeSong: #" + index + " " + mProtocol.getLastPayloadLength() + " bytes"
+                + (patchLength > 0 ? " (patch " + patchLength + " bytes)" : "") + " >> " + started);
+    }
+
+    /**
+     * 아주 긴 악보 문자열을 변환 없이 조각마다 UTF-8 로 바꾸며 보내는 메소드 (GuitarProtocol.sendText())
+     * 전체 byte[] 를 만들지 않는 대신 캐시, 패치, 압축, 이어 보내기를 사용하지 않음.
+     * 전송이 끝날 때까지 text 를 BLE 스레드에서 읽으므로, 그동안 내용을 바꾸면 안 됨.
+     *
+     * @param text 보낼 악보 문자열
+     */
+    public void writeText(CharSequence text) {
+        if (!mConnected || !mInitialized) {
+            Toast.makeText(mContext, "BLE NOT CONNECTED!", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        runOnBleThread(() -> startTextTransfer(text));
+    }
+
+    private void startTextTransfer(CharSequence text) {
+        if (!mConnected || !mInitialized || mLink == null) {
+            return;
+        }
+
+        if (mProtocol.isBusy()) {
+            Log.d(TAG, "writeText: transfer already in progress");
+            return;
+        }
 
-        ArrayList<String> deviceNameAddressList = new ArrayList<>();
-        for (BluetoothDevice tmpDevice : deviceList) {
-            String name = tmpDevice.getName();
-            String address = tmpDevice.getAddress();
-            String nameAddress = name + " / " + address;
-            if (!deviceNameAddressList.contains(nameAddress)) {
-                deviceNameAddressList.add(nameAddress);
+        recordMark("writeText " + text.length() + " chars");
+        boolean started;
+        try {
+            started = mProtocol.sendText(text);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "writeText: invalid score, " + e.getMessage());
+            showToast("악보 형식이 올바르지 않습니다.");
+            return;
+        }
+        Log.d(TAG, "writeText: " + mProtocol.getLastPayloadLength() + " bytes >> " + started);
+    }
+
+    /**
+     * 폰에서 재생 중인 곡 위치를 기기에 알리는 메소드 (PlaybackScheduler 의 동기화 비콘)
+     * BLE 스레드에서 실제로 보낼 때까지 걸린 시간을 위치에 더해서 보내므로, 어느 스레드에서 호출해도 위치가 밀리지 않음.
+     * 연결되어 있지 않거나 기기가 지원하지 않으면 조용히 무시함.
+     *
+     * @param positionNanos 곡 시작부터의 위치
+     * @param sampledNanos  positionNanos 에 해당하는 시각 (System.nanoTime())
+     */
+    public void sendTimeSync(long positionNanos, long sampledNanos) {
+        if (!mConnected || !mInitialized) {
+            return;
+        }
+
+        runOnBleThread(() -> {
+            if (!mConnected || !mInitialized) {
+                return;
             }
+            long position = positionNanos + (System.nanoTime() - sampledNanos);
+            mProtocol.sendTimeSync(TimeUnit.NANOSECONDS.toMillis(position));
+        });
+    }
+
+    /**
+     * 전송이 끝날 때마다 처리량을 로그로 남기는 Listener
+     */
+    private class TransferListener implements ChunkTransfer.Listener {
+        @Override
+        public void onTransferProgress(int sentBytes, int totalBytes) {
+            Log.d(TAG, "Transfer Progress : " + sentBytes + " / " + totalBytes);
+        }
+
+        @Override
+        public void onTransferComplete() {
+            mLastThroughput = mProtocol.getTransfer().getLastThroughput();
+            mAckRttNanos = mProtocol.getTransfer().getSmoothedAckRttNanos();
+            GattLink link = mLink;
+            Log.d(TAG, "Transfer Complete : " + (int) mLastThroughput + " bytes/sec, MTU " + (link != null ? link.getMtu() : BleProtocol.DEFAULT_MTU)
+                    + ", payload " + mPayloadSize + ", resent " + mProtocol.getTransfer().getRetransmittedChunkCount() + " chunks");
         }
 
-        CharSequence[] dialogItems = deviceNameAddressList.toArray(new CharSequence[0]);
+        @Override
+        public void onTransferFailed() {
+            Log.e(TAG, "Transfer Failed (checksum failures : " + mProtocol.getTransfer().getChecksumFailureCount()
+                    + ", timeouts : " + mProtocol.getTransfer().getTimeoutCount() + ")");
+        }
+    }
+
+    /**
+     * GATT 명령의 재시도 횟수와 실패를 측정값에 더하는 메소드 (연결을 닫으며 취소된 명령은 제외)
+     */
+    private void recordGattCommand(GattCommand command) {
+        if (command.getStatus() != GattCommand.STATUS_CANCELLED) {
+            mProtocol.getMetrics().onGattCommand(command.getAttempts(), command.isSuccess());
+        }
+    }
+
+    /**
+     * 연결 중인 GattLink 로 write 하는 BleTransport 구현 (BLE 스레드에서만 호출됨)
+     * write 는 GattLink 의 GattCommandQueue 를 거쳐 실행되고, 완료되면 LinkListener 에서 mProtocol 로 전달됨.
+     * 기기를 바꿔 다시 연결해도 GuitarProtocol 은 같은 객체를 계속 사용함.
+     */
+    private class GattTransport implements BleTransport {
+        @Override
+        public int getMaxWriteLength(boolean withResponse) {
+            GattLink link = mLink;
+            return link != null ? link.getMaxWriteLength(withResponse) : BleProtocol.DEFAULT_MTU - BleProtocol.ATT_HEADER_LENGTH;
+        }
 
+        @Override
+        public boolean supportsWriteWithoutResponse() {
+            GattLink link = mLink;
+            return link != null && link.supportsWriteWithoutResponse();
+        }
+
+        @Override
+        public boolean write(int writeId, byte[] value, boolean withResponse) {
+            GattLink link = mLink;
+            boolean queued = link != null && link.write(writeId, value, withResponse);
+            if (queued && mRecorder != null) {
+                mRecorder.recordWrite(System.nanoTime(), writeId, value, withResponse);
+            }
+            return queued;
+        }
+    }
+
+    /**
+     * 스캔 결과 BluetoothDevice의 이름과 주소를 AlertDialog로 보여주는 메소드
+     * 스캔 중에 찾은 기기는 updateScanResults() 로 계속 추가됨.
+     */
+    private void showScanResults() {
+        mScanAdapter = new ArrayAdapter<>(mContext, android.R.layout.select_dialog_item, new ArrayList<>());
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
         builder.setTitle("BLE Device Scan Result")
-                .setItems(dialogItems, ((dialogInterface, i) -> {
-                    String selectedItem = dialogItems[i].toString();
-                    String[] nameAddress = selectedItem.split(" / ");
-                    BluetoothDevice selectedDevice = mScanResults.get(nameAddress[1]);
-                    connectDevice(selectedDevice);
-                }));
+                .setAdapter(mScanAdapter, ((dialogInterface, i) -> {
+                    if (i >= mShownDevices.size()) {
+                        return;
+                    }
+                    BluetoothDevice selectedDevice = mScanResults.get(mShownDevices.get(i).getAddress());
+                    stopScan();
+                    if (selectedDevice != null) {
+                        connectDevice(selectedDevice);
+                    }
+                }))
+                .setOnDismissListener(dialogInterface -> {
+                    if (dialogInterface == mScanDialog) {
+                        stopScan(); // 사용자가 닫으면 더 찾지 않음
+                    }
+                });
 
-        AlertDialog dialog = builder.create();
-        dialog.show();
+        mScanDialog = builder.create();
+        mScanDialog.show();
+    }
+
+    /**
+     * Dialog 의 기기 목록을 RSSI 순서로 다시 채우는 메소드
+     */
+    private void updateScanResults() {
+        mShownDevices = mScanList.getRanked();
+        mScanAdapter.setNotifyOnChange(false);
+        mScanAdapter.clear();
+        for (ScanDeviceList.Device device : mShownDevices) {
+            mScanAdapter.add(device.getName() + " / " + device.getAddress() + " (" + device.getRssi() + " dBm)");
+        }
+        mScanAdapter.notifyDataSetChanged();
     }
-}
\ No newline at end of file
+}
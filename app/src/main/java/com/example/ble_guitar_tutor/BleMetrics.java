@@ -0,0 +1,371 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.Locale;
+
+/**
+ * BLE 전송 계층의 측정값을 모으는 객체
+ *
+ * - 조각 write 지연(write -> 완료 콜백)과 ack 왕복 시간 히스토그램
+ * - 보낸 조각/바이트 수, 전송 성공/실패 수, 마지막 처리량
+ * - GATT 명령 재시도/실패 수
+ * - 종류별 Notification 수
+ * - 연결 준비 단계별 시간 (스캔 -> 연결 -> 서비스 탐색 -> Descriptor -> MTU -> 프로토콜 버전)
+ *
+ * 기록은 이벤트마다 카운터와 배열 값만 바꾸고 객체를 만들지 않음.
+ * 한 스레드(BLE 스레드)에서만 기록하고, 다른 스레드에는 snapshot() 으로 만든 복사본을 넘겨야 함.
+ */
+public class BleMetrics {
+
+    /**
+     * 연결 준비 단계 (순서대로 진행됨)
+     */
+    public enum Phase {
+        SCAN,           // 스캔 시작 -> 연결 요청 (스캔 없이 연결하면 0)
+        CONNECT,        // 연결 요청 -> 연결됨
+        DISCOVER,       // 연결됨 -> 서비스 탐색 완료
+        DESCRIPTOR,     // Notification 구독 완료
+        MTU,            // MTU 협상 완료
+        CAPABILITIES    // 프로토콜 버전 확인, 전송 준비 완료
+    }
+
+    /**
+     * 일정한 간격으로 측정값의 복사본을 받는 콜백 인터페이스
+     */
+    public interface Listener {
+        void onMetrics(Snapshot snapshot);
+    }
+
+    /**
+     * 2의 거듭제곱 마이크로초 구간으로 나눈 지연 히스토그램
+     * 구간 i 는 [2^i, 2^(i+1)) us 이고, 마지막 구간은 그 이상을 모두 포함함.
+     */
+    public static final class Histogram {
+        public static final int BUCKET_COUNT = 24; // 마지막 구간은 약 8초 이상
+
+        private final long[] mCounts = new long[BUCKET_COUNT];
+        private long mCount;
+        private long mSumNanos;
+        private long mMaxNanos;
+
+        Histogram() {
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+            mCounts[Math.min(bucket, BUCKET_COUNT - 1)]++;
+            mCount++;
+            mSumNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mCounts[i] = 0;
+            }
+            mCount = 0;
+            mSumNanos = 0;
+            mMaxNanos = 0;
+        }
+
+        private void copyTo(Histogram target) {
+            System.arraycopy(mCounts, 0, target.mCounts, 0, BUCKET_COUNT);
+            target.mCount = mCount;
+            target.mSumNanos = mSumNanos;
+            target.mMaxNanos = mMaxNanos;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getBucketCount(int bucket) {
+            return mCounts[bucket];
+        }
+
+        public long getMeanNanos() {
+            return mCount == 0 ? 0 : mSumNanos / mCount;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        /**
+         * 백분위 값을 반환하는 메소드
+         * 해당 표본이 들어 있는 구간의 상한을 반환하므로 실제 값보다 최대 2배 클 수 있음 (최댓값을 넘지는 않음).
+         *
+         * @param percentile 0 ~ 100
+         * @return nanos, 표본이 없으면 0
+         */
+        public long getPercentileNanos(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(mCount * percentile / 100.0);
+            rank = Math.max(1, Math.min(rank, mCount));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    long upperNanos = i == BUCKET_COUNT - 1 ? mMaxNanos : (2L << i) * 1000;
+                    return Math.min(upperNanos, mMaxNanos);
+                }
+            }
+            return mMaxNanos;
+        }
+    }
+
+    /**
+     * 측정값의 복사본 (다른 스레드에서 읽어도 됨)
+     */
+    public static final class Snapshot {
+        public final long timeNanos;
+        public final Histogram writeLatency = new Histogram();
+        public final Histogram ackRtt = new Histogram();
+        public final long chunksWritten;
+        public final long bytesWritten;
+        public final long chunksRetransmitted;
+        public final long writeFailures;
+        public final long transfersStarted;
+        public final long transfersCompleted;
+        public final long transfersFailed;
+        public final double lastThroughput;
+        public final long gattRetries;
+        public final long gattFailures;
+        private final long[] mNotifications = new long[GuitarProtocol.Notification.values().length];
+        private final long[] mPhaseNanos = new long[Phase.values().length];
+
+        private Snapshot(BleMetrics metrics, long timeNanos) {
+            this.timeNanos = timeNanos;
+            metrics.mWriteLatency.copyTo(writeLatency);
+            metrics.mAckRtt.copyTo(ackRtt);
+            chunksWritten = metrics.mChunksWritten;
+            bytesWritten = metrics.mBytesWritten;
+            chunksRetransmitted = metrics.mChunksRetransmitted;
+            writeFailures = metrics.mWriteFailures;
+            transfersStarted = metrics.mTransfersStarted;
+            transfersCompleted = metrics.mTransfersCompleted;
+            transfersFailed = metrics.mTransfersFailed;
+            lastThroughput = metrics.mLastThroughput;
+            gattRetries = metrics.mGattRetries;
+            gattFailures = metrics.mGattFailures;
+            System.arraycopy(metrics.mNotifications, 0, mNotifications, 0, mNotifications.length);
+            System.arraycopy(metrics.mPhaseNanos, 0, mPhaseNanos, 0, mPhaseNanos.length);
+        }
+
+        public long getNotificationCount(GuitarProtocol.Notification kind) {
+            return mNotifications[kind.ordinal()];
+        }
+
+        public long getNotificationCount() {
+            long total = 0;
+            for (long count : mNotifications) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * 이전 복사본 이후 초당 받은 Notification 수
+         *
+         * @param previous 이전 복사본, null 이면 0 을 반환
+         */
+        public double getNotificationRate(Snapshot previous) {
+            if (previous == null || timeNanos <= previous.timeNanos) {
+                return 0;
+            }
+            return (getNotificationCount() - previous.getNotificationCount()) * 1_000_000_000.0 / (timeNanos - previous.timeNanos);
+        }
+
+        /**
+         * 마지막 연결 준비에서 해당 단계에 걸린 시간
+         *
+         * @return nanos, 거치지 않은 단계이면 0
+         */
+        public long getPhaseNanos(Phase phase) {
+            return mPhaseNanos[phase.ordinal()];
+        }
+
+        public long getSetupNanos() {
+            long total = 0;
+            for (long nanos : mPhaseNanos) {
+                total += nanos;
+            }
+            return total;
+        }
+
+        /**
+         * 디버그 화면과 로그에 보여줄 여러 줄 문자열
+         *
+         * @param previous 알림 빈도를 계산할 이전 복사본 (null 가능)
+         */
+        public String format(Snapshot previous) {
+            StringBuilder builder = new StringBuilder(512);
+            builder.append(String.format(Locale.US, "write  n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f ms%n",
+                    writeLatency.getCount(), millis(writeLatency.getPercentileNanos(50)),
+                    millis(writeLatency.getPercentileNanos(90)), millis(writeLatency.getPercentileNanos(99)),
+                    millis(writeLatency.getMaxNanos())));
+            builder.append(String.format(Locale.US, "ackRtt n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f ms%n",
+                    ackRtt.getCount(), millis(ackRtt.getPercentileNanos(50)),
+                    millis(ackRtt.getPercentileNanos(90)), millis(ackRtt.getPercentileNanos(99)),
+                    millis(ackRtt.getMaxNanos())));
+            builder.append(String.format(Locale.US, "sent %d chunks / %d bytes (resent %d), last %.0f B/s%n",
+                    chunksWritten, bytesWritten, chunksRetransmitted, lastThroughput));
+            builder.append(String.format(Locale.US, "transfers %d ok / %d failed / %d started, write fail %d%n",
+                    transfersCompleted, transfersFailed, transfersStarted, writeFailures));
+            builder.append(String.format(Locale.US, "gatt retry %d, fail %d%n", gattRetries, gattFailures));
+            builder.append(String.format(Locale.US, "notify ack %d cache %d fret %d data %d (%.1f/s)%n",
+                    getNotificationCount(GuitarProtocol.Notification.ACK),
+                    getNotificationCount(GuitarProtocol.Notification.CACHE_STATUS),
+                    getNotificationCount(GuitarProtocol.Notification.FRET_EVENT),
+                    getNotificationCount(GuitarProtocol.Notification.DATA),
+                    getNotificationRate(previous)));
+            builder.append("setup");
+            for (Phase phase : Phase.values()) {
+                builder.append(String.format(Locale.US, " %s=%d", phase.name().toLowerCase(Locale.US),
+                        getPhaseNanos(phase) / 1_000_000));
+            }
+            builder.append(String.format(Locale.US, " total=%d ms", getSetupNanos() / 1_000_000));
+            return builder.toString();
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    /* Transfer */
+    private final Histogram mWriteLatency = new Histogram();
+    private final Histogram mAckRtt = new Histogram();
+    private long mChunksWritten;
+    private long mBytesWritten;
+    private long mChunksRetransmitted;
+    private long mWriteFailures;
+    private long mTransfersStarted;
+    private long mTransfersCompleted;
+    private long mTransfersFailed;
+    private double mLastThroughput;
+
+    /* GATT */
+    private long mGattRetries;
+    private long mGattFailures;
+
+    /* Notification */
+    private final long[] mNotifications = new long[GuitarProtocol.Notification.values().length];
+
+    /* Connection Setup */
+    private final long[] mPhaseNanos = new long[Phase.values().length];
+    private long mPhaseMarkNanos;
+
+    void onTransferStarted() {
+        mTransfersStarted++;
+    }
+
+    void onChunkWritten(int length) {
+        mChunksWritten++;
+        mBytesWritten += length;
+    }
+
+    /**
+     * NACK 또는 재전송 대기 시간 때문에 조각을 다시 보낼 때 호출 (onChunkWritten() 도 함께 호출됨)
+     */
+    void onChunkRetransmitted() {
+        mChunksRetransmitted++;
+    }
+
+    void onWriteComplete(long latencyNanos, boolean success) {
+        mWriteLatency.record(latencyNanos);
+        if (!success) {
+            mWriteFailures++;
+        }
+    }
+
+    void onAck(long rttNanos) {
+        mAckRtt.record(rttNanos);
+    }
+
+    void onTransferComplete(double throughput) {
+        mTransfersCompleted++;
+        mLastThroughput = throughput;
+    }
+
+    void onTransferFailed() {
+        mTransfersFailed++;
+    }
+
+    /**
+     * GATT 명령이 끝났을 때 호출하는 메소드
+     *
+     * @param attempts 시도 횟수 (1 이면 재시도 없음)
+     * @param success  최종 성공 여부
+     */
+    public void onGattCommand(int attempts, boolean success) {
+        if (attempts > 1) {
+            mGattRetries += attempts - 1;
+        }
+        if (!success) {
+            mGattFailures++;
+        }
+    }
+
+    void onNotification(GuitarProtocol.Notification kind) {
+        mNotifications[kind.ordinal()]++;
+    }
+
+    /**
+     * 연결 준비를 시작할 때 호출하는 메소드. 이전 연결의 단계별 시간을 지움.
+     *
+     * @param nanos 시작 시각 (스캔으로 찾은 경우 스캔 시작 시각)
+     */
+    public void beginSetup(long nanos) {
+        for (int i = 0; i < mPhaseNanos.length; i++) {
+            mPhaseNanos[i] = 0;
+        }
+        mPhaseMarkNanos = nanos;
+    }
+
+    /**
+     * 연결 준비 단계 하나가 끝났을 때 호출하는 메소드. 이전 단계가 끝난 뒤로 걸린 시간을 기록함.
+     *
+     * @param phase 끝난 단계
+     * @param nanos 끝난 시각
+     */
+    public void markPhase(Phase phase, long nanos) {
+        mPhaseNanos[phase.ordinal()] = Math.max(0, nanos - mPhaseMarkNanos);
+        mPhaseMarkNanos = nanos;
+    }
+
+    /**
+     * 전송과 알림 측정값을 지우는 메소드 (연결 준비 시간은 유지)
+     */
+    public void reset() {
+        mWriteLatency.reset();
+        mAckRtt.reset();
+        mChunksWritten = 0;
+        mBytesWritten = 0;
+        mChunksRetransmitted = 0;
+        mWriteFailures = 0;
+        mTransfersStarted = 0;
+        mTransfersCompleted = 0;
+        mTransfersFailed = 0;
+        mLastThroughput = 0;
+        mGattRetries = 0;
+        mGattFailures = 0;
+        for (int i = 0; i < mNotifications.length; i++) {
+            mNotifications[i] = 0;
+        }
+    }
+
+    /**
+     * 다른 스레드로 넘길 수 있는 복사본을 만드는 메소드
+     *
+     * @param nanos 현재 시각 (알림 빈도 계산용)
+     */
+    public Snapshot snapshot(long nanos) {
+        return new Snapshot(this, nanos);
+    }
+}
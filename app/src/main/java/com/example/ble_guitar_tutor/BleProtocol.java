@@ -0,0 +1,65 @@
+package com.example.ble_guitar_tutor;
+
+/**
+ * 안드로이드와 기타(Arduino) 사이의 통신 프로토콜 상수 모음
+ *
+ * 1. Legacy 모드 : 문자열을 그대로 나누어 보내고, 기기가 빈 문자열로 응답(ack)하면 다음 조각을 보냄. 마지막은 '$'로 끝남.
+ * 2. Framed 모드 : [FRAME 종류][순번][데이터] 형태의 프레임을 여러 개 연속으로 보내고,
+ *                 기기는 [ACK][마지막으로 받은 순번]으로 누적 응답함. 순번은 메시지마다 0 부터 시작함.
+ *
+ * 연결이 끊기면 기기는 받던 메시지의 앞부분을 해시와 함께 보관하고, 다시 연결한 뒤 같은 해시로 CACHE_QUERY 를 받으면
+ * 보관한 길이를 CACHE_MISS 응답에 붙여 보냄. 안드로이드가 RESUME 프레임을 보내면 다음 메시지를 그 뒤에 이어 붙이고,
+ * RESUME 없이 새 메시지가 시작되면 보관한 앞부분을 버림.
+ *
+ * 무결성 검사 (기능 문자 K, ChunkTransfer 참고)
+ * - 데이터 프레임 끝에 [CRC-16 2 byte] 를 붙임. CRC 가 맞지 않는 프레임은 기기가 버림.
+ * - 메시지(이번 전송으로 보내는 부분) 뒤에 CRC-32 4 byte 를 이어 붙여서 프레임으로 나눔.
+ *   기기는 DATA_END 까지 받은 뒤 이를 확인하고 떼어냄.
+ * - 기기는 순번이 건너뛴 프레임을 받으면 받은 프레임은 보관하고, 빠진 순번을 NACK 으로 알림.
+ *   안드로이드는 그 순번의 프레임만 다시 보내고, ack 는 여전히 앞에서부터 연속으로 받은 순번까지임.
+ */
+final class BleProtocol {
+    /* ATT */
+    static final int DEFAULT_MTU = 23;         // 협상 전 기본 ATT MTU
+    static final int REQUEST_MTU = 517;        // Android 가 요청할 수 있는 최대 ATT MTU
+    static final int ATT_HEADER_LENGTH = 3;    // 한 번의 write 에서 MTU 중 ATT 헤더가 차지하는 길이
+
+    /* Message */
+    static final char MESSAGE_TERMINATOR = '$'; // 노래 문자열의 끝을 나타내는 문자
+
+    /* Phone -> Device Frame */
+    static final byte FRAME_DATA = 0x01;       // 중간 데이터 프레임
+    static final byte FRAME_DATA_END = 0x02;   // 메시지의 마지막 데이터 프레임
+    static final int FRAME_HEADER_LENGTH = 2;  // [종류][순번]
+    static final byte FRAME_CACHE_QUERY = 0x03; // [CACHE_QUERY][해시 8 byte] : 이 해시의 악보가 있으면 현재 곡으로 선택 (ScoreUploader 참고)
+    static final byte FRAME_RESUME = 0x04;     // [RESUME][offset 4 byte] : 다음 메시지는 기기가 가진 앞부분(offset byte) 뒤에 이어짐
+    static final byte FRAME_TIME_SYNC = 0x05;  // [TIME_SYNC][곡 위치 ms 4 byte] : 폰에서 재생 중인 곡 위치 (PlaybackScheduler 참고)
+    static final int FRAME_CRC_LENGTH = 2;     // 무결성 검사 : 데이터 프레임 끝의 [종류][순번][데이터] CRC-16 (Crc16), big endian
+
+    /* Device -> Phone Notification */
+    static final byte NOTIFY_ACK = 0x06;       // [ACK][순번] : 해당 순번까지 모두 받았음
+    static final byte NOTIFY_CACHE_STATUS = 0x07; // [CACHE_STATUS][CACHE_HIT 또는 CACHE_MISS] : CACHE_QUERY 응답
+                                               // [CACHE_STATUS][CACHE_MISS][offset 4 byte] : 이 해시의 악보를 offset byte 까지 받아 둠
+    static final byte NOTIFY_NACK = 0x08;      // [NACK][순번]... : 이 순번의 프레임을 받지 못했거나 CRC 가 틀림 (다시 보내야 함)
+                                               // [NACK] : 메시지 CRC-32 가 틀려 메시지 전체를 버렸음
+    static final byte NOTIFY_FRET_EVENT = 0x10; // [FRET_EVENT][줄|프렛][경과 ms]... : 실시간 운지 이벤트 (FretEventBuffer 참고)
+
+    /* Song Cache */
+    static final int CACHE_HASH_LENGTH = 8;    // ScoreCache.contentHash() 64bit, big endian
+    static final byte CACHE_MISS = 0;
+    static final byte CACHE_HIT = 1;
+    static final int RESUME_OFFSET_LENGTH = 4; // big endian
+
+    /* Integrity Check */
+    static final int MESSAGE_CRC_LENGTH = 4;   // 메시지 뒤에 붙이는 CRC-32 (java.util.zip.CRC32), big endian
+
+    /* Time Sync */
+    static final int TIME_SYNC_POSITION_LENGTH = 4; // big endian
+
+    /* Sequence */
+    static final int SEQUENCE_MODULO = 256;    // 순번은 1 byte
+    static final int MAX_WINDOW_SIZE = SEQUENCE_MODULO / 2;
+
+    private BleProtocol() {
+    }
+}
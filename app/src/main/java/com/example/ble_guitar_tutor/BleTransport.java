@@ -0,0 +1,39 @@
+package com.example.ble_guitar_tutor;
+
+/**
+ * 청크 전송 엔진이 사용하는 BLE 전송 계층 인터페이스
+ * 실제 기기에서는 BluetoothGatt 를 감싸고, 테스트에서는 시뮬레이션된 GATT 기기로 대체할 수 있음.
+ *
+ * write() 의 결과는 비동기로 전달되므로 구현체는 완료 시점에 같은 writeId 로 ChunkTransfer.onWriteComplete() 를,
+ * 기기로부터 Notification 을 받으면 ChunkTransfer.onNotification() 을 호출해야 함.
+ * 두 콜백은 어느 쪽이 먼저 호출되어도 됨.
+ */
+public interface BleTransport {
+    /* 전송 엔진과 관계없는 제어용 write 의 번호. 완료 콜백은 ChunkTransfer 에서 무시됨. */
+    int CONTROL_WRITE_ID = -1;
+
+    /**
+     * 한 번의 write 로 보낼 수 있는 최대 바이트 수를 반환하는 메소드
+     *
+     * @param withResponse 응답이 있는 write 인지 여부
+     * @return 최대 바이트 수
+     */
+    int getMaxWriteLength(boolean withResponse);
+
+    /**
+     * 연결된 기기가 응답 없는 write(Write Without Response)를 지원하는지 반환하는 메소드
+     *
+     * @return 지원 여부
+     */
+    boolean supportsWriteWithoutResponse();
+
+    /**
+     * 기기로 데이터를 보내는 메소드
+     *
+     * @param writeId      완료 콜백에서 돌려줘야 하는 write 번호 (0 이상, 제어용이면 CONTROL_WRITE_ID)
+     * @param value        보낼 데이터 (ChunkTransfer 가 다시 사용하므로 write 완료 뒤에는 참조하면 안 됨)
+     * @param withResponse 응답이 있는 write 를 사용할지 여부
+     * @return write 요청이 정상적으로 시작되었는지 여부
+     */
+    boolean write(int writeId, byte[] value, boolean withResponse);
+}
@@ -0,0 +1,441 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.Arrays;
+
+/**
+ * 악보의 이벤트('@')마다의 운지 모양(줄,프렛 쌍의 집합)을 중복 없이 모아 둔 색인
+ * 레슨 화면과 실시간 채점이 악보 문자열을 다시 훑지 않고 "지금/다음에 잡아야 할 모양"을 바로 찾기 위해 사용함.
+ *
+ * 운지 모양
+ * - 한 곡 안에서 같은 모양이 계속 반복되므로, 같은 모양은 같은 번호(shape id)를 한 번만 저장함 (interning).
+ *   줄,프렛 순서가 달라도 같은 모양으로 봄. 쉼표(줄 0)만 있는 이벤트는 REST_SHAPE.
+ * - 모양의 음은 [줄 << 16 | 프렛] int 로 모든 모양을 이어 붙인 배열 하나에 저장하고, 모양마다 시작 위치만 가짐.
+ * - 줄 1 ~ 31 은 누르는 줄의 bitmask 도 미리 계산해 둠 (채점에서 줄 단위 비교용).
+ *
+ * 위치
+ * - 이벤트마다 [모양 번호, 시작 tick, 길이] 를 primitive 배열로 가짐. 템포 변경은 이벤트로 세지 않음 (StreamingScoreParser 와 같음).
+ * - 마디(beatsPerMeasure 박자)마다 그 마디 시작에 울리고 있는 이벤트를 저장해 두므로,
+ *   tick 으로 이벤트를 찾을 때 그 마디 안의 이벤트만 확인함 (마디당 이벤트 수는 마디의 tick 수 이하).
+ *
+ * 만든 뒤에는 바뀌지 않으므로 여러 스레드에서 읽어도 됨.
+ */
+public class ChordIndex {
+    /* Constant */
+    public static final int REST_SHAPE = 0;
+    public static final int DEFAULT_BEATS_PER_MEASURE = 4;
+    private static final int STRING_SHIFT = 16;
+    private static final int FRET_MASK = 0xFFFF;
+    private static final int MASK_STRINGS = 31; // bitmask 로 나타내는 최대 줄 번호
+
+    /* Shapes */
+    private final int[] mShapeStarts;       // [shape] 부터 [shape + 1] 전까지가 그 모양의 음, 길이 = 모양 수 + 1
+    private final int[] mShapeNotes;        // [줄 << 16 | 프렛], 모양 안에서는 정렬되어 있음
+    private final int[] mStringMasks;       // 누르는 줄의 bitmask (bit i = 줄 i)
+
+    /* Events */
+    private final int mEventCount;
+    private final int[] mEventShapes;
+    private final int[] mEventTicks;        // 악보 시작부터 이벤트까지의 tick
+    private final byte[] mEventDurations;   // Score.Duration ordinal
+    private final long mTotalTicks;
+
+    /* Measures */
+    private final int mTicksPerMeasure;
+    private final int[] mMeasureEvents;     // 마디 시작에 울리고 있는 이벤트
+
+    private ChordIndex(Builder builder, int beatsPerMeasure) {
+        int shapeCount = builder.mShapeCount;
+        mShapeStarts = Arrays.copyOf(builder.mShapeStarts, shapeCount + 1);
+        mShapeNotes = Arrays.copyOf(builder.mShapeNotes, mShapeStarts[shapeCount]);
+        mStringMasks = new int[shapeCount];
+        for (int shape = 0; shape < shapeCount; shape++) {
+            int mask = 0;
+            for (int i = mShapeStarts[shape]; i < mShapeStarts[shape + 1]; i++) {
+                int string = mShapeNotes[i] >>> STRING_SHIFT;
+                if (string <= MASK_STRINGS) {
+                    mask |= 1 << string;
+                }
+            }
+            mStringMasks[shape] = mask;
+        }
+
+        mEventCount = builder.mEventCount;
+        mEventShapes = Arrays.copyOf(builder.mEventShapes, mEventCount);
+        mEventTicks = Arrays.copyOf(builder.mEventTicks, mEventCount);
+        mEventDurations = Arrays.copyOf(builder.mEventDurations, mEventCount);
+        mTotalTicks = builder.mTick;
+
+        mTicksPerMeasure = beatsPerMeasure * Score.Duration.TICKS_PER_BEAT;
+        int measureCount = (int) ((mTotalTicks + mTicksPerMeasure - 1) / mTicksPerMeasure);
+        mMeasureEvents = new int[measureCount];
+        int event = 0;
+        for (int measure = 0; measure < measureCount; measure++) {
+            long start = (long) measure * mTicksPerMeasure;
+            while (event + 1 < mEventCount && mEventTicks[event + 1] <= start) {
+                event++;
+            }
+            mMeasureEvents[measure] = event;
+        }
+    }
+
+    /**
+     * 악보 문자열을 읽으면서 바로 색인을 만드는 메소드 (Score 를 만들지 않음)
+     *
+     * @throws IllegalArgumentException 형식이 잘못된 경우
+     */
+    public static ChordIndex parse(CharSequence text) {
+        return parse(text, DEFAULT_BEATS_PER_MEASURE);
+    }
+
+    public static ChordIndex parse(CharSequence text, int beatsPerMeasure) {
+        checkBeatsPerMeasure(beatsPerMeasure);
+        Builder builder = new Builder();
+        StreamingScoreParser parser = new StreamingScoreParser(builder);
+        if (!parser.feed(text) || !parser.finish()) {
+            throw new IllegalArgumentException(parser.getError() + " at " + parser.getErrorOffset());
+        }
+        return new ChordIndex(builder, beatsPerMeasure);
+    }
+
+    public static ChordIndex of(Score score) {
+        return of(score, DEFAULT_BEATS_PER_MEASURE);
+    }
+
+    public static ChordIndex of(Score score, int beatsPerMeasure) {
+        checkBeatsPerMeasure(beatsPerMeasure);
+        Builder builder = new Builder();
+        for (Score.Event event : score.getEvents()) {
+            if (event.isTempoChange()) {
+                continue;
+            }
+            for (int i = 0; i < event.strings.length; i++) {
+                builder.addNote(event.strings[i], event.frets[i]);
+            }
+            builder.endEvent(event.duration);
+        }
+        return new ChordIndex(builder, beatsPerMeasure);
+    }
+
+    private static void checkBeatsPerMeasure(int beatsPerMeasure) {
+        if (beatsPerMeasure <= 0) {
+            throw new IllegalArgumentException("beatsPerMeasure : " + beatsPerMeasure);
+        }
+    }
+
+    /* Events */
+
+    /**
+     * 템포 변경을 제외한 이벤트 수
+     */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    public int getShape(int event) {
+        return mEventShapes[event];
+    }
+
+    public long getTick(int event) {
+        return mEventTicks[event];
+    }
+
+    public Score.Duration getDuration(int event) {
+        return Score.Duration.fromOrdinal(mEventDurations[event]);
+    }
+
+    public long getTotalTicks() {
+        return mTotalTicks;
+    }
+
+    /**
+     * tick 위치에 울리고 있는 이벤트를 찾는 메소드 (그 마디 안의 이벤트만 확인함)
+     *
+     * @return 이벤트 순서, 악보 밖이면 -1
+     */
+    public int getEventAt(long tick) {
+        if (tick < 0 || tick >= mTotalTicks) {
+            return -1;
+        }
+        int event = mMeasureEvents[(int) (tick / mTicksPerMeasure)];
+        while (event + 1 < mEventCount && mEventTicks[event + 1] <= tick) {
+            event++;
+        }
+        return event;
+    }
+
+    /**
+     * 마디와 마디 안의 위치로 이벤트를 찾는 메소드
+     *
+     * @param measure      0 부터 시작하는 마디 번호
+     * @param tickInMeasure 마디 시작부터의 tick
+     * @return 이벤트 순서, 악보 밖이면 -1
+     */
+    public int getEventAt(int measure, int tickInMeasure) {
+        return getEventAt((long) measure * mTicksPerMeasure + tickInMeasure);
+    }
+
+    /**
+     * tick 위치 다음에 잡아야 할 모양을 찾는 메소드 (지금 울리는 이벤트의 다음 이벤트)
+     *
+     * @return 모양 번호, 다음 이벤트가 없으면 -1
+     */
+    public int getNextShapeAt(long tick) {
+        if (tick < 0) {
+            return mEventCount > 0 ? mEventShapes[0] : -1;
+        }
+        int event = getEventAt(tick);
+        if (event < 0 || event + 1 >= mEventCount) {
+            return -1;
+        }
+        return mEventShapes[event + 1];
+    }
+
+    /* Measures */
+
+    public int getMeasureCount() {
+        return mMeasureEvents.length;
+    }
+
+    public int getTicksPerMeasure() {
+        return mTicksPerMeasure;
+    }
+
+    /**
+     * 마디 시작에 울리고 있는 이벤트 (앞 마디에서 이어지는 음일 수 있음)
+     */
+    public int getMeasureEvent(int measure) {
+        return mMeasureEvents[measure];
+    }
+
+    /* Shapes */
+
+    /**
+     * 서로 다른 모양 수 (REST_SHAPE 포함)
+     */
+    public int getShapeCount() {
+        return mShapeStarts.length - 1;
+    }
+
+    public int getNoteCount(int shape) {
+        return mShapeStarts[shape + 1] - mShapeStarts[shape];
+    }
+
+    /**
+     * 모양의 i 번째 음의 줄 (음은 줄, 프렛 순으로 정렬되어 있음)
+     */
+    public int getString(int shape, int i) {
+        return mShapeNotes[mShapeStarts[shape] + i] >>> STRING_SHIFT;
+    }
+
+    public int getFret(int shape, int i) {
+        return mShapeNotes[mShapeStarts[shape] + i] & FRET_MASK;
+    }
+
+    /**
+     * 누르는 줄의 bitmask (bit i = 줄 i, 31 번 줄까지)
+     */
+    public int getStringMask(int shape) {
+        return mStringMasks[shape];
+    }
+
+    /**
+     * 모양에 (줄, 프렛) 음이 있는지 확인하는 메소드 (채점용)
+     */
+    public boolean contains(int shape, int string, int fret) {
+        if (string <= MASK_STRINGS && (mStringMasks[shape] & (1 << string)) == 0) {
+            return false;
+        }
+        return Arrays.binarySearch(mShapeNotes, mShapeStarts[shape], mShapeStarts[shape + 1], pack(string, fret)) >= 0;
+    }
+
+    /**
+     * 모양을 악보 문자열의 음 부분 형식("1,3-2,5-")으로 만드는 메소드 (화면 표시용)
+     */
+    public String formatShape(int shape) {
+        if (getNoteCount(shape) == 0) {
+            return "0,0-";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < getNoteCount(shape); i++) {
+            builder.append(getString(shape, i)).append(',').append(getFret(shape, i)).append('-');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 색인이 차지하는 배열의 크기 (bytes, 배열 헤더 16 byte 포함 추정치)
+     */
+    public long getMemoryBytes() {
+        return arrayBytes(mShapeStarts.length, 4) + arrayBytes(mShapeNotes.length, 4) + arrayBytes(mStringMasks.length, 4)
+                + arrayBytes(mEventShapes.length, 4) + arrayBytes(mEventTicks.length, 4) + arrayBytes(mEventDurations.length, 1)
+                + arrayBytes(mMeasureEvents.length, 4);
+    }
+
+    private static long arrayBytes(int length, int elementBytes) {
+        return 16 + (((long) length * elementBytes + 7) & ~7L);
+    }
+
+    private static int pack(int string, int fret) {
+        return string << STRING_SHIFT | fret;
+    }
+
+    /**
+     * 파서 콜백 또는 Score 에서 이벤트를 받아 모양을 interning 하며 배열을 채우는 객체
+     * 이벤트 하나의 음은 mCurrent 에 모아 정렬한 뒤, 해시 테이블(open addressing)에서 같은 모양을 찾음.
+     */
+    private static class Builder implements StreamingScoreParser.Listener {
+        /* Shapes */
+        private int[] mShapeStarts = new int[64];
+        private int[] mShapeNotes = new int[256];
+        private int mShapeCount = 0;
+        private int[] mTable = new int[128];    // shape + 1, 0 이면 빈 칸
+        private int[] mTableHashes = new int[128];
+
+        /* Events */
+        private int[] mEventShapes = new int[256];
+        private int[] mEventTicks = new int[256];
+        private byte[] mEventDurations = new byte[256];
+        private int mEventCount = 0;
+        private long mTick = 0;
+
+        /* Current Event */
+        private int[] mCurrent = new int[8];
+        private int mCurrentCount = 0;
+
+        Builder() {
+            intern(); // REST_SHAPE = 0 (음이 없는 모양)
+        }
+
+        @Override
+        public void onTempo(int tempo) {
+            mCurrentCount = 0; // 템포 앞에서 끝이 잘린 이벤트는 버림 (ScoreCodec.parse() 와 같음)
+        }
+
+        @Override
+        public void onNote(StreamingScoreParser.Note note) {
+            addNote(note.string, note.fret);
+        }
+
+        @Override
+        public void onEventEnd(StreamingScoreParser.Note lastNote, int noteCount) {
+            endEvent(lastNote.duration);
+        }
+
+        void addNote(int string, int fret) {
+            if (string == 0) {
+                return; // 쉼표
+            }
+            int note = pack(string, fret);
+            // 이벤트 안의 음은 몇 개뿐이므로 삽입 정렬, 같은 음은 한 번만
+            int i = mCurrentCount;
+            while (i > 0 && mCurrent[i - 1] > note) {
+                i--;
+            }
+            if (i > 0 && mCurrent[i - 1] == note) {
+                return;
+            }
+            if (mCurrentCount == mCurrent.length) {
+                mCurrent = Arrays.copyOf(mCurrent, mCurrentCount * 2);
+            }
+            System.arraycopy(mCurrent, i, mCurrent, i + 1, mCurrentCount - i);
+            mCurrent[i] = note;
+            mCurrentCount++;
+        }
+
+        void endEvent(Score.Duration duration) {
+            if (mTick > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("score too long : " + mTick + " ticks");
+            }
+            if (mEventCount == mEventShapes.length) {
+                int capacity = mEventCount * 2;
+                mEventShapes = Arrays.copyOf(mEventShapes, capacity);
+                mEventTicks = Arrays.copyOf(mEventTicks, capacity);
+                mEventDurations = Arrays.copyOf(mEventDurations, capacity);
+            }
+            mEventShapes[mEventCount] = intern();
+            mEventTicks[mEventCount] = (int) mTick;
+            mEventDurations[mEventCount] = (byte) duration.ordinal();
+            mEventCount++;
+            mTick += duration.ticks;
+            mCurrentCount = 0;
+        }
+
+        /**
+         * mCurrent 와 같은 모양의 번호를 찾고, 없으면 새로 추가하는 메소드
+         */
+        private int intern() {
+            int hash = hash(mCurrent, 0, mCurrentCount);
+            int mask = mTable.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int entry = mTable[slot];
+                if (entry == 0) {
+                    int shape = addShape();
+                    mTable[slot] = shape + 1;
+                    mTableHashes[slot] = hash;
+                    if (mShapeCount * 2 > mTable.length) {
+                        rehash();
+                    }
+                    return shape;
+                }
+                if (mTableHashes[slot] == hash && sameAsCurrent(entry - 1)) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        private boolean sameAsCurrent(int shape) {
+            int start = mShapeStarts[shape];
+            int length = mShapeStarts[shape + 1] - start;
+            if (length != mCurrentCount) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (mShapeNotes[start + i] != mCurrent[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int addShape() {
+            int shape = mShapeCount++;
+            if (mShapeCount + 1 > mShapeStarts.length) {
+                mShapeStarts = Arrays.copyOf(mShapeStarts, mShapeStarts.length * 2);
+            }
+            int start = mShapeStarts[shape];
+            if (start + mCurrentCount > mShapeNotes.length) {
+                mShapeNotes = Arrays.copyOf(mShapeNotes, Math.max(mShapeNotes.length * 2, start + mCurrentCount));
+            }
+            System.arraycopy(mCurrent, 0, mShapeNotes, start, mCurrentCount);
+            mShapeStarts[shape + 1] = start + mCurrentCount;
+            return shape;
+        }
+
+        private void rehash() {
+            int[] table = new int[mTable.length * 2];
+            int[] hashes = new int[table.length];
+            int mask = table.length - 1;
+            for (int i = 0; i < mTable.length; i++) {
+                if (mTable[i] == 0) {
+                    continue;
+                }
+                int slot = mTableHashes[i] & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = mTable[i];
+                hashes[slot] = mTableHashes[i];
+            }
+            mTable = table;
+            mTableHashes = hashes;
+        }
+
+        private static int hash(int[] notes, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + notes[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * ChunkTransfer 가 조각 단위로 읽어 가는 메시지
+ *
+ * 전체 메시지를 한 번에 byte[] 로 만들지 않고, 보낼 때 필요한 만큼만 조각 버퍼에 채움.
+ * - of(byte[]) : 이미 만들어진 데이터 (복사 없이 offset 으로 읽음)
+ * - of(ByteBuffer) : 곡 보관함의 매핑된 본문 등
+ * - of(CharSequence, boolean) : 악보 문자열을 조각마다 UTF-8 로 변환 (문자열 전체를 byte[] 로 바꾸지 않음)
+ * - of(InputStream, int) : 파일 등에서 길이를 알고 있는 스트림
+ *
+ * read() 는 앞에서부터 순서대로 한 번씩만 호출됨. 이어 보내기는 skip() 으로 앞부분을 건너뜀.
+ * 한 전송에서만 사용하고 다시 보내려면 새로 만들어야 함.
+ */
+public abstract class ChunkSource {
+
+    /**
+     * 전체 바이트 수
+     */
+    public abstract int length();
+
+    /**
+     * 다음 length 바이트를 buffer 의 offset 위치에 채우는 메소드
+     *
+     * @throws IOException 원본을 읽을 수 없거나 length() 보다 일찍 끝난 경우
+     */
+    public abstract void read(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * 앞의 bytes 바이트를 읽지 않고 건너뛰는 메소드 (이어 보내기)
+     * 기본 구현은 작은 버퍼로 읽고 버림.
+     */
+    public void skip(int bytes) throws IOException {
+        byte[] scratch = new byte[Math.min(bytes, 256)];
+        while (bytes > 0) {
+            int length = Math.min(bytes, scratch.length);
+            read(scratch, 0, length);
+            bytes -= length;
+        }
+    }
+
+    public static ChunkSource of(byte[] data) {
+        return new ArraySource(data);
+    }
+
+    /**
+     * ByteBuffer 의 position ~ limit 을 보내는 ChunkSource (원본 버퍼의 position 은 바꾸지 않음)
+     */
+    public static ChunkSource of(ByteBuffer buffer) {
+        return new BufferSource(buffer.duplicate());
+    }
+
+    /**
+     * 문자열을 UTF-8 로 보내는 ChunkSource
+     * String.getBytes(UTF_8) 와 같은 결과를 만들고, 짝이 맞지 않는 surrogate 는 '?' 로 바꿈.
+     *
+     * @param text       보낼 문자열
+     * @param terminated 끝에 '$'(BleProtocol.MESSAGE_TERMINATOR)를 붙일지 여부
+     */
+    public static ChunkSource of(CharSequence text, boolean terminated) {
+        return new TextSource(text, terminated);
+    }
+
+    /**
+     * 스트림에서 length 바이트를 보내는 ChunkSource (스트림은 호출한 쪽에서 닫아야 함)
+     */
+    public static ChunkSource of(InputStream in, int length) {
+        return new StreamSource(in, length);
+    }
+
+    private static final class ArraySource extends ChunkSource {
+        private final byte[] mData;
+        private int mPosition = 0;
+
+        ArraySource(byte[] data) {
+            mData = data;
+        }
+
+        @Override
+        public int length() {
+            return mData.length;
+        }
+
+        @Override
+        public void read(byte[] buffer, int offset, int length) {
+            System.arraycopy(mData, mPosition, buffer, offset, length);
+            mPosition += length;
+        }
+
+        @Override
+        public void skip(int bytes) {
+            mPosition += bytes;
+        }
+    }
+
+    private static final class BufferSource extends ChunkSource {
+        private final ByteBuffer mBuffer;
+        private final int mLength;
+
+        BufferSource(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mLength = buffer.remaining();
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public void read(byte[] buffer, int offset, int length) {
+            mBuffer.get(buffer, offset, length);
+        }
+
+        @Override
+        public void skip(int bytes) {
+            mBuffer.position(mBuffer.position() + bytes);
+        }
+    }
+
+    private static final class StreamSource extends ChunkSource {
+        private final InputStream mIn;
+        private final int mLength;
+
+        StreamSource(InputStream in, int length) {
+            mIn = in;
+            mLength = length;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public void read(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int read = mIn.read(buffer, offset, length);
+                if (read < 0) {
+                    throw new IOException("unexpected end of stream");
+                }
+                offset += read;
+                length -= read;
+            }
+        }
+    }
+
+    /**
+     * 문자열을 조각마다 UTF-8 로 변환하는 ChunkSource
+     * 조각 경계에 걸친 글자는 남은 바이트를 mPending 에 보관했다가 다음 조각 앞에 채움.
+     */
+    private static final class TextSource extends ChunkSource {
+        private static final byte REPLACEMENT = '?';
+
+        private final CharSequence mText;
+        private final boolean mTerminated;
+        private final int mLength;
+        private final byte[] mPending = new byte[4];
+        private int mPendingLength = 0;
+        private int mPendingPosition = 0;
+        private int mIndex = 0;
+
+        TextSource(CharSequence text, boolean terminated) {
+            mText = text;
+            mTerminated = terminated;
+            mLength = utf8Length(text) + (terminated ? 1 : 0);
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public void read(byte[] buffer, int offset, int length) throws IOException {
+            int end = offset + length;
+            int textLength = mText.length();
+            while (offset < end) {
+                if (mPendingPosition < mPendingLength) {
+                    buffer[offset++] = mPending[mPendingPosition++];
+                    continue;
+                }
+                if (mIndex >= textLength) {
+                    if (!mTerminated || mIndex > textLength) {
+                        throw new IOException("unexpected end of text");
+                    }
+                    mIndex++;
+                    buffer[offset++] = BleProtocol.MESSAGE_TERMINATOR;
+                    continue;
+                }
+
+                char c = mText.charAt(mIndex++);
+                if (c < 0x80) {
+                    buffer[offset++] = (byte) c;
+                } else {
+                    mPendingLength = encode(c);
+                    mPendingPosition = 0;
+                }
+            }
+        }
+
+        /**
+         * ASCII 가 아닌 글자 하나를 mPending 에 UTF-8 로 변환하는 메소드
+         *
+         * @return 변환된 바이트 수
+         */
+        private int encode(char c) {
+            if (c < 0x800) {
+                mPending[0] = (byte) (0xC0 | c >> 6);
+                mPending[1] = (byte) (0x80 | c & 0x3F);
+                return 2;
+            }
+            if (!Character.isSurrogate(c)) {
+                mPending[0] = (byte) (0xE0 | c >> 12);
+                mPending[1] = (byte) (0x80 | c >> 6 & 0x3F);
+                mPending[2] = (byte) (0x80 | c & 0x3F);
+                return 3;
+            }
+            if (Character.isHighSurrogate(c) && mIndex < mText.length() && Character.isLowSurrogate(mText.charAt(mIndex))) {
+                int codePoint = Character.toCodePoint(c, mText.charAt(mIndex++));
+                mPending[0] = (byte) (0xF0 | codePoint >> 18);
+                mPending[1] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                mPending[2] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                mPending[3] = (byte) (0x80 | codePoint & 0x3F);
+                return 4;
+            }
+            mPending[0] = REPLACEMENT;
+            return 1;
+        }
+
+        static int utf8Length(CharSequence text) {
+            int length = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (!Character.isSurrogate(c)) {
+                    length += 3;
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length++;
+                }
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,656 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 긴 메시지를 여러 조각(chunk)으로 나누어 BleTransport 로 보내는 전송 엔진
+ *
+ * LEGACY : 한 조각을 보내고 기기의 빈 문자열 응답(ack)을 받은 뒤에 다음 조각을 보냄 (stop-and-wait)
+ * FRAMED : 각 조각에 순번을 붙이고, 응답을 기다리지 않고 window 크기만큼 조각을 연속으로 보냄.
+ *          기기는 받은 조각의 순번을 그대로 돌려보내(ack) 응답함.
+ *          기기가 Write Without Response 를 지원하면 응답 없는 write 를 사용함.
+ *
+ * Android 는 한 번에 하나의 GATT write 만 허용하므로, 다음 조각은 항상 이전 write 가 완료된 뒤에 보냄.
+ *
+ * 상태 전이
+ *   IDLE --start()--> SENDING --모든 조각 write--> DRAINING --모든 조각 ack--> IDLE
+ *   SENDING/DRAINING --write 실패/cancel()--> IDLE
+ *
+ * 메시지는 ChunkSource 에서 조각마다 읽어 window 슬롯별 버퍼에 채우므로, 메시지 길이와 상관없이 사용하는 메모리가 일정함.
+ * 슬롯의 버퍼는 그 조각이 ack 된 뒤에 다시 사용하므로, BleTransport 는 write 완료 전까지만 value 를 참조해야 함.
+ *
+ * write 완료 콜백과 ack Notification 은 어느 쪽이 먼저 와도 됨.
+ * - write 는 writeId 로 구분하므로, 이전 전송에서 늦게 도착한 write 완료는 무시됨.
+ * - ack 는 순번으로 조각을 찾으므로, write 완료보다 먼저 도착해도 해당 조각을 받은 것으로 처리함.
+ * - ack 가 아닌 Notification 은 onNotification() 이 false 를 반환하므로 호출한 쪽에서 그대로 전달하면 됨.
+ *
+ * 무결성 검사 (FRAMED 모드에서 setIntegrityCheck(true), BleProtocol 참고)
+ * - 프레임마다 CRC-16 을, 메시지 뒤에 CRC-32 를 붙여 보내므로 기기가 깨지거나 빠진 조각을 알아챌 수 있음.
+ * - 기기가 NACK 으로 알린 순번의 조각만 슬롯에 보관한 프레임 그대로 다시 보냄 (새 조각보다 먼저).
+ * - 마지막 조각이 빠지면 기기가 알 수 없으므로, ack 가 재전송 대기 시간 동안 진행되지 않으면 가장 앞의 조각을 다시 보냄.
+ *   MAX_TIMEOUT_RETRIES 번 연속으로 진행되지 않거나 기기가 메시지 CRC-32 오류를 알리면 전송 실패로 처리함.
+ */
+public class ChunkTransfer {
+    /* Constant */
+    public static final int DEFAULT_WINDOW_SIZE = 8;
+    private static final int NO_WRITE = -1;
+    private static final int RTT_SMOOTHING_SHIFT = 3; // 새 측정값의 가중치 1/8
+    public static final long MIN_RETRANSMIT_TIMEOUT_MILLIS = 250;
+    private static final int RETRANSMIT_TIMEOUT_RTTS = 4; // 재전송 대기 시간 = ack 왕복 시간 평균의 4 배 (최소 MIN_RETRANSMIT_TIMEOUT_MILLIS)
+    public static final int MAX_TIMEOUT_RETRIES = 5;
+
+    public enum Mode {
+        LEGACY, FRAMED
+    }
+
+    public enum State {
+        IDLE,       // 전송 중이 아님
+        SENDING,    // 보낼 조각이 남아 있음
+        DRAINING    // 모든 조각을 보냈고 ack 를 기다리는 중
+    }
+
+    /**
+     * 전송 진행 상황을 외부 클래스에 전달하는 콜백 인터페이스
+     */
+    public interface Listener {
+        void onTransferProgress(int sentBytes, int totalBytes);
+
+        void onTransferComplete();
+
+        void onTransferFailed();
+    }
+
+    private final BleTransport mTransport;
+    private final NanoClock mClock;
+    private Listener mListener;
+    private BleMetrics mMetrics; // null 이면 측정하지 않음
+    private Mode mMode = Mode.LEGACY;
+    private int mWindowSize = DEFAULT_WINDOW_SIZE;
+    private int mLegacyChunkLength = 0; // 0 이면 transport 의 최대 길이 사용
+    private boolean mIntegrityCheck = false;
+    private ScoreUploader.Timer mTimer; // null 이면 재전송 대기 시간을 쓰지 않음
+
+    /* Transfer State */
+    private State mState = State.IDLE;
+    private ChunkSource mSource;
+    private int mLength;            // 메시지 전체 길이
+    private int mOffset;            // 이어서 보내는 경우 이미 기기에 있는 앞부분의 길이
+    private int mStreamLength;      // 이번 전송으로 조각에 나누어 담는 길이 (무결성 검사이면 CRC-32 포함)
+    private int mChunkLength;
+    private int mChunkCount;
+    private int mNextChunk;         // 다음에 보낼 조각 번호
+    private int mAckedChunks;       // 기기가 받았다고 응답한 조각 수 (앞에서부터 연속)
+    private int mNextWriteId = 0;   // 전송이 바뀌어도 계속 증가하는 write 번호
+    private int mPendingWriteId = NO_WRITE; // 완료 콜백을 기다리는 write 번호
+    private boolean mWithResponse;
+    private final byte[][] mChunkBuffers = new byte[BleProtocol.MAX_WINDOW_SIZE][]; // 조각 버퍼, 전송이 바뀌어도 길이가 같으면 다시 사용
+
+    /* Selective Retransmission */
+    private final CRC32 mMessageCrc = new CRC32();
+    private final byte[][] mSentChunks = new byte[BleProtocol.MAX_WINDOW_SIZE][]; // window 안의 조각별로 보낸 프레임
+    private final boolean[] mResend = new boolean[BleProtocol.MAX_WINDOW_SIZE];   // 다시 보내야 하는 조각
+    private final boolean[] mRetransmitted = new boolean[BleProtocol.MAX_WINDOW_SIZE]; // 다시 보낸 조각 (왕복 시간 측정 제외)
+    private int mResendCount = 0;
+    private int mTimeoutId = 0;     // reset() 이전에 예약된 대기 시간 확인을 버리기 위한 번호
+    private int mTimeoutAcked;      // 대기 시간을 예약할 때의 mAckedChunks
+    private int mTimeoutRetries;    // ack 가 진행되지 않은 채 연속으로 지난 대기 시간 수
+
+    /* Throughput */
+    private long mStartNanos;
+    private long mLastTransferNanos;
+    private int mLastTransferBytes;
+
+    /* Ack Round Trip */
+    private final long[] mSendNanos = new long[BleProtocol.MAX_WINDOW_SIZE]; // window 안의 조각별 write 시각
+    private long mSmoothedRttNanos = 0;
+    private long mWriteStartNanos;  // 완료 콜백을 기다리는 write 의 시작 시각
+
+    /* Statistics (전송이 바뀌어도 누적) */
+    private long mRetransmittedChunks = 0;
+    private long mNackCount = 0;
+    private long mTimeoutCount = 0;
+    private long mChecksumFailures = 0;
+
+    public ChunkTransfer(BleTransport transport) {
+        this(transport, NanoClock.SYSTEM);
+    }
+
+    public ChunkTransfer(BleTransport transport, NanoClock clock) {
+        mTransport = transport;
+        mClock = clock;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 조각별 write 지연, ack 왕복 시간, 전송 결과를 기록할 객체를 설정하는 메소드
+     *
+     * @param metrics 측정값을 모을 객체, null 이면 측정하지 않음
+     */
+    public void setMetrics(BleMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    public void setMode(Mode mode) {
+        mMode = mode;
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * FRAMED 모드에서 응답 없이 연속으로 보낼 수 있는 최대 조각 수를 설정하는 메소드
+     *
+     * @param windowSize 1 ~ BleProtocol.MAX_WINDOW_SIZE
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1 || windowSize > BleProtocol.MAX_WINDOW_SIZE) {
+            throw new IllegalArgumentException("windowSize : " + windowSize);
+        }
+        mWindowSize = windowSize;
+    }
+
+    /**
+     * FRAMED 모드에서 프레임별 CRC-16 과 메시지 CRC-32 를 붙이고, 기기의 NACK 에 따라 조각을 다시 보낼지 설정하는 메소드
+     * 기기가 무결성 검사(DeviceCapabilities.FEATURE_INTEGRITY_CHECK)를 지원할 때만 켜야 함. 다음 start() 부터 적용됨.
+     */
+    public void setIntegrityCheck(boolean integrityCheck) {
+        mIntegrityCheck = integrityCheck;
+    }
+
+    public boolean isCheckingIntegrity() {
+        return mMode == Mode.FRAMED && mIntegrityCheck;
+    }
+
+    /**
+     * 무결성 검사 중 ack 가 오지 않는 조각을 다시 보내기 위한 타이머를 설정하는 메소드 (이 객체와 같은 스레드에서 실행해야 함)
+     *
+     * @param timer 타이머, null 이면 NACK 을 받은 조각만 다시 보냄
+     */
+    public void setTimer(ScoreUploader.Timer timer) {
+        mTimer = timer;
+    }
+
+    /**
+     * LEGACY 모드에서 한 조각의 최대 길이를 설정하는 메소드 (기기의 StringCharacteristic 최대 길이)
+     *
+     * @param chunkLength 한 조각의 최대 바이트 수
+     */
+    public void setLegacyChunkLength(int chunkLength) {
+        mLegacyChunkLength = chunkLength;
+    }
+
+    public boolean isActive() {
+        return mState != State.IDLE;
+    }
+
+    /**
+     * 현재 모드와 연결 상태(MTU)에서 한 조각에 담을 수 있는 실제 데이터 크기를 반환하는 메소드
+     *
+     * @return 프레임 헤더를 제외한 조각당 바이트 수
+     */
+    public int getPayloadSize() {
+        boolean withResponse = mMode == Mode.LEGACY || !mTransport.supportsWriteWithoutResponse();
+        int maxWriteLength = mTransport.getMaxWriteLength(withResponse);
+        if (mMode == Mode.LEGACY) {
+            return mLegacyChunkLength > 0 ? Math.min(mLegacyChunkLength, maxWriteLength) : maxWriteLength;
+        }
+        return maxWriteLength - BleProtocol.FRAME_HEADER_LENGTH - (mIntegrityCheck ? BleProtocol.FRAME_CRC_LENGTH : 0);
+    }
+
+    /**
+     * 마지막으로 완료된 전송의 처리량을 반환하는 메소드
+     *
+     * @return bytes/sec, 완료된 전송이 없으면 0
+     */
+    public double getLastThroughput() {
+        if (mLastTransferNanos <= 0) {
+            return 0;
+        }
+        return mLastTransferBytes * 1_000_000_000.0 / mLastTransferNanos;
+    }
+
+    /**
+     * 조각을 write 한 뒤 ack 를 받기까지 걸린 시간의 평균을 반환하는 메소드
+     * 연결 간격(connection interval)에 따른 왕복 지연이 반영되므로, 절반을 기기->폰 방향 지연의 추정값으로 쓸 수 있음.
+     *
+     * @return 지수 이동 평균 (nanos), 측정값이 없으면 0
+     */
+    public long getSmoothedAckRttNanos() {
+        return mSmoothedRttNanos;
+    }
+
+    /**
+     * NACK 또는 재전송 대기 시간 때문에 다시 보낸 조각 수
+     */
+    public long getRetransmittedChunkCount() {
+        return mRetransmittedChunks;
+    }
+
+    public long getNackCount() {
+        return mNackCount;
+    }
+
+    public long getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    /**
+     * 기기가 메시지 CRC-32 오류를 알려 실패한 전송 수
+     */
+    public long getChecksumFailureCount() {
+        return mChecksumFailures;
+    }
+
+    /**
+     * 메시지 전송을 시작하는 메소드
+     *
+     * @param message 보낼 전체 메시지 (LEGACY 모드에서는 '$'로 끝나야 함)
+     * @return 이미 전송 중이거나 첫 write 가 실패하면 false
+     */
+    public boolean start(byte[] message) {
+        return start(ChunkSource.of(message), 0);
+    }
+
+    public boolean start(byte[] message, int offset) {
+        return start(ChunkSource.of(message), offset);
+    }
+
+    /**
+     * ChunkSource 에서 조각마다 읽어서 전송을 시작하는 메소드
+     *
+     * @param source 보낼 메시지
+     * @return 이미 전송 중이거나 첫 write 가 실패하면 false
+     */
+    public boolean start(ChunkSource source) {
+        return start(source, 0);
+    }
+
+    /**
+     * 메시지의 offset 위치부터 전송을 시작하는 메소드 (연결이 끊긴 전송을 이어서 보내는 경우)
+     * 순번은 offset 위치의 조각부터 다시 0 으로 시작함.
+     *
+     * @param source 보낼 전체 메시지
+     * @param offset 기기가 이미 받은 앞부분의 길이 (0 이상, source.length() 미만)
+     * @return 이미 전송 중이거나 첫 write 가 실패하면 false
+     */
+    public boolean start(ChunkSource source, int offset) {
+        if (isActive()) {
+            return false;
+        }
+        int length = source.length();
+        if (offset < 0 || (offset > 0 && offset >= length)) {
+            throw new IllegalArgumentException("offset : " + offset + ", length : " + length);
+        }
+
+        mWithResponse = mMode == Mode.LEGACY || !mTransport.supportsWriteWithoutResponse();
+        mChunkLength = getPayloadSize();
+        if (mChunkLength <= 0) {
+            throw new IllegalStateException("chunkLength : " + mChunkLength);
+        }
+
+        try {
+            source.skip(offset);
+        } catch (IOException e) {
+            return false;
+        }
+        mSource = source;
+        mLength = length;
+        mOffset = offset;
+        mStreamLength = length - offset + (isCheckingIntegrity() ? BleProtocol.MESSAGE_CRC_LENGTH : 0);
+        mChunkCount = Math.max(1, (mStreamLength + mChunkLength - 1) / mChunkLength);
+        mNextChunk = 0;
+        mAckedChunks = 0;
+        mPendingWriteId = NO_WRITE;
+        mMessageCrc.reset();
+        mStartNanos = mClock.nanoTime();
+        mState = State.SENDING;
+        if (mMetrics != null) {
+            mMetrics.onTransferStarted();
+        }
+
+        pump();
+        if (isActive() && isCheckingIntegrity()) {
+            scheduleTimeout();
+        }
+        return isActive();
+    }
+
+    /**
+     * 진행 중인 전송을 중단하는 메소드
+     */
+    public void cancel() {
+        reset();
+    }
+
+    /**
+     * transport 의 write 가 완료되었을 때 호출해야 하는 메소드
+     *
+     * @param writeId BleTransport.write() 에 전달된 write 번호
+     * @param success write 성공 여부
+     */
+    public void onWriteComplete(int writeId, boolean success) {
+        if (!isActive() || writeId < 0 || writeId != mPendingWriteId) {
+            return; // 제어용 write, 이전 전송 또는 이미 처리된 write
+        }
+        mPendingWriteId = NO_WRITE;
+        if (mMetrics != null) {
+            mMetrics.onWriteComplete(mClock.nanoTime() - mWriteStartNanos, success);
+        }
+
+        if (!success) {
+            fail();
+            return;
+        }
+        pump();
+    }
+
+    /**
+     * 기기로부터 Notification 을 받았을 때 호출해야 하는 메소드
+     *
+     * @param value 받은 데이터
+     * @return 전송 응답(ack)으로 처리되었으면 true, 일반 데이터이면 false
+     */
+    public boolean onNotification(byte[] value) {
+        if (!isActive()) {
+            return false;
+        }
+
+        if (mMode == Mode.LEGACY) {
+            // 빈 문자열은 보내고 아직 응답받지 못한 조각이 있을 때만 ack 로 취급
+            if (value.length != 0 || mAckedChunks >= mNextChunk) {
+                return false;
+            }
+            onAcked(mAckedChunks + 1);
+            return true;
+        }
+
+        if (isCheckingIntegrity() && value.length > 0 && value[0] == BleProtocol.NOTIFY_NACK) {
+            onNack(value);
+            return true;
+        }
+        if (value.length != 2 || value[0] != BleProtocol.NOTIFY_ACK) {
+            return false;
+        }
+        int chunk = findSentChunk(value[1] & 0xFF);
+        if (chunk >= mAckedChunks) {
+            onAcked(chunk + 1);
+        }
+        return true; // 이미 처리된 ack 가 다시 와도 ack 로 소비
+    }
+
+    /**
+     * 보냈지만 아직 ack 를 받지 못한 조각 중에서 순번이 같은 조각을 찾는 메소드
+     *
+     * @param sequence ack 에 담긴 순번
+     * @return 조각 번호, 없으면 -1
+     */
+    private int findSentChunk(int sequence) {
+        for (int chunk = mAckedChunks; chunk < mNextChunk; chunk++) {
+            if (chunk % BleProtocol.SEQUENCE_MODULO == sequence) {
+                return chunk;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * NACK 에 담긴 순번의 조각을 다시 보내도록 표시하는 메소드
+     * 순번이 없는 NACK 은 기기가 메시지 CRC-32 오류로 메시지를 버렸다는 뜻이므로 조각 단위로 고칠 수 없어 실패로 처리함.
+     */
+    private void onNack(byte[] value) {
+        mNackCount++;
+        if (value.length == 1) {
+            mChecksumFailures++;
+            fail();
+            return;
+        }
+        for (int i = 1; i < value.length; i++) {
+            int chunk = findSentChunk(value[i] & 0xFF);
+            if (chunk < 0) {
+                continue; // 이미 ack 된 조각
+            }
+            int slot = chunk % BleProtocol.MAX_WINDOW_SIZE;
+            if (!mResend[slot]) {
+                mResend[slot] = true;
+                mResendCount++;
+            }
+        }
+        pump();
+    }
+
+    private void onAcked(int ackedChunks) {
+        boolean retransmitted = false;
+        for (int chunk = mAckedChunks; chunk < ackedChunks; chunk++) {
+            int slot = chunk % BleProtocol.MAX_WINDOW_SIZE;
+            if (mResend[slot]) {
+                mResend[slot] = false; // 다시 보내기 전에 ack 가 옴
+                mResendCount--;
+            }
+            retransmitted |= mRetransmitted[slot];
+            mRetransmitted[slot] = false;
+            mSentChunks[slot] = null;
+        }
+        mAckedChunks = ackedChunks;
+        mTimeoutRetries = 0;
+        long rttNanos = mClock.nanoTime() - mSendNanos[(ackedChunks - 1) % BleProtocol.MAX_WINDOW_SIZE];
+        if (!retransmitted) {
+            // 다시 보낸 조각의 ack 는 어느 write 에 대한 응답인지 알 수 없으므로 왕복 시간에 넣지 않음
+            updateRtt(rttNanos);
+            if (mMetrics != null) {
+                mMetrics.onAck(rttNanos);
+            }
+        }
+
+        if (mListener != null) {
+            mListener.onTransferProgress(Math.min(mOffset + mAckedChunks * mChunkLength, mLength), mLength);
+        }
+
+        if (mAckedChunks == mChunkCount) {
+            mLastTransferNanos = mClock.nanoTime() - mStartNanos;
+            mLastTransferBytes = mLength - mOffset;
+            reset();
+            if (mMetrics != null) {
+                mMetrics.onTransferComplete(getLastThroughput());
+            }
+            if (mListener != null) {
+                mListener.onTransferComplete();
+            }
+            return;
+        }
+        pump();
+    }
+
+    private void updateRtt(long sampleNanos) {
+        if (mSmoothedRttNanos == 0) {
+            mSmoothedRttNanos = sampleNanos;
+        } else {
+            mSmoothedRttNanos += (sampleNanos - mSmoothedRttNanos) >> RTT_SMOOTHING_SHIFT;
+        }
+    }
+
+    /**
+     * 진행 중인 write 가 없으면, 다시 보낼 조각이 있으면 그 조각을, 아니면 window 에 여유가 있을 때 다음 조각을 보내는 메소드
+     */
+    private void pump() {
+        if (!isActive() || mPendingWriteId != NO_WRITE) {
+            return;
+        }
+
+        byte[] chunk;
+        if (mResendCount > 0) {
+            int slot = nextResendSlot();
+            mResend[slot] = false;
+            mResendCount--;
+            mRetransmitted[slot] = true;
+            mRetransmittedChunks++;
+            chunk = mSentChunks[slot];
+            if (mMetrics != null) {
+                mMetrics.onChunkRetransmitted();
+            }
+        } else {
+            int window = mMode == Mode.LEGACY ? 1 : mWindowSize;
+            if (mState != State.SENDING || mNextChunk - mAckedChunks >= window) {
+                return;
+            }
+            try {
+                chunk = buildChunk(mNextChunk);
+            } catch (IOException e) {
+                fail();
+                return;
+            }
+            int slot = mNextChunk % BleProtocol.MAX_WINDOW_SIZE;
+            mSentChunks[slot] = chunk;
+            mSendNanos[slot] = mClock.nanoTime();
+            mNextChunk++;
+            if (mNextChunk == mChunkCount) {
+                mState = State.DRAINING;
+            }
+        }
+        int writeId = mNextWriteId;
+        mNextWriteId = (mNextWriteId + 1) & Integer.MAX_VALUE; // 항상 0 이상
+        mWriteStartNanos = mClock.nanoTime();
+        mPendingWriteId = writeId;
+
+        if (mMetrics != null) {
+            mMetrics.onChunkWritten(chunk.length);
+        }
+        if (!mTransport.write(writeId, chunk, mWithResponse)) {
+            mPendingWriteId = NO_WRITE;
+            fail();
+        }
+    }
+
+    /**
+     * 다시 보낼 조각 중 가장 앞의 조각의 슬롯을 찾는 메소드 (mResendCount > 0 일 때만 호출)
+     */
+    private int nextResendSlot() {
+        for (int chunk = mAckedChunks; ; chunk++) {
+            int slot = chunk % BleProtocol.MAX_WINDOW_SIZE;
+            if (mResend[slot]) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * index 번째 조각을 ChunkSource 에서 읽어 슬롯 버퍼에 채우는 메소드
+     * 조각은 순서대로 한 번씩만 만들어지고, 슬롯은 window 안의 조각끼리 겹치지 않음.
+     * 무결성 검사 중이면 메시지를 모두 읽은 뒤의 자리에 메시지 CRC-32 를, 프레임 끝에 프레임 CRC-16 을 채움.
+     */
+    private byte[] buildChunk(int index) throws IOException {
+        int position = index * mChunkLength; // 이번 전송 안에서의 위치
+        int length = Math.min(mChunkLength, mStreamLength - position);
+        int header = mMode == Mode.LEGACY ? 0 : BleProtocol.FRAME_HEADER_LENGTH;
+        boolean checked = isCheckingIntegrity();
+
+        byte[] chunk = chunkBuffer(index % BleProtocol.MAX_WINDOW_SIZE, header + length + (checked ? BleProtocol.FRAME_CRC_LENGTH : 0));
+        int dataLength = mLength - mOffset;
+        int read = Math.max(0, Math.min(length, dataLength - position));
+        mSource.read(chunk, header, read);
+        if (header > 0) {
+            chunk[0] = index == mChunkCount - 1 ? BleProtocol.FRAME_DATA_END : BleProtocol.FRAME_DATA;
+            chunk[1] = (byte) (index % BleProtocol.SEQUENCE_MODULO);
+        }
+        if (checked) {
+            mMessageCrc.update(chunk, header, read);
+            long messageCrc = mMessageCrc.getValue();
+            for (int i = read; i < length; i++) {
+                int crcIndex = position + i - dataLength; // 0 ~ MESSAGE_CRC_LENGTH - 1, big endian
+                chunk[header + i] = (byte) (messageCrc >>> (8 * (BleProtocol.MESSAGE_CRC_LENGTH - 1 - crcIndex)));
+            }
+            int frameCrc = Crc16.compute(chunk, 0, header + length);
+            chunk[header + length] = (byte) (frameCrc >>> 8);
+            chunk[header + length + 1] = (byte) frameCrc;
+        }
+        return chunk;
+    }
+
+    /**
+     * 슬롯의 버퍼를 반환하는 메소드. write 는 배열 전체를 보내므로 길이가 다르면 (마지막 조각 등) 새로 만듦.
+     */
+    private byte[] chunkBuffer(int slot, int length) {
+        byte[] buffer = mChunkBuffers[slot];
+        if (buffer == null || buffer.length != length) {
+            buffer = new byte[length];
+            int overhead = mMode == Mode.LEGACY ? 0
+                    : BleProtocol.FRAME_HEADER_LENGTH + (isCheckingIntegrity() ? BleProtocol.FRAME_CRC_LENGTH : 0);
+            if (length == overhead + mChunkLength) {
+                mChunkBuffers[slot] = buffer; // 꽉 찬 조각만 다시 사용
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * ack 가 진행되는지 재전송 대기 시간 뒤에 확인하도록 예약하는 메소드
+     */
+    private void scheduleTimeout() {
+        if (mTimer == null) {
+            return;
+        }
+        long timeoutMillis = Math.max(MIN_RETRANSMIT_TIMEOUT_MILLIS, RETRANSMIT_TIMEOUT_RTTS * mSmoothedRttNanos / 1_000_000);
+        final int timeoutId = mTimeoutId;
+        mTimeoutAcked = mAckedChunks;
+        mTimer.schedule(timeoutMillis, () -> onTimeout(timeoutId));
+    }
+
+    /**
+     * 재전송 대기 시간 동안 ack 가 진행되지 않았으면 가장 앞의 조각을 다시 보내는 메소드
+     * 마지막 조각이나 다시 보낸 조각이 빠지면 기기는 빠진 것을 알 수 없으므로 NACK 대신 이 방법으로 복구함.
+     */
+    private void onTimeout(int timeoutId) {
+        if (!isActive() || timeoutId != mTimeoutId) {
+            return;
+        }
+        if (mAckedChunks == mTimeoutAcked && mPendingWriteId == NO_WRITE && mAckedChunks < mNextChunk) {
+            mTimeoutCount++;
+            if (++mTimeoutRetries > MAX_TIMEOUT_RETRIES) {
+                fail();
+                return;
+            }
+            int slot = mAckedChunks % BleProtocol.MAX_WINDOW_SIZE;
+            if (!mResend[slot]) {
+                mResend[slot] = true;
+                mResendCount++;
+            }
+            pump();
+        }
+        scheduleTimeout();
+    }
+
+    private void reset() {
+        if (mPendingWriteId != NO_WRITE) {
+            // 완료되지 않은 write 가 아직 버퍼를 참조할 수 있으므로 다음 전송에서 다시 사용하지 않음
+            Arrays.fill(mChunkBuffers, null);
+        }
+        Arrays.fill(mSentChunks, null);
+        Arrays.fill(mResend, false);
+        Arrays.fill(mRetransmitted, false);
+        mResendCount = 0;
+        mTimeoutRetries = 0;
+        mTimeoutId++;
+        mState = State.IDLE;
+        mSource = null;
+        mPendingWriteId = NO_WRITE;
+    }
+
+    private void fail() {
+        reset();
+        if (mMetrics != null) {
+            mMetrics.onTransferFailed();
+        }
+        if (mListener != null) {
+            mListener.onTransferFailed();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.ble_guitar_tutor;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 교실 모드에서 여러 기타와 동시에 연결을 유지하고 같은 악보를 보내는 객체
+ *
+ * - 기기마다 GattLink 를 따로 가지고, 연결 준비가 끝나면 ClassroomSession 에 추가함.
+ * - 악보 전송 순서(공정한 스케줄링)와 기기별 전송 상태는 ClassroomSession 이 관리함.
+ * - GATT 동작과 콜백 처리는 모두 교실 모드 전용 BLE 스레드(mBleExecutor)에서 실행되고,
+ *   UI 와 관련된 작업은 메인 스레드 Handler(mHandler)로 넘겨서 실행함.
+ * - 교실 모드에서는 연결이 끊긴 기기에 다시 연결하지 않음. 수업 중에 다시 connectAll() 하면 됨.
+ */
+public class ClassroomManager {
+    /* Constant */
+    private final String TAG = "ClassroomManager";
+    public static final int MAX_DEVICES = 7; // 대부분의 안드로이드 기기가 동시에 유지할 수 있는 BLE 연결 수
+
+    /* Android */
+    private final Context mContext;
+    private final Handler mHandler;
+    private volatile ClassroomSession.Listener mListener;
+
+    /* BLE Thread */
+    private final ScheduledExecutorService mBleExecutor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "ClassroomBleThread"));
+
+    /* Session (BLE 스레드 전용) */
+    private final ClassroomSession mSession = new ClassroomSession(NanoClock.SYSTEM, (delayMillis, task) -> {
+        try {
+            mBleExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "BLE thread already closed");
+        }
+    });
+    private final LinkedHashMap<String, Connection> mConnections = new LinkedHashMap<>();
+    private final ScoreCache mScoreCache = new ScoreCache();
+    private volatile int mReadyCount = 0;
+
+    public ClassroomManager(Context context, Handler handler) {
+        mContext = context;
+        mHandler = handler;
+        mSession.setListener(new SessionListener());
+
+        Log.d(TAG, "Created ClassroomManager");
+    }
+
+    /**
+     * 기기별 진행 상황과 전체 결과를 메인 스레드에서 받을 콜백을 등록하는 메소드
+     *
+     * @param listener 콜백, null 이면 받지 않음
+     */
+    public void setListener(ClassroomSession.Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 전송할 준비가 끝난 기기 수를 반환하는 메소드
+     */
+    public int getReadyCount() {
+        return mReadyCount;
+    }
+
+    /**
+     * 여러 기기에 동시에 연결하는 메소드
+     * 이미 연결된 기기는 건너뛰고, MAX_DEVICES 개까지만 연결함.
+     *
+     * @param devices 연결할 기기 목록 (신호가 센 순서)
+     */
+    public void connectAll(List<BluetoothDevice> devices) {
+        List<BluetoothDevice> copy = new ArrayList<>(devices);
+        runOnBleThread(() -> {
+            for (BluetoothDevice device : copy) {
+                if (mConnections.size() >= MAX_DEVICES) {
+                    Log.w(TAG, "connectAll: too many devices, skip " + device.getAddress());
+                    continue;
+                }
+                if (mConnections.containsKey(device.getAddress())) {
+                    continue;
+                }
+                Connection connection = new Connection(device);
+                mConnections.put(device.getAddress(), connection);
+                connection.connect();
+            }
+            Log.d(TAG, "connectAll: " + mConnections.size() + " connections");
+        });
+    }
+
+    /**
+     * 연결된 모든 기기에 악보를 보내는 메소드
+     * 악보 검사와 변환도 BLE 스레드에서 처리하므로 UI 스레드에서 바로 호출해도 됨.
+     *
+     * @param message 보내려는 악보 문자열
+     */
+    public void broadcast(String message) {
+        runOnBleThread(() -> {
+            if (mSession.size() == 0) {
+                showToast("연결된 기타가 없습니다.");
+                return;
+            }
+
+            ScoreCache.Entry entry;
+            try {
+                entry = mScoreCache.get(message);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "broadcast: invalid score, " + e.getMessage());
+                showToast("악보 형식이 올바르지 않습니다.");
+                return;
+            }
+            broadcastEntry(entry);
+        });
+    }
+
+    /**
+     * 곡 보관함의 곡을 연결된 모든 기기에 보내는 메소드
+     * 곡 본문은 매핑된 영역에서 기기마다 바로 읽어 보내고, 기기 캐시에 있는 곡이면 읽지 않음.
+     *
+     * @param library 곡 보관함
+     * @param index   보낼 곡 번호
+     */
+    public void broadcast(SongLibrary library, int index) {
+        runOnBleThread(() -> {
+            if (mSession.size() == 0) {
+                showToast("연결된 기타가 없습니다.");
+                return;
+            }
+            if (index < 0 || index >= library.size()) {
+                Log.e(TAG, "broadcast: no song " + index);
+                showToast("곡을 읽을 수 없습니다.");
+                return;
+            }
+            onBroadcastStarted(mSession.broadcast(library, index));
+        });
+    }
+
+    private void broadcastEntry(ScoreCache.Entry entry) {
+        onBroadcastStarted(mSession.broadcast(entry));
+    }
+
+    private void onBroadcastStarted(boolean started) {
+        Log.d(TAG, "broadcast: " + mSession.size() + " devices >> " + started);
+        if (!started) {
+            showToast("이전 악보를 보내는 중입니다.");
+        }
+    }
+
+    /**
+     * 모든 연결을 끊고 BLE 스레드를 종료하는 메소드 (교실 모드 종료 또는 Activity 종료 시 호출)
+     */
+    public void close() {
+        runOnBleThread(() -> {
+            for (Connection connection : new ArrayList<>(mConnections.values())) {
+                connection.close();
+            }
+            mConnections.clear();
+            mReadyCount = 0;
+            Log.d(TAG, "close: Disconnected");
+        });
+        mBleExecutor.shutdown();
+    }
+
+    private void runOnBleThread(Runnable task) {
+        try {
+            mBleExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "BLE thread already closed");
+        }
+    }
+
+    private void showToast(String message) {
+        mHandler.post(() -> Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show());
+    }
+
+    /**
+     * ClassroomSession 의 콜백을 로그로 남기고 메인 스레드의 Listener 로 넘기는 객체
+     */
+    private class SessionListener implements ClassroomSession.Listener {
+        @Override
+        public void onDeviceProgress(String deviceId, int sentBytes, int totalBytes) {
+            ClassroomSession.Listener listener = mListener;
+            if (listener != null) {
+                mHandler.post(() -> listener.onDeviceProgress(deviceId, sentBytes, totalBytes));
+            }
+        }
+
+        @Override
+        public void onDeviceComplete(String deviceId, boolean success) {
+            ClassroomSession.Link link = mSession.getLink(deviceId);
+            if (link != null) {
+                Log.d(TAG, "Device " + deviceId + " : " + (success ? "done" : "failed") + ", "
+                        + link.getTotalBytes() + " bytes in " + link.getElapsedNanos() / 1_000_000 + " ms ("
+                        + (int) link.getThroughput() + " bytes/sec)");
+            }
+            ClassroomSession.Listener listener = mListener;
+            if (listener != null) {
+                mHandler.post(() -> listener.onDeviceComplete(deviceId, success));
+            }
+        }
+
+        @Override
+        public void onBroadcastComplete(int succeeded, int failed) {
+            Log.d(TAG, "Broadcast Complete : " + succeeded + " succeeded, " + failed + " failed, peak in flight "
+                    + mSession.getPeakInFlight());
+            showToast(succeeded + "대의 기타에 악보를 보냈습니다." + (failed > 0 ? " (실패 " + failed + "대)" : ""));
+            ClassroomSession.Listener listener = mListener;
+            if (listener != null) {
+                mHandler.post(() -> listener.onBroadcastComplete(succeeded, failed));
+            }
+        }
+    }
+
+    /**
+     * 기기 하나와의 연결
+     * GATT 연결과 준비 순서는 GattLink 가 처리하고, 준비가 끝나면 ClassroomSession 에 추가해서
+     * write 완료와 Notification 을 ClassroomSession.Link 로 전달함. (BLE 스레드에서만 호출됨)
+     */
+    private class Connection implements GattLink.Listener {
+        private final String mAddress;
+        private final GattLink mGattLink;
+        private ClassroomSession.Link mLink; // 연결 준비가 끝난 뒤에 설정됨
+
+        Connection(BluetoothDevice device) {
+            mAddress = device.getAddress();
+            // 교실 모드는 기기마다 짧게 연결하므로 프로토콜 버전을 저장하지 않고 매번 읽음
+            mGattLink = new GattLink(mContext, device, mBleExecutor, null, this);
+        }
+
+        void connect() {
+            mGattLink.connect();
+        }
+
+        /**
+         * GATT 연결을 닫고 세션에서 빼는 메소드
+         * 전송 중이었으면 이 기기만 실패로 처리되고 다른 기기는 계속 받음.
+         */
+        void close() {
+            if (mLink != null) {
+                mLink = null;
+                mReadyCount--;
+            }
+            mSession.removeDevice(mAddress);
+            mGattLink.close();
+        }
+
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onServicesDiscovered() {
+        }
+
+        @Override
+        public void onSetupCommand(GattCommand command) {
+        }
+
+        @Override
+        public void onReady(DeviceCapabilities capabilities) {
+            mLink = mSession.addDevice(mAddress, mGattLink, capabilities);
+            mReadyCount++;
+            Log.d(TAG, mAddress + " : ready, version " + capabilities.getVersion() + ", MTU " + mGattLink.getMtu()
+                    + " (" + mReadyCount + " ready)");
+        }
+
+        @Override
+        public void onCapabilitiesChanged(DeviceCapabilities capabilities) {
+            if (mLink != null) {
+                mLink.setCapabilities(capabilities);
+            }
+        }
+
+        @Override
+        public boolean isSequencedWrite(byte[] value) {
+            return mLink != null && mLink.isSequencedWrite(value);
+        }
+
+        @Override
+        public void onWriteComplete(int writeId, GattCommand command) {
+            if (mLink != null) {
+                mLink.onWriteComplete(writeId, command.isSuccess());
+            }
+        }
+
+        @Override
+        public void onNotification(byte[] value, long receiveNanos) {
+            if (mLink != null && !mLink.onNotification(value, receiveNanos)) {
+                Log.d(TAG, mAddress + " : onChanged " + value.length + " bytes"); // 교실 모드에서는 운지 이벤트를 받지 않음
+            }
+        }
+
+        @Override
+        public void onDisconnected(int status) {
+            Log.d(TAG, mAddress + " : disconnected (status " + status + ")");
+            close();
+            mConnections.remove(mAddress);
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 한 태블릿에서 여러 기타에 같은 악보를 보내는 교실 모드 세션
+ * 기기마다 Link(ChunkTransfer, ScoreUploader, 전송 상태)를 따로 가지고, 모든 Link 의 write 는 이 객체를 거쳐 나감.
+ *
+ * 공정한 스케줄링
+ * - 폰의 블루투스 칩이 동시에 처리할 수 있는 write 는 한정되어 있으므로, 모든 연결을 합쳐 maxInFlight 개까지만 동시에 보냄.
+ * - 연결마다 write 는 한 번에 하나만 보내고(GATT 제한), write 를 기다리는 연결에는 돌아가며(round robin) 차례를 줌.
+ *   응답이 빠른 기기가 칩을 독차지해서 다른 기기의 전송이 밀리는 일이 없음.
+ *
+ * 각 기기의 BleTransport 구현은 write 완료와 Notification 을 ChunkTransfer 가 아니라
+ * 해당 Link 의 onWriteComplete(), onNotification() 으로 전달해야 함.
+ * 한 스레드(BLE 스레드)에서만 호출해야 함.
+ */
+public class ClassroomSession {
+    /* Constant */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    public enum LinkState {
+        IDLE,       // 업로드 전
+        UPLOADING,  // 업로드 중
+        DONE,       // 마지막 업로드 성공
+        FAILED      // 마지막 업로드 실패 또는 연결 끊김
+    }
+
+    /**
+     * 기기별 진행 상황과 전체 결과를 받는 콜백 인터페이스 (BLE 스레드에서 호출됨)
+     */
+    public interface Listener {
+        void onDeviceProgress(String deviceId, int sentBytes, int totalBytes);
+
+        void onDeviceComplete(String deviceId, boolean success);
+
+        void onBroadcastComplete(int succeeded, int failed);
+    }
+
+    private final NanoClock mClock;
+    private final ScoreUploader.Timer mTimer;
+    private final int mMaxInFlight;
+    private Listener mListener;
+
+    /* Links */
+    private final LinkedHashMap<String, Link> mLinks = new LinkedHashMap<>();
+    private final ArrayDeque<Link> mReady = new ArrayDeque<>(); // 보낼 write 가 있고 차례를 기다리는 Link
+    private int mInFlight = 0;
+    private boolean mDispatching = false;
+
+    /* Broadcast */
+    private boolean mBroadcasting = false;
+    private int mSucceeded;
+    private int mFailed;
+
+    /* Statistics */
+    private int mPeakInFlight = 0;
+    private long mDispatchCount = 0;
+
+    public ClassroomSession(NanoClock clock, ScoreUploader.Timer timer) {
+        this(clock, timer, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public ClassroomSession(NanoClock clock, ScoreUploader.Timer timer, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight : " + maxInFlight);
+        }
+        mClock = clock;
+        mTimer = timer;
+        mMaxInFlight = maxInFlight;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 연결 준비가 끝난 기기를 세션에 추가하는 메소드
+     *
+     * @param deviceId     기기 구분자 (주소)
+     * @param transport    이 기기로 write 하는 transport
+     * @param capabilities 기기와 협상된 프로토콜 버전
+     * @return 새 Link, 이미 있는 기기이면 기존 Link
+     */
+    public Link addDevice(String deviceId, BleTransport transport, DeviceCapabilities capabilities) {
+        Link link = mLinks.get(deviceId);
+        if (link == null) {
+            link = new Link(deviceId, transport, capabilities);
+            mLinks.put(deviceId, link);
+        }
+        return link;
+    }
+
+    /**
+     * 연결이 끊긴 기기를 세션에서 빼는 메소드
+     * 업로드 중이었으면 실패로 처리하고, 그 기기가 쓰던 write 차례는 다른 기기에 넘어감.
+     *
+     * @param deviceId 기기 구분자
+     */
+    public void removeDevice(String deviceId) {
+        Link link = mLinks.remove(deviceId);
+        if (link == null) {
+            return;
+        }
+        link.mRemoved = true;
+        link.mQueue.clear();
+        mReady.remove(link);
+        if (link.mWriting) {
+            link.mWriting = false;
+            mInFlight--;
+        }
+        link.mProtocol.cancel();
+        if (link.mState == LinkState.UPLOADING) {
+            link.finish(false);
+        }
+        dispatch();
+    }
+
+    public Link getLink(String deviceId) {
+        return mLinks.get(deviceId);
+    }
+
+    public List<Link> getLinks() {
+        return new ArrayList<>(mLinks.values());
+    }
+
+    public int size() {
+        return mLinks.size();
+    }
+
+    public boolean isBroadcasting() {
+        return mBroadcasting;
+    }
+
+    /**
+     * 모든 기기에 악보를 보내는 메소드
+     * 기기마다 지원하는 형식(문자열/바이너리, 캐시, 패치, 압축)에 맞게 ScoreUploader 로 보냄.
+     *
+     * @param entry 보낼 악보
+     * @return 이미 보내는 중이면 false
+     */
+    public boolean broadcast(ScoreCache.Entry entry) {
+        return broadcast((protocol, deviceId) -> protocol.upload(entry, deviceId));
+    }
+
+    /**
+     * 모든 기기에 곡 보관함의 곡을 보내는 메소드
+     * 기기마다 본문을 복사하지 않고 보내고, 저장해 둔 해시로 기기 캐시를 확인함 (GuitarProtocol.upload(SongLibrary, ...)).
+     * 본문을 읽을 수 없는 기기는 실패로 처리함.
+     *
+     * @param library 곡 보관함
+     * @param index   보낼 곡 번호
+     * @return 이미 보내는 중이면 false
+     */
+    public boolean broadcast(SongLibrary library, int index) {
+        return broadcast((protocol, deviceId) -> protocol.upload(library, index, deviceId));
+    }
+
+    /**
+     * 기기 하나에 업로드를 시작하는 방법
+     */
+    private interface Upload {
+        boolean start(GuitarProtocol protocol, String deviceId) throws IOException;
+    }
+
+    private boolean broadcast(Upload upload) {
+        if (mBroadcasting) {
+            return false;
+        }
+        mBroadcasting = true;
+        mSucceeded = 0;
+        mFailed = 0;
+        for (Link link : new ArrayList<>(mLinks.values())) {
+            link.startUpload(upload);
+        }
+        checkBroadcastComplete();
+        return true;
+    }
+
+    /**
+     * 차례를 기다리는 Link 에 돌아가며 write 를 보내는 메소드
+     */
+    private void dispatch() {
+        if (mDispatching) {
+            return; // write 실패 처리 중에 다시 호출된 경우
+        }
+        mDispatching = true;
+        while (mInFlight < mMaxInFlight && !mReady.isEmpty()) {
+            Link link = mReady.poll();
+            PendingWrite write = link.mQueue.poll();
+            if (write == null) {
+                continue;
+            }
+
+            link.mWriting = true;
+            mInFlight++;
+            mPeakInFlight = Math.max(mPeakInFlight, mInFlight);
+            mDispatchCount++;
+            if (!link.mTransport.write(write.writeId, write.value, write.withResponse)) {
+                link.mWriting = false;
+                mInFlight--;
+                link.mProtocol.onWriteComplete(write.writeId, false);
+                link.afterEvent();
+            }
+        }
+        mDispatching = false;
+    }
+
+    private void checkBroadcastComplete() {
+        if (!mBroadcasting) {
+            return;
+        }
+        for (Link link : mLinks.values()) {
+            if (link.mState == LinkState.UPLOADING) {
+                return;
+            }
+        }
+        mBroadcasting = false;
+        if (mListener != null) {
+            mListener.onBroadcastComplete(mSucceeded, mFailed);
+        }
+    }
+
+    /**
+     * 지금 완료를 기다리는 write 의 수 (모든 연결 합계)
+     */
+    public int getInFlight() {
+        return mInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return mMaxInFlight;
+    }
+
+    /**
+     * 모든 연결을 합쳐 동시에 진행된 write 의 최대 수
+     */
+    public int getPeakInFlight() {
+        return mPeakInFlight;
+    }
+
+    public long getDispatchCount() {
+        return mDispatchCount;
+    }
+
+    private static class PendingWrite {
+        final int writeId;
+        final byte[] value;
+        final boolean withResponse;
+
+        PendingWrite(int writeId, byte[] value, boolean withResponse) {
+            this.writeId = writeId;
+            this.value = value;
+            this.withResponse = withResponse;
+        }
+    }
+
+    /**
+     * 세션에 연결된 기기 하나의 전송 상태
+     */
+    public final class Link {
+        private final String mId;
+        private final BleTransport mTransport;
+        private final GuitarProtocol mProtocol;
+        private final ArrayDeque<PendingWrite> mQueue = new ArrayDeque<>();
+        private boolean mWriting = false; // 보낸 write 의 완료를 기다리는 중
+        private boolean mRemoved = false;
+
+        /* Upload State */
+        private LinkState mState = LinkState.IDLE;
+        private boolean mTransferFailed;
+        private int mSentBytes;
+        private int mTotalBytes;
+        private long mTransferredBytes;
+        private long mStartNanos;
+        private long mElapsedNanos;
+
+        private Link(String id, BleTransport transport, DeviceCapabilities capabilities) {
+            mId = id;
+            mTransport = transport;
+            FairTransport fairTransport = new FairTransport();
+            mProtocol = new GuitarProtocol(fairTransport, mClock, (delayMillis, task) -> mTimer.schedule(delayMillis, () -> {
+                task.run();
+                afterEvent();
+            }));
+            mProtocol.setListener(new LinkListener());
+            setCapabilities(capabilities);
+        }
+
+        /**
+         * 기기와 협상된 프로토콜 버전에 맞게 전송 방식을 설정하는 메소드
+         */
+        public void setCapabilities(DeviceCapabilities capabilities) {
+            mProtocol.applyCapabilities(capabilities);
+        }
+
+        /**
+         * transport 의 write 가 완료되었을 때 호출해야 하는 메소드
+         */
+        public void onWriteComplete(int writeId, boolean success) {
+            if (!mWriting || mRemoved) {
+                return;
+            }
+            mWriting = false;
+            mInFlight--;
+            mProtocol.onWriteComplete(writeId, success);
+            afterEvent();
+        }
+
+        /**
+         * 기기로부터 Notification 을 받았을 때 호출해야 하는 메소드
+         *
+         * @param receiveNanos GATT 콜백에서 받은 시각 (GuitarProtocol.onNotification() 참고)
+         * @return 전송 응답(ack, 캐시 응답)이나 운지 이벤트로 처리되었으면 true, 일반 데이터이면 false
+         */
+        public boolean onNotification(byte[] value, long receiveNanos) {
+            if (mRemoved) {
+                return false;
+            }
+            boolean handled = mProtocol.onNotification(value, receiveNanos) != GuitarProtocol.Notification.DATA;
+            afterEvent();
+            return handled;
+        }
+
+        private void startUpload(Upload upload) {
+            mState = LinkState.UPLOADING;
+            mTransferFailed = false;
+            mSentBytes = 0;
+            mTotalBytes = 0;
+            mTransferredBytes = 0;
+            mStartNanos = mClock.nanoTime();
+            mElapsedNanos = 0;
+            try {
+                if (!upload.start(mProtocol, mId)) {
+                    mTransferFailed = true;
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                mTransferFailed = true; // 본문을 읽을 수 없거나 문자열로 바꿀 수 없는 곡
+            }
+            if (mTotalBytes == 0) {
+                mTotalBytes = mProtocol.getLastPayloadLength(); // 첫 조각을 보내기 전 (캐시 확인 중)
+            }
+            afterEvent();
+        }
+
+        /**
+         * 이벤트를 처리한 뒤 새로 생긴 write 를 차례에 넣고, 업로드가 끝났는지 확인하는 메소드
+         */
+        private void afterEvent() {
+            if (mRemoved) {
+                return;
+            }
+            if (!mWriting && !mQueue.isEmpty() && !mReady.contains(this)) {
+                mReady.add(this); // 뒤에 줄을 서므로 다른 기기가 먼저 보냄
+            }
+            if (mState == LinkState.UPLOADING && !mProtocol.isBusy() && mQueue.isEmpty() && !mWriting) {
+                finish(!mTransferFailed);
+            }
+            dispatch();
+        }
+
+        private void finish(boolean success) {
+            mState = success ? LinkState.DONE : LinkState.FAILED;
+            mElapsedNanos = mClock.nanoTime() - mStartNanos;
+            if (success) {
+                mSucceeded++;
+                mSentBytes = mTotalBytes;
+            } else {
+                mFailed++;
+            }
+            if (mListener != null) {
+                mListener.onDeviceComplete(mId, success);
+            }
+            checkBroadcastComplete();
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public LinkState getState() {
+            return mState;
+        }
+
+        public int getSentBytes() {
+            return mSentBytes;
+        }
+
+        public int getTotalBytes() {
+            return mTotalBytes;
+        }
+
+        /**
+         * 마지막 업로드에 걸린 시간 (업로드 중이면 지금까지)
+         */
+        public long getElapsedNanos() {
+            return mState == LinkState.UPLOADING ? mClock.nanoTime() - mStartNanos : mElapsedNanos;
+        }
+
+        /**
+         * 마지막 업로드에서 실제로 보낸 바이트 수를 걸린 시간으로 나눈 처리량
+         *
+         * @return bytes/sec, 보낸 데이터가 없으면 0
+         */
+        public double getThroughput() {
+            long elapsedNanos = getElapsedNanos();
+            return elapsedNanos <= 0 ? 0 : mTransferredBytes * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        public ScoreUploader getUploader() {
+            return mProtocol.getUploader();
+        }
+
+        public boolean isSequencedWrite(byte[] value) {
+            return mProtocol.isSequencedWrite(value);
+        }
+
+        /**
+         * write 를 바로 보내지 않고 세션의 차례를 기다리게 하는 transport
+         */
+        private class FairTransport implements BleTransport {
+            @Override
+            public int getMaxWriteLength(boolean withResponse) {
+                return mTransport.getMaxWriteLength(withResponse);
+            }
+
+            @Override
+            public boolean supportsWriteWithoutResponse() {
+                return mTransport.supportsWriteWithoutResponse();
+            }
+
+            @Override
+            public boolean write(int writeId, byte[] value, boolean withResponse) {
+                if (mRemoved) {
+                    return false;
+                }
+                mQueue.add(new PendingWrite(writeId, value, withResponse));
+                return true; // 실제 write 가 실패하면 onWriteComplete(false) 로 알림
+            }
+        }
+
+        private class LinkListener implements ChunkTransfer.Listener {
+            @Override
+            public void onTransferProgress(int sentBytes, int totalBytes) {
+                mSentBytes = sentBytes;
+                mTotalBytes = totalBytes;
+                if (mListener != null) {
+                    mListener.onDeviceProgress(mId, sentBytes, totalBytes);
+                }
+            }
+
+            @Override
+            public void onTransferComplete() {
+                mTransferredBytes += mSentBytes;
+            }
+
+            @Override
+            public void onTransferFailed() {
+                mTransferFailed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.ble_guitar_tutor;
+
+/**
+ * 데이터 프레임의 CRC-16/CCITT-FALSE (다항식 0x1021, 초기값 0xFFFF) 계산
+ * Arduino 쪽에서도 같은 표 또는 bit 단위 계산으로 쉽게 구현할 수 있는 CRC 를 사용함.
+ */
+final class Crc16 {
+    static final int INITIAL = 0xFFFF;
+    private static final int POLYNOMIAL = 0x1021;
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private Crc16() {
+    }
+
+    static int compute(byte[] data, int offset, int length) {
+        return update(INITIAL, data, offset, length);
+    }
+
+    static int update(int crc, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
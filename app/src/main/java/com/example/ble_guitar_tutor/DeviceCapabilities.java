@@ -0,0 +1,137 @@
+package com.example.ble_guitar_tutor;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 기기가 지원하는 프로토콜 버전과 추가 기능
+ * 기기는 Characteristic 의 초기값을 "V[버전]" 또는 "V[버전]:[기능 문자들]" 문자열로 설정해 두고,
+ * 안드로이드는 연결 직후 이를 읽어 버전을 결정함. 버전 정보를 읽을 수 없는 기존 펌웨어는 버전 1 로 취급함.
+ *
+ * 1 : 문자열 악보, LEGACY 전송
+ * 2 : 바이너리 악보(ScoreCodec), FRAMED 전송
+ *
+ * 기능 문자 (버전 2 이상에서만 사용)
+ * C : 악보 캐시 (해시로 이미 가진 악보를 다시 선택할 수 있음)
+ * D : 악보 패치 (ScoreDiff 패치를 받아 현재 악보를 고칠 수 있음, C 와 함께 사용)
+ * Z : 압축 (ScoreCompressor 로 압축한 메시지를 풀 수 있음)
+ * T : 시간 동기화 (TIME_SYNC 프레임으로 폰에서 재생 중인 곡 위치를 받아 맞출 수 있음)
+ * K : 무결성 검사 (프레임별 CRC-16 과 메시지 CRC-32 를 확인하고, 빠지거나 깨진 프레임만 NACK 으로 다시 요청함)
+ */
+public class DeviceCapabilities {
+    /* Constant */
+    public static final int LEGACY_VERSION = 1;
+    public static final int BINARY_SCORE_VERSION = 2;
+    public static final int PHONE_VERSION = 2; // 이 앱이 지원하는 최대 버전
+    private static final char VERSION_PREFIX = 'V';
+    private static final char FEATURE_SEPARATOR = ':';
+
+    /* Feature */
+    public static final int FEATURE_SONG_CACHE = 1;
+    public static final int FEATURE_SCORE_PATCH = 1 << 1;
+    public static final int FEATURE_COMPRESSION = 1 << 2;
+    public static final int FEATURE_TIME_SYNC = 1 << 3;
+    public static final int FEATURE_INTEGRITY_CHECK = 1 << 4;
+    private static final String FEATURE_SYMBOLS = "CDZTK"; // FEATURE_* 비트 순서와 같음
+
+    public static final DeviceCapabilities LEGACY = new DeviceCapabilities(LEGACY_VERSION, 0);
+
+    private final int mVersion;
+    private final int mFeatures;
+
+    private DeviceCapabilities(int version, int features) {
+        mVersion = version;
+        mFeatures = version >= BINARY_SCORE_VERSION ? features : 0;
+    }
+
+    /**
+     * Characteristic 에서 읽은 값으로부터 기기와 협상된 버전을 구하는 메소드
+     *
+     * @param value Characteristic 값 (null 가능)
+     * @return 안드로이드와 기기가 모두 지원하는 버전
+     */
+    public static DeviceCapabilities parse(byte[] value) {
+        if (value == null || value.length < 2 || value[0] != VERSION_PREFIX) {
+            return LEGACY;
+        }
+
+        String text = new String(value, StandardCharsets.UTF_8);
+        int end = 1;
+        while (end < text.length() && Character.isDigit(text.charAt(end))) {
+            end++;
+        }
+        if (end == 1) {
+            return LEGACY;
+        }
+
+        int version;
+        try {
+            version = Integer.parseInt(text.substring(1, end));
+        } catch (NumberFormatException e) {
+            return LEGACY;
+        }
+
+        int features = 0;
+        if (end < text.length() && text.charAt(end) == FEATURE_SEPARATOR) {
+            for (int i = end + 1; i < text.length(); i++) {
+                int bit = FEATURE_SYMBOLS.indexOf(text.charAt(i));
+                if (bit >= 0) {
+                    features |= 1 << bit; // 모르는 기능 문자는 무시
+                }
+            }
+        }
+        return new DeviceCapabilities(Math.max(LEGACY_VERSION, Math.min(version, PHONE_VERSION)), features);
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public boolean supportsFramedTransfer() {
+        return mVersion >= BINARY_SCORE_VERSION;
+    }
+
+    public boolean supportsBinaryScore() {
+        return mVersion >= BINARY_SCORE_VERSION;
+    }
+
+    public boolean hasFeature(int feature) {
+        return (mFeatures & feature) != 0;
+    }
+
+    public boolean supportsSongCache() {
+        return hasFeature(FEATURE_SONG_CACHE);
+    }
+
+    public boolean supportsScorePatch() {
+        return hasFeature(FEATURE_SONG_CACHE) && hasFeature(FEATURE_SCORE_PATCH);
+    }
+
+    public boolean supportsCompression() {
+        return hasFeature(FEATURE_COMPRESSION);
+    }
+
+    public boolean supportsTimeSync() {
+        return hasFeature(FEATURE_TIME_SYNC);
+    }
+
+    public boolean supportsIntegrityCheck() {
+        return hasFeature(FEATURE_INTEGRITY_CHECK);
+    }
+
+    /**
+     * parse() 로 다시 읽을 수 있는 Characteristic 값 형식의 문자열 ("V2:CD" 등)
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder().append(VERSION_PREFIX).append(mVersion);
+        if (mFeatures != 0) {
+            builder.append(FEATURE_SEPARATOR);
+            for (int bit = 0; bit < FEATURE_SYMBOLS.length(); bit++) {
+                if (hasFeature(1 << bit)) {
+                    builder.append(FEATURE_SYMBOLS.charAt(bit));
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 기기가 보내는 실시간 운지(줄, 프렛) 이벤트를 담는 고정 크기 링 버퍼
+ *
+ * 생산자(BLE 스레드) 하나와 소비자(UI 또는 채점 스레드) 하나만 사용하는 것을 전제로 하며, lock 을 사용하지 않음.
+ * 이벤트는 미리 할당한 primitive 배열에 저장하므로 offer/drain 중에는 객체를 생성하지 않음.
+ * 버퍼가 가득 차면 새 이벤트를 버리고 getDroppedCount() 를 증가시킴 (소비자가 늦어도 BLE 스레드는 멈추지 않음).
+ *
+ * Notification 형식 : [NOTIFY_FRET_EVENT] 다음에 이벤트마다 [줄(상위 3bit) | 프렛(하위 5bit)][경과 시간(ms)]
+ *   경과 시간은 기기가 이벤트를 감지한 뒤 Notification 을 보내기까지 걸린 시간으로, 수신 시각에서 빼서 이벤트 시각을 구함.
+ */
+public class FretEventBuffer {
+    /* Constant */
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final int EVENT_LENGTH = 2;
+    private static final int STRING_SHIFT = 5;
+    private static final int FRET_MASK = 0x1F;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /**
+     * 버퍼에서 꺼낸 이벤트를 받는 콜백 인터페이스
+     */
+    public interface Consumer {
+        void onFretEvent(long timestampNanos, int string, int fret);
+    }
+
+    private final int mMask;
+    private final long[] mTimestamps;
+    private final byte[] mNotes;
+
+    /* Index (생산자는 mTail 만, 소비자는 mHead 만 변경) */
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+    private long mCachedHead = 0;   // 생산자 전용, mHead 를 매번 읽지 않기 위한 캐시
+
+    /* Counter (생산자 전용으로 증가) */
+    private volatile long mDroppedCount = 0;
+    private volatile long mMalformedCount = 0;
+
+    public FretEventBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 2의 거듭제곱
+     */
+    public FretEventBuffer(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity : " + capacity);
+        }
+        mMask = capacity - 1;
+        mTimestamps = new long[capacity];
+        mNotes = new byte[capacity];
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * 버퍼가 가득 차서 버린 이벤트 수
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * 형식이 잘못되어 버린 Notification 수
+     */
+    public long getMalformedCount() {
+        return mMalformedCount;
+    }
+
+    /**
+     * Notification 이 운지 이벤트인지 확인하는 메소드
+     *
+     * @param value 받은 데이터
+     * @return 운지 이벤트이면 true
+     */
+    public static boolean isFretEvent(byte[] value) {
+        return value.length > 0 && value[0] == BleProtocol.NOTIFY_FRET_EVENT;
+    }
+
+    /**
+     * 운지 이벤트 Notification 을 해석해 버퍼에 넣는 메소드 (생산자 스레드 전용)
+     *
+     * @param receiveNanos Notification 을 받은 시각
+     * @param value        받은 데이터
+     * @return 버퍼에 넣은 이벤트 수
+     */
+    public int offerNotification(long receiveNanos, byte[] value) {
+        if (!isFretEvent(value) || (value.length - 1) % EVENT_LENGTH != 0) {
+            mMalformedCount++;
+            return 0;
+        }
+
+        int accepted = 0;
+        for (int i = 1; i < value.length; i += EVENT_LENGTH) {
+            int note = value[i] & 0xFF;
+            long ageNanos = (value[i + 1] & 0xFF) * NANOS_PER_MILLI;
+            if (offer(receiveNanos - ageNanos, note >>> STRING_SHIFT, note & FRET_MASK)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * 이벤트 하나를 버퍼에 넣는 메소드 (생산자 스레드 전용)
+     *
+     * @param timestampNanos 이벤트 시각
+     * @param string         줄 (0 ~ 7)
+     * @param fret           프렛 (0 ~ 31)
+     * @return 버퍼가 가득 차서 버렸으면 false
+     */
+    public boolean offer(long timestampNanos, int string, int fret) {
+        long tail = mTail.get();
+        if (tail - mCachedHead > mMask) {
+            mCachedHead = mHead.get();
+            if (tail - mCachedHead > mMask) {
+                mDroppedCount++;
+                return false;
+            }
+        }
+
+        int index = (int) tail & mMask;
+        mTimestamps[index] = timestampNanos;
+        mNotes[index] = (byte) (string << STRING_SHIFT | fret & FRET_MASK);
+        mTail.lazySet(tail + 1); // 값을 쓴 뒤에 index 를 공개
+        return true;
+    }
+
+    /**
+     * 쌓인 이벤트를 순서대로 꺼내 consumer 에 전달하는 메소드 (소비자 스레드 전용)
+     *
+     * @param consumer 이벤트를 받을 콜백
+     * @param max      최대로 꺼낼 이벤트 수
+     * @return 꺼낸 이벤트 수
+     */
+    public int drain(Consumer consumer, int max) {
+        long head = mHead.get();
+        long available = mTail.get() - head;
+        int count = (int) Math.min(available, max);
+
+        for (int i = 0; i < count; i++) {
+            int index = (int) (head + i) & mMask;
+            int note = mNotes[index] & 0xFF;
+            consumer.onFretEvent(mTimestamps[index], note >>> STRING_SHIFT, note & FRET_MASK);
+        }
+        mHead.lazySet(head + count); // 다 읽은 뒤에 자리를 돌려줌
+        return count;
+    }
+
+    public int drain(Consumer consumer) {
+        return drain(consumer, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GattCommandQueue 에서 하나씩 실행되는 GATT 동작과 그 결과
+ * 큐에 넣은 쪽은 이 객체를 future 처럼 사용하여 결과를 기다리거나(await) 콜백(setCallback)을 받을 수 있음.
+ */
+public class GattCommand {
+    /* Status */
+    public static final int STATUS_PENDING = Integer.MIN_VALUE;
+    public static final int STATUS_SUCCESS = 0;       // BluetoothGatt.GATT_SUCCESS 와 같음
+    public static final int STATUS_TIMEOUT = -1;      // 제한 시간 안에 콜백이 오지 않음
+    public static final int STATUS_REJECTED = -2;     // BluetoothGatt 가 요청을 받아들이지 않음 (false 반환)
+    public static final int STATUS_CANCELLED = -3;    // 연결 종료 등으로 취소됨
+
+    public enum Type {
+        READ, WRITE, WRITE_DESCRIPTOR, REQUEST_MTU
+    }
+
+    /**
+     * 명령이 끝났을 때 호출되는 콜백 인터페이스 (큐의 실행 스레드에서 호출됨)
+     */
+    public interface Callback {
+        void onCommandComplete(GattCommand command);
+    }
+
+    public final Type type;
+    final byte[] value;
+    final boolean withResponse;
+    final int mtu;
+    private final boolean mRetryable; // 결과를 모르는 채로 다시 보내도 되는지 (GattCommandQueue 참고)
+
+    int attempts = 0;
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private volatile int mStatus = STATUS_PENDING;
+    private volatile byte[] mResultValue;
+    private volatile int mResultMtu;
+    private Callback mCallback;
+
+    private GattCommand(Type type, byte[] value, boolean withResponse, int mtu, boolean retryable) {
+        this.type = type;
+        this.value = value;
+        this.withResponse = withResponse;
+        this.mtu = mtu;
+        mRetryable = retryable;
+    }
+
+    public static GattCommand read() {
+        return new GattCommand(Type.READ, null, true, 0, true);
+    }
+
+    /**
+     * 순번이 없는 write (LEGACY 조각, 제어 프레임 등)
+     * 시간 초과나 오류 상태이면 기기에 이미 도착했을 수 있으므로, 큐가 다시 보내지 않고 실패로 알림.
+     */
+    public static GattCommand write(byte[] value, boolean withResponse) {
+        return new GattCommand(Type.WRITE, value, withResponse, 0, false);
+    }
+
+    /**
+     * 순번이 붙은 FRAMED 데이터 프레임 write
+     * 기기는 이미 받은 순번을 버리므로, 결과를 모르는 채로 다시 보내도 됨.
+     */
+    public static GattCommand sequencedWrite(byte[] value, boolean withResponse) {
+        return new GattCommand(Type.WRITE, value, withResponse, 0, true);
+    }
+
+    public static GattCommand writeDescriptor(byte[] value) {
+        return new GattCommand(Type.WRITE_DESCRIPTOR, value, true, 0, true);
+    }
+
+    public static GattCommand requestMtu(int mtu) {
+        return new GattCommand(Type.REQUEST_MTU, null, true, mtu, true);
+    }
+
+    /**
+     * 완료 콜백을 등록하는 메소드. 이미 끝난 명령이면 바로 호출함.
+     *
+     * @param callback 완료 콜백
+     * @return this
+     */
+    public GattCommand setCallback(Callback callback) {
+        boolean done;
+        synchronized (this) {
+            mCallback = callback;
+            done = isDone();
+        }
+        if (done && callback != null) {
+            callback.onCommandComplete(this);
+        }
+        return this;
+    }
+
+    public boolean isDone() {
+        return mStatus != STATUS_PENDING;
+    }
+
+    public boolean isSuccess() {
+        return mStatus == STATUS_SUCCESS;
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    public boolean isRetryable() {
+        return mRetryable;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * READ 결과 값
+     */
+    public byte[] getValue() {
+        return mResultValue;
+    }
+
+    /**
+     * REQUEST_MTU 결과로 협상된 MTU
+     */
+    public int getMtu() {
+        return mResultMtu;
+    }
+
+    /**
+     * 명령이 끝날 때까지 기다리는 메소드 (큐의 실행 스레드에서 호출하면 안 됨)
+     *
+     * @return 제한 시간 안에 끝났으면 true
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return mDone.await(timeout, unit);
+    }
+
+    void complete(int status, byte[] resultValue, int resultMtu) {
+        Callback callback;
+        synchronized (this) {
+            if (isDone()) {
+                return;
+            }
+            mResultValue = resultValue;
+            mResultMtu = resultMtu;
+            mStatus = status;
+            callback = mCallback;
+        }
+        mDone.countDown();
+        if (callback != null) {
+            callback.onCommandComplete(this);
+        }
+    }
+}
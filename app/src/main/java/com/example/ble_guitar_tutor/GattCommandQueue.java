@@ -0,0 +1,344 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Android 는 한 번에 하나의 GATT 동작만 허용하므로, GATT 동작을 큐에 넣고 하나씩 실행하는 객체
+ *
+ * - 실행 중인 명령의 결과 콜백(onCommandResult)이 와야 다음 명령을 실행함.
+ * - 명령마다 제한 시간이 있고, 요청 실패/오류 상태이면 maxRetries 번까지 다시 시도함.
+ *   단, 순번이 없는 WRITE 는 기기에 이미 도착했을 수 있으므로 오류 상태/시간 초과이면 다시 보내지 않고 실패로 알림
+ *   (요청 자체가 거부된 경우만 다시 시도함). 다시 보낼지는 ChunkTransfer 가 정함.
+ * - 시도마다 번호(attemptId)를 붙여 GattOperations 에 넘기고, 결과 콜백은 같은 번호로 돌려받음.
+ * - Android 의 GATT 콜백에는 어느 요청의 결과인지 알 수 있는 값이 없으므로, 시간 초과된 시도의 콜백이 늦게 오면
+ *   그 뒤에 시작한 시도의 결과와 구별할 수 없음. 그래서 시간 초과 뒤에는 다음 시도를 시작하지 않고 늦은 콜백을 한 번 기다림.
+ *   늦은 콜백이 오면 아직 끝나지 않은 명령의 결과로 처리하고 (이미 실패로 알린 명령이면 버림) 큐를 이어서 실행하며,
+ *   한 번 더 제한 시간이 지나도 오지 않으면 GATT 가 멈춘 것으로 보고 명령을 실패로 끝낸 뒤 StallListener 에 알림.
+ * - 큐 크기가 정해져 있어, 기기가 느리면 offer() 는 false 를 반환하고 submit() 은 자리가 날 때까지 기다림(backpressure).
+ *
+ * 명령 실행과 결과 처리는 모두 생성자에 넘긴 executor(BLE 스레드)에서 일어남.
+ */
+public class GattCommandQueue {
+    /* Constant */
+    public static final int DEFAULT_CAPACITY = 16;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 3000;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final int NO_ATTEMPT = 0; // 시도 번호가 없음 (시도 번호는 0 이 아닌 값)
+    private static final long RETRY_DELAY_MILLIS = 20;
+
+    /**
+     * 시간 초과된 시도의 콜백이 끝내 오지 않았을 때 호출되는 콜백 (executor 스레드에서 호출됨)
+     * GATT 가 더 응답하지 않는 상태이므로 연결을 닫고 다시 연결해야 함.
+     */
+    public interface StallListener {
+        void onStalled();
+    }
+
+    /**
+     * 실제 GATT 호출을 추상화한 인터페이스 (BluetoothGatt 또는 테스트용 가짜 GATT)
+     * 각 메소드는 요청이 시작되었는지를 반환하고, 결과는 같은 attemptId 로 onCommandResult() 에 전달해야 함.
+     */
+    public interface GattOperations {
+        boolean readCharacteristic(int attemptId);
+
+        boolean writeCharacteristic(int attemptId, byte[] value, boolean withResponse);
+
+        boolean writeDescriptor(int attemptId, byte[] value);
+
+        boolean requestMtu(int attemptId, int mtu);
+    }
+
+    private final GattOperations mGatt;
+    private final ScheduledExecutorService mExecutor;
+    private final int mCapacity;
+    private final long mTimeoutMillis;
+    private final int mMaxRetries;
+
+    private final Object mLock = new Object();
+    private final ArrayDeque<GattCommand> mPending = new ArrayDeque<>();
+    private GattCommand mCurrent;          // 실행 중인 명령 (executor 스레드 전용)
+    private ScheduledFuture<?> mTimeout;   // 실행 중인 명령의 제한 시간 (executor 스레드 전용)
+    private int mLastAttemptId = NO_ATTEMPT; // 마지막으로 붙인 시도 번호 (executor 스레드 전용)
+    private int mActiveAttemptId = NO_ATTEMPT; // 결과를 기다리는 시도 번호, 없으면 NO_ATTEMPT (executor 스레드 전용)
+    private int mStaleAttemptId = NO_ATTEMPT; // 시간 초과 뒤 콜백을 기다리는 시도 번호, 없으면 NO_ATTEMPT (executor 스레드 전용)
+    private GattCommand.Type mStaleType;   // mStaleAttemptId 시도의 콜백 종류 (executor 스레드 전용)
+    private volatile StallListener mStallListener;
+
+    public GattCommandQueue(GattOperations gatt, ScheduledExecutorService executor) {
+        this(gatt, executor, DEFAULT_CAPACITY, DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_RETRIES);
+    }
+
+    public GattCommandQueue(GattOperations gatt, ScheduledExecutorService executor,
+                            int capacity, long timeoutMillis, int maxRetries) {
+        mGatt = gatt;
+        mExecutor = executor;
+        mCapacity = capacity;
+        mTimeoutMillis = timeoutMillis;
+        mMaxRetries = maxRetries;
+    }
+
+    public void setStallListener(StallListener listener) {
+        mStallListener = listener;
+    }
+
+    /**
+     * 큐에 자리가 있으면 명령을 넣는 메소드 (기다리지 않음)
+     *
+     * @param command 실행할 명령
+     * @return 큐가 가득 찼으면 false
+     */
+    public boolean offer(GattCommand command) {
+        synchronized (mLock) {
+            if (mPending.size() >= mCapacity) {
+                return false;
+            }
+            mPending.add(command);
+        }
+        mExecutor.execute(this::executeNext);
+        return true;
+    }
+
+    /**
+     * 큐에 자리가 날 때까지 기다렸다가 명령을 넣는 메소드
+     * executor 스레드에서 호출하면 자리가 나지 않으므로 offer() 를 사용해야 함.
+     *
+     * @param command 실행할 명령
+     * @return 넣은 명령 (결과를 기다리는 데 사용)
+     */
+    public GattCommand submit(GattCommand command) throws InterruptedException {
+        synchronized (mLock) {
+            while (mPending.size() >= mCapacity) {
+                mLock.wait();
+            }
+            mPending.add(command);
+        }
+        mExecutor.execute(this::executeNext);
+        return command;
+    }
+
+    /**
+     * 대기 중인 명령 수 (실행 중인 명령 제외)
+     */
+    public int size() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * 실행 중인 명령과 대기 중인 명령을 모두 취소하는 메소드 (연결이 끊겼을 때 호출)
+     * 호출한 뒤에 넣은 명령은 취소되지 않음.
+     */
+    public void clear() {
+        final ArrayList<GattCommand> cancelled;
+        synchronized (mLock) {
+            cancelled = new ArrayList<>(mPending);
+            mPending.clear();
+            mLock.notifyAll();
+        }
+
+        mExecutor.execute(() -> {
+            cancelTimeout();
+            GattCommand current = mCurrent;
+            mCurrent = null;
+            mActiveAttemptId = NO_ATTEMPT;
+            mStaleAttemptId = NO_ATTEMPT;
+            if (current != null) {
+                current.complete(GattCommand.STATUS_CANCELLED, null, 0);
+            }
+            for (GattCommand command : cancelled) {
+                command.complete(GattCommand.STATUS_CANCELLED, null, 0);
+            }
+            executeNext();
+        });
+    }
+
+    /**
+     * GATT 콜백에서 실행 중인 명령의 결과를 전달하는 메소드
+     * 시간 초과 뒤 기다리던 늦은 콜백이면 아직 끝나지 않은 명령의 결과로 처리하고,
+     * 그 밖에 결과를 기다리는 시도가 아니면 (이전 시도, 취소된 명령) 무시함.
+     *
+     * @param attemptId GattOperations 호출 때 받은 시도 번호
+     * @param type   콜백 종류
+     * @param status GATT 상태 값
+     * @param value  READ 결과 값 (없으면 null)
+     * @param mtu    REQUEST_MTU 결과 (없으면 0)
+     */
+    public void onCommandResult(int attemptId, GattCommand.Type type, int status, byte[] value, int mtu) {
+        mExecutor.execute(() -> {
+            if (attemptId == NO_ATTEMPT) {
+                return;
+            }
+            if (attemptId == mStaleAttemptId && type == mStaleType) {
+                onStaleResult(status, value, mtu);
+                return;
+            }
+            GattCommand command = mCurrent;
+            if (command == null || command.type != type || attemptId != mActiveAttemptId) {
+                return;
+            }
+            cancelTimeout();
+            mActiveAttemptId = NO_ATTEMPT;
+
+            if (status == GattCommand.STATUS_SUCCESS) {
+                finish(command, status, value, mtu);
+            } else {
+                retryOrFail(command, status);
+            }
+        });
+    }
+
+    /**
+     * 시간 초과 뒤에 기다리던 콜백을 처리하는 메소드
+     * 다시 시도할 수 있어 남겨 둔 명령이면 이 콜백을 결과로 쓰고, 이미 실패로 알린 명령이면 버린 뒤 큐를 이어서 실행함.
+     */
+    private void onStaleResult(int status, byte[] value, int mtu) {
+        cancelTimeout();
+        mStaleAttemptId = NO_ATTEMPT;
+        GattCommand command = mCurrent;
+        if (command == null) {
+            executeNext();
+        } else if (status == GattCommand.STATUS_SUCCESS) {
+            finish(command, status, value, mtu);
+        } else {
+            retryOrFail(command, status);
+        }
+    }
+
+    /**
+     * 늦은 콜백을 기다리다 제한 시간이 다시 지난 경우, 남은 명령을 실패로 끝내고 StallListener 에 알리는 메소드
+     */
+    private void onStalled() {
+        mTimeout = null;
+        mStaleAttemptId = NO_ATTEMPT;
+        GattCommand command = mCurrent;
+        if (command != null) {
+            mCurrent = null;
+            command.complete(GattCommand.STATUS_TIMEOUT, null, 0);
+        }
+        StallListener listener = mStallListener;
+        if (listener != null) {
+            listener.onStalled();
+        }
+        executeNext();
+    }
+
+    private GattCommand pollPending() {
+        synchronized (mLock) {
+            GattCommand command = mPending.poll();
+            mLock.notifyAll();
+            return command;
+        }
+    }
+
+    private void executeNext() {
+        if (mCurrent != null || mStaleAttemptId != NO_ATTEMPT) {
+            return;
+        }
+        GattCommand command = pollPending();
+        if (command == null) {
+            return;
+        }
+        mCurrent = command;
+        execute(command);
+    }
+
+    private void execute(GattCommand command) {
+        if (mCurrent != command) {
+            return;
+        }
+        command.attempts++;
+        final int attemptId = nextAttemptId();
+        mActiveAttemptId = attemptId;
+
+        boolean started;
+        try {
+            started = dispatch(attemptId, command);
+        } catch (RuntimeException e) {
+            started = false;
+        }
+        if (!started) {
+            mActiveAttemptId = NO_ATTEMPT;
+            retryOrFail(command, GattCommand.STATUS_REJECTED);
+            return;
+        }
+
+        mTimeout = mExecutor.schedule(() -> {
+            if (mCurrent == command && mActiveAttemptId == attemptId) {
+                onTimeout(command, attemptId);
+            }
+        }, mTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 제한 시간 안에 콜백이 오지 않은 경우, 다음 시도를 시작하지 않고 늦은 콜백을 한 번 더 기다리는 메소드
+     * 다시 보내면 안 되는 명령은 바로 실패로 알리지만, 늦은 콜백을 받을 때까지 다음 명령도 시작하지 않음.
+     */
+    private void onTimeout(GattCommand command, int attemptId) {
+        mActiveAttemptId = NO_ATTEMPT;
+        mStaleAttemptId = attemptId;
+        mStaleType = command.type;
+        if (!command.isRetryable()) {
+            finish(command, GattCommand.STATUS_TIMEOUT, null, 0);
+        }
+        mTimeout = mExecutor.schedule(() -> {
+            if (mStaleAttemptId == attemptId) {
+                onStalled();
+            }
+        }, mTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private int nextAttemptId() {
+        mLastAttemptId++;
+        if (mLastAttemptId == NO_ATTEMPT) {
+            mLastAttemptId++;
+        }
+        return mLastAttemptId;
+    }
+
+    private boolean dispatch(int attemptId, GattCommand command) {
+        switch (command.type) {
+            case READ:
+                return mGatt.readCharacteristic(attemptId);
+            case WRITE:
+                return mGatt.writeCharacteristic(attemptId, command.value, command.withResponse);
+            case WRITE_DESCRIPTOR:
+                return mGatt.writeDescriptor(attemptId, command.value);
+            case REQUEST_MTU:
+                return mGatt.requestMtu(attemptId, command.mtu);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 시도가 실패했을 때 다시 시도하거나 명령을 끝내는 메소드
+     * 요청이 거부된 경우(STATUS_REJECTED)는 기기에 아무것도 가지 않았으므로 항상 다시 시도할 수 있고,
+     * 그 밖의 실패는 다시 보내도 안전한 명령(GattCommand.isRetryable())만 다시 시도함.
+     */
+    private void retryOrFail(GattCommand command, int status) {
+        boolean retry = status == GattCommand.STATUS_REJECTED || command.isRetryable();
+        if (retry && command.attempts <= mMaxRetries) {
+            mExecutor.schedule(() -> execute(command), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            finish(command, status, null, 0);
+        }
+    }
+
+    private void finish(GattCommand command, int status, byte[] value, int mtu) {
+        mCurrent = null;
+        command.complete(status, value, mtu);
+        executeNext();
+    }
+
+    private void cancelTimeout() {
+        if (mTimeout != null) {
+            mTimeout.cancel(false);
+            mTimeout = null;
+        }
+    }
+}
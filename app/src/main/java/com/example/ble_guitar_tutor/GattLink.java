@@ -0,0 +1,425 @@
+package com.example.ble_guitar_tutor;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 기타 한 대와의 GATT 연결 (BleManager 와 ClassroomManager 가 함께 사용)
+ *
+ * - 연결, 서비스 탐색과 준비 순서(Descriptor -> MTU -> 프로토콜 버전 읽기), GattCommandQueue 를 가지고 결과는 Listener 로 알림.
+ * - GATT 콜백(Binder 스레드)은 필요한 값만 복사한 뒤 생성자에 넘긴 executor(BLE 스레드)에서 처리하고, Listener 도 그 스레드에서 호출함.
+ * - 연결이 끊기면 스스로 닫히고, 다시 연결할 때는 새 객체를 만듦.
+ */
+class GattLink implements BleTransport {
+    /* Constant */
+    private static final String TAG = "GattLink";
+    private static final String KEY_CAPABILITIES_PREFIX = "capabilities_"; // + 기기 주소
+
+    /**
+     * 연결 상태와 받은 데이터를 전달받는 콜백 인터페이스 (BLE 스레드에서 호출됨)
+     */
+    interface Listener {
+        /**
+         * 연결되어 서비스 탐색을 시작함
+         */
+        void onConnected();
+
+        /**
+         * 기타 서비스를 찾아 준비 명령을 큐에 넣음
+         */
+        void onServicesDiscovered();
+
+        /**
+         * 준비 명령(Descriptor, MTU, 프로토콜 버전 읽기) 하나가 끝남
+         */
+        void onSetupCommand(GattCommand command);
+
+        /**
+         * 프로토콜 버전이 정해져 전송할 준비가 끝남 (연결마다 한 번)
+         */
+        void onReady(DeviceCapabilities capabilities);
+
+        /**
+         * 저장해 둔 버전으로 준비를 끝낸 뒤 읽은 버전이 달랐음 (펌웨어가 바뀐 경우)
+         * 그 사이에 저장해 둔 버전으로 시작한 전송은 새 버전과 형식이 다를 수 있음.
+         */
+        void onCapabilitiesChanged(DeviceCapabilities capabilities);
+
+        /**
+         * 결과를 모르는 채로 다시 보내도 되는 write 인지 (GattCommand.sequencedWrite() 참고)
+         */
+        boolean isSequencedWrite(byte[] value);
+
+        void onWriteComplete(int writeId, GattCommand command);
+
+        void onNotification(byte[] value, long receiveNanos);
+
+        /**
+         * 연결이 끊기거나 연결하지 못함. GATT 가 응답하지 않는 경우(STATUS_TIMEOUT)도 포함.
+         * 이미 닫혔으므로 이후 콜백은 호출되지 않음.
+         */
+        void onDisconnected(int status);
+    }
+
+    private final Context mContext;
+    private final BluetoothDevice mDevice;
+    private final String mAddress;
+    private final ScheduledExecutorService mExecutor;
+    private final SharedPreferences mCapabilityCache; // 기기별 프로토콜 버전 저장, 없으면 null
+    private final Listener mListener;
+    private final GattCommandQueue mCommandQueue;
+    private volatile BluetoothGatt mGatt;
+    private volatile BluetoothGattCharacteristic mCharacteristic;
+    private volatile int mMtu = BleProtocol.DEFAULT_MTU;
+    private volatile int mStartedAttemptId = GattCommandQueue.NO_ATTEMPT; // GATT 콜백이 돌려줄 시도 번호 (GattOperationsImpl)
+    private boolean mReady = false; // BLE 스레드 전용
+
+    /**
+     * @param capabilityCache 기기별 프로토콜 버전을 저장해 두고, 다음 연결에서 읽기를 기다리지 않고 준비를 끝낼 때 사용. 없으면 null
+     */
+    GattLink(Context context, BluetoothDevice device, ScheduledExecutorService executor,
+             SharedPreferences capabilityCache, Listener listener) {
+        mContext = context;
+        mDevice = device;
+        mAddress = device.getAddress();
+        mExecutor = executor;
+        mCapabilityCache = capabilityCache;
+        mListener = listener;
+        mCommandQueue = new GattCommandQueue(new GattOperationsImpl(), executor);
+        mCommandQueue.setStallListener(this::onStalled);
+    }
+
+    /**
+     * GATT 연결을 시작하는 메소드 (BLE 스레드에서 호출)
+     * 자동 연결(autoConnect)은 연결되기까지 오래 걸리므로 사용하지 않음.
+     */
+    void connect() {
+        mGatt = mDevice.connectGatt(mContext, false, new GattClientCallback());
+    }
+
+    /**
+     * GATT 연결을 닫는 메소드 (BLE 스레드에서 호출, 여러 번 호출해도 됨)
+     * 실행 중이거나 대기 중인 명령은 취소되고 Listener 는 더 호출되지 않음.
+     */
+    void close() {
+        mCommandQueue.clear();
+        BluetoothGatt gatt = mGatt;
+        mGatt = null;
+        if (gatt != null) {
+            gatt.disconnect();
+            gatt.close();
+        }
+    }
+
+    String getAddress() {
+        return mAddress;
+    }
+
+    int getMtu() {
+        return mMtu;
+    }
+
+    boolean isReady() {
+        return mReady;
+    }
+
+    private void runOnExecutor(Runnable task) {
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "BLE thread already closed");
+        }
+    }
+
+    /**
+     * GATT 콜백 구현
+     * 콜백은 Binder 스레드에서 호출되므로, 필요한 값만 복사한 뒤 BLE 스레드에서 처리함.
+     */
+    private class GattClientCallback extends BluetoothGattCallback {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            super.onConnectionStateChange(gatt, status, newState);
+            runOnExecutor(() -> handleConnectionStateChange(gatt, status, newState));
+        }
+
+        private void handleConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (gatt != mGatt) {
+                return; // 이미 닫은 연결의 콜백
+            }
+            Log.d(TAG, mAddress + " : status " + status + ", new state " + newState);
+
+            // 연결 실패(133 등)도 끊긴 것과 같이 처리함
+            if (status != BluetoothGatt.GATT_SUCCESS || newState == BluetoothProfile.STATE_DISCONNECTED) {
+                close();
+                mListener.onDisconnected(status);
+                return;
+            }
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                mListener.onConnected();
+                gatt.discoverServices(); // onServicesDiscovered 콜백 메소드로 넘어감
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            super.onServicesDiscovered(gatt, status);
+            runOnExecutor(() -> handleServicesDiscovered(gatt, status));
+        }
+
+        /**
+         * Service 안의 Characteristic 을 찾아 구독하고, 준비 명령을 큐에 넣는 메소드
+         * GATT 동작은 한 번에 하나만 가능하므로 큐에서 순서대로 실행됨.
+         */
+        private void handleServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS || gatt != mGatt) {
+                return;
+            }
+
+            BluetoothGattService service = gatt.getService(BleManager.SERVICE_UUID);
+            BluetoothGattCharacteristic characteristic = service == null ? null : service.getCharacteristic(BleManager.CHARACTERISTIC_UUID);
+            if (characteristic == null) {
+                Log.w(TAG, mAddress + " : no guitar service");
+                return;
+            }
+            mCharacteristic = characteristic;
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            mCommandQueue.clear();
+            boolean notificationEnabled = gatt.setCharacteristicNotification(characteristic, true);
+            Log.d(TAG, mAddress + " : notification enabled " + notificationEnabled);
+            mListener.onServicesDiscovered();
+
+            // 1. Characteristic 을 구독하는 Descriptor 설정
+            mCommandQueue.offer(GattCommand.writeDescriptor(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)
+                    .setCallback(mListener::onSetupCommand));
+
+            // 2. 기기와 안드로이드가 모두 지원하는 가장 큰 MTU 요청, 실패하면 기본 MTU(23)로 계속 진행
+            //    읽기를 지원하지 않는 기존 펌웨어는 버전 1 로 취급하고, 전에 버전을 읽은 적이 있는 기기는
+            //    저장해 둔 버전으로 바로 준비를 끝냄. 읽기를 지원하지 않게 된 기기(펌웨어를 바꾼 경우)의 저장 값은 쓰지 않음.
+            boolean readable = (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) != 0;
+            String cachedValue = null;
+            if (mCapabilityCache != null) {
+                if (readable) {
+                    cachedValue = mCapabilityCache.getString(KEY_CAPABILITIES_PREFIX + mAddress, null);
+                } else {
+                    mCapabilityCache.edit().remove(KEY_CAPABILITIES_PREFIX + mAddress).apply();
+                }
+            }
+            final String cached = cachedValue;
+            mCommandQueue.offer(GattCommand.requestMtu(BleProtocol.REQUEST_MTU).setCallback(command -> {
+                if (command.getStatus() == GattCommand.STATUS_CANCELLED) {
+                    return; // 연결을 닫거나 서비스를 다시 찾음
+                }
+                mMtu = command.isSuccess() ? command.getMtu() : BleProtocol.DEFAULT_MTU;
+                Log.d(TAG, mAddress + " : MTU " + mMtu);
+                mListener.onSetupCommand(command);
+                if (!readable) {
+                    onReady(DeviceCapabilities.LEGACY);
+                } else if (cached != null) {
+                    onReady(DeviceCapabilities.parse(cached.getBytes(StandardCharsets.UTF_8)));
+                }
+            }));
+            if (!readable) {
+                return;
+            }
+
+            // 3. 기기가 Characteristic 에 적어둔 프로토콜 버전("V2" 등) 읽기
+            //    저장해 둔 버전으로 이미 준비를 끝냈는데 읽은 값이 다르면 Listener 가 새 버전으로 다시 설정해야 함.
+            mCommandQueue.offer(GattCommand.read().setCallback(command -> {
+                if (command.getStatus() == GattCommand.STATUS_CANCELLED) {
+                    return;
+                }
+                mListener.onSetupCommand(command);
+                if (!command.isSuccess()) {
+                    if (cached == null) {
+                        onReady(DeviceCapabilities.LEGACY);
+                    }
+                    return;
+                }
+                String value = new String(command.getValue(), StandardCharsets.UTF_8);
+                if (mCapabilityCache != null) {
+                    mCapabilityCache.edit().putString(KEY_CAPABILITIES_PREFIX + mAddress, value).apply();
+                }
+                if (cached == null) {
+                    onReady(DeviceCapabilities.parse(command.getValue()));
+                } else if (!value.equals(cached)) {
+                    Log.d(TAG, mAddress + " : capabilities changed " + cached + " -> " + value);
+                    mListener.onCapabilitiesChanged(DeviceCapabilities.parse(command.getValue()));
+                }
+            }));
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            super.onDescriptorWrite(gatt, descriptor, status);
+            mCommandQueue.onCommandResult(mStartedAttemptId, GattCommand.Type.WRITE_DESCRIPTOR, status, null, 0);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            super.onMtuChanged(gatt, mtu, status);
+            mCommandQueue.onCommandResult(mStartedAttemptId, GattCommand.Type.REQUEST_MTU, status, null, mtu);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicRead(gatt, characteristic, status);
+            mCommandQueue.onCommandResult(mStartedAttemptId, GattCommand.Type.READ, status, copyValue(characteristic), 0);
+        }
+
+        /**
+         * Characteristic을 Write 하면 호출되는 콜백 메소드
+         * 한글은 지원하지 않음(write 가능하지만, 반대편에서 읽지 못함)
+         */
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicWrite(gatt, characteristic, status);
+            mCommandQueue.onCommandResult(mStartedAttemptId, GattCommand.Type.WRITE, status, null, 0);
+        }
+
+        /**
+         * Characteristic의 값이 변경되면 호출되는 메소드
+         * 반드시 "Descriptor"를 설정 해줘야함! (handleServicesDiscovered 참고)
+         */
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            super.onCharacteristicChanged(gatt, characteristic);
+            // 같은 Characteristic 객체의 값이 다음 Notification 으로 덮어쓰이기 전에 복사
+            long receiveNanos = System.nanoTime();
+            byte[] value = copyValue(characteristic);
+            runOnExecutor(() -> {
+                if (gatt == mGatt) {
+                    mListener.onNotification(value, receiveNanos);
+                }
+            });
+        }
+    }
+
+    /**
+     * 시간 초과된 GATT 동작의 콜백이 끝내 오지 않은 경우 (GattCommandQueue.StallListener)
+     * 이 연결로는 더 동작할 수 없으므로 끊긴 것과 같이 처리함.
+     */
+    private void onStalled() {
+        if (mGatt == null) {
+            return;
+        }
+        Log.w(TAG, mAddress + " : GATT not responding");
+        close();
+        mListener.onDisconnected(GattCommand.STATUS_TIMEOUT);
+    }
+
+    private void onReady(DeviceCapabilities capabilities) {
+        if (mGatt == null || mReady) {
+            return;
+        }
+        mReady = true;
+        mListener.onReady(capabilities);
+    }
+
+    private static byte[] copyValue(BluetoothGattCharacteristic characteristic) {
+        byte[] value = characteristic.getValue();
+        return value == null ? new byte[0] : value.clone();
+    }
+
+    /* BleTransport */
+
+    /**
+     * 협상된 MTU 로 한 패킷에 담을 수 있는 길이와 기기의 Characteristic 최대 길이 중 작은 값
+     * Long Write(Prepare Write)는 조각마다 왕복이 필요하므로 사용하지 않음.
+     */
+    @Override
+    public int getMaxWriteLength(boolean withResponse) {
+        return Math.min(mMtu - BleProtocol.ATT_HEADER_LENGTH, BleManager.MAX_LENGTH);
+    }
+
+    @Override
+    public boolean supportsWriteWithoutResponse() {
+        BluetoothGattCharacteristic characteristic = mCharacteristic;
+        return characteristic != null
+                && (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+    }
+
+    /**
+     * GattCommandQueue 를 거쳐 write 하는 메소드 (BLE 스레드에서 호출)
+     * 완료되면 Listener.onWriteComplete() 로 알림.
+     */
+    @Override
+    public boolean write(int writeId, byte[] value, boolean withResponse) {
+        GattCommand write = mListener.isSequencedWrite(value)
+                ? GattCommand.sequencedWrite(value, withResponse)
+                : GattCommand.write(value, withResponse);
+        return mCommandQueue.offer(write.setCallback(command -> {
+            if (command.getStatus() != GattCommand.STATUS_CANCELLED) {
+                mListener.onWriteComplete(writeId, command);
+            }
+        }));
+    }
+
+    /**
+     * GattCommandQueue 가 실행하는 실제 BluetoothGatt 호출 (BLE 스레드에서만 호출됨)
+     * BluetoothGatt 는 한 번에 하나의 동작만 받아들이고, 큐는 시간 초과된 시도의 콜백을 받기 전에는 다음 시도를 시작하지 않으므로
+     * GATT 콜백은 항상 마지막으로 시작된 시도의 결과임. 콜백이 호출의 반환보다 먼저 올 수 있으므로 시도 번호는 호출 전에 기록함.
+     */
+    private class GattOperationsImpl implements GattCommandQueue.GattOperations {
+        @Override
+        public boolean readCharacteristic(int attemptId) {
+            mStartedAttemptId = attemptId;
+            BluetoothGatt gatt = mGatt;
+            BluetoothGattCharacteristic characteristic = mCharacteristic;
+            return gatt != null && characteristic != null && gatt.readCharacteristic(characteristic);
+        }
+
+        @Override
+        public boolean writeCharacteristic(int attemptId, byte[] value, boolean withResponse) {
+            mStartedAttemptId = attemptId;
+            BluetoothGatt gatt = mGatt;
+            BluetoothGattCharacteristic characteristic = mCharacteristic;
+            if (gatt == null || characteristic == null) {
+                return false;
+            }
+
+            characteristic.setWriteType(withResponse
+                    ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+                    : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            characteristic.setValue(value);
+            boolean result = gatt.writeCharacteristic(characteristic);
+            Log.d(TAG, "writeCharacteristic: " + value.length + " bytes >> " + result);
+            return result;
+        }
+
+        @Override
+        public boolean writeDescriptor(int attemptId, byte[] value) {
+            mStartedAttemptId = attemptId;
+            BluetoothGatt gatt = mGatt;
+            BluetoothGattCharacteristic characteristic = mCharacteristic;
+            if (gatt == null || characteristic == null) {
+                return false;
+            }
+
+            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(BleManager.DESCRIPTOR_UUID);
+            if (descriptor == null) {
+                return false;
+            }
+            descriptor.setValue(value);
+            return gatt.writeDescriptor(descriptor);
+        }
+
+        @Override
+        public boolean requestMtu(int attemptId, int mtu) {
+            mStartedAttemptId = attemptId;
+            BluetoothGatt gatt = mGatt;
+            return gatt != null && gatt.requestMtu(mtu);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * 기타 한 대와 주고받는 프로토콜 처리를 android.bluetooth 와 분리한 객체
+ *
+ * - 보내기 : 협상된 프로토콜 버전에 맞게 악보 형식(문자열/바이너리), 기기 캐시, 패치, 압축을 고르고 ScoreUploader 로 보냄.
+ * - 받기 : Notification 을 ack(NACK 포함), 캐시 응답, 운지 이벤트, 일반 데이터로 나누어 처리함.
+ *
+ * 실제 앱에서는 BleManager 가 BluetoothGatt 를 감싼 BleTransport 를 넘기고,
+ * 테스트에서는 가상 기타(SimulatedGuitar)를 넘겨서 기기 없이 같은 코드를 실행할 수 있음.
+ * BleTransport 구현은 write 완료를 onWriteComplete() 로, Notification 을 onNotification() 으로 전달해야 함.
+ * 한 스레드(BLE 스레드)에서만 사용해야 함.
+ */
+public class GuitarProtocol {
+
+    /**
+     * onNotification() 이 받은 데이터를 어떻게 처리했는지
+     */
+    public enum Notification {
+        ACK,            // 전송 엔진의 ack 또는 NACK (소비됨)
+        CACHE_STATUS,   // 악보 캐시/패치 응답 (소비됨)
+        FRET_EVENT,     // 운지 이벤트 (getFretEvents() 에 쌓임)
+        DATA            // 그 밖의 데이터, 호출한 쪽에서 처리해야 함
+    }
+
+    private final BleTransport mTransport;
+    private final ChunkTransfer mTransfer;
+    private final ScoreUploader mUploader;
+    private final ScoreCache mScoreCache = new ScoreCache(); // 곡을 바꿀 때마다 다시 파싱/인코딩하지 않도록 보관
+    private final HashMap<String, ScoreCache.Entry> mLastSent = new HashMap<>(); // 기기별로 마지막에 보낸 악보 (패치 기준)
+    private final FretEventBuffer mFretEvents = new FretEventBuffer();
+    private final BleMetrics mMetrics = new BleMetrics();
+    private DeviceCapabilities mCapabilities = DeviceCapabilities.LEGACY;
+
+    /* 형식 검사만 하는 파서용 Listener */
+    private static final StreamingScoreParser.Listener VALIDATING_LISTENER = new StreamingScoreParser.Listener() {
+        @Override
+        public void onTempo(int tempo) {
+        }
+
+        @Override
+        public void onNote(StreamingScoreParser.Note note) {
+        }
+
+        @Override
+        public void onEventEnd(StreamingScoreParser.Note lastNote, int noteCount) {
+        }
+    };
+
+    /* Last Upload (로그용) */
+    private int mLastPayloadLength = 0;
+    private int mLastPatchLength = 0;
+
+    public GuitarProtocol(BleTransport transport, NanoClock clock, ScoreUploader.Timer timer) {
+        mTransport = transport;
+        mTransfer = new ChunkTransfer(transport, clock);
+        mTransfer.setMetrics(mMetrics);
+        mTransfer.setTimer(timer);
+        mUploader = new ScoreUploader(transport, mTransfer, timer);
+    }
+
+    public void setListener(ChunkTransfer.Listener listener) {
+        mUploader.setListener(listener);
+    }
+
+    /**
+     * 협상된 프로토콜 버전에 맞게 전송 방식을 설정하는 메소드
+     * 기기가 버전 2 이상을 지원하면 순번이 붙은 프레임을 연속으로 보내고, 아니면 기존의 ack 방식 사용
+     * Write Without Response 속성은 write 방식을 고를 때만 사용함 (속성만 있는 기존 펌웨어는 프레임을 해석하지 못함)
+     *
+     * @param capabilities 기기와 협상된 프로토콜 버전
+     */
+    public void applyCapabilities(DeviceCapabilities capabilities) {
+        mCapabilities = capabilities;
+        boolean framed = capabilities.supportsFramedTransfer();
+        mTransfer.setMode(framed ? ChunkTransfer.Mode.FRAMED : ChunkTransfer.Mode.LEGACY);
+        // 기기가 확인할 수 있을 때만 CRC 를 붙이고, 깨지거나 빠진 조각은 NACK 을 받아 그 조각만 다시 보냄
+        mTransfer.setIntegrityCheck(framed && capabilities.supportsIntegrityCheck());
+        // 압축된 메시지는 '$' 로 끝을 알릴 수 없으므로 FRAMED 모드에서만 사용
+        mUploader.setCompression(framed && capabilities.supportsCompression());
+    }
+
+    public DeviceCapabilities getCapabilities() {
+        return mCapabilities;
+    }
+
+    public boolean isFramed() {
+        return mTransfer.getMode() == ChunkTransfer.Mode.FRAMED;
+    }
+
+    public boolean isCompressing() {
+        return isFramed() && mCapabilities.supportsCompression();
+    }
+
+    public boolean isCheckingIntegrity() {
+        return mTransfer.isCheckingIntegrity();
+    }
+
+    /**
+     * write 할 값이 순번이 붙은 데이터 프레임인지 확인하는 메소드
+     * 기기는 이미 받은 순번을 버리므로, 이런 write 만 결과를 모르는 채로 다시 보내도 됨 (GattCommand.sequencedWrite()).
+     */
+    public boolean isSequencedWrite(byte[] value) {
+        return isFramed() && value.length >= BleProtocol.FRAME_HEADER_LENGTH
+                && (value[0] == BleProtocol.FRAME_DATA || value[0] == BleProtocol.FRAME_DATA_END);
+    }
+
+    /**
+     * 악보 문자열을 보내는 메소드
+     *
+     * @param message  악보 문자열
+     * @param deviceId 패치 기준을 기기별로 구분하기 위한 값 (주소)
+     * @return 업로드를 시작했으면 true, 이미 보내는 중이면 false
+     * @throws IllegalArgumentException 악보 형식이 잘못된 경우
+     */
+    public boolean send(String message, String deviceId) {
+        if (mUploader.isBusy()) {
+            return false;
+        }
+        return upload(mScoreCache.get(message), deviceId);
+    }
+
+    /**
+     * 캐시된 악보를 보내는 메소드
+     * 기기가 바이너리 악보를 지원하면 ScoreCodec 으로 변환된 데이터를, 아니면 문자열 끝에 '$'를 붙여 보냄.
+     * 기기가 악보 캐시를 지원하면 먼저 해시로 확인해서, 이미 가진 곡이면 보내지 않음 (ScoreUploader).
+     * 기기가 악보 패치도 지원하면, 그 기기에 마지막으로 보낸 악보와 비교해 바뀐 마디만 보냄 (ScoreDiff).
+     *
+     * @param entry    보낼 악보
+     * @param deviceId 패치 기준을 기기별로 구분하기 위한 값 (주소)
+     * @return 업로드를 시작했으면 true
+     */
+    public boolean upload(ScoreCache.Entry entry, String deviceId) {
+        boolean framed = isFramed();
+        boolean binary = framed && mCapabilities.supportsBinaryScore();
+        byte[] payload = entry.getPayload(binary);
+        byte[] patch = createPatch(entry, binary, deviceId);
+        mLastPayloadLength = payload.length;
+        mLastPatchLength = patch != null ? patch.length : 0;
+        return mUploader.upload(payload, entry.getHash(binary), framed && mCapabilities.supportsSongCache(), patch);
+    }
+
+    /**
+     * 곡 보관함의 곡을 본문을 복사하지 않고 보내는 메소드
+     * 저장해 둔 해시로 기기 캐시를 확인하므로 기기에 있는 곡이면 본문을 읽지 않음.
+     * 바이너리로 저장된 곡을 바이너리 악보를 모르는 기기로 보낼 때만 loadEntry() 로 읽어 문자열로 바꿔 보냄.
+     *
+     * @param library  곡 보관함
+     * @param index    보낼 곡 번호
+     * @param deviceId 패치 기준을 기기별로 구분하기 위한 값 (주소)
+     * @return 업로드를 시작했으면 true, 이미 보내는 중이면 false
+     * @throws IOException 본문을 읽을 수 없는 경우
+     */
+    public boolean upload(SongLibrary library, int index, String deviceId) throws IOException {
+        if (mUploader.isBusy()) {
+            return false;
+        }
+        boolean framed = isFramed();
+        boolean binary = framed && mCapabilities.supportsBinaryScore();
+        if (library.getFormat(index) == SongLibrary.FORMAT_BINARY && !binary) {
+            return upload(library.loadEntry(index), deviceId);
+        }
+        ChunkSource source = ChunkSource.of(library.getBody(index));
+        mLastPayloadLength = source.length();
+        mLastPatchLength = 0;
+        mLastSent.remove(deviceId); // 패치 기준이 될 Entry 가 없으므로 다음 업로드는 전체를 보냄
+        return mUploader.stream(source, library.getHash(index), framed && mCapabilities.supportsSongCache());
+    }
+
+    /**
+     * 악보 문자열을 문자열 그대로('$' 를 붙여) 조각마다 UTF-8 로 변환하며 보내는 메소드
+     * Score 와 전체 byte[] 를 만들지 않으므로 아주 긴 악보도 일정한 메모리로 보낼 수 있음.
+     * 대신 바이너리 변환, 기기 캐시, 패치, 압축과 이어 보내기는 사용하지 않음.
+     *
+     * @param text 악보 문자열
+     * @return 업로드를 시작했으면 true, 이미 보내는 중이면 false
+     * @throws IllegalArgumentException 악보 형식이 잘못된 경우
+     */
+    public boolean sendText(CharSequence text) {
+        if (mUploader.isBusy()) {
+            return false;
+        }
+        StreamingScoreParser parser = new StreamingScoreParser(VALIDATING_LISTENER);
+        if (!parser.feed(text)) {
+            throw new IllegalArgumentException(parser.getError() + " at " + parser.getErrorOffset());
+        }
+        return stream(ChunkSource.of(text, true));
+    }
+
+    /**
+     * ChunkSource 를 그대로 보내는 메소드 (ScoreUploader.stream() 참고)
+     *
+     * @param source 보낼 메시지 (기존 기기로 보낼 문자열이면 '$' 로 끝나야 함)
+     * @return 업로드를 시작했으면 true, 이미 보내는 중이면 false
+     */
+    public boolean stream(ChunkSource source) {
+        mLastPayloadLength = source.length();
+        mLastPatchLength = 0;
+        mLastSent.clear(); // 기기가 가진 악보를 알 수 없으므로 다음 업로드는 전체를 보냄
+        return mUploader.stream(source);
+    }
+
+    /**
+     * 이 기기에 마지막으로 보낸 악보에서 entry 로 바꾸는 패치를 만들고, entry 를 마지막으로 보낸 악보로 기록하는 메소드
+     * 기기가 패치를 적용하지 못하면 ScoreUploader 가 전체 악보를 보내므로, 기록은 전송 결과와 상관없이 바꿔도 됨.
+     *
+     * @return 패치, 만들 수 없거나 전체 악보를 보내는 편이 나으면 null
+     */
+    private byte[] createPatch(ScoreCache.Entry entry, boolean binary, String deviceId) {
+        if (deviceId == null) {
+            return null;
+        }
+        ScoreCache.Entry last = mLastSent.put(deviceId, entry);
+        if (!binary || !mCapabilities.supportsScorePatch() || last == null || last == entry
+                || !last.hasBinary() || !entry.hasBinary()) {
+            return null;
+        }
+        return ScoreDiff.createPatch(last.getPayload(true), entry.getPayload(true));
+    }
+
+    /**
+     * 폰에서 재생 중인 곡 위치를 기기에 알리는 메소드 (PlaybackScheduler 의 동기화 비콘)
+     * 비콘은 놓쳐도 다음 비콘이 다시 맞추므로, 악보를 보내는 중이면 전송을 늦추지 않도록 보내지 않음.
+     * 가능하면 Write Without Response 로 보내서 응답을 기다리는 만큼 늦어지지 않게 함.
+     *
+     * @param positionMillis 곡 시작부터의 위치
+     * @return 비콘을 보냈으면 true, 기기가 시간 동기화를 지원하지 않거나 업로드 중이면 false
+     */
+    public boolean sendTimeSync(long positionMillis) {
+        if (!isFramed() || !mCapabilities.supportsTimeSync() || mUploader.isBusy()) {
+            return false;
+        }
+        int position = (int) Math.max(0, Math.min(positionMillis, Integer.MAX_VALUE));
+        byte[] frame = new byte[1 + BleProtocol.TIME_SYNC_POSITION_LENGTH];
+        frame[0] = BleProtocol.FRAME_TIME_SYNC;
+        for (int i = 0; i < BleProtocol.TIME_SYNC_POSITION_LENGTH; i++) {
+            frame[1 + i] = (byte) (position >>> (8 * (BleProtocol.TIME_SYNC_POSITION_LENGTH - 1 - i)));
+        }
+        return mTransport.write(BleTransport.CONTROL_WRITE_ID, frame, !mTransport.supportsWriteWithoutResponse());
+    }
+
+    /**
+     * transport 의 write 가 완료되었을 때 호출해야 하는 메소드
+     */
+    public void onWriteComplete(int writeId, boolean success) {
+        mTransfer.onWriteComplete(writeId, success);
+    }
+
+    /**
+     * 기기로부터 Notification 을 받았을 때 호출해야 하는 메소드
+     * write 완료 콜백보다 먼저 도착한 ack 도 ChunkTransfer 가 순서와 상관없이 처리함.
+     *
+     * @param value        받은 데이터
+     * @param receiveNanos GATT 콜백(Binder 스레드)에서 받은 시각, 운지 이벤트 시각의 기준 (BLE 스레드까지 넘어오는 지연을 빼기 위함)
+     * @return 처리 결과, DATA 이면 호출한 쪽에서 처리해야 함
+     */
+    public Notification onNotification(byte[] value, long receiveNanos) {
+        Notification kind = classify(value, receiveNanos);
+        mMetrics.onNotification(kind);
+        return kind;
+    }
+
+    private Notification classify(byte[] value, long receiveNanos) {
+        if (mTransfer.onNotification(value)) {
+            return Notification.ACK;
+        }
+        if (mUploader.onNotification(value)) {
+            return Notification.CACHE_STATUS;
+        }
+        // 운지 이벤트는 빈도가 높으므로 문자열로 바꾸지 않고 바로 링 버퍼에 넣음
+        if (FretEventBuffer.isFretEvent(value)) {
+            mFretEvents.offerNotification(receiveNanos, value);
+            return Notification.FRET_EVENT;
+        }
+        return Notification.DATA;
+    }
+
+    /**
+     * 연결이 끊겼을 때 호출하는 메소드
+     * 진행 중인 업로드는 보관해서 다시 연결되면 resume() 으로 이어서 보낼 수 있음.
+     *
+     * @return 보관한 업로드가 있으면 true
+     */
+    public boolean suspend() {
+        return mUploader.suspend();
+    }
+
+    /**
+     * 다시 연결되어 applyCapabilities() 한 뒤에 보관한 업로드를 이어서 보내는 메소드
+     *
+     * @return 보관한 업로드가 있어 다시 시작했으면 true
+     */
+    public boolean resume() {
+        if (!mUploader.hasSuspendedUpload()) {
+            return false;
+        }
+        return mUploader.resume(isFramed() && mCapabilities.supportsSongCache());
+    }
+
+    public boolean hasSuspendedUpload() {
+        return mUploader.hasSuspendedUpload();
+    }
+
+    /**
+     * 진행 중이거나 보관한 업로드를 취소하는 메소드
+     */
+    public void cancel() {
+        mUploader.cancel();
+    }
+
+    /**
+     * 연결을 닫을 때 전송 상태를 초기화하는 메소드 (보관한 업로드는 유지)
+     */
+    public void reset() {
+        mTransfer.cancel();
+        mCapabilities = DeviceCapabilities.LEGACY;
+    }
+
+    public boolean isBusy() {
+        return mUploader.isBusy();
+    }
+
+    public int getLastPayloadLength() {
+        return mLastPayloadLength;
+    }
+
+    public int getLastPatchLength() {
+        return mLastPatchLength;
+    }
+
+    public ChunkTransfer getTransfer() {
+        return mTransfer;
+    }
+
+    public ScoreUploader getUploader() {
+        return mUploader;
+    }
+
+    public ScoreCache getScoreCache() {
+        return mScoreCache;
+    }
+
+    public FretEventBuffer getFretEvents() {
+        return mFretEvents;
+    }
+
+    /**
+     * 전송, Notification, 연결 준비 측정값 (BLE 스레드에서만 기록하고, 다른 스레드에는 snapshot() 을 넘겨야 함)
+     */
+    public BleMetrics getMetrics() {
+        return mMetrics;
+    }
+}
@@ -6,9 +6,12 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.Intent;
+import android.media.AudioManager;
+import android.media.ToneGenerator;
 import android.os.Bundle;
 import android.os.Handler;
 import android.util.Log;
@@ -16,20 +19,40 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.gun0912.tedpermission.PermissionListener;
 import com.gun0912.tedpermission.TedPermission;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener{
     private static final String TAG = "MainActivityTag";
     private static final int REQUEST_ENABLE_BT = 5005;
+    private static final int REQUEST_SELECT_SONG = 5006;
 
     private BluetoothAdapter bluetoothAdapter;
     protected BleManager bleManager;
+    private ClassroomManager classroomManager; // 교실 모드일 때만 생성
     private Handler handler;
+    private TextView metricsOverlay;
+    private BleMetrics.Snapshot lastMetrics; // 알림 빈도 계산용 이전 측정값
+    private TextView playbackCursor;
+    private PlaybackScheduler playbackScheduler; // 재생 중이 아니면 null
+    private ToneGenerator metronome;
+    private MenuItem playbackItem;
+    private String lastScoreText; // 마지막으로 보낸 악보 (재생용), 곡 보관함의 곡이면 null
+    private int lastSongIndex = -1;
+    private ChordIndex playbackChords; // 재생 중인 악보의 운지 모양 색인
+    private volatile int cursorEvent; // 재생한 이벤트 수, 재생 스레드에서 바꾸고 UI 스레드에서 읽음
+    private volatile int cursorBeat;
+    private final Runnable updateCursorTask = this::updateCursor;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -42,6 +65,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         Button button3 = findViewById(R.id.main_ble_send_button3);
         Button button4 = findViewById(R.id.main_ble_send_button4);
         Button button5 = findViewById(R.id.main_ble_send_button5);
+        metricsOverlay = findViewById(R.id.main_metrics_overlay);
+        playbackCursor = findViewById(R.id.main_playback_cursor);
 
         button1.setOnClickListener(this);
         button2.setOnClickListener(this);
@@ -54,23 +79,75 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     public void onClick(View view) {
         switch (view.getId()) {
             case R.id.main_ble_send_button1 :
-                bleManager.writeCharacteristic(getResources().getString(R.string.test_string_1));
+                sendScore(getResources().getString(R.string.test_string_1));
                 break;
             case R.id.main_ble_send_button2 :
-                bleManager.writeCharacteristic(getResources().getString(R.string.test_string_2));
+                sendScore(getResources().getString(R.string.test_string_2));
                 break;
             case R.id.main_ble_send_button3 :
-                bleManager.writeCharacteristic(getResources().getString(R.string.test_string_3));
+                sendScore(getResources().getString(R.string.test_string_3));
                 break;
             case R.id.main_ble_send_button4 :
-                bleManager.writeCharacteristic(getResources().getString(R.string.test_string_4));
+                sendScore(getResources().getString(R.string.test_string_4));
                 break;
             case R.id.main_ble_send_button5 :
-                bleManager.writeCharacteristic(getResources().getString(R.string.test_string_5));
+                sendScore(getResources().getString(R.string.test_string_5));
                 break;
         }
     }
 
+    /**
+     * 곡 보관함에서 고른 곡을 보내는 메소드 (곡 본문은 BLE 스레드에서 읽음)
+     */
+    private void sendSong(int index) {
+        SongLibrary library;
+        try {
+            library = SelectActivity.getLibrary(this);
+        } catch (IOException e) {
+            Toast.makeText(this, "곡 보관함을 열 수 없습니다.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        lastScoreText = null;
+        lastSongIndex = index;
+
+        if (classroomManager != null) {
+            classroomManager.broadcast(library, index);
+        } else if (bleManager != null) {
+            bleManager.writeSong(library, index);
+        }
+    }
+
+    /**
+     * 교실 모드이면 연결된 모든 기타에, 아니면 연결된 기타 하나에 악보를 보내는 메소드
+     */
+    private void sendScore(String score) {
+        lastScoreText = score;
+        lastSongIndex = -1;
+        if (classroomManager != null) {
+            classroomManager.broadcast(score);
+        } else if (bleManager != null) {
+            bleManager.writeCharacteristic(score);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        stopPlayback(); // 재생 스레드가 끝날 때까지 기다리므로 이후 onBeat 에서 metronome 을 쓰지 않음
+        if (metronome != null) {
+            metronome.release();
+        }
+        if (bleManager != null) {
+            bleManager.setMetricsListener(null);
+        }
+        if (classroomManager != null) {
+            classroomManager.close();
+        }
+        if (bleManager != null) {
+            bleManager.close();
+        }
+        super.onDestroy();
+    }
+
     /* ******************** BLE 권한 승인 관련 코드 ******************** */
     private void checkBluetoothActive() {
         BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
@@ -103,6 +180,11 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     finish();
                 }
                 break;
+            case REQUEST_SELECT_SONG:
+                if (resultCode == RESULT_OK && data != null) {
+                    sendSong(data.getIntExtra(SelectActivity.EXTRA_SONG_INDEX, 0));
+                }
+                break;
         }
     }
 
@@ -113,6 +195,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     public void onPermissionGranted() {
                         handler = new Handler();
                         bleManager = new BleManager(MainActivity.this, handler, bluetoothAdapter);
+                        // 전에 연결한 기기가 있으면 스캔 없이 바로 연결
+                        if (!bleManager.reconnectLastDevice()) {
+                            Log.d(TAG, "No saved device, scan to connect");
+                        }
                     }
 
                     @Override
@@ -141,7 +227,247 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     Toast.makeText(this, "블루투스 권한이 없습니다.", Toast.LENGTH_SHORT).show();
                 }
                 break;
+            case R.id.action_song_library:
+                startActivityForResult(new Intent(this, SelectActivity.class), REQUEST_SELECT_SONG);
+                break;
+            case R.id.action_classroom:
+                toggleClassroomMode(item);
+                break;
+            case R.id.action_debug_overlay:
+                toggleDebugOverlay(item);
+                break;
+            case R.id.action_record_session:
+                toggleRecording(item);
+                break;
+            case R.id.action_playback:
+                togglePlayback(item);
+                break;
         }
         return super.onOptionsItemSelected(item);
     }
-}
\ No newline at end of file
+
+    /**
+     * 교실 모드를 켜고 끄는 메소드
+     * 켜면 기타 하나와의 연결을 끊고 마지막 스캔에서 찾은 기타들에 동시에 연결하며, 끄면 모든 연결을 끊음.
+     */
+    private void toggleClassroomMode(MenuItem item) {
+        if (bleManager == null) {
+            Toast.makeText(this, "블루투스 권한이 없습니다.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        if (classroomManager != null) {
+            classroomManager.close();
+            classroomManager = null;
+            item.setChecked(false);
+            Toast.makeText(this, "교실 모드를 종료합니다.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        List<BluetoothDevice> devices = bleManager.getScannedDevices();
+        if (devices.isEmpty()) {
+            Toast.makeText(this, "먼저 기타를 스캔해 주세요.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        bleManager.disconnect();
+        classroomManager = new ClassroomManager(this, handler);
+        classroomManager.connectAll(devices);
+        item.setChecked(true);
+        Toast.makeText(this, "교실 모드 : 기타 " + Math.min(devices.size(), ClassroomManager.MAX_DEVICES) + "대에 연결합니다.",
+                Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * 전송 측정값(BleMetrics)을 화면에 보여주는 디버그 화면을 켜고 끄는 메소드
+     * 켜져 있는 동안에만 BleManager 가 1초마다 측정값의 복사본을 만들어 보냄.
+     */
+    private void toggleDebugOverlay(MenuItem item) {
+        if (bleManager == null) {
+            Toast.makeText(this, "블루투스 권한이 없습니다.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        if (metricsOverlay.getVisibility() == View.VISIBLE) {
+            bleManager.setMetricsListener(null);
+            metricsOverlay.setVisibility(View.GONE);
+            item.setChecked(false);
+            return;
+        }
+
+        lastMetrics = null;
+        bleManager.setMetricsListener(snapshot -> {
+            metricsOverlay.setText(snapshot.format(lastMetrics));
+            lastMetrics = snapshot;
+        });
+        metricsOverlay.setVisibility(View.VISIBLE);
+        item.setChecked(true);
+    }
+
+    /**
+     * BLE 통신 기록(SessionRecorder)을 켜고 끄는 메소드
+     * 기록 파일은 앱 외부 저장소의 sessions 디렉토리에 만들어지므로 adb pull 로 가져와 SessionReplay 로 재현할 수 있음.
+     */
+    private void toggleRecording(MenuItem item) {
+        if (bleManager == null) {
+            Toast.makeText(this, "블루투스 권한이 없습니다.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        if (bleManager.isRecording()) {
+            bleManager.stopRecording();
+            item.setChecked(false);
+            Toast.makeText(this, "BLE 기록을 종료합니다.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        File directory = getExternalFilesDir("sessions");
+        if (directory == null) {
+            directory = new File(getFilesDir(), "sessions");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Toast.makeText(this, "기록 파일을 만들 수 없습니다.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String name = "session-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".gtsr";
+        File file = new File(directory, name);
+        bleManager.startRecording(file);
+        item.setChecked(true);
+        Log.d(TAG, "Recording BLE session : " + file);
+        Toast.makeText(this, "BLE 기록 : " + name, Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * 마지막으로 보낸 악보를 폰에서 재생하는 기능을 켜고 끄는 메소드
+     * PlaybackScheduler 가 악보의 템포와 음표 길이로 만든 시간표에 맞춰 박자마다 메트로놈 소리를 내고 커서를 옮기며,
+     * 1초마다 기기에 곡 위치를 보냄 (교실 모드에서는 비콘을 보내지 않음).
+     */
+    private void togglePlayback(MenuItem item) {
+        if (playbackScheduler != null) {
+            stopPlayback();
+            return;
+        }
+
+        Score score = loadLastScore();
+        if (score == null) {
+            Toast.makeText(this, "먼저 악보를 보내 주세요.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (handler == null) {
+            handler = new Handler();
+        }
+        if (metronome == null) {
+            metronome = new ToneGenerator(AudioManager.STREAM_MUSIC, ToneGenerator.MAX_VOLUME / 2);
+        }
+
+        final PlaybackScheduler scheduler;
+        try {
+            scheduler = new PlaybackScheduler(score);
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(this, "악보에 템포가 없습니다.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final ToneGenerator tone = metronome;
+        final BleManager manager = classroomManager == null ? bleManager : null;
+        scheduler.setListener(new PlaybackScheduler.Listener() {
+            @Override
+            public void onEvent(int eventIndex, Score.Event event, long positionNanos) {
+                cursorEvent++; // 처음부터 재생하므로 재생한 순서 = 템포를 뺀 이벤트 순서 (ChordIndex 와 같음)
+                postCursorUpdate();
+            }
+
+            @Override
+            public void onBeat(int beat, long positionNanos) {
+                // 소리는 재생 스레드에서 바로 내야 UI 스레드의 지연이 더해지지 않음
+                tone.startTone(beat % 4 == 0 ? ToneGenerator.TONE_PROP_BEEP2 : ToneGenerator.TONE_PROP_BEEP, 30);
+                cursorBeat = beat + 1;
+                postCursorUpdate();
+            }
+
+            @Override
+            public void onSync(long positionNanos) {
+                if (manager != null) {
+                    manager.sendTimeSync(scheduler.getPositionNanos(), System.nanoTime());
+                }
+            }
+
+            @Override
+            public void onFinish() {
+                handler.post(() -> {
+                    if (playbackScheduler == scheduler) {
+                        stopPlayback();
+                    }
+                });
+            }
+        });
+
+        cursorEvent = 0;
+        cursorBeat = 0;
+        playbackChords = ChordIndex.of(score);
+        playbackCursor.setVisibility(View.VISIBLE);
+        updateCursor();
+        playbackScheduler = scheduler;
+        playbackItem = item;
+        item.setChecked(true);
+        scheduler.start(0);
+        Log.d(TAG, "Playback : " + scheduler.getEventCount() + " events, " + scheduler.getBeatCount() + " beats, "
+                + scheduler.getDurationNanos() / 1_000_000 + " ms");
+    }
+
+    private void stopPlayback() {
+        if (playbackScheduler == null) {
+            return;
+        }
+        PlaybackScheduler scheduler = playbackScheduler;
+        playbackScheduler = null;
+        scheduler.stop();
+        BleMetrics.Histogram lateness = scheduler.getLateness();
+        Log.d(TAG, "Playback stopped : lateness mean " + lateness.getMeanNanos() / 1000 + " us, max "
+                + lateness.getMaxNanos() / 1000 + " us, skipped " + scheduler.getSkippedCount());
+        handler.removeCallbacks(updateCursorTask);
+        playbackCursor.setVisibility(View.GONE);
+        if (playbackItem != null) {
+            playbackItem.setChecked(false);
+        }
+    }
+
+    /**
+     * 재생 스레드에서 커서를 바꾼 뒤 UI 스레드에 알리는 메소드 (밀린 갱신은 하나로 합침)
+     */
+    private void postCursorUpdate() {
+        handler.removeCallbacks(updateCursorTask);
+        handler.post(updateCursorTask);
+    }
+
+    private void updateCursor() {
+        PlaybackScheduler scheduler = playbackScheduler;
+        if (scheduler == null) {
+            return;
+        }
+        long millis = scheduler.getPositionNanos() / 1_000_000;
+        ChordIndex chords = playbackChords;
+        int event = cursorEvent - 1;
+        String now = event >= 0 ? chords.formatShape(chords.getShape(event)) : "";
+        String next = event + 1 < chords.getEventCount() ? chords.formatShape(chords.getShape(event + 1)) : "";
+        playbackCursor.setText(String.format(Locale.US, "Beat %d | Event %d / %d | %d:%04.1f\n%s -> %s",
+                cursorBeat, cursorEvent, chords.getEventCount(), millis / 60_000, (millis % 60_000) / 1000.0, now, next));
+    }
+
+    /**
+     * 마지막으로 보낸 악보를 읽는 메소드
+     *
+     * @return 보낸 악보가 없거나 읽을 수 없으면 null
+     */
+    private Score loadLastScore() {
+        try {
+            if (lastScoreText != null) {
+                return ScoreCodec.parse(lastScoreText);
+            }
+            if (lastSongIndex >= 0) {
+                return SelectActivity.getLibrary(this).loadEntry(lastSongIndex).score;
+            }
+        } catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            Log.e(TAG, "Cannot load score for playback : " + e.getMessage());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.ble_guitar_tutor;
+
+/**
+ * 시간 측정에 사용하는 시계 인터페이스
+ * 실제 앱에서는 System.nanoTime() 을, 테스트에서는 가상 시계를 사용함.
+ */
+public interface NanoClock {
+    NanoClock SYSTEM = System::nanoTime;
+
+    long nanoTime();
+}
@@ -0,0 +1,298 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.List;
+
+/**
+ * 악보와 기기가 보내는 운지 이벤트를 비교해 연주를 채점하는 객체
+ *
+ * 악보의 템포(080!)와 음표 길이로 각 음이 눌려야 하는 시각을 미리 계산해 두고,
+ * 운지 이벤트가 들어올 때마다 허용 범위(tolerance) 안에서 같은 (줄, 프렛)의 음을 찾아 시간 오차를 기록함.
+ * - 이벤트 시각에서 BLE 지연(setLatencyNanos)을 빼서 실제로 누른 시각을 추정함.
+ * - 아직 판정되지 않은 첫 음(mCursor)부터 허용 범위 안의 음만 확인하므로, 이벤트 하나의 처리 비용은 악보 길이와 상관없음.
+ * - 허용 범위가 지난 음은 놓친 음(MISSED), 짝이 없는 이벤트는 틀린 음(extra)으로 셈.
+ *
+ * 같은 스레드에서만 호출해야 함. FretEventBuffer.drain() 에 그대로 넘길 수 있음.
+ */
+public class PlayAlongScorer implements FretEventBuffer.Consumer {
+    /* Constant */
+    public static final long DEFAULT_TOLERANCE_NANOS = 120_000_000L;
+    public static final long DEFAULT_PERFECT_NANOS = 30_000_000L;
+    private static final long NANOS_PER_MINUTE = 60_000_000_000L;
+
+    /* Note Result */
+    public static final byte PENDING = 0;
+    public static final byte HIT = 1;
+    public static final byte MISSED = 2;
+
+    /* Expected Notes (시간 순) */
+    private final int mNoteCount;
+    private final long[] mExpectedNanos;    // 악보 시작부터의 시각
+    private final byte[] mStrings;
+    private final byte[] mFrets;
+    private final byte[] mResults;
+    private final long[] mErrorNanos;       // 누른 시각 - 악보 시각 (HIT 인 음만 유효)
+
+    /* Config */
+    private long mToleranceNanos = DEFAULT_TOLERANCE_NANOS;
+    private long mPerfectNanos = DEFAULT_PERFECT_NANOS;
+    private long mLatencyNanos = 0;
+
+    /* Play State */
+    private long mStartNanos;
+    private int mCursor;                    // 이 앞의 음은 모두 판정이 끝났음
+
+    /* Statistics */
+    private int mHitCount;
+    private int mPerfectCount;
+    private int mMissCount;
+    private int mExtraCount;
+    private double mMeanErrorNanos;
+    private double mErrorM2;                // Welford 분산 계산용
+    private double mAbsErrorSumNanos;
+    private long mMinErrorNanos;
+    private long mMaxErrorNanos;
+
+    public PlayAlongScorer(Score score) {
+        mNoteCount = countPlayableNotes(score);
+        mExpectedNanos = new long[mNoteCount];
+        mStrings = new byte[mNoteCount];
+        mFrets = new byte[mNoteCount];
+        mResults = new byte[mNoteCount];
+        mErrorNanos = new long[mNoteCount];
+        buildTimeline(score.getEvents());
+        start(0);
+    }
+
+    private static int countPlayableNotes(Score score) {
+        int count = 0;
+        for (Score.Event event : score.getEvents()) {
+            for (byte string : event.strings) {
+                if (string != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 템포 변경을 반영해 음마다 눌려야 하는 시각을 계산하는 메소드 (쉼표는 제외)
+     */
+    private void buildTimeline(List<Score.Event> events) {
+        int tempo = 0;
+        double nanos = 0;
+        int index = 0;
+        for (Score.Event event : events) {
+            if (event.isTempoChange()) {
+                tempo = event.tempo;
+                continue;
+            }
+            if (tempo <= 0) {
+                throw new IllegalArgumentException("score has no tempo before first note");
+            }
+            for (int i = 0; i < event.strings.length; i++) {
+                if (event.strings[i] == 0) {
+                    continue;
+                }
+                mExpectedNanos[index] = Math.round(nanos);
+                mStrings[index] = event.strings[i];
+                mFrets[index] = event.frets[i];
+                index++;
+            }
+            nanos += (double) NANOS_PER_MINUTE * event.duration.ticks / (tempo * Score.Duration.TICKS_PER_BEAT);
+        }
+    }
+
+    /**
+     * 허용 범위를 설정하는 메소드
+     *
+     * @param toleranceNanos 이 범위 안에서 누르면 HIT
+     * @param perfectNanos   이 범위 안에서 누르면 perfect 로도 셈
+     */
+    public void setTolerance(long toleranceNanos, long perfectNanos) {
+        if (toleranceNanos <= 0 || perfectNanos < 0 || perfectNanos > toleranceNanos) {
+            throw new IllegalArgumentException("tolerance : " + toleranceNanos + ", perfect : " + perfectNanos);
+        }
+        mToleranceNanos = toleranceNanos;
+        mPerfectNanos = perfectNanos;
+    }
+
+    /**
+     * 기기에서 이벤트가 감지된 뒤 폰에 도착하기까지의 지연을 설정하는 메소드
+     * BleManager.getEstimatedLatencyNanos() 처럼 연결 간격으로 측정한 값을 넣으면 됨.
+     *
+     * @param latencyNanos 이벤트 시각에서 뺄 지연 시간
+     */
+    public void setLatencyNanos(long latencyNanos) {
+        mLatencyNanos = latencyNanos;
+    }
+
+    public long getLatencyNanos() {
+        return mLatencyNanos;
+    }
+
+    /**
+     * 채점을 처음부터 다시 시작하는 메소드
+     *
+     * @param startNanos 악보 첫 박자의 시각 (운지 이벤트와 같은 시간 기준)
+     */
+    public void start(long startNanos) {
+        mStartNanos = startNanos;
+        mCursor = 0;
+        mHitCount = 0;
+        mPerfectCount = 0;
+        mMissCount = 0;
+        mExtraCount = 0;
+        mMeanErrorNanos = 0;
+        mErrorM2 = 0;
+        mAbsErrorSumNanos = 0;
+        mMinErrorNanos = Long.MAX_VALUE;
+        mMaxErrorNanos = Long.MIN_VALUE;
+        for (int i = 0; i < mNoteCount; i++) {
+            mResults[i] = PENDING;
+        }
+    }
+
+    @Override
+    public void onFretEvent(long timestampNanos, int string, int fret) {
+        long playedNanos = timestampNanos - mLatencyNanos - mStartNanos;
+        expireBefore(playedNanos - mToleranceNanos);
+
+        int best = -1;
+        long bestError = Long.MAX_VALUE;
+        for (int i = mCursor; i < mNoteCount && mExpectedNanos[i] <= playedNanos + mToleranceNanos; i++) {
+            if (mResults[i] != PENDING || mStrings[i] != string || mFrets[i] != fret) {
+                continue;
+            }
+            long error = playedNanos - mExpectedNanos[i];
+            if (Math.abs(error) < Math.abs(bestError)) {
+                best = i;
+                bestError = error;
+            }
+        }
+
+        if (best < 0) {
+            mExtraCount++;
+            return;
+        }
+        mResults[best] = HIT;
+        mErrorNanos[best] = bestError;
+        recordError(bestError);
+        advanceCursor();
+    }
+
+    /**
+     * 이벤트가 없어도 시간이 지나 허용 범위를 벗어난 음을 MISSED 로 처리하는 메소드
+     *
+     * @param nowNanos 현재 시각 (운지 이벤트와 같은 시간 기준)
+     */
+    public void advanceTo(long nowNanos) {
+        expireBefore(nowNanos - mLatencyNanos - mStartNanos - mToleranceNanos);
+    }
+
+    /**
+     * 연주가 끝났을 때 남은 음을 모두 MISSED 로 처리하는 메소드
+     */
+    public void finish() {
+        expireBefore(Long.MAX_VALUE);
+    }
+
+    private void expireBefore(long songNanos) {
+        for (; mCursor < mNoteCount && mExpectedNanos[mCursor] < songNanos; mCursor++) {
+            if (mResults[mCursor] == PENDING) {
+                mResults[mCursor] = MISSED;
+                mMissCount++;
+            }
+        }
+    }
+
+    private void advanceCursor() {
+        while (mCursor < mNoteCount && mResults[mCursor] != PENDING) {
+            mCursor++;
+        }
+    }
+
+    private void recordError(long errorNanos) {
+        mHitCount++;
+        if (Math.abs(errorNanos) <= mPerfectNanos) {
+            mPerfectCount++;
+        }
+        double delta = errorNanos - mMeanErrorNanos;
+        mMeanErrorNanos += delta / mHitCount;
+        mErrorM2 += delta * (errorNanos - mMeanErrorNanos);
+        mAbsErrorSumNanos += Math.abs(errorNanos);
+        mMinErrorNanos = Math.min(mMinErrorNanos, errorNanos);
+        mMaxErrorNanos = Math.max(mMaxErrorNanos, errorNanos);
+    }
+
+    /* Result */
+    public int getExpectedNoteCount() {
+        return mNoteCount;
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getPerfectCount() {
+        return mPerfectCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public int getExtraCount() {
+        return mExtraCount;
+    }
+
+    /**
+     * 판정이 끝난 음 중에서 HIT 의 비율을 반환하는 메소드
+     *
+     * @return 0 ~ 1, 판정된 음이 없으면 0
+     */
+    public double getAccuracy() {
+        int judged = mHitCount + mMissCount;
+        return judged == 0 ? 0 : (double) mHitCount / judged;
+    }
+
+    public byte getNoteResult(int noteIndex) {
+        return mResults[noteIndex];
+    }
+
+    public long getExpectedNanos(int noteIndex) {
+        return mExpectedNanos[noteIndex];
+    }
+
+    /**
+     * 음 하나의 시간 오차를 반환하는 메소드
+     *
+     * @return 늦게 누르면 양수, 일찍 누르면 음수 (HIT 가 아니면 0)
+     */
+    public long getTimingErrorNanos(int noteIndex) {
+        return mResults[noteIndex] == HIT ? mErrorNanos[noteIndex] : 0;
+    }
+
+    /**
+     * 평균 시간 오차. 0 에서 크게 벗어나면 지연 보정값이 맞지 않거나 연주가 일정하게 빠르거나 늦은 것임.
+     */
+    public double getMeanErrorNanos() {
+        return mMeanErrorNanos;
+    }
+
+    public double getStdDevErrorNanos() {
+        return mHitCount < 2 ? 0 : Math.sqrt(mErrorM2 / (mHitCount - 1));
+    }
+
+    public double getMeanAbsErrorNanos() {
+        return mHitCount == 0 ? 0 : mAbsErrorSumNanos / mHitCount;
+    }
+
+    public long getMinErrorNanos() {
+        return mHitCount == 0 ? 0 : mMinErrorNanos;
+    }
+
+    public long getMaxErrorNanos() {
+        return mHitCount == 0 ? 0 : mMaxErrorNanos;
+    }
+}
@@ -0,0 +1,413 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 악보의 템포(080!)와 음표 길이(W/H/Q/E/S/q)로 곡 전체의 시간표를 만들고, 그 시각에 맞춰 콜백을 실행하는 재생 스케줄러
+ * 커서/메트로놈 UI 와 기기로 보내는 시간 동기화 비콘(BleProtocol.FRAME_TIME_SYNC)이 이 시간표를 따름.
+ *
+ * 시간표
+ * - 재생 시작 전에 이벤트(음/쉼표), 박자, 동기화 비콘, 끝의 시각을 곡 시작 기준의 절대 시각(nanos)으로 계산해 배열에 넣어 둠.
+ *   음 시각은 PlayAlongScorer 와 같은 식으로 계산하므로 채점 기준과 어긋나지 않음.
+ * - 박자는 템포가 바뀌어도 곡 시작부터 TICKS_PER_BEAT tick 마다 옴.
+ *
+ * 시간 보정
+ * - Handler.postDelayed 를 이어 붙이면 매번의 늦음이 다음 지연에 더해져 곡이 길수록 밀리지만,
+ *   여기서는 항상 (시작 시각 + 시간표의 시각)까지 기다리므로 늦음이 쌓이지 않음.
+ * - 기다릴 때는 남은 시간에서 spinNanos 만큼 빼고 재운 뒤, 마지막 spinNanos 는 Thread.yield() 로 시각을 확인함.
+ *   (parkNanos 는 수백 µs 이상 늦게 깨는 경우가 많음)
+ * - 잠깐 멈췄다가(GC 등) maxLatenessNanos 보다 늦어진 박자와 비콘은 몰아서 실행하지 않고 건너뜀. 이벤트는 커서가 맞도록 항상 실행함.
+ *
+ * 콜백은 재생 스레드에서 실행되므로 UI 를 바꾸려면 Handler 로 넘겨야 하고, 오래 걸리는 작업을 하면 안 됨.
+ * start/stop 은 아무 스레드에서나 호출해도 됨.
+ */
+public class PlaybackScheduler {
+    /* Constant */
+    public static final long DEFAULT_SYNC_PERIOD_NANOS = 1_000_000_000L;
+    public static final long DEFAULT_SPIN_NANOS = 500_000L;
+    public static final long DEFAULT_MAX_LATENESS_NANOS = 50_000_000L;
+    private static final long NANOS_PER_MINUTE = 60_000_000_000L;
+
+    /* Cue Kind (같은 시각이면 이 순서로 실행) */
+    static final byte CUE_SYNC = 0;
+    static final byte CUE_BEAT = 1;
+    static final byte CUE_EVENT = 2;
+    static final byte CUE_END = 3;
+
+    /**
+     * 재생 스레드에서 호출되는 콜백
+     */
+    public interface Listener {
+        /**
+         * 이벤트(음 또는 쉼표)가 시작될 때
+         *
+         * @param eventIndex    score.getEvents() 에서의 순서
+         * @param event         시작된 이벤트
+         * @param positionNanos 곡 시작부터 이 이벤트까지의 시각 (시간표의 값)
+         */
+        void onEvent(int eventIndex, Score.Event event, long positionNanos);
+
+        /**
+         * 박자마다 (0 부터)
+         */
+        void onBeat(int beat, long positionNanos);
+
+        /**
+         * 기기에 곡 위치를 알려야 할 때 (syncPeriodNanos 마다)
+         */
+        void onSync(long positionNanos);
+
+        /**
+         * 마지막 이벤트가 끝났을 때 (stop() 으로 멈춘 경우는 호출되지 않음)
+         */
+        void onFinish();
+    }
+
+    /**
+     * 재생 스레드를 재우는 방법 (테스트에서는 가상 시계를 진행시킴)
+     * 중간에 깨어나도 되고, 늦게 깨어나도 다음 시각은 밀리지 않음.
+     */
+    public interface Sleeper {
+        Sleeper PARK = LockSupport::parkNanos;
+
+        void sleepNanos(long nanos);
+    }
+
+    private final Score mScore;
+    private final NanoClock mClock;
+    private final Sleeper mSleeper;
+    private Listener mListener;
+
+    /* Timeline (시각 순) */
+    private final long[] mCueNanos;         // 곡 시작부터의 시각
+    private final byte[] mCueKinds;
+    private final int[] mCueIndexes;        // 이벤트 순서 또는 박자 번호
+    private final int mEventCount;
+    private final int mBeatCount;
+    private final long mDurationNanos;
+
+    /* Config */
+    private long mSpinNanos = DEFAULT_SPIN_NANOS;
+    private long mMaxLatenessNanos = DEFAULT_MAX_LATENESS_NANOS;
+
+    /* Play State */
+    private volatile Thread mThread = null;         // 재생 중인 스레드, 멈춰 있으면 null
+    private volatile long mStartNanos;              // 곡 위치 0 에 해당하는 시각
+    private volatile long mStoppedPositionNanos = 0;
+
+    /* Statistics (재생 스레드에서만 기록, 재생이 끝난 뒤 읽어야 함) */
+    private final BleMetrics.Histogram mLateness = new BleMetrics.Histogram();
+    private int mSkippedCount = 0;
+
+    /**
+     * @param score           재생할 악보 (첫 음 전에 템포가 있어야 함)
+     * @param clock           시각 기준 (실제 앱에서는 NanoClock.SYSTEM)
+     * @param sleeper         재생 스레드를 재우는 방법 (실제 앱에서는 Sleeper.PARK)
+     * @param syncPeriodNanos 동기화 비콘 간격, 0 이면 보내지 않음
+     * @throws IllegalArgumentException 첫 음 전에 템포가 없는 경우
+     */
+    public PlaybackScheduler(Score score, NanoClock clock, Sleeper sleeper, long syncPeriodNanos) {
+        if (syncPeriodNanos < 0) {
+            throw new IllegalArgumentException("syncPeriodNanos : " + syncPeriodNanos);
+        }
+        mScore = score;
+        mClock = clock;
+        mSleeper = sleeper;
+
+        List<Score.Event> events = score.getEvents();
+        long[] eventNanos = new long[events.size()];
+        int[] eventIndexes = new int[events.size()];
+        int eventCount = 0;
+        long totalTicks = 0;
+        int tempo = 0;
+        double nanos = 0;
+        for (int i = 0; i < events.size(); i++) {
+            Score.Event event = events.get(i);
+            if (event.isTempoChange()) {
+                tempo = event.tempo;
+                continue;
+            }
+            if (tempo <= 0) {
+                throw new IllegalArgumentException("score has no tempo before first note");
+            }
+            eventNanos[eventCount] = Math.round(nanos);
+            eventIndexes[eventCount] = i;
+            eventCount++;
+            totalTicks += event.duration.ticks;
+            nanos += (double) NANOS_PER_MINUTE * event.duration.ticks / (tempo * Score.Duration.TICKS_PER_BEAT);
+        }
+        mEventCount = eventCount;
+        mDurationNanos = Math.round(nanos);
+        mBeatCount = (int) ((totalTicks + Score.Duration.TICKS_PER_BEAT - 1) / Score.Duration.TICKS_PER_BEAT);
+        long[] beatNanos = buildBeats(events, mBeatCount);
+        int syncCount = syncPeriodNanos > 0 && mDurationNanos > 0 ? (int) ((mDurationNanos - 1) / syncPeriodNanos) + 1 : 0;
+
+        int cueCount = mEventCount + mBeatCount + syncCount + 1;
+        mCueNanos = new long[cueCount];
+        mCueKinds = new byte[cueCount];
+        mCueIndexes = new int[cueCount];
+        int event = 0;
+        int beat = 0;
+        int sync = 0;
+        for (int i = 0; i < cueCount - 1; i++) {
+            long syncTime = sync < syncCount ? sync * syncPeriodNanos : Long.MAX_VALUE;
+            long beatTime = beat < mBeatCount ? beatNanos[beat] : Long.MAX_VALUE;
+            long eventTime = event < mEventCount ? eventNanos[event] : Long.MAX_VALUE;
+            if (syncTime <= beatTime && syncTime <= eventTime) {
+                setCue(i, syncTime, CUE_SYNC, sync++);
+            } else if (beatTime <= eventTime) {
+                setCue(i, beatTime, CUE_BEAT, beat++);
+            } else {
+                setCue(i, eventTime, CUE_EVENT, eventIndexes[event++]);
+            }
+        }
+        setCue(cueCount - 1, mDurationNanos, CUE_END, 0);
+    }
+
+    public PlaybackScheduler(Score score) {
+        this(score, NanoClock.SYSTEM, Sleeper.PARK, DEFAULT_SYNC_PERIOD_NANOS);
+    }
+
+    /**
+     * 박자마다의 시각을 계산하는 메소드
+     * 박자가 이벤트 중간에 오면 그 이벤트의 템포로 이벤트 시작부터의 시간을 더함.
+     */
+    private static long[] buildBeats(List<Score.Event> events, int beatCount) {
+        long[] beats = new long[beatCount];
+        int beat = 0;
+        long tick = 0;
+        int tempo = 0;
+        double nanos = 0;
+        for (Score.Event event : events) {
+            if (event.isTempoChange()) {
+                tempo = event.tempo;
+                continue;
+            }
+            int ticksPerMinute = tempo * Score.Duration.TICKS_PER_BEAT;
+            long end = tick + event.duration.ticks;
+            while (beat < beatCount && (long) beat * Score.Duration.TICKS_PER_BEAT < end) {
+                long offsetTicks = (long) beat * Score.Duration.TICKS_PER_BEAT - tick;
+                beats[beat] = Math.round(nanos + (double) NANOS_PER_MINUTE * offsetTicks / ticksPerMinute);
+                beat++;
+            }
+            nanos += (double) NANOS_PER_MINUTE * event.duration.ticks / ticksPerMinute; // 이벤트 시각과 같은 식
+            tick = end;
+        }
+        return beats;
+    }
+
+    private void setCue(int index, long nanos, byte kind, int cueIndex) {
+        mCueNanos[index] = nanos;
+        mCueKinds[index] = kind;
+        mCueIndexes[index] = cueIndex;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 기다리는 방식을 설정하는 메소드
+     *
+     * @param spinNanos        시각 직전에 재우지 않고 확인하는 시간 (0 이면 항상 재움)
+     * @param maxLatenessNanos 이보다 늦어진 박자와 비콘은 건너뜀
+     */
+    public void setTiming(long spinNanos, long maxLatenessNanos) {
+        if (spinNanos < 0 || maxLatenessNanos <= 0) {
+            throw new IllegalArgumentException("spin : " + spinNanos + ", max lateness : " + maxLatenessNanos);
+        }
+        mSpinNanos = spinNanos;
+        mMaxLatenessNanos = maxLatenessNanos;
+    }
+
+    /**
+     * 새 재생 스레드에서 positionNanos 부터 재생을 시작하는 메소드 (재생 중이면 멈추고 다시 시작)
+     */
+    public void start(long positionNanos) {
+        stop();
+        synchronized (this) {
+            final long startNanos = mClock.nanoTime() - positionNanos;
+            Thread thread = new Thread(() -> play(startNanos, positionNanos), "PlaybackThread");
+            thread.setPriority(Thread.MAX_PRIORITY);
+            mStartNanos = startNanos;
+            mThread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * 재생을 멈추는 메소드
+     * 다른 스레드에서 호출하면 재생 스레드가 끝날 때까지 기다리므로, 돌아온 뒤에는 콜백이 호출되지 않음.
+     * (콜백 안에서 호출하면 기다리지 않고, 그 콜백이 끝난 뒤 재생이 멈춤)
+     *
+     * @return 멈춘 곡 위치, start() 에 넘기면 이어서 재생함
+     */
+    public long stop() {
+        Thread thread;
+        long position;
+        synchronized (this) {
+            thread = mThread;
+            if (thread != null) {
+                mStoppedPositionNanos = Math.min(mClock.nanoTime() - mStartNanos, mDurationNanos);
+                mThread = null;
+                LockSupport.unpark(thread);
+            }
+            position = mStoppedPositionNanos;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            joinUninterruptibly(thread); // 재생 스레드는 끝날 때 이 객체를 잠그므로 잠금 밖에서 기다림
+        }
+        return position;
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 호출한 스레드에서 startNanos 를 곡 시작으로 보고 positionNanos 부터 끝까지 (또는 stop() 까지) 재생하는 메소드
+     */
+    void run(long startNanos, long positionNanos) {
+        synchronized (this) {
+            mStartNanos = startNanos;
+            mThread = Thread.currentThread();
+        }
+        play(startNanos, positionNanos);
+    }
+
+    private void play(long startNanos, long positionNanos) {
+        Thread self = Thread.currentThread();
+        for (int i = firstCue(positionNanos); i < mCueNanos.length; i++) {
+            long deadline = startNanos + mCueNanos[i];
+            if (!waitUntil(deadline, self)) {
+                return;
+            }
+            long lateness = mClock.nanoTime() - deadline;
+            byte kind = mCueKinds[i];
+            if (lateness > mMaxLatenessNanos && (kind == CUE_BEAT || kind == CUE_SYNC)) {
+                mSkippedCount++;
+                continue;
+            }
+            mLateness.record(lateness);
+            dispatch(kind, mCueIndexes[i], mCueNanos[i]);
+        }
+        synchronized (this) {
+            if (mThread == self) {
+                mStoppedPositionNanos = mDurationNanos;
+                mThread = null;
+            }
+        }
+    }
+
+    /**
+     * deadline 까지 기다리는 메소드
+     *
+     * @return 이 스레드의 재생이 멈췄으면 false
+     */
+    private boolean waitUntil(long deadline, Thread self) {
+        while (mThread == self) {
+            long remaining = deadline - mClock.nanoTime();
+            if (remaining <= 0) {
+                return true;
+            }
+            if (remaining > mSpinNanos) {
+                mSleeper.sleepNanos(remaining - mSpinNanos);
+            } else {
+                Thread.yield();
+            }
+        }
+        return false;
+    }
+
+    private void dispatch(byte kind, int index, long positionNanos) {
+        Listener listener = mListener;
+        if (listener == null) {
+            return;
+        }
+        switch (kind) {
+            case CUE_SYNC:
+                listener.onSync(positionNanos);
+                break;
+            case CUE_BEAT:
+                listener.onBeat(index, positionNanos);
+                break;
+            case CUE_EVENT:
+                listener.onEvent(index, mScore.getEvents().get(index), positionNanos);
+                break;
+            case CUE_END:
+                listener.onFinish();
+                break;
+        }
+    }
+
+    /**
+     * positionNanos 이후(같은 시각 포함)의 첫 시간표 항목을 찾는 메소드
+     */
+    private int firstCue(long positionNanos) {
+        int low = 0;
+        int high = mCueNanos.length - 1; // 마지막(END)은 항상 대상
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mCueNanos[mid] < positionNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public boolean isPlaying() {
+        return mThread != null;
+    }
+
+    /**
+     * 현재 곡 위치, 멈춰 있으면 멈춘 위치
+     */
+    public long getPositionNanos() {
+        if (mThread == null) {
+            return mStoppedPositionNanos;
+        }
+        return Math.min(mClock.nanoTime() - mStartNanos, mDurationNanos);
+    }
+
+    public long getDurationNanos() {
+        return mDurationNanos;
+    }
+
+    /**
+     * 쉼표를 포함한 이벤트 수 (템포 변경 제외)
+     */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    public int getBeatCount() {
+        return mBeatCount;
+    }
+
+    /**
+     * 실행한 항목마다 정해진 시각보다 늦게 실행된 시간의 분포
+     */
+    public BleMetrics.Histogram getLateness() {
+        return mLateness;
+    }
+
+    /**
+     * 너무 늦어서 건너뛴 박자와 비콘 수
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+}
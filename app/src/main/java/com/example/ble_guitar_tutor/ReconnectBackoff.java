@@ -0,0 +1,55 @@
+package com.example.ble_guitar_tutor;
+
+/**
+ * 연결이 끊겼을 때 다시 연결을 시도할 간격을 정하는 객체
+ * 시도할 때마다 간격을 두 배로 늘리고(최대 maxDelayMillis), maxAttempts 번 실패하면 포기함.
+ * 연결에 성공하면 reset() 으로 처음 간격부터 다시 시작해야 함.
+ */
+public class ReconnectBackoff {
+    /* Constant */
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 250;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 16_000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 8;
+    public static final long GIVE_UP = -1;
+
+    private final long mInitialDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mMaxAttempts;
+    private int mAttempts = 0;
+
+    public ReconnectBackoff() {
+        this(DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public ReconnectBackoff(long initialDelayMillis, long maxDelayMillis, int maxAttempts) {
+        if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis || maxAttempts < 1) {
+            throw new IllegalArgumentException("initial : " + initialDelayMillis + ", max : " + maxDelayMillis
+                    + ", attempts : " + maxAttempts);
+        }
+        mInitialDelayMillis = initialDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * 다음 연결 시도까지 기다릴 시간을 반환하고 시도 횟수를 늘리는 메소드
+     *
+     * @return millis, 더 이상 시도하지 않으면 GIVE_UP
+     */
+    public long nextDelayMillis() {
+        if (mAttempts >= mMaxAttempts) {
+            return GIVE_UP;
+        }
+        int shift = Math.min(mAttempts, 30);
+        mAttempts++;
+        return Math.min(mInitialDelayMillis << shift, mMaxDelayMillis);
+    }
+
+    public void reset() {
+        mAttempts = 0;
+    }
+
+    public int getAttempts() {
+        return mAttempts;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 스캔으로 찾은 기기를 신호 세기(RSSI)가 센 순서로 보관하는 목록
+ * RSSI 는 광고 패킷마다 크게 흔들리므로, 지수 이동 평균으로 부드럽게 만든 값으로 순서를 정함.
+ * 스캔 콜백과 같은 스레드(메인 스레드)에서만 사용해야 함.
+ */
+public class ScanDeviceList {
+    /* Constant */
+    private static final int RSSI_FRACTION_BITS = 4;   // 평균값의 소수 부분
+    private static final int RSSI_SMOOTHING_SHIFT = 2; // 새 측정값의 가중치 1/4
+    public static final String UNKNOWN_NAME = "Unknown";
+
+    /**
+     * 목록의 기기 하나
+     */
+    public static class Device {
+        private final String mAddress;
+        private String mName;
+        private int mRssiFixed; // RSSI << RSSI_FRACTION_BITS
+        private int mSeenCount = 0;
+
+        private Device(String address, String name, int rssi) {
+            mAddress = address;
+            mName = name;
+            mRssiFixed = rssi << RSSI_FRACTION_BITS;
+        }
+
+        public String getAddress() {
+            return mAddress;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return 평균 RSSI (dBm)
+         */
+        public int getRssi() {
+            return Math.round(mRssiFixed / (float) (1 << RSSI_FRACTION_BITS));
+        }
+
+        public int getSeenCount() {
+            return mSeenCount;
+        }
+    }
+
+    private final HashMap<String, Device> mDevices = new HashMap<>();
+    private final ArrayList<Device> mRanked = new ArrayList<>(); // RSSI 가 센 순서
+
+    /**
+     * 스캔 결과를 반영하는 메소드
+     *
+     * @param address 기기 주소
+     * @param name    기기 이름 (광고에 없으면 null)
+     * @param rssi    이번 광고의 RSSI (dBm)
+     * @return 새 기기이거나 순서 또는 이름이 바뀌어 화면을 다시 그려야 하면 true
+     */
+    public boolean update(String address, String name, int rssi) {
+        Device device = mDevices.get(address);
+        boolean changed = false;
+        int oldIndex;
+        if (device == null) {
+            device = new Device(address, name != null ? name : UNKNOWN_NAME, rssi);
+            mDevices.put(address, device);
+            oldIndex = -1;
+        } else {
+            if (name != null && !name.equals(device.mName)) {
+                device.mName = name; // 이름은 Scan Response 로 늦게 도착하기도 함
+                changed = true;
+            }
+            device.mRssiFixed += ((rssi << RSSI_FRACTION_BITS) - device.mRssiFixed) >> RSSI_SMOOTHING_SHIFT;
+            oldIndex = mRanked.indexOf(device);
+            mRanked.remove(oldIndex);
+        }
+        device.mSeenCount++;
+
+        int index = 0;
+        while (index < mRanked.size() && isAhead(mRanked.get(index), device)) {
+            index++;
+        }
+        mRanked.add(index, device);
+        return changed || index != oldIndex;
+    }
+
+    private static boolean isAhead(Device a, Device b) {
+        if (a.mRssiFixed != b.mRssiFixed) {
+            return a.mRssiFixed > b.mRssiFixed;
+        }
+        return a.mAddress.compareTo(b.mAddress) < 0;
+    }
+
+    /**
+     * @return RSSI 가 센 순서로 정렬된 기기 목록의 복사본
+     */
+    public List<Device> getRanked() {
+        return new ArrayList<>(mRanked);
+    }
+
+    public Device get(String address) {
+        return mDevices.get(address);
+    }
+
+    public int size() {
+        return mRanked.size();
+    }
+
+    public boolean isEmpty() {
+        return mRanked.isEmpty();
+    }
+
+    public void clear() {
+        mDevices.clear();
+        mRanked.clear();
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 파싱된 악보 모델
+ * "080!Q1,8-4,10-@..." 형식의 문자열에서 템포와 이벤트(@ 로 구분된 박자 단위)를 담음.
+ */
+public class Score {
+
+    /**
+     * 음표 길이를 나타내는 문자와 길이(tick). 4분음표(Q) = 8 tick
+     */
+    public enum Duration {
+        WHOLE('W', 32),
+        HALF('H', 16),
+        QUARTER('Q', 8),
+        EIGHTH('E', 4),
+        SIXTEENTH('S', 2),
+        THIRTY_SECOND('q', 1);
+
+        public static final int TICKS_PER_BEAT = 8;
+
+        // values() 는 호출할 때마다 배열을 복사하므로 파싱 중에는 미리 만든 표를 사용
+        private static final Duration[] BY_SYMBOL = new Duration[128];
+        private static final Duration[] BY_ORDINAL = values();
+
+        static {
+            for (Duration duration : BY_ORDINAL) {
+                BY_SYMBOL[duration.symbol] = duration;
+            }
+        }
+
+        public final char symbol;
+        public final int ticks;
+
+        Duration(char symbol, int ticks) {
+            this.symbol = symbol;
+            this.ticks = ticks;
+        }
+
+        public static Duration fromSymbol(char symbol) {
+            return symbol < BY_SYMBOL.length ? BY_SYMBOL[symbol] : null;
+        }
+
+        public static Duration fromOrdinal(int ordinal) {
+            return ordinal >= 0 && ordinal < BY_ORDINAL.length ? BY_ORDINAL[ordinal] : null;
+        }
+    }
+
+    /**
+     * '@'로 구분되는 하나의 이벤트
+     * 템포 변경 이벤트이면 tempo > 0 이고 duration 은 null, 아니면 동시에 누르는 (줄, 프렛) 목록을 가짐.
+     * 줄 번호 0 은 쉼표를 나타냄.
+     */
+    public static class Event {
+        public final int tempo;
+        public final Duration duration;
+        public final byte[] strings;
+        public final byte[] frets;
+
+        private Event(int tempo, Duration duration, byte[] strings, byte[] frets) {
+            this.tempo = tempo;
+            this.duration = duration;
+            this.strings = strings;
+            this.frets = frets;
+        }
+
+        public static Event tempo(int tempo) {
+            return new Event(tempo, null, new byte[0], new byte[0]);
+        }
+
+        public static Event notes(Duration duration, byte[] strings, byte[] frets) {
+            if (strings.length != frets.length) {
+                throw new IllegalArgumentException("strings.length != frets.length");
+            }
+            return new Event(0, duration, strings, frets);
+        }
+
+        public boolean isTempoChange() {
+            return duration == null;
+        }
+
+        public int getNoteCount() {
+            return strings.length;
+        }
+    }
+
+    private final List<Event> mEvents;
+
+    public Score(List<Event> events) {
+        mEvents = Collections.unmodifiableList(new ArrayList<>(events));
+    }
+
+    public List<Event> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * 처음 나오는 템포를 반환하는 메소드
+     *
+     * @return BPM, 템포가 없으면 0
+     */
+    public int getTempo() {
+        for (Event event : mEvents) {
+            if (event.isTempoChange()) {
+                return event.tempo;
+            }
+        }
+        return 0;
+    }
+
+    public int getNoteCount() {
+        int count = 0;
+        for (Event event : mEvents) {
+            count += event.getNoteCount();
+        }
+        return count;
+    }
+
+    /**
+     * 템포 변경을 반영한 전체 연주 시간을 반환하는 메소드
+     * 첫 템포가 나오기 전의 이벤트는 시간을 알 수 없으므로 더하지 않음.
+     *
+     * @return millis
+     */
+    public long getDurationMillis() {
+        int tempo = 0;
+        double millis = 0;
+        for (Event event : mEvents) {
+            if (event.isTempoChange()) {
+                tempo = event.tempo;
+            } else if (tempo > 0) {
+                millis += 60_000.0 * event.duration.ticks / (tempo * Duration.TICKS_PER_BEAT);
+            }
+        }
+        return Math.round(millis);
+    }
+}
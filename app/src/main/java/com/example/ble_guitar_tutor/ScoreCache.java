@@ -0,0 +1,180 @@
+package com.example.ble_guitar_tutor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 악보 문자열별로 파싱 결과와 기기로 보낼 데이터(문자열/바이너리), 그리고 그 해시를 보관하는 LRU 캐시
+ *
+ * 같은 곡을 다시 선택하면 파싱과 인코딩을 다시 하지 않고, 해시로 기기에 이미 있는 곡인지 확인할 수 있음.
+ * 최대 개수를 넘으면 가장 오래 사용하지 않은 곡부터 버림.
+ * 스레드에 안전하지 않으므로 한 스레드(BLE 스레드)에서만 사용해야 함.
+ */
+public class ScoreCache {
+    /* Constant */
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * 캐시에 저장되는 곡 하나
+     */
+    public static class Entry {
+        public final Score score;
+        private byte[] mText;           // 문자열 + '$', 바이너리로 만든 Entry 는 처음 필요할 때 만듦
+        private final byte[] mBinary;   // 바이너리로 표현할 수 없는 악보이면 null
+        private long mTextHash;
+        private final long mBinaryHash;
+
+        private Entry(String text, Score score) {
+            this.score = score;
+            mText = (text + BleProtocol.MESSAGE_TERMINATOR).getBytes(StandardCharsets.UTF_8);
+            mTextHash = contentHash(mText);
+
+            byte[] binary;
+            try {
+                binary = ScoreCodec.encode(score);
+            } catch (IllegalArgumentException e) {
+                binary = null;
+            }
+            mBinary = binary;
+            mBinaryHash = binary == null ? 0 : contentHash(binary);
+        }
+
+        private Entry(byte[] binary) {
+            this.score = ScoreCodec.decode(binary);
+            mBinary = binary;
+            mBinaryHash = contentHash(binary);
+        }
+
+        /**
+         * 바이너리 악보로 Entry 를 만드는 메소드 (곡 보관함처럼 이미 인코딩된 악보를 불러오는 경우)
+         * 문자열은 기존 기기로 보낼 때만 Score 에서 다시 만듦.
+         *
+         * @param binary ScoreCodec 바이너리 악보
+         * @throws IllegalArgumentException 형식이 잘못된 경우
+         */
+        public static Entry fromBinary(byte[] binary) {
+            return new Entry(binary);
+        }
+
+        /**
+         * 악보 문자열로 Entry 를 만드는 메소드 (캐시에 넣지 않음)
+         *
+         * @throws IllegalArgumentException 형식이 잘못된 경우
+         */
+        public static Entry fromText(String text) {
+            return new Entry(text, ScoreCodec.parse(text));
+        }
+
+        public boolean hasBinary() {
+            return mBinary != null;
+        }
+
+        /**
+         * 기기로 보낼 데이터를 반환하는 메소드
+         *
+         * @param binary 바이너리 악보를 원하는지 여부 (바이너리로 표현할 수 없으면 문자열을 반환)
+         */
+        public byte[] getPayload(boolean binary) {
+            return binary && mBinary != null ? mBinary : getText();
+        }
+
+        public long getHash(boolean binary) {
+            if (binary && mBinary != null) {
+                return mBinaryHash;
+            }
+            getText();
+            return mTextHash;
+        }
+
+        private byte[] getText() {
+            if (mText == null) {
+                mText = (ScoreCodec.format(score) + BleProtocol.MESSAGE_TERMINATOR).getBytes(StandardCharsets.UTF_8);
+                mTextHash = contentHash(mText);
+            }
+            return mText;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> mEntries;
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    public ScoreCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public ScoreCache(final int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries : " + maxEntries);
+        }
+        mEntries = new LinkedHashMap<String, Entry>(maxEntries * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ScoreCache.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 악보 문자열에 해당하는 Entry 를 반환하는 메소드. 없으면 파싱하고 인코딩해서 저장함.
+     *
+     * @param text 악보 문자열
+     * @return 캐시된 Entry
+     * @throws IllegalArgumentException 악보 형식이 잘못된 경우 (캐시에 저장하지 않음)
+     */
+    public Entry get(String text) {
+        Entry entry = mEntries.get(text);
+        if (entry != null) {
+            mHitCount++;
+            return entry;
+        }
+
+        mMissCount++;
+        entry = new Entry(text, ScoreCodec.parse(text));
+        mEntries.put(text, entry);
+        return entry;
+    }
+
+    public boolean contains(String text) {
+        return mEntries.containsKey(text);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public void clear() {
+        mEntries.clear();
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * 기기와 주고받는 악보 식별용 64bit 해시 (FNV-1a)
+     * 기기(Arduino)에서도 같은 방법으로 쉽게 계산할 수 있음.
+     *
+     * @param data 해시할 데이터
+     * @return 해시값
+     */
+    public static long contentHash(byte[] data) {
+        return contentHash(data, 0, data.length);
+    }
+
+    public static long contentHash(byte[] data, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= data[i] & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
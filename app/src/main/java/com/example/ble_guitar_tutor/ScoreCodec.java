@@ -0,0 +1,218 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 악보 문자열과 Score 모델, 그리고 기기로 보내는 바이너리 형식 사이의 변환을 담당하는 객체
+ *
+ * 문자열 형식 : [템포 3자리]! 로 시작하고, 이벤트마다 [길이 문자][줄,프렛-]...@
+ * 바이너리 형식 :
+ *   [MAGIC][FORMAT_VERSION] 다음에 이벤트를 나열
+ *   - 음표 이벤트 : [길이(상위 4bit) | 음 개수(하위 4bit)] 다음에 음마다 [줄(상위 3bit) | 프렛(하위 5bit)]
+ *   - 템포 이벤트 : [0xF0][템포 상위 byte][템포 하위 byte]
+ */
+public final class ScoreCodec {
+    /* Binary Format */
+    public static final byte MAGIC = (byte) 0xB5;
+    public static final byte FORMAT_VERSION = 0x01;
+    public static final int HEADER_LENGTH = 2; // [MAGIC][FORMAT_VERSION]
+    private static final int TEMPO_OPCODE = 0x0F;
+    private static final int MAX_STRING = 7;
+    private static final int MAX_FRET = 31;
+    private static final int MAX_NOTES = 15;
+
+    /* Text Format */
+    private static final char TEMPO_MARK = '!';
+    private static final char EVENT_END = '@';
+    private static final char STRING_FRET_SEPARATOR = ',';
+    private static final char NOTE_END = '-';
+
+    private ScoreCodec() {
+    }
+
+    /**
+     * 악보 문자열을 Score 로 변환하는 메소드
+     * 기존 테스트 문자열과의 호환을 위해 '@' 앞의 '-' 생략과 '@' 없이 끝난 마지막 이벤트를 허용함.
+     * 마지막 이벤트는 완성된 음까지 남기고 끝이 잘린 음만 버림 (StreamingScoreParser.finish() 참고).
+     * 줄/프렛은 byte 로 보관하므로, 기타에 없는 줄이나 프렛(MAX_STRING, MAX_FRET 초과)은 잘라내지 않고 거부함.
+     *
+     * @param text 악보 문자열
+     * @return 파싱된 Score
+     * @throws IllegalArgumentException 형식이 잘못되었거나 줄/프렛이 범위를 벗어난 경우
+     */
+    public static Score parse(CharSequence text) {
+        final List<Score.Event> events = new ArrayList<>();
+        final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        final ByteArrayOutputStream frets = new ByteArrayOutputStream();
+
+        StreamingScoreParser parser = new StreamingScoreParser(new StreamingScoreParser.Listener() {
+            @Override
+            public void onTempo(int tempo) {
+                strings.reset();
+                frets.reset();
+                events.add(Score.Event.tempo(tempo));
+            }
+
+            @Override
+            public void onNote(StreamingScoreParser.Note note) {
+                if (note.string > MAX_STRING || note.fret > MAX_FRET) {
+                    throw new IllegalArgumentException("string/fret : " + note.string + "," + note.fret
+                            + " in event " + note.eventIndex);
+                }
+                strings.write(note.string);
+                frets.write(note.fret);
+            }
+
+            @Override
+            public void onEventEnd(StreamingScoreParser.Note lastNote, int noteCount) {
+                events.add(Score.Event.notes(lastNote.duration, strings.toByteArray(), frets.toByteArray()));
+                strings.reset();
+                frets.reset();
+            }
+        });
+
+        if (!parser.feed(text) || !parser.finish()) {
+            int index = (int) parser.getErrorOffset();
+            throw new IllegalArgumentException(parser.getError() + " at " + index + " : "
+                    + text.subSequence(Math.max(0, index - 10), Math.min(text.length(), index + 10)));
+        }
+        return new Score(events);
+    }
+
+    /**
+     * Score 를 표준 악보 문자열로 변환하는 메소드
+     *
+     * @param score 변환할 Score
+     * @return 악보 문자열
+     */
+    public static String format(Score score) {
+        StringBuilder builder = new StringBuilder();
+        for (Score.Event event : score.getEvents()) {
+            if (event.isTempoChange()) {
+                builder.append(String.format(Locale.US, "%03d", event.tempo)).append(TEMPO_MARK);
+                continue;
+            }
+
+            builder.append(event.duration.symbol);
+            for (int i = 0; i < event.getNoteCount(); i++) {
+                builder.append(event.strings[i]).append(STRING_FRET_SEPARATOR).append(event.frets[i]).append(NOTE_END);
+            }
+            builder.append(EVENT_END);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Score 를 바이너리 형식으로 변환하는 메소드
+     *
+     * @param score 변환할 Score
+     * @return 바이너리 악보
+     * @throws IllegalArgumentException 바이너리 형식으로 표현할 수 없는 줄/프렛/템포가 있는 경우
+     */
+    public static byte[] encode(Score score) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC);
+        out.write(FORMAT_VERSION);
+
+        for (Score.Event event : score.getEvents()) {
+            if (event.isTempoChange()) {
+                if (event.tempo > 0xFFFF) {
+                    throw new IllegalArgumentException("tempo : " + event.tempo);
+                }
+                out.write(TEMPO_OPCODE << 4);
+                out.write(event.tempo >> 8);
+                out.write(event.tempo & 0xFF);
+                continue;
+            }
+
+            if (event.getNoteCount() > MAX_NOTES) {
+                throw new IllegalArgumentException("too many notes : " + event.getNoteCount());
+            }
+            out.write(event.duration.ordinal() << 4 | event.getNoteCount());
+            for (int i = 0; i < event.getNoteCount(); i++) {
+                if (event.strings[i] < 0 || event.strings[i] > MAX_STRING || event.frets[i] < 0 || event.frets[i] > MAX_FRET) {
+                    throw new IllegalArgumentException("string/fret : " + event.strings[i] + "," + event.frets[i]);
+                }
+                out.write(event.strings[i] << 5 | event.frets[i]);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 바이너리 악보를 Score 로 변환하는 메소드
+     *
+     * @param data 바이너리 악보
+     * @return 변환된 Score
+     * @throws IllegalArgumentException 형식이 잘못된 경우
+     */
+    public static Score decode(byte[] data) {
+        if (!isBinary(data)) {
+            throw new IllegalArgumentException("not a binary score");
+        }
+
+        List<Score.Event> events = new ArrayList<>();
+        int i = 2;
+        while (i < data.length) {
+            int header = data[i++] & 0xFF;
+            int code = header >> 4;
+            int count = header & 0x0F;
+
+            if (code == TEMPO_OPCODE) {
+                if (i + 2 > data.length) {
+                    throw new IllegalArgumentException("truncated tempo at " + i);
+                }
+                events.add(Score.Event.tempo((data[i] & 0xFF) << 8 | (data[i + 1] & 0xFF)));
+                i += 2;
+                continue;
+            }
+
+            Score.Duration duration = Score.Duration.fromOrdinal(code);
+            if (duration == null || i + count > data.length) {
+                throw new IllegalArgumentException("invalid event at " + (i - 1));
+            }
+            byte[] strings = new byte[count];
+            byte[] frets = new byte[count];
+            for (int n = 0; n < count; n++) {
+                int note = data[i++] & 0xFF;
+                strings[n] = (byte) (note >> 5);
+                frets[n] = (byte) (note & MAX_FRET);
+            }
+            events.add(Score.Event.notes(duration, strings, frets));
+        }
+        return new Score(events);
+    }
+
+    /**
+     * 바이너리 악보에서 offset 위치의 이벤트가 몇 byte 인지 구하는 메소드 (이벤트 단위로 나눌 때 사용)
+     *
+     * @param data   바이너리 악보 또는 이벤트 목록
+     * @param offset 이벤트의 첫 byte 위치
+     * @return 이벤트 길이, 잘렸거나 잘못된 이벤트이면 -1
+     */
+    public static int eventLength(byte[] data, int offset) {
+        int header = data[offset] & 0xFF;
+        int length;
+        if (header >> 4 == TEMPO_OPCODE) {
+            length = 3;
+        } else if (Score.Duration.fromOrdinal(header >> 4) != null) {
+            length = 1 + (header & 0x0F);
+        } else {
+            return -1;
+        }
+        return offset + length <= data.length ? length : -1;
+    }
+
+    /**
+     * 바이너리 악보인지 확인하는 메소드
+     *
+     * @param data 확인할 데이터
+     * @return MAGIC 과 FORMAT_VERSION 으로 시작하면 true
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length >= 2 && data[0] == MAGIC && data[1] == FORMAT_VERSION;
+    }
+}
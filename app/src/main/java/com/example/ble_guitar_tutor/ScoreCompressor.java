@@ -0,0 +1,193 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * 기기로 보내는 메시지를 압축하는 작은 LZ77 방식 코덱
+ *
+ * 악보는 같은 마디가 반복되는 경우가 많으므로, 앞에서 나온 byte 열을 (거리, 길이) 로 다시 가리켜 크기를 줄임.
+ * 기기는 어차피 곡 전체를 버퍼에 저장하므로, 압축 해제할 때 추가 메모리 없이 그 버퍼를 그대로 참조하면 됨.
+ *
+ * 형식 :
+ *   [MAGIC][FORMAT_VERSION][원래 길이 (LEB128 varint)] 다음에 토큰을 나열
+ *   - 0xxxxxxx : 다음 (x + 1) byte 를 그대로 복사 (literal, 1 ~ 128 byte)
+ *   - 1xxxxxxx [거리 상위 byte][거리 하위 byte] : 출력의 (거리) byte 앞에서부터 (x + MIN_MATCH) byte 를 복사
+ *     (거리가 길이보다 짧으면 복사한 byte 를 다시 복사하므로 같은 마디의 반복도 표현됨)
+ */
+public final class ScoreCompressor {
+    /* Format */
+    public static final byte MAGIC = (byte) 0xC5;
+    public static final byte FORMAT_VERSION = 0x01;
+    private static final int MATCH_FLAG = 0x80;
+    private static final int MAX_LITERAL_RUN = 128;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_MATCH = 0x7F + MIN_MATCH;
+    private static final int MAX_DISTANCE = 0xFFFF;
+
+    /* Encoder */
+    private static final int HASH_BITS = 12;
+    private static final int MAX_CHAIN = 64;
+
+    private ScoreCompressor() {
+    }
+
+    public static boolean isCompressed(byte[] message) {
+        return message.length >= 3 && message[0] == MAGIC && message[1] == FORMAT_VERSION;
+    }
+
+    /**
+     * 메시지를 압축하는 메소드
+     *
+     * @param data 압축할 메시지
+     * @return 압축된 메시지, 압축해도 작아지지 않으면 null
+     */
+    public static byte[] compress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        out.write(MAGIC);
+        out.write(FORMAT_VERSION);
+        writeVarint(out, data.length);
+
+        int[] head = new int[1 << HASH_BITS];
+        int[] previous = new int[data.length];
+        Arrays.fill(head, -1);
+
+        int literalStart = 0;
+        int i = 0;
+        while (i < data.length) {
+            int bestLength = 0;
+            int bestDistance = 0;
+            if (i + MIN_MATCH <= data.length) {
+                int hash = hash(data, i);
+                int candidate = head[hash];
+                for (int chain = 0; candidate >= 0 && chain < MAX_CHAIN && i - candidate <= MAX_DISTANCE; chain++) {
+                    int length = matchLength(data, candidate, i);
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = i - candidate;
+                        if (length == MAX_MATCH) {
+                            break;
+                        }
+                    }
+                    candidate = previous[candidate];
+                }
+                previous[i] = head[hash];
+                head[hash] = i;
+            }
+
+            if (bestLength < MIN_MATCH) {
+                i++;
+                continue;
+            }
+
+            writeLiterals(out, data, literalStart, i);
+            out.write(MATCH_FLAG | (bestLength - MIN_MATCH));
+            out.write(bestDistance >> 8);
+            out.write(bestDistance);
+
+            // 건너뛰는 위치도 이후 검색에 쓸 수 있도록 해시에 등록
+            int end = i + bestLength;
+            for (i++; i < end; i++) {
+                if (i + MIN_MATCH <= data.length) {
+                    int hash = hash(data, i);
+                    previous[i] = head[hash];
+                    head[hash] = i;
+                }
+            }
+            literalStart = i;
+        }
+        writeLiterals(out, data, literalStart, data.length);
+
+        byte[] compressed = out.toByteArray();
+        return compressed.length < data.length ? compressed : null;
+    }
+
+    /**
+     * 압축된 메시지를 푸는 메소드 (기기 펌웨어가 구현해야 하는 동작의 기준 구현)
+     *
+     * @param message compress() 의 결과
+     * @return 원래 메시지, 형식이 잘못되었으면 null
+     */
+    public static byte[] decompress(byte[] message) {
+        if (!isCompressed(message)) {
+            return null;
+        }
+
+        int offset = 2;
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (offset >= message.length || shift > 28) {
+                return null;
+            }
+            int b = message[offset++] & 0xFF;
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        byte[] out = new byte[(int) length];
+        int position = 0;
+        while (offset < message.length) {
+            int token = message[offset++] & 0xFF;
+            if ((token & MATCH_FLAG) == 0) {
+                int run = token + 1;
+                if (offset + run > message.length || position + run > out.length) {
+                    return null;
+                }
+                System.arraycopy(message, offset, out, position, run);
+                offset += run;
+                position += run;
+                continue;
+            }
+
+            if (offset + 2 > message.length) {
+                return null;
+            }
+            int matchLength = (token & 0x7F) + MIN_MATCH;
+            int distance = (message[offset] & 0xFF) << 8 | (message[offset + 1] & 0xFF);
+            offset += 2;
+            if (distance == 0 || distance > position || position + matchLength > out.length) {
+                return null;
+            }
+            for (int k = 0; k < matchLength; k++, position++) {
+                out[position] = out[position - distance]; // 겹치는 복사를 위해 한 byte 씩
+            }
+        }
+        return position == out.length ? out : null;
+    }
+
+    private static int hash(byte[] data, int i) {
+        int value = (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | (data[i + 3] & 0xFF) << 24;
+        return (value * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    private static int matchLength(byte[] data, int from, int to) {
+        int max = Math.min(MAX_MATCH, data.length - to);
+        int length = 0;
+        while (length < max && data[from + length] == data[to + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    private static void writeLiterals(ByteArrayOutputStream out, byte[] data, int start, int end) {
+        while (start < end) {
+            int run = Math.min(MAX_LITERAL_RUN, end - start);
+            out.write(run - 1);
+            out.write(data, start, run);
+            start += run;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 바이너리 악보의 이벤트('@' 로 구분되는 마디) 단위 차이를 패치로 만들고 적용하는 객체
+ *
+ * 기기가 이전에 받은 악보(base)를 가지고 있으면, 바뀐 이벤트만 담은 패치를 보내 기기가 그 자리에서 고치도록 함.
+ *
+ * 패치 형식 :
+ *   [PATCH_MAGIC][FORMAT_VERSION][base 해시 8 byte][target 해시 8 byte][명령 개수 2 byte] 다음에 명령을 나열
+ *   - INSERT  : [OP_INSERT][위치 2 byte][개수 2 byte][이벤트...]  위치 앞에 이벤트를 넣음
+ *   - DELETE  : [OP_DELETE][위치 2 byte][개수 2 byte]             위치부터 이벤트를 지움
+ *   - REPLACE : [OP_REPLACE][위치 2 byte][개수 2 byte][이벤트...] 위치부터 이벤트를 바꿈
+ *   위치는 이벤트 번호(템포 이벤트 포함)이며, 명령은 순서대로 적용됨. 이벤트는 ScoreCodec 바이너리 형식 그대로임.
+ *   기기는 현재 악보의 해시가 base 해시와 같을 때만 적용하고, 적용 결과의 해시가 target 해시와 다르면 버려야 함.
+ *   해시는 ScoreCache.contentHash() 이며 숫자는 모두 big endian.
+ */
+public final class ScoreDiff {
+    /* Patch Format */
+    public static final byte PATCH_MAGIC = (byte) 0xD5;
+    public static final byte FORMAT_VERSION = 0x01;
+    public static final byte OP_INSERT = 1;
+    public static final byte OP_DELETE = 2;
+    public static final byte OP_REPLACE = 3;
+    private static final int HASH_LENGTH = 8;
+    private static final int PATCH_HEADER_LENGTH = 2 + HASH_LENGTH * 2 + 2;
+    private static final int MAX_INDEX = 0xFFFF;
+
+    /* 바뀐 구간이 이보다 크면 LCS 를 계산하지 않고 구간 전체를 REPLACE 로 보냄 (int 4 byte * 셀 수 만큼 메모리 사용) */
+    private static final int MAX_LCS_CELLS = 1 << 20;
+
+    private ScoreDiff() {
+    }
+
+    /**
+     * 바이너리 악보를 이벤트 단위로 나눈 결과
+     */
+    private static class Events {
+        final byte[] data;
+        final int[] offsets;    // 이벤트 i 는 data[offsets[i], offsets[i + 1])
+        final long[] hashes;
+        final int count;
+
+        Events(byte[] data) {
+            this.data = data;
+            int[] offsets = new int[16];
+            int count = 0;
+            int offset = ScoreCodec.HEADER_LENGTH;
+            while (offset < data.length) {
+                int length = ScoreCodec.eventLength(data, offset);
+                if (length < 0) {
+                    throw new IllegalArgumentException("invalid event at " + offset);
+                }
+                if (count + 1 >= offsets.length) {
+                    int[] grown = new int[offsets.length * 2];
+                    System.arraycopy(offsets, 0, grown, 0, offsets.length);
+                    offsets = grown;
+                }
+                offsets[count++] = offset;
+                offset += length;
+            }
+            offsets[count] = offset;
+            this.offsets = offsets;
+            this.count = count;
+
+            hashes = new long[count];
+            for (int i = 0; i < count; i++) {
+                hashes[i] = ScoreCache.contentHash(data, offsets[i], length(i));
+            }
+        }
+
+        int length(int index) {
+            return offsets[index + 1] - offsets[index];
+        }
+
+        boolean sameAs(int index, Events other, int otherIndex) {
+            if (hashes[index] != other.hashes[otherIndex] || length(index) != other.length(otherIndex)) {
+                return false;
+            }
+            for (int i = 0; i < length(index); i++) {
+                if (data[offsets[index] + i] != other.data[other.offsets[otherIndex] + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * base 의 [baseIndex, baseIndex + deleteCount) 를 target 의 [targetIndex, targetIndex + insertCount) 로 바꾸는 구간
+     */
+    private static class Hunk {
+        final int baseIndex;
+        final int deleteCount;
+        final int targetIndex;
+        final int insertCount;
+
+        Hunk(int baseIndex, int deleteCount, int targetIndex, int insertCount) {
+            this.baseIndex = baseIndex;
+            this.deleteCount = deleteCount;
+            this.targetIndex = targetIndex;
+            this.insertCount = insertCount;
+        }
+    }
+
+    public static boolean isPatch(byte[] message) {
+        return message.length >= PATCH_HEADER_LENGTH && message[0] == PATCH_MAGIC && message[1] == FORMAT_VERSION;
+    }
+
+    /**
+     * base 악보를 target 악보로 바꾸는 패치를 만드는 메소드
+     *
+     * @param base   기기가 가지고 있는 바이너리 악보
+     * @param target 보내려는 바이너리 악보
+     * @return 패치, target 을 그대로 보내는 것보다 크거나 패치로 표현할 수 없으면 null
+     */
+    public static byte[] createPatch(byte[] base, byte[] target) {
+        if (!ScoreCodec.isBinary(base) || !ScoreCodec.isBinary(target)) {
+            return null;
+        }
+        Events from;
+        Events to;
+        try {
+            from = new Events(base);
+            to = new Events(target);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (from.count > MAX_INDEX || to.count > MAX_INDEX) {
+            return null;
+        }
+
+        List<Hunk> hunks = diff(from, to);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(PATCH_MAGIC);
+        out.write(FORMAT_VERSION);
+        writeLong(out, ScoreCache.contentHash(base));
+        writeLong(out, ScoreCache.contentHash(target));
+        int countPosition = out.size();
+        writeShort(out, 0); // 명령 개수는 마지막에 채움
+
+        // 뒤쪽 구간부터 적용하면 앞쪽 구간의 위치가 바뀌지 않음
+        int operations = 0;
+        for (int h = hunks.size() - 1; h >= 0; h--) {
+            Hunk hunk = hunks.get(h);
+            int replaced = Math.min(hunk.deleteCount, hunk.insertCount);
+            if (replaced > 0) {
+                writeOperation(out, OP_REPLACE, hunk.baseIndex, replaced, to, hunk.targetIndex);
+                operations++;
+            }
+            if (hunk.insertCount > replaced) {
+                writeOperation(out, OP_INSERT, hunk.baseIndex + replaced, hunk.insertCount - replaced, to, hunk.targetIndex + replaced);
+                operations++;
+            } else if (hunk.deleteCount > replaced) {
+                writeOperation(out, OP_DELETE, hunk.baseIndex + replaced, hunk.deleteCount - replaced, null, 0);
+                operations++;
+            }
+        }
+        if (operations > MAX_INDEX) {
+            return null;
+        }
+
+        byte[] patch = out.toByteArray();
+        patch[countPosition] = (byte) (operations >> 8);
+        patch[countPosition + 1] = (byte) operations;
+        return patch.length < target.length ? patch : null;
+    }
+
+    /**
+     * 두 악보의 공통 앞/뒤 부분을 제외한 나머지 구간에서 LCS 로 바뀐 구간을 찾는 메소드
+     */
+    private static List<Hunk> diff(Events from, Events to) {
+        int prefix = 0;
+        while (prefix < from.count && prefix < to.count && from.sameAs(prefix, to, prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < from.count - prefix && suffix < to.count - prefix
+                && from.sameAs(from.count - 1 - suffix, to, to.count - 1 - suffix)) {
+            suffix++;
+        }
+
+        int n = from.count - prefix - suffix;
+        int m = to.count - prefix - suffix;
+        List<Hunk> hunks = new ArrayList<>();
+        if (n == 0 && m == 0) {
+            return hunks;
+        }
+        if (n == 0 || m == 0 || (long) (n + 1) * (m + 1) > MAX_LCS_CELLS) {
+            hunks.add(new Hunk(prefix, n, prefix, m));
+            return hunks;
+        }
+
+        // lcs[i][j] : from[prefix + i ..], to[prefix + j ..] 의 LCS 길이
+        int width = m + 1;
+        int[] lcs = new int[(n + 1) * width];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lcs[i * width + j] = from.sameAs(prefix + i, to, prefix + j)
+                        ? lcs[(i + 1) * width + j + 1] + 1
+                        : Math.max(lcs[(i + 1) * width + j], lcs[i * width + j + 1]);
+            }
+        }
+
+        int i = 0;
+        int j = 0;
+        int hunkI = -1;
+        int hunkJ = -1;
+        while (i < n || j < m) {
+            if (i < n && j < m && from.sameAs(prefix + i, to, prefix + j)) {
+                if (hunkI >= 0) {
+                    hunks.add(new Hunk(prefix + hunkI, i - hunkI, prefix + hunkJ, j - hunkJ));
+                    hunkI = -1;
+                }
+                i++;
+                j++;
+                continue;
+            }
+            if (hunkI < 0) {
+                hunkI = i;
+                hunkJ = j;
+            }
+            if (j < m && (i == n || lcs[i * width + j + 1] >= lcs[(i + 1) * width + j])) {
+                j++;
+            } else {
+                i++;
+            }
+        }
+        if (hunkI >= 0) {
+            hunks.add(new Hunk(prefix + hunkI, n - hunkI, prefix + hunkJ, m - hunkJ));
+        }
+        return hunks;
+    }
+
+    /**
+     * 패치를 적용하는 메소드 (기기 펌웨어가 구현해야 하는 동작의 기준 구현)
+     *
+     * @param base  현재 가지고 있는 바이너리 악보
+     * @param patch 받은 패치
+     * @return 패치를 적용한 악보, base 해시나 결과 해시가 맞지 않거나 패치가 잘못되었으면 null
+     */
+    public static byte[] applyPatch(byte[] base, byte[] patch) {
+        if (!isPatch(patch) || !ScoreCodec.isBinary(base) || readLong(patch, 2) != ScoreCache.contentHash(base)) {
+            return null;
+        }
+        long targetHash = readLong(patch, 2 + HASH_LENGTH);
+        int operations = readShort(patch, 2 + HASH_LENGTH * 2);
+
+        List<byte[]> events = new ArrayList<>();
+        try {
+            Events from = new Events(base);
+            for (int e = 0; e < from.count; e++) {
+                events.add(copy(base, from.offsets[e], from.length(e)));
+            }
+
+            int offset = PATCH_HEADER_LENGTH;
+            for (int op = 0; op < operations; op++) {
+                if (offset + 5 > patch.length) {
+                    return null;
+                }
+                byte code = patch[offset];
+                int index = readShort(patch, offset + 1);
+                int count = readShort(patch, offset + 3);
+                offset += 5;
+
+                if (code == OP_DELETE) {
+                    if (index + count > events.size()) {
+                        return null;
+                    }
+                    events.subList(index, index + count).clear();
+                    continue;
+                }
+                if ((code != OP_INSERT && code != OP_REPLACE)
+                        || index > events.size() || (code == OP_REPLACE && index + count > events.size())) {
+                    return null;
+                }
+                for (int k = 0; k < count; k++) {
+                    int length = offset < patch.length ? ScoreCodec.eventLength(patch, offset) : -1;
+                    if (length < 0) {
+                        return null;
+                    }
+                    byte[] event = copy(patch, offset, length);
+                    offset += length;
+                    if (code == OP_INSERT) {
+                        events.add(index + k, event);
+                    } else {
+                        events.set(index + k, event);
+                    }
+                }
+            }
+            if (offset != patch.length) {
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ScoreCodec.MAGIC);
+        out.write(ScoreCodec.FORMAT_VERSION);
+        for (byte[] event : events) {
+            out.write(event, 0, event.length);
+        }
+        byte[] result = out.toByteArray();
+        return ScoreCache.contentHash(result) == targetHash ? result : null;
+    }
+
+    private static void writeOperation(ByteArrayOutputStream out, byte code, int index, int count, Events source, int sourceIndex) {
+        out.write(code);
+        writeShort(out, index);
+        writeShort(out, count);
+        if (source != null) {
+            int start = source.offsets[sourceIndex];
+            out.write(source.data, start, source.offsets[sourceIndex + count] - start);
+        }
+    }
+
+    private static byte[] copy(byte[] data, int offset, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        return copy;
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            value = value << 8 | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
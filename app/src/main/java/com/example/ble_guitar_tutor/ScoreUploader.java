@@ -0,0 +1,479 @@
+package com.example.ble_guitar_tutor;
+
+/**
+ * 기기에 이미 있는 악보는 다시 보내지 않고, 조금 바뀐 악보는 바뀐 이벤트만 보내도록 업로드 방법을 고르는 객체
+ *
+ * 1. [FRAME_CACHE_QUERY][해시 8 byte] 를 보냄
+ * 2. 기기가 [NOTIFY_CACHE_STATUS][CACHE_HIT] 로 응답하면 기기가 그 악보를 현재 곡으로 선택한 것이므로 전송하지 않음
+ * 3. [NOTIFY_CACHE_STATUS][CACHE_MISS] 로 응답하거나 응답이 없으면(QUERY_TIMEOUT_MILLIS) ChunkTransfer 로 전송함.
+ *    기기는 바로 다음에 받은 메시지를 이 해시로 저장함.
+ * 4. 패치(ScoreDiff)가 있으면 3 에서 전체 악보 대신 패치를 보내고, 전송이 끝나면 같은 해시로 다시 확인함.
+ *    기기가 패치를 적용하지 못했으면(CACHE_MISS) 전체 악보를 보냄.
+ *    Listener 의 onTransferComplete() 는 업로드마다 한 번, 기기 캐시에서 찾았거나 패치 적용을 확인했거나
+ *    전체 악보의 전송이 끝났을 때 호출됨.
+ *
+ * 5. 전송 중 연결이 끊기면 suspend() 로 보내던 데이터를 보관해 두고, 다시 연결되면 resume() 으로 같은 해시를 확인함.
+ *    기기가 CACHE_MISS 응답에 받아 둔 길이를 붙여 보내면, [FRAME_RESUME][offset] 을 보내고 그 뒤부터 이어서 전송함.
+ *
+ * 기기 캐시를 지원하지 않으면 바로 ChunkTransfer 로 전송함.
+ * setCompression(true) 이면 ChunkTransfer 로 보내는 악보와 패치를 ScoreCompressor 로 압축해서 보냄 (작아질 때만).
+ * 캐시 해시는 항상 압축하기 전의 데이터로 계산함.
+ * ChunkTransfer 의 Listener 는 이 객체가 사용하므로, 전송 결과는 setListener() 로 받아야 함.
+ * ChunkTransfer 와 같은 스레드에서만 호출해야 함.
+ */
+public class ScoreUploader {
+    /* Constant */
+    public static final long QUERY_TIMEOUT_MILLIS = 500;
+
+    private enum State {
+        IDLE,
+        QUERYING,   // 업로드 전 캐시 확인 응답 대기
+        SENDING,    // 전체 악보 전송 중
+        PATCHING,   // 패치 전송 중
+        VERIFYING   // 패치 적용 결과 확인 응답 대기
+    }
+
+    /**
+     * 응답 대기 시간이 지나면 onQueryTimeout() 을 호출하기 위한 타이머 (ChunkTransfer 와 같은 스레드에서 실행해야 함)
+     */
+    public interface Timer {
+        void schedule(long delayMillis, Runnable task);
+    }
+
+    private final BleTransport mTransport;
+    private final ChunkTransfer mTransfer;
+    private final Timer mTimer;
+    private ChunkTransfer.Listener mListener;
+    private boolean mCompression = false;
+
+    /* Upload State */
+    private State mState = State.IDLE;
+    private int mQueryId = 0;
+    private long mPendingHash;
+    private byte[] mPendingPayload;
+    private byte[] mPendingPatch;
+    private ChunkSource mPendingSource; // stream() 으로 보낼 데이터, 아니면 null
+    private boolean mUseDeviceCache;
+    private byte[] mSendingMessage;     // ChunkTransfer 로 보내고 있는 데이터 (압축했으면 압축한 데이터)
+    private boolean mStreaming = false; // ChunkSource 를 그대로 보내는 중 (패치/압축/이어 보내기 없음)
+
+    /* Suspended Upload */
+    private boolean mSuspended = false;
+    private State mSuspendedState;      // 연결이 끊길 때의 상태
+    private byte[] mResumeMessage;      // 이어서 보낼 수 있는 데이터, 없으면 null
+
+    /* Statistics */
+    private volatile int mDeviceHitCount = 0;
+    private volatile int mDeviceMissCount = 0;
+    private volatile int mQueryTimeoutCount = 0;
+    private volatile int mPatchAppliedCount = 0;
+    private volatile int mPatchRejectedCount = 0;
+    private volatile long mSkippedBytes = 0;
+    private volatile long mCompressedSavedBytes = 0;
+    private volatile int mResumedCount = 0;
+
+    public ScoreUploader(BleTransport transport, ChunkTransfer transfer, Timer timer) {
+        mTransport = transport;
+        mTransfer = transfer;
+        mTimer = timer;
+        mTransfer.setListener(new TransferListener());
+    }
+
+    public void setListener(ChunkTransfer.Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 연결된 기기가 압축된 메시지를 풀 수 있는지 설정하는 메소드 (연결할 때마다 협상 결과로 설정해야 함)
+     */
+    public void setCompression(boolean compression) {
+        mCompression = compression;
+    }
+
+    public boolean isBusy() {
+        return mState != State.IDLE || mTransfer.isActive();
+    }
+
+    /**
+     * 악보를 기기로 보내는 메소드
+     *
+     * @param payload          보낼 데이터
+     * @param hash             payload 의 ScoreCache.contentHash()
+     * @param useDeviceCache   기기 캐시를 먼저 확인할지 여부 (FRAMED 모드이고 기기가 지원할 때만 true)
+     * @return 이미 업로드 중이거나 전송을 시작하지 못하면 false
+     */
+    public boolean upload(byte[] payload, long hash, boolean useDeviceCache) {
+        return upload(payload, hash, useDeviceCache, null);
+    }
+
+    /**
+     * 악보를 기기로 보내는 메소드
+     *
+     * @param payload        보낼 데이터
+     * @param hash           payload 의 ScoreCache.contentHash()
+     * @param useDeviceCache 기기 캐시를 먼저 확인할지 여부 (FRAMED 모드이고 기기가 지원할 때만 true)
+     * @param patch          기기가 가진 이전 악보에서 payload 로 바꾸는 ScoreDiff 패치, 없으면 null
+     *                       (적용 결과를 캐시 확인으로 검사하므로 useDeviceCache 일 때만 사용)
+     * @return 이미 업로드 중이거나 전송을 시작하지 못하면 false
+     */
+    public boolean upload(byte[] payload, long hash, boolean useDeviceCache, byte[] patch) {
+        if (isBusy()) {
+            return false;
+        }
+        clearSuspended();
+        mPendingPayload = payload;
+        mPendingHash = hash;
+        mPendingPatch = useDeviceCache ? patch : null;
+        mUseDeviceCache = useDeviceCache;
+        if (!useDeviceCache) {
+            return sendPayload();
+        }
+        if (!sendQuery(State.QUERYING)) {
+            return sendPayload(); // 확인하지 못하면 그냥 보냄
+        }
+        return true;
+    }
+
+    /**
+     * ChunkSource 를 처음부터 그대로 보내는 메소드
+     * 전체 데이터를 메모리에 두지 않으므로 기기 캐시 확인, 패치, 압축을 하지 않고, 연결이 끊기면 이어서 보낼 수 없음.
+     *
+     * @param source 보낼 데이터
+     * @return 이미 업로드 중이거나 전송을 시작하지 못하면 false
+     */
+    public boolean stream(ChunkSource source) {
+        return stream(source, 0, false);
+    }
+
+    /**
+     * 해시를 미리 알고 있는 ChunkSource 를 보내는 메소드 (곡 보관함처럼 해시를 저장해 둔 경우)
+     * 기기 캐시에 있으면 source 를 읽지 않고 끝냄. 패치, 압축, 이어서 보내기는 stream(ChunkSource) 와 같이 하지 않음.
+     *
+     * @param source         보낼 데이터
+     * @param hash           source 전체의 ScoreCache.contentHash()
+     * @param useDeviceCache 기기 캐시를 먼저 확인할지 여부 (FRAMED 모드이고 기기가 지원할 때만 true)
+     * @return 이미 업로드 중이거나 전송을 시작하지 못하면 false
+     */
+    public boolean stream(ChunkSource source, long hash, boolean useDeviceCache) {
+        if (isBusy()) {
+            return false;
+        }
+        clearSuspended();
+        mPendingSource = source;
+        mPendingHash = hash;
+        mPendingPatch = null;
+        mUseDeviceCache = useDeviceCache;
+        mStreaming = true;
+        if (!useDeviceCache || !sendQuery(State.QUERYING)) {
+            return sendPayload();
+        }
+        return true;
+    }
+
+    /**
+     * 기기로부터 Notification 을 받았을 때 호출해야 하는 메소드
+     *
+     * @param value 받은 데이터
+     * @return 캐시 응답으로 처리되었으면 true
+     */
+    public boolean onNotification(byte[] value) {
+        if ((value.length != 2 && value.length != 2 + BleProtocol.RESUME_OFFSET_LENGTH)
+                || value[0] != BleProtocol.NOTIFY_CACHE_STATUS) {
+            return false;
+        }
+        boolean hit = value[1] == BleProtocol.CACHE_HIT;
+
+        if (mState == State.QUERYING) {
+            byte[] resumeMessage = mResumeMessage;
+            mResumeMessage = null;
+            if (hit) {
+                mDeviceHitCount++;
+                mSkippedBytes += mPendingSource != null ? mPendingSource.length() : mPendingPayload.length;
+                finish();
+                if (mListener != null) {
+                    mListener.onTransferComplete();
+                }
+            } else {
+                mDeviceMissCount++;
+                int offset = value.length > 2 ? readOffset(value, 2) : 0;
+                if (resumeMessage != null && offset > 0 && offset < resumeMessage.length
+                        && sendResume(resumeMessage, offset)) {
+                    return true;
+                }
+                if (mPendingPatch != null) {
+                    sendPatch();
+                } else {
+                    sendPayload();
+                }
+            }
+        } else if (mState == State.VERIFYING) {
+            if (hit) {
+                mPatchAppliedCount++;
+                mSkippedBytes += mPendingPayload.length - mPendingPatch.length;
+                finish();
+                if (mListener != null) {
+                    mListener.onTransferComplete();
+                }
+            } else {
+                mPatchRejectedCount++;
+                sendPayload();
+            }
+        }
+        // 다른 상태에서 온 응답은 시간이 지난 뒤에 도착한 것이므로 소비만 함
+        return true;
+    }
+
+    /**
+     * 진행 중인 업로드를 취소하는 메소드
+     */
+    public void cancel() {
+        mTransfer.cancel();
+        finish();
+        clearSuspended();
+    }
+
+    /**
+     * 연결이 끊겼을 때 진행 중인 업로드를 멈추고 보관하는 메소드
+     * 다시 연결되면 resume() 을 호출해야 함.
+     *
+     * @return 보관한 업로드가 있으면 true
+     */
+    public boolean suspend() {
+        if (!isBusy()) {
+            return mSuspended;
+        }
+        if (mStreaming) {
+            mTransfer.cancel(); // 읽은 부분을 다시 읽을 수 없으므로 보관하지 않음
+            finish();
+            return false;
+        }
+        State state = mState;
+        byte[] sending = mTransfer.isActive() ? mSendingMessage : null;
+        mTransfer.cancel(); // Listener 를 호출하지 않음
+        mState = State.IDLE;
+
+        mSuspended = true;
+        mSuspendedState = state;
+        mResumeMessage = (state == State.SENDING || state == State.PATCHING) ? sending : null;
+        return true;
+    }
+
+    public boolean hasSuspendedUpload() {
+        return mSuspended;
+    }
+
+    /**
+     * suspend() 로 보관한 업로드를 다시 시작하는 메소드
+     * 기기 캐시를 사용하면 기기가 받아 둔 부분 뒤부터 이어서 보내고, 아니면 처음부터 다시 보냄.
+     *
+     * @param useDeviceCache 다시 연결된 기기에서 기기 캐시를 사용할 수 있는지 여부
+     * @return 보관한 업로드가 없거나 시작하지 못하면 false
+     */
+    public boolean resume(boolean useDeviceCache) {
+        if (!mSuspended || isBusy()) {
+            return false;
+        }
+        State state = mSuspendedState;
+        byte[] resumeMessage = mResumeMessage;
+        mSuspended = false;
+        mResumeMessage = null;
+        if (!useDeviceCache || !mUseDeviceCache) {
+            return upload(mPendingPayload, mPendingHash, useDeviceCache, null);
+        }
+
+        mResumeMessage = resumeMessage;
+        mSuspendedState = state;
+        if (!sendQuery(State.QUERYING)) {
+            mResumeMessage = null;
+            return sendPayload();
+        }
+        return true;
+    }
+
+    private boolean sendResume(byte[] message, int offset) {
+        byte[] frame = new byte[1 + BleProtocol.RESUME_OFFSET_LENGTH];
+        frame[0] = BleProtocol.FRAME_RESUME;
+        for (int i = 0; i < BleProtocol.RESUME_OFFSET_LENGTH; i++) {
+            frame[1 + i] = (byte) (offset >>> (8 * (BleProtocol.RESUME_OFFSET_LENGTH - 1 - i)));
+        }
+        if (!mTransport.write(BleTransport.CONTROL_WRITE_ID, frame, true)) {
+            return false;
+        }
+
+        mState = mSuspendedState;
+        mSendingMessage = message;
+        if (!mTransfer.start(message, offset)) {
+            finish();
+            return false;
+        }
+        mResumedCount++;
+        mSkippedBytes += offset;
+        return true;
+    }
+
+    private static int readOffset(byte[] value, int start) {
+        long offset = 0;
+        for (int i = 0; i < BleProtocol.RESUME_OFFSET_LENGTH; i++) {
+            offset = offset << 8 | (value[start + i] & 0xFF);
+        }
+        return offset > Integer.MAX_VALUE ? 0 : (int) offset;
+    }
+
+    private void clearSuspended() {
+        mSuspended = false;
+        mSuspendedState = null;
+        mResumeMessage = null;
+    }
+
+    private boolean sendQuery(State state) {
+        byte[] query = new byte[1 + BleProtocol.CACHE_HASH_LENGTH];
+        query[0] = BleProtocol.FRAME_CACHE_QUERY;
+        for (int i = 0; i < BleProtocol.CACHE_HASH_LENGTH; i++) {
+            query[1 + i] = (byte) (mPendingHash >>> (8 * (BleProtocol.CACHE_HASH_LENGTH - 1 - i)));
+        }
+        if (!mTransport.write(BleTransport.CONTROL_WRITE_ID, query, true)) {
+            return false;
+        }
+
+        mState = state;
+        final int queryId = ++mQueryId;
+        mTimer.schedule(QUERY_TIMEOUT_MILLIS, () -> onQueryTimeout(queryId));
+        return true;
+    }
+
+    private boolean sendPayload() {
+        mState = State.SENDING;
+        boolean started;
+        if (mPendingSource != null) {
+            started = mTransfer.start(mPendingSource);
+        } else {
+            mSendingMessage = compress(mPendingPayload);
+            started = mTransfer.start(mSendingMessage);
+        }
+        if (!started) {
+            finish();
+            return false;
+        }
+        return true;
+    }
+
+    private void sendPatch() {
+        mState = State.PATCHING;
+        mSendingMessage = compress(mPendingPatch);
+        if (!mTransfer.start(mSendingMessage)) {
+            sendPayload();
+        }
+    }
+
+    /**
+     * 압축이 켜져 있고 압축해서 작아지면 압축한 데이터를, 아니면 원래 데이터를 돌려주는 메소드
+     * 기기 캐시에서 찾은 경우에는 호출되지 않으므로, 실제로 보낼 때만 압축함.
+     */
+    private byte[] compress(byte[] data) {
+        if (!mCompression) {
+            return data;
+        }
+        byte[] compressed = ScoreCompressor.compress(data);
+        if (compressed == null) {
+            return data;
+        }
+        mCompressedSavedBytes += data.length - compressed.length;
+        return compressed;
+    }
+
+    private void onQueryTimeout(int queryId) {
+        if ((mState != State.QUERYING && mState != State.VERIFYING) || queryId != mQueryId) {
+            return;
+        }
+        mQueryTimeoutCount++;
+        mResumeMessage = null;
+        sendPayload(); // 확인할 수 없으면 전체 악보를 보내는 것이 안전함
+    }
+
+    private void finish() {
+        mState = State.IDLE;
+        mPendingPayload = null;
+        mPendingPatch = null;
+        mPendingSource = null;
+        mSendingMessage = null;
+        mStreaming = false;
+    }
+
+    /**
+     * 전송 결과에 따라 다음 단계로 넘어가고, 외부 Listener 로 전달하는 Listener
+     */
+    private class TransferListener implements ChunkTransfer.Listener {
+        @Override
+        public void onTransferProgress(int sentBytes, int totalBytes) {
+            if (mListener != null) {
+                mListener.onTransferProgress(sentBytes, totalBytes);
+            }
+        }
+
+        @Override
+        public void onTransferComplete() {
+            if (mState == State.PATCHING) {
+                // 패치는 적용 결과를 확인한 뒤에 (또는 전체 악보를 보낸 뒤에) 완료를 알림
+                if (!sendQuery(State.VERIFYING)) {
+                    sendPayload();
+                }
+                return;
+            }
+            if (mState == State.SENDING) {
+                finish();
+            }
+            if (mListener != null) {
+                mListener.onTransferComplete();
+            }
+        }
+
+        @Override
+        public void onTransferFailed() {
+            finish();
+            if (mListener != null) {
+                mListener.onTransferFailed();
+            }
+        }
+    }
+
+    public int getDeviceHitCount() {
+        return mDeviceHitCount;
+    }
+
+    public int getDeviceMissCount() {
+        return mDeviceMissCount;
+    }
+
+    public int getQueryTimeoutCount() {
+        return mQueryTimeoutCount;
+    }
+
+    public int getPatchAppliedCount() {
+        return mPatchAppliedCount;
+    }
+
+    public int getPatchRejectedCount() {
+        return mPatchRejectedCount;
+    }
+
+    /**
+     * 연결이 끊긴 뒤 기기가 받아 둔 부분 뒤부터 이어서 보낸 횟수
+     */
+    public int getResumedCount() {
+        return mResumedCount;
+    }
+
+    /**
+     * 기기 캐시, 패치, 이어서 보내기 덕분에 보내지 않은 바이트 수
+     */
+    public long getSkippedBytes() {
+        return mSkippedBytes;
+    }
+
+    /**
+     * 압축 덕분에 줄어든 바이트 수
+     */
+    public long getCompressedSavedBytes() {
+        return mCompressedSavedBytes;
+    }
+}
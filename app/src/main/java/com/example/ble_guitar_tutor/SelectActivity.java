@@ -2,13 +2,124 @@ package com.example.ble_guitar_tutor;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.content.Context;
+import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * 곡 보관함(SongLibrary)의 곡 목록을 보여주고, 선택한 곡 번호를 MainActivity 로 돌려주는 화면
+ * 목록은 보이는 줄의 제목/템포/길이만 레코드에서 읽으므로 곡이 수천 개여도 바로 열림.
+ */
 public class SelectActivity extends AppCompatActivity {
+    private static final String TAG = "SelectActivityTag";
+    public static final String EXTRA_SONG_INDEX = "song_index";
+    private static final String LIBRARY_DIRECTORY = "library";
+
+    private static SongLibrary sLibrary; // 앱 전체에서 하나만 열어서 사용
+
+    /**
+     * 곡 보관함을 반환하는 메소드. 처음 호출하면 파일을 열고, 비어 있으면 기본 곡을 추가함.
+     *
+     * @throws IOException 보관함 파일을 열 수 없는 경우
+     */
+    public static synchronized SongLibrary getLibrary(Context context) throws IOException {
+        if (sLibrary == null) {
+            Context appContext = context.getApplicationContext();
+            SongLibrary library = SongLibrary.open(new File(appContext.getFilesDir(), LIBRARY_DIRECTORY));
+            if (library.size() == 0) {
+                addBundledSongs(appContext, library);
+            }
+            sLibrary = library;
+        }
+        return sLibrary;
+    }
+
+    private static void addBundledSongs(Context context, SongLibrary library) throws IOException {
+        int[] songs = {R.string.test_string_1, R.string.test_string_2, R.string.test_string_3,
+                R.string.test_string_4, R.string.test_string_5};
+        for (int i = 0; i < songs.length; i++) {
+            library.add("Test Song " + (i + 1), context.getResources().getString(songs[i]));
+        }
+        library.flush();
+        Log.d(TAG, "Added " + songs.length + " bundled songs");
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_select);
+
+        SongLibrary library;
+        try {
+            library = getLibrary(this);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open song library : " + e.getMessage());
+            Toast.makeText(this, "곡 보관함을 열 수 없습니다.", Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+
+        ListView listView = findViewById(R.id.select_song_list);
+        listView.setAdapter(new SongAdapter(library));
+        listView.setOnItemClickListener((parent, view, position, id) -> {
+            Intent result = new Intent();
+            result.putExtra(EXTRA_SONG_INDEX, position);
+            setResult(RESULT_OK, result);
+            finish();
+        });
+    }
+
+    /**
+     * 보이는 줄의 정보만 보관함 레코드에서 읽는 Adapter
+     */
+    private class SongAdapter extends BaseAdapter {
+        private final SongLibrary mLibrary;
+
+        SongAdapter(SongLibrary library) {
+            mLibrary = library;
+        }
+
+        @Override
+        public int getCount() {
+            return mLibrary.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return mLibrary.getTitle(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView;
+            if (view == null) {
+                view = LayoutInflater.from(SelectActivity.this).inflate(R.layout.item_song, parent, false);
+            }
+            TextView title = view.findViewById(R.id.item_song_title);
+            TextView detail = view.findViewById(R.id.item_song_detail);
+
+            long seconds = mLibrary.getDurationMillis(position) / 1000;
+            title.setText(mLibrary.getTitle(position));
+            detail.setText(String.format(Locale.US, "%d BPM · %d:%02d · %d notes", mLibrary.getTempo(position),
+                    seconds / 60, seconds % 60, mLibrary.getNoteCount(position)));
+            return view;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,315 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BLE 통신(보낸 조각, write 완료, 받은 Notification)을 그대로 기록하는 세션 기록기
+ * 현장에서 전송이 느리거나 실패했을 때 기록을 가져와 SessionReplay 로 같은 상황을 다시 만들기 위해 사용함.
+ *
+ * 파일은 메모리에 매핑해서 뒤에 이어 붙이기만 함.
+ * - [헤더] 다음에 레코드가 이어짐. 헤더의 끝 위치는 레코드를 다 쓴 다음에 바꾸므로, 앱이 종료되어도 끝 위치까지는 항상 온전함.
+ * - 레코드 : [시간 8][종류 1][flags 1][본문 길이 2][id 4][본문]. 시간은 기록 시작부터의 nanos.
+ * - 매핑한 영역이 모자라면 두 배로 늘려서 다시 매핑하고, maxLength 를 넘는 레코드는 버리고 개수만 셈.
+ *
+ * 기록은 매핑된 메모리에 값을 쓰는 것뿐이라 객체를 만들지 않으므로 전송 중에 켜 두어도 됨.
+ * 한 스레드(BLE 스레드)에서만 호출해야 함.
+ */
+public class SessionRecorder implements Closeable {
+    /* File Format */
+    static final int MAGIC = 0x47545352;        // "GTSR"
+    static final short VERSION = 1;
+    static final int HEADER_LENGTH = 32;        // [MAGIC 4][VERSION 2][예약 2][끝 위치 8][시작 시각 millis 8][예약 8]
+    static final int END_POSITION = 8;
+    static final int START_MILLIS = 16;
+    static final int RECORD_HEADER_LENGTH = 16;
+    static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+    private static final int INITIAL_LENGTH = 256 * 1024;
+
+    /* Record Type */
+    public static final byte TYPE_WRITE = 1;            // 보낸 조각. id = writeId, flags = withResponse
+    public static final byte TYPE_WRITE_COMPLETE = 2;   // write 완료. id = writeId, flags = 성공 여부
+    public static final byte TYPE_NOTIFICATION = 3;     // 받은 Notification
+    public static final byte TYPE_LINK = 4;             // 전송 설정. id = 최대 write 길이, flags = Write Without Response 지원, 본문 = DeviceCapabilities
+    public static final byte TYPE_MARK = 5;             // 설명 문자열 (업로드 시작 등)
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mMaxLength;
+    private final long mStartNanos;
+    private MappedByteBuffer mBuffer;
+    private long mMappedLength;
+    private int mPosition = HEADER_LENGTH;
+    private int mRecordCount = 0;
+    private int mDroppedCount = 0;
+
+    private SessionRecorder(File file, long maxLength, long startNanos) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        mMaxLength = Math.min(maxLength, Integer.MAX_VALUE);
+        mStartNanos = startNanos;
+        try {
+            mChannel.truncate(0);
+            map(Math.min(INITIAL_LENGTH, mMaxLength));
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putShort(4, VERSION);
+            mBuffer.putLong(START_MILLIS, System.currentTimeMillis());
+            mBuffer.putLong(END_POSITION, mPosition);
+        } catch (IOException | RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 새 기록 파일을 만드는 메소드 (같은 이름의 파일이 있으면 덮어씀)
+     *
+     * @param file       기록 파일
+     * @param maxLength  파일 최대 크기 (bytes), 넘으면 이후 레코드는 버림
+     * @param startNanos 기록 시작 시각 (레코드 시간의 기준, System.nanoTime())
+     * @throws IOException 파일을 만들 수 없는 경우
+     */
+    public static SessionRecorder create(File file, long maxLength, long startNanos) throws IOException {
+        if (maxLength < HEADER_LENGTH) {
+            throw new IllegalArgumentException("maxLength : " + maxLength);
+        }
+        return new SessionRecorder(file, maxLength, startNanos);
+    }
+
+    public void recordWrite(long nanos, int writeId, byte[] value, boolean withResponse) {
+        record(nanos, TYPE_WRITE, withResponse, writeId, value, value.length);
+    }
+
+    public void recordWriteComplete(long nanos, int writeId, boolean success) {
+        record(nanos, TYPE_WRITE_COMPLETE, success, writeId, null, 0);
+    }
+
+    public void recordNotification(long nanos, byte[] value) {
+        record(nanos, TYPE_NOTIFICATION, false, 0, value, value.length);
+    }
+
+    /**
+     * 전송 방식이 정해졌을 때 기록하는 메소드. SessionReplay 는 이 값으로 같은 전송 방식을 만듦.
+     */
+    public void recordLink(long nanos, DeviceCapabilities capabilities, int maxWriteLength, boolean writeWithoutResponse) {
+        byte[] value = capabilities.toString().getBytes(StandardCharsets.UTF_8);
+        record(nanos, TYPE_LINK, writeWithoutResponse, maxWriteLength, value, value.length);
+    }
+
+    public void recordMark(long nanos, String text) {
+        byte[] value = text.getBytes(StandardCharsets.UTF_8);
+        record(nanos, TYPE_MARK, false, 0, value, Math.min(value.length, MAX_PAYLOAD_LENGTH));
+    }
+
+    private void record(long nanos, byte type, boolean flag, int id, byte[] value, int length) {
+        if (mBuffer == null) {
+            return;
+        }
+        int recordLength = RECORD_HEADER_LENGTH + length;
+        if (length > MAX_PAYLOAD_LENGTH || !ensureCapacity(recordLength)) {
+            mDroppedCount++;
+            return;
+        }
+
+        int position = mPosition;
+        mBuffer.putLong(position, nanos - mStartNanos);
+        mBuffer.put(position + 8, type);
+        mBuffer.put(position + 9, (byte) (flag ? 1 : 0));
+        mBuffer.putShort(position + 10, (short) length);
+        mBuffer.putInt(position + 12, id);
+        if (length > 0) {
+            mBuffer.position(position + RECORD_HEADER_LENGTH);
+            mBuffer.put(value, 0, length);
+        }
+        mPosition = position + recordLength;
+        mBuffer.putLong(END_POSITION, mPosition); // 레코드를 다 쓴 다음에 끝 위치를 옮김
+        mRecordCount++;
+    }
+
+    /**
+     * @return 레코드를 쓸 공간이 있으면 true, maxLength 를 넘거나 다시 매핑하지 못하면 false
+     */
+    private boolean ensureCapacity(int recordLength) {
+        long required = (long) mPosition + recordLength;
+        if (required <= mMappedLength) {
+            return true;
+        }
+        if (required > mMaxLength) {
+            return false;
+        }
+        try {
+            map(Math.min(mMaxLength, Math.max(required, mMappedLength * 2)));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void map(long length) throws IOException {
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        mMappedLength = length;
+    }
+
+    public int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * maxLength 를 넘거나 본문이 너무 길어서 버린 레코드 수
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * 기록한 바이트 수 (헤더 포함)
+     */
+    public int getLength() {
+        return mPosition;
+    }
+
+    /**
+     * 기록을 끝내고 파일을 기록한 길이로 자르는 메소드
+     */
+    @Override
+    public void close() throws IOException {
+        if (mBuffer == null) {
+            return;
+        }
+        mBuffer.force();
+        mBuffer = null;
+        try {
+            mChannel.truncate(mPosition);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    /**
+     * 기록 파일을 앞에서부터 읽는 Reader
+     * 레코드마다 같은 객체의 필드를 바꿔 가며 읽으므로, 본문이 필요하면 getPayload() 로 복사해야 함.
+     * 기록 중인 파일도 열 수 있고, 연 시점의 끝 위치까지만 읽음.
+     */
+    public static class Reader implements Closeable {
+        private final RandomAccessFile mFile;
+        private final ByteBuffer mBuffer;
+        private final long mStartMillis;
+        private int mNext = HEADER_LENGTH;
+
+        /* Current Record */
+        private long mTimeNanos;
+        private byte mType;
+        private boolean mFlag;
+        private int mId;
+        private int mPayloadPosition;
+        private int mPayloadLength;
+
+        private Reader(File file) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = mFile.getChannel();
+                long length = channel.size();
+                if (length < HEADER_LENGTH) {
+                    throw new IOException("not a session recording : " + file);
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, Integer.MAX_VALUE));
+                if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+                    throw new IOException("not a session recording : " + file);
+                }
+                long end = buffer.getLong(END_POSITION);
+                if (end < HEADER_LENGTH || end > buffer.capacity()) {
+                    throw new IOException("corrupted session recording, end " + end + " > " + buffer.capacity());
+                }
+                buffer.limit((int) end);
+                mBuffer = buffer;
+                mStartMillis = buffer.getLong(START_MILLIS);
+            } catch (IOException | RuntimeException e) {
+                mFile.close();
+                throw e;
+            }
+        }
+
+        public static Reader open(File file) throws IOException {
+            return new Reader(file);
+        }
+
+        /**
+         * 다음 레코드로 이동하는 메소드
+         *
+         * @return 더 읽을 레코드가 없으면 false
+         * @throws IOException 레코드가 끝 위치를 넘는 경우
+         */
+        public boolean next() throws IOException {
+            if (mNext + RECORD_HEADER_LENGTH > mBuffer.limit()) {
+                return false;
+            }
+            int position = mNext;
+            mTimeNanos = mBuffer.getLong(position);
+            mType = mBuffer.get(position + 8);
+            mFlag = mBuffer.get(position + 9) != 0;
+            mPayloadLength = mBuffer.getShort(position + 10) & 0xFFFF;
+            mId = mBuffer.getInt(position + 12);
+            mPayloadPosition = position + RECORD_HEADER_LENGTH;
+            if (mPayloadPosition + mPayloadLength > mBuffer.limit()) {
+                throw new IOException("corrupted record at " + position);
+            }
+            mNext = mPayloadPosition + mPayloadLength;
+            return true;
+        }
+
+        /**
+         * 기록을 시작한 시각 (System.currentTimeMillis())
+         */
+        public long getStartMillis() {
+            return mStartMillis;
+        }
+
+        /**
+         * 기록 시작부터 이 레코드까지의 시간
+         */
+        public long getTimeNanos() {
+            return mTimeNanos;
+        }
+
+        public byte getType() {
+            return mType;
+        }
+
+        /**
+         * WRITE 이면 withResponse, WRITE_COMPLETE 이면 성공 여부, LINK 이면 Write Without Response 지원 여부
+         */
+        public boolean getFlag() {
+            return mFlag;
+        }
+
+        /**
+         * WRITE/WRITE_COMPLETE 이면 writeId, LINK 이면 최대 write 길이
+         */
+        public int getId() {
+            return mId;
+        }
+
+        public int getPayloadLength() {
+            return mPayloadLength;
+        }
+
+        public byte[] getPayload() {
+            byte[] payload = new byte[mPayloadLength];
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.position(mPayloadPosition);
+            buffer.get(payload);
+            return payload;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+}
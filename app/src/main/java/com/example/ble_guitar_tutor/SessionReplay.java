@@ -0,0 +1,256 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SessionRecorder 로 기록한 세션을 GuitarProtocol 에 다시 넣어 같은 전송을 재현하는 BleTransport
+ * 기기 쪽 응답(write 완료, Notification)을 기록된 시간 간격대로 돌려주므로, 실제 기기 없이 JVM 에서
+ * 느리거나 실패한 전송을 재현하고 프로토콜을 고친 뒤 같은 상황에서 다시 측정할 수 있음.
+ *
+ * 시간
+ * - 응답은 바로 앞에 기록된 write 에 묶여 있음. 재현에서 같은 순서의 write 가 나가면, 기록에서의 간격 / speed 뒤에 응답을 돌려줌.
+ *   그래서 프로토콜이 기록 때보다 빨리 또는 늦게 write 해도 기기 응답의 인과 관계는 유지됨.
+ * - 첫 write 전의 응답(연결 설정 등)은 start() 에서 바로 처리함.
+ *
+ * write 의 내용이 기록과 다르면 getMismatchedWrites() 로 알 수 있고, 기록에 없는 write 에는 응답하지 않음.
+ * 업로드 자체는 호출한 쪽에서 start() 로 시작해야 함 (TYPE_MARK 레코드에 어떤 업로드였는지 남겨 둠).
+ * 한 스레드에서만 호출해야 함.
+ */
+public class SessionReplay implements BleTransport {
+    /**
+     * 응답을 delayNanos 뒤에 실행하는 스케줄러 (GuitarProtocol 과 같은 스레드에서 실행해야 함)
+     */
+    public interface Scheduler {
+        void schedule(long delayNanos, Runnable task);
+    }
+
+    /**
+     * 기록된 레코드 하나
+     */
+    private static class Event {
+        final long timeNanos;
+        final byte type;
+        final boolean flag;
+        final int id;
+        final byte[] payload;
+        final int anchor;   // 바로 앞에 기록된 write 의 순서, 첫 write 전이면 -1
+
+        Event(SessionRecorder.Reader reader, int anchor) {
+            timeNanos = reader.getTimeNanos();
+            type = reader.getType();
+            flag = reader.getFlag();
+            id = reader.getId();
+            payload = reader.getPayload();
+            this.anchor = anchor;
+        }
+    }
+
+    private final NanoClock mClock;
+    private final Scheduler mScheduler;
+    private final double mSpeed;
+    private GuitarProtocol mProtocol;
+
+    /* Recording */
+    private final List<Event> mWrites = new ArrayList<>();
+    private final List<List<Event>> mResponses = new ArrayList<>(); // [write 순서 + 1] 에 묶인 응답, 0 은 첫 write 전
+    private final List<String> mMarks = new ArrayList<>();
+    private int mMaxWriteLength = BleProtocol.DEFAULT_MTU - BleProtocol.ATT_HEADER_LENGTH;
+    private boolean mWriteWithoutResponse = false;
+
+    /* Replay State */
+    private int[] mWriteIds;        // 기록된 write 순서별 재현에서의 writeId
+    private int mWriteCount = 0;
+    private int mMismatchedWrites = 0;
+    private int mExtraWrites = 0;
+    private int mDeliveredCount = 0;
+    private long mFirstWriteNanos = -1;
+    private long mLastEventNanos;
+
+    /**
+     * @param speed 재현 속도 (1 이면 기록과 같은 속도, 10 이면 10 배 빠르게, Double.POSITIVE_INFINITY 면 기다리지 않음)
+     */
+    public SessionReplay(SessionRecorder.Reader reader, NanoClock clock, Scheduler scheduler, double speed) throws IOException {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed : " + speed);
+        }
+        mClock = clock;
+        mScheduler = scheduler;
+        mSpeed = speed;
+
+        mResponses.add(new ArrayList<>());
+        while (reader.next()) {
+            Event event = new Event(reader, mWrites.size() - 1);
+            switch (event.type) {
+                case SessionRecorder.TYPE_WRITE:
+                    mWrites.add(event);
+                    mResponses.add(new ArrayList<>());
+                    break;
+                case SessionRecorder.TYPE_MARK:
+                    mMarks.add(new String(event.payload, StandardCharsets.UTF_8));
+                    break;
+                default:
+                    mResponses.get(mWrites.size()).add(event);
+                    break;
+            }
+        }
+        mWriteIds = new int[mWrites.size()];
+    }
+
+    public static SessionReplay load(File file, NanoClock clock, Scheduler scheduler, double speed) throws IOException {
+        try (SessionRecorder.Reader reader = SessionRecorder.Reader.open(file)) {
+            return new SessionReplay(reader, clock, scheduler, speed);
+        }
+    }
+
+    public void attach(GuitarProtocol protocol) {
+        mProtocol = protocol;
+    }
+
+    /**
+     * 첫 write 전에 기록된 응답(전송 설정 등)을 바로 적용하고 upload 를 실행하는 메소드
+     *
+     * @param upload 기록 때와 같은 업로드를 시작하는 작업 (예 : protocol.send(악보, 주소))
+     */
+    public void start(Runnable upload) {
+        mLastEventNanos = mClock.nanoTime();
+        for (Event event : mResponses.get(0)) {
+            deliver(event);
+        }
+        upload.run();
+    }
+
+    @Override
+    public int getMaxWriteLength(boolean withResponse) {
+        return mMaxWriteLength;
+    }
+
+    @Override
+    public boolean supportsWriteWithoutResponse() {
+        return mWriteWithoutResponse;
+    }
+
+    @Override
+    public boolean write(int writeId, byte[] value, boolean withResponse) {
+        long now = mClock.nanoTime();
+        if (mFirstWriteNanos < 0) {
+            mFirstWriteNanos = now;
+        }
+        mLastEventNanos = now;
+        int index = mWriteCount++;
+        if (index >= mWrites.size()) {
+            mExtraWrites++;
+            return true; // 기록에 없는 write 는 응답하지 않음
+        }
+
+        Event recorded = mWrites.get(index);
+        if (recorded.flag != withResponse || !Arrays.equals(recorded.payload, value)) {
+            mMismatchedWrites++;
+        }
+        mWriteIds[index] = writeId;
+        for (final Event event : mResponses.get(index + 1)) {
+            long delay = (long) ((event.timeNanos - recorded.timeNanos) / mSpeed);
+            mScheduler.schedule(delay, () -> deliver(event));
+        }
+        return true;
+    }
+
+    private void deliver(Event event) {
+        mLastEventNanos = mClock.nanoTime();
+        mDeliveredCount++;
+        switch (event.type) {
+            case SessionRecorder.TYPE_WRITE_COMPLETE:
+                int index = findWrite(event);
+                if (index >= 0) {
+                    mProtocol.onWriteComplete(mWriteIds[index], event.flag);
+                }
+                break;
+            case SessionRecorder.TYPE_NOTIFICATION:
+                mProtocol.onNotification(event.payload, mLastEventNanos);
+                break;
+            case SessionRecorder.TYPE_LINK:
+                mMaxWriteLength = event.id;
+                mWriteWithoutResponse = event.flag;
+                mProtocol.applyCapabilities(DeviceCapabilities.parse(event.payload));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * write 완료에 해당하는 write 의 순서를 찾는 메소드 (가장 최근에 같은 writeId 로 기록된 write)
+     *
+     * @return 기록 시작 전에 보낸 write 이면 -1
+     */
+    private int findWrite(Event complete) {
+        for (int i = complete.anchor; i >= 0; i--) {
+            if (mWrites.get(i).id == complete.id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 기록된 write 중 재현에서 아직 나가지 않은 수 (0 이 아니면 프로토콜이 기록과 다르게 멈춘 것)
+     */
+    public int getMissingWrites() {
+        return Math.max(0, mWrites.size() - mWriteCount);
+    }
+
+    /**
+     * 순서는 같지만 내용이나 write 방식이 기록과 다른 write 수
+     */
+    public int getMismatchedWrites() {
+        return mMismatchedWrites;
+    }
+
+    /**
+     * 기록보다 더 나간 write 수
+     */
+    public int getExtraWrites() {
+        return mExtraWrites;
+    }
+
+    public int getRecordedWriteCount() {
+        return mWrites.size();
+    }
+
+    public int getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * 기록에서 첫 write 부터 마지막 응답까지의 시간
+     */
+    public long getRecordedNanos() {
+        if (mWrites.isEmpty()) {
+            return 0;
+        }
+        long last = mWrites.get(mWrites.size() - 1).timeNanos;
+        List<Event> tail = mResponses.get(mResponses.size() - 1);
+        if (!tail.isEmpty()) {
+            last = tail.get(tail.size() - 1).timeNanos;
+        }
+        return last - mWrites.get(0).timeNanos;
+    }
+
+    /**
+     * 재현에서 첫 write 부터 마지막 write/응답까지의 시간 (Scheduler 가 따르는 시계 기준)
+     */
+    public long getReplayedNanos() {
+        return mFirstWriteNanos < 0 ? 0 : mLastEventNanos - mFirstWriteNanos;
+    }
+
+    /**
+     * 기록에 남긴 설명 문자열 (recordMark() 순서)
+     */
+    public List<String> getMarks() {
+        return mMarks;
+    }
+}
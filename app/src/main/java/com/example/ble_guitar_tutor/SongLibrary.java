@@ -0,0 +1,309 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 기기에 저장하는 곡 보관함
+ *
+ * 파일 두 개를 메모리에 매핑해서 사용함.
+ * - songs.idx : [헤더] 다음에 곡마다 고정 길이(RECORD_LENGTH) 레코드. 제목, 템포, 길이, 음 개수, 해시와 본문 위치를 가짐.
+ *   곡 수와 상관없이 열 때 헤더만 읽고, 목록을 그릴 때 보이는 곡의 레코드만 읽음.
+ * - songs.dat : 곡 본문을 뒤에 이어 붙인 파일. 바이너리로 표현할 수 있는 곡은 ScoreCodec 바이너리, 아니면 악보 문자열 + '$'.
+ *   본문은 보낼 때 getBody()/loadEntry() 로 그 곡만 읽음.
+ *
+ * 곡을 추가할 때는 본문 -> 레코드 -> 곡 수 순서로 기록하므로, 중간에 앱이 종료되어도 곡 수에 포함된 곡은 항상 온전함.
+ * 목록(UI 스레드)과 전송(BLE 스레드)에서 함께 사용하므로 모든 메소드는 동기화됨.
+ */
+public class SongLibrary implements Closeable {
+    /* File Format */
+    public static final String INDEX_FILE = "songs.idx";
+    public static final String DATA_FILE = "songs.dat";
+    private static final int INDEX_MAGIC = 0x47544C42; // "GTLB"
+    private static final short INDEX_VERSION = 1;
+    private static final int HEADER_LENGTH = 16;       // [MAGIC 4][VERSION 2][예약 2][곡 수 4][예약 4]
+    private static final int COUNT_POSITION = 8;
+    static final int RECORD_LENGTH = 128;
+    static final int MAX_TITLE_BYTES = 96;
+    private static final int INITIAL_CAPACITY = 64;    // 레코드 수, 모자라면 두 배씩 늘림
+
+    /* Record Layout */
+    private static final int BODY_OFFSET = 0;   // long
+    private static final int BODY_LENGTH = 8;   // int
+    private static final int FORMAT = 12;       // byte
+    private static final int TITLE_LENGTH = 13; // byte (unsigned)
+    private static final int TEMPO = 14;        // short (unsigned)
+    private static final int NOTE_COUNT = 16;   // int
+    private static final int DURATION = 20;     // int, millis
+    private static final int HASH = 24;         // long, 기기로 보내는 형식의 contentHash
+    private static final int TITLE = 32;        // UTF-8, MAX_TITLE_BYTES
+
+    public static final byte FORMAT_BINARY = 0;
+    public static final byte FORMAT_TEXT = 1;
+
+    private final RandomAccessFile mIndexFile;
+    private final RandomAccessFile mDataFile;
+    private final FileChannel mIndexChannel;
+    private final FileChannel mDataChannel;
+    private MappedByteBuffer mIndex;
+    private MappedByteBuffer mData;     // 마지막으로 매핑한 본문 영역, 그 뒤에 추가된 본문을 읽을 때 다시 매핑
+    private int mCount;
+    private long mDataLength;
+
+    private SongLibrary(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        mIndexFile = new RandomAccessFile(new File(directory, INDEX_FILE), "rw");
+        mDataFile = new RandomAccessFile(new File(directory, DATA_FILE), "rw");
+        mIndexChannel = mIndexFile.getChannel();
+        mDataChannel = mDataFile.getChannel();
+
+        try {
+            long indexLength = mIndexChannel.size();
+            if (indexLength < HEADER_LENGTH) {
+                mIndex = mIndexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + (long) INITIAL_CAPACITY * RECORD_LENGTH);
+                mIndex.putInt(0, INDEX_MAGIC);
+                mIndex.putShort(4, INDEX_VERSION);
+                mIndex.putInt(COUNT_POSITION, 0);
+                mDataChannel.truncate(0);
+            } else {
+                mIndex = mIndexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexLength);
+                if (mIndex.getInt(0) != INDEX_MAGIC || mIndex.getShort(4) != INDEX_VERSION) {
+                    throw new IOException("not a song library : " + directory);
+                }
+            }
+            mCount = mIndex.getInt(COUNT_POSITION);
+            if (mCount < 0 || HEADER_LENGTH + (long) mCount * RECORD_LENGTH > mIndex.capacity()) {
+                throw new IOException("corrupted song library, count " + mCount);
+            }
+            // 곡 수에 포함되지 않은 본문(추가하다 중단된 곡)은 다음 추가 때 덮어씀
+            mDataLength = mCount == 0 ? 0 : getBodyOffset(mCount - 1) + getBodyLength(mCount - 1);
+            if (mDataLength > mDataChannel.size()) {
+                throw new IOException("corrupted song library, data " + mDataChannel.size() + " < " + mDataLength);
+            }
+        } catch (IOException | RuntimeException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    /**
+     * 보관함을 여는 메소드. 없으면 빈 보관함을 만듦.
+     * 곡 수와 상관없이 헤더만 읽으므로 앱 시작 시간에 영향을 주지 않음.
+     *
+     * @param directory 보관함 파일을 둘 디렉토리
+     * @throws IOException 파일을 열 수 없거나 보관함 형식이 아닌 경우
+     */
+    public static SongLibrary open(File directory) throws IOException {
+        return new SongLibrary(directory);
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * 악보 문자열을 파싱/인코딩해서 보관함 끝에 추가하는 메소드
+     *
+     * @param title 제목 (UTF-8 로 MAX_TITLE_BYTES 를 넘으면 잘라서 저장)
+     * @param text  악보 문자열
+     * @return 추가된 곡의 번호
+     * @throws IllegalArgumentException 악보 형식이 잘못된 경우
+     */
+    public int add(String title, CharSequence text) throws IOException {
+        Score score = ScoreCodec.parse(text);
+        byte[] body;
+        byte format;
+        try {
+            body = ScoreCodec.encode(score);
+            format = FORMAT_BINARY;
+        } catch (IllegalArgumentException e) {
+            body = (text.toString() + BleProtocol.MESSAGE_TERMINATOR).getBytes(StandardCharsets.UTF_8);
+            format = FORMAT_TEXT;
+        }
+        return add(title, score, body, format);
+    }
+
+    private synchronized int add(String title, Score score, byte[] body, byte format) throws IOException {
+        int index = mCount;
+        ensureCapacity(index + 1);
+
+        // 1. 본문
+        long offset = mDataLength;
+        ByteBuffer source = ByteBuffer.wrap(body);
+        while (source.hasRemaining()) {
+            mDataChannel.write(source, offset + source.position());
+        }
+
+        // 2. 레코드
+        int position = recordPosition(index);
+        byte[] titleBytes = truncateUtf8(title, MAX_TITLE_BYTES);
+        mIndex.putLong(position + BODY_OFFSET, offset);
+        mIndex.putInt(position + BODY_LENGTH, body.length);
+        mIndex.put(position + FORMAT, format);
+        mIndex.put(position + TITLE_LENGTH, (byte) titleBytes.length);
+        mIndex.putShort(position + TEMPO, (short) Math.min(score.getTempo(), 0xFFFF));
+        mIndex.putInt(position + NOTE_COUNT, score.getNoteCount());
+        mIndex.putInt(position + DURATION, (int) Math.min(score.getDurationMillis(), Integer.MAX_VALUE));
+        mIndex.putLong(position + HASH, ScoreCache.contentHash(body));
+        for (int i = 0; i < titleBytes.length; i++) {
+            mIndex.put(position + TITLE + i, titleBytes[i]);
+        }
+
+        // 3. 곡 수 (이 값을 바꿔야 곡이 보임)
+        mDataLength = offset + body.length;
+        mCount = index + 1;
+        mIndex.putInt(COUNT_POSITION, mCount);
+        return index;
+    }
+
+    /**
+     * 변경 내용을 저장 장치에 기록하는 메소드 (여러 곡을 추가한 뒤 한 번 호출)
+     */
+    public synchronized void flush() throws IOException {
+        mDataChannel.force(false);
+        mIndex.force();
+    }
+
+    /* Metadata (레코드만 읽음) */
+    public synchronized String getTitle(int index) {
+        int position = recordPosition(checkIndex(index));
+        byte[] title = new byte[mIndex.get(position + TITLE_LENGTH) & 0xFF];
+        for (int i = 0; i < title.length; i++) {
+            title[i] = mIndex.get(position + TITLE + i);
+        }
+        return new String(title, StandardCharsets.UTF_8);
+    }
+
+    public synchronized int getTempo(int index) {
+        return mIndex.getShort(recordPosition(checkIndex(index)) + TEMPO) & 0xFFFF;
+    }
+
+    public synchronized int getNoteCount(int index) {
+        return mIndex.getInt(recordPosition(checkIndex(index)) + NOTE_COUNT);
+    }
+
+    public synchronized long getDurationMillis(int index) {
+        return mIndex.getInt(recordPosition(checkIndex(index)) + DURATION);
+    }
+
+    /**
+     * 본문의 contentHash (본문을 읽지 않고 기기 캐시에 있는 곡인지 확인할 때 사용)
+     */
+    public synchronized long getHash(int index) {
+        return mIndex.getLong(recordPosition(checkIndex(index)) + HASH);
+    }
+
+    public synchronized byte getFormat(int index) {
+        return mIndex.get(recordPosition(checkIndex(index)) + FORMAT);
+    }
+
+    /**
+     * 곡 본문을 복사하지 않고 매핑된 영역 그대로 반환하는 메소드
+     *
+     * @return 읽기 전용 버퍼 (position 0, limit 본문 길이)
+     */
+    public synchronized ByteBuffer getBody(int index) throws IOException {
+        checkIndex(index);
+        long offset = getBodyOffset(index);
+        int length = getBodyLength(index);
+        if (mData == null || offset + length > mData.capacity()) {
+            mData = mDataChannel.map(FileChannel.MapMode.READ_ONLY, 0, mDataLength);
+        }
+        ByteBuffer body = mData.asReadOnlyBuffer();
+        body.position((int) offset);
+        body.limit((int) offset + length);
+        return body.slice();
+    }
+
+    /**
+     * 곡 하나를 읽어 기기로 보낼 수 있는 Entry 로 만드는 메소드 (그 곡의 본문만 읽음)
+     */
+    public ScoreCache.Entry loadEntry(int index) throws IOException {
+        byte format;
+        byte[] body;
+        synchronized (this) {
+            format = getFormat(index);
+            ByteBuffer buffer = getBody(index);
+            body = new byte[buffer.remaining()];
+            buffer.get(body);
+        }
+        if (format == FORMAT_BINARY) {
+            return ScoreCache.Entry.fromBinary(body);
+        }
+        return ScoreCache.Entry.fromText(new String(body, 0, body.length - 1, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mIndex.force();
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        try {
+            mIndexFile.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            mDataFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void ensureCapacity(int count) throws IOException {
+        long required = HEADER_LENGTH + (long) count * RECORD_LENGTH;
+        if (required <= mIndex.capacity()) {
+            return;
+        }
+        long capacity = mIndex.capacity();
+        while (capacity < required) {
+            capacity = HEADER_LENGTH + (capacity - HEADER_LENGTH) * 2;
+        }
+        mIndex.force();
+        mIndex = mIndexChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("index : " + index + ", size : " + mCount);
+        }
+        return index;
+    }
+
+    private static int recordPosition(int index) {
+        return HEADER_LENGTH + index * RECORD_LENGTH;
+    }
+
+    private long getBodyOffset(int index) {
+        return mIndex.getLong(recordPosition(index) + BODY_OFFSET);
+    }
+
+    private int getBodyLength(int index) {
+        return mIndex.getInt(recordPosition(index) + BODY_LENGTH);
+    }
+
+    /**
+     * UTF-8 로 maxBytes 를 넘지 않도록 글자 단위로 자르는 메소드
+     */
+    static byte[] truncateUtf8(String text, int maxBytes) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= maxBytes) {
+            return bytes;
+        }
+        int length = maxBytes;
+        while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+            length--; // 글자 중간에서 자르지 않음
+        }
+        byte[] truncated = new byte[length];
+        System.arraycopy(bytes, 0, truncated, 0, length);
+        return truncated;
+    }
+}
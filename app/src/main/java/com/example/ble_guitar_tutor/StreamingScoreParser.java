@@ -0,0 +1,273 @@
+package com.example.ble_guitar_tutor;
+
+/**
+ * 악보 문자열을 조각 단위로 받아 음 하나마다 콜백을 호출하는 push 방식 파서
+ *
+ * 입력은 어떤 단위로 나뉘어 들어와도 되며(BLE Notification, 파일 버퍼 등), 파싱 상태는 다음 입력까지 유지됨.
+ * 음마다 같은 Note 객체를 재사용하고 상태는 primitive 필드로만 관리하므로, 파싱 중에는 객체를 생성하지 않음.
+ * 문법은 ScoreCodec.parse() 와 같음.
+ */
+public class StreamingScoreParser {
+    /* Text Format */
+    private static final char TEMPO_MARK = '!';
+    private static final char EVENT_END = '@';
+    private static final char STRING_FRET_SEPARATOR = ',';
+    private static final char NOTE_END = '-';
+    private static final int MAX_NUMBER = 9999;
+
+    public enum Error {
+        NONE,
+        NUMBER_TOO_LARGE,
+        MISSING_TEMPO,
+        UNEXPECTED_SEPARATOR,
+        INCOMPLETE_NOTE,
+        MISSING_DURATION,
+        UNEXPECTED_CHARACTER
+    }
+
+    /**
+     * 콜백으로 전달되는 음 정보. 콜백이 끝나면 다음 음을 위해 재사용되므로 보관하려면 값을 복사해야 함.
+     */
+    public static class Note {
+        public int eventIndex;          // 몇 번째 '@' 이벤트인지 (템포 제외)
+        public int noteIndex;           // 이벤트 안에서 몇 번째 음인지
+        public Score.Duration duration;
+        public int string;              // 0 이면 쉼표
+        public int fret;
+        public long tick;               // 악보 시작부터 이 이벤트까지의 tick (Score.Duration.TICKS_PER_BEAT 기준)
+    }
+
+    /**
+     * 파싱 결과를 받는 콜백 인터페이스
+     *
+     * onNote() 로 받은 음은 onEventEnd() 가 호출되어야 그 이벤트의 음으로 확정됨.
+     * 이벤트가 '@' 없이 템포 앞에서 끝나면(기존 악보 문자열 호환) 그 이벤트의 onEventEnd() 는 호출되지 않고 onTempo() 가 호출되며,
+     * 이미 onNote() 로 전달한 음은 버려진 것임. 음을 모아 두는 Listener 는 onTempo() 에서 모은 음을 버려야 함.
+     * 버려진 이벤트는 eventIndex 와 tick 을 차지하지 않으므로, 다음 이벤트는 같은 eventIndex 로 noteIndex 0 부터 다시 시작함.
+     * 입력 끝에서 '@' 없이 잘린 마지막 이벤트는 finish() 를 호출하면 완성된 음까지 onEventEnd() 로 전달됨.
+     */
+    public interface Listener {
+        /**
+         * 템포가 바뀔 때 호출됨. 끝나지 않은 이벤트가 있었다면 그 이벤트는 버려짐.
+         */
+        void onTempo(int tempo);
+
+        void onNote(Note note);
+
+        void onEventEnd(Note lastNote, int noteCount);
+    }
+
+    private final Listener mListener;
+    private final Note mNote = new Note();
+
+    /* Parser State */
+    private int mNumber;
+    private int mString;
+    private Score.Duration mDuration;
+    private int mNoteCount;
+    private int mEventIndex;
+    private long mTick;
+    private long mOffset;
+    private Error mError;
+    private long mErrorOffset;
+
+    public StreamingScoreParser(Listener listener) {
+        mListener = listener;
+        reset();
+    }
+
+    /**
+     * 새 악보를 파싱할 수 있도록 상태를 초기화하는 메소드
+     */
+    public void reset() {
+        mNumber = -1;
+        mString = -1;
+        mDuration = null;
+        mNoteCount = 0;
+        mEventIndex = 0;
+        mTick = 0;
+        mOffset = 0;
+        mError = Error.NONE;
+        mErrorOffset = -1;
+    }
+
+    public Error getError() {
+        return mError;
+    }
+
+    public long getErrorOffset() {
+        return mErrorOffset;
+    }
+
+    public boolean hasError() {
+        return mError != Error.NONE;
+    }
+
+    /**
+     * 지금까지 읽은 위치(문자 수)를 반환하는 메소드
+     *
+     * @return 처리한 문자 수
+     */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * 지금까지 읽은 악보의 전체 길이를 반환하는 메소드
+     *
+     * @return tick 수
+     */
+    public long getTotalTicks() {
+        return mTick;
+    }
+
+    /**
+     * 마지막 입력이 이벤트 경계('@' 또는 템포 뒤)에서 끝났는지 확인하는 메소드
+     *
+     * @return 중간에 잘린 이벤트가 없으면 true
+     */
+    public boolean isAtEventBoundary() {
+        return mDuration == null && mNumber < 0 && mString < 0;
+    }
+
+    /**
+     * 입력이 끝났음을 알리는 메소드
+     * '@' 없이 잘린 마지막 이벤트(기존 악보 문자열 호환)에 완성된 음이 있으면 그 음까지 onEventEnd() 로 전달하고,
+     * 끝이 잘린 음은 버림. 완성된 음이 없는 이벤트는 버림.
+     *
+     * @return 오류가 없으면 true
+     */
+    public boolean finish() {
+        if (mError != Error.NONE) {
+            return false;
+        }
+        if (mDuration != null && mNoteCount > 0) {
+            endEvent();
+        }
+        mDuration = null;
+        mNoteCount = 0;
+        mNumber = -1;
+        mString = -1;
+        return true;
+    }
+
+    /**
+     * ASCII 바이트 배열을 입력하는 메소드
+     *
+     * @return 오류가 없으면 true
+     */
+    public boolean feed(byte[] data, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end && mError == Error.NONE; i++) {
+            accept((char) (data[i] & 0xFF));
+        }
+        return mError == Error.NONE;
+    }
+
+    /**
+     * 문자열의 일부를 입력하는 메소드
+     *
+     * @return 오류가 없으면 true
+     */
+    public boolean feed(CharSequence text, int start, int end) {
+        for (int i = start; i < end && mError == Error.NONE; i++) {
+            accept(text.charAt(i));
+        }
+        return mError == Error.NONE;
+    }
+
+    public boolean feed(CharSequence text) {
+        return feed(text, 0, text.length());
+    }
+
+    /**
+     * 문자 하나를 처리하는 메소드
+     * 오류가 발생하면 reset() 전까지 이후 입력은 무시됨.
+     *
+     * @param c 입력 문자
+     */
+    public void accept(char c) {
+        if (mError != Error.NONE) {
+            return;
+        }
+
+        if (c >= '0' && c <= '9') {
+            mNumber = (mNumber < 0 ? 0 : mNumber * 10) + (c - '0');
+            if (mNumber > MAX_NUMBER) {
+                error(Error.NUMBER_TOO_LARGE);
+                return;
+            }
+        } else if (c == TEMPO_MARK) {
+            if (mNumber < 0) {
+                error(Error.MISSING_TEMPO);
+                return;
+            }
+            // 템포 앞에서 끝이 잘린 이벤트는 버림 (기존 테스트 문자열 호환, 전달한 음은 Listener 가 onTempo() 에서 버림)
+            mListener.onTempo(mNumber);
+            mDuration = null;
+            mNoteCount = 0;
+            mNumber = -1;
+            mString = -1;
+        } else if (c == STRING_FRET_SEPARATOR) {
+            if (mDuration == null || mNumber < 0 || mString >= 0) {
+                error(Error.UNEXPECTED_SEPARATOR);
+                return;
+            }
+            mString = mNumber;
+            mNumber = -1;
+        } else if (c == NOTE_END || c == EVENT_END) {
+            if (mString >= 0 && mNumber >= 0) {
+                emitNote();
+            } else if (c == NOTE_END || mString >= 0 || mNumber >= 0) {
+                error(Error.INCOMPLETE_NOTE);
+                return;
+            }
+            mString = -1;
+            mNumber = -1;
+
+            if (c == EVENT_END) {
+                if (mDuration == null) {
+                    error(Error.MISSING_DURATION);
+                    return;
+                }
+                endEvent();
+            }
+        } else {
+            Score.Duration duration = Score.Duration.fromSymbol(c);
+            if (duration == null || mDuration != null || mNumber >= 0 || mString >= 0) {
+                error(Error.UNEXPECTED_CHARACTER);
+                return;
+            }
+            mDuration = duration;
+        }
+        mOffset++;
+    }
+
+    private void emitNote() {
+        mNote.eventIndex = mEventIndex;
+        mNote.noteIndex = mNoteCount;
+        mNote.duration = mDuration;
+        mNote.string = mString;
+        mNote.fret = mNumber;
+        mNote.tick = mTick;
+        mNoteCount++;
+        mListener.onNote(mNote);
+    }
+
+    private void endEvent() {
+        mNote.eventIndex = mEventIndex;
+        mNote.duration = mDuration;
+        mNote.tick = mTick;
+        mListener.onEventEnd(mNote, mNoteCount);
+
+        mTick += mDuration.ticks;
+        mEventIndex++;
+        mDuration = null;
+        mNoteCount = 0;
+    }
+
+    private void error(Error error) {
+        mError = error;
+        mErrorOffset = mOffset;
+    }
+}
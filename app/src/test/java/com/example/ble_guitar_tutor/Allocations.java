@@ -0,0 +1,21 @@
+package com.example.ble_guitar_tutor;
+
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 할당량 측정 테스트에서 현재 스레드가 지금까지 할당한 바이트 수를 읽는 테스트 도우미
+ */
+final class Allocations {
+    private Allocations() {
+    }
+
+    /**
+     * @return 현재 스레드가 할당한 바이트 수, HotSpot 이 아니어서 측정할 수 없으면 -1
+     */
+    static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
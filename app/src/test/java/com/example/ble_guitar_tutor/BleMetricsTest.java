@@ -0,0 +1,152 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * BleMetrics 의 히스토그램, 연결 준비 단계 시간, 기록 비용과 GuitarProtocol 에서 모은 측정값을 확인하는 테스트
+ */
+public class BleMetricsTest {
+
+    @Test
+    public void histogram_percentilesFollowBuckets() {
+        BleMetrics metrics = new BleMetrics();
+        for (int i = 0; i < 90; i++) {
+            metrics.onAck(1_000_000);      // 1 ms
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.onAck(100_000_000);    // 100 ms
+        }
+
+        BleMetrics.Histogram rtt = metrics.snapshot(0).ackRtt;
+        assertEquals(100, rtt.getCount());
+        assertEquals(100_000_000, rtt.getMaxNanos());
+        assertEquals(10_900_000, rtt.getMeanNanos());
+        long p50 = rtt.getPercentileNanos(50);
+        assertTrue(p50 >= 1_000_000 && p50 <= 2_000_000);
+        assertEquals(p50, rtt.getPercentileNanos(90));
+        assertEquals(100_000_000, rtt.getPercentileNanos(99));
+        assertEquals(0, metrics.snapshot(0).writeLatency.getPercentileNanos(50));
+    }
+
+    @Test
+    public void setupPhases_measureTimeSincePreviousMark() {
+        BleMetrics metrics = new BleMetrics();
+        metrics.beginSetup(1_000);
+        metrics.markPhase(BleMetrics.Phase.SCAN, 501_000);
+        metrics.markPhase(BleMetrics.Phase.CONNECT, 801_000);
+        metrics.markPhase(BleMetrics.Phase.DISCOVER, 1_001_000);
+        metrics.markPhase(BleMetrics.Phase.DESCRIPTOR, 1_031_000);
+        metrics.markPhase(BleMetrics.Phase.MTU, 1_061_000);
+        metrics.markPhase(BleMetrics.Phase.CAPABILITIES, 1_091_000);
+
+        BleMetrics.Snapshot snapshot = metrics.snapshot(2_000_000);
+        assertEquals(500_000, snapshot.getPhaseNanos(BleMetrics.Phase.SCAN));
+        assertEquals(300_000, snapshot.getPhaseNanos(BleMetrics.Phase.CONNECT));
+        assertEquals(200_000, snapshot.getPhaseNanos(BleMetrics.Phase.DISCOVER));
+        assertEquals(30_000, snapshot.getPhaseNanos(BleMetrics.Phase.CAPABILITIES));
+        assertEquals(1_090_000, snapshot.getSetupNanos());
+
+        // 다시 연결하면 이전 단계 시간은 지워지고, 스캔 없이 연결한 경우 SCAN 은 0
+        metrics.beginSetup(5_000_000);
+        metrics.markPhase(BleMetrics.Phase.CONNECT, 5_400_000);
+        BleMetrics.Snapshot reconnect = metrics.snapshot(6_000_000);
+        assertEquals(0, reconnect.getPhaseNanos(BleMetrics.Phase.SCAN));
+        assertEquals(400_000, reconnect.getPhaseNanos(BleMetrics.Phase.CONNECT));
+        assertEquals(400_000, reconnect.getSetupNanos());
+        assertEquals(1_090_000, snapshot.getSetupNanos()); // 복사본은 바뀌지 않음
+    }
+
+    /**
+     * 이벤트마다 기록해도 객체를 만들지 않는지 확인 (복사본을 만들 때만 할당)
+     */
+    @Test
+    public void recording_doesNotAllocate() {
+        BleMetrics metrics = new BleMetrics();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        record(metrics, 10_000); // JIT warm-up
+
+        long before = Allocations.allocatedBytes(threads);
+        int events = 1_000_000;
+        record(metrics, events);
+        long allocated = Allocations.allocatedBytes(threads) - before;
+
+        assertEquals(events + 10_000, metrics.snapshot(0).chunksWritten);
+        if (before >= 0) {
+            assertTrue(allocated < 1024);
+        }
+    }
+
+    private static void record(BleMetrics metrics, int events) {
+        for (int i = 0; i < events; i++) {
+            metrics.onChunkWritten(242);
+            metrics.onWriteComplete(7_500_000L + (i & 0xFFFF) * 100, true);
+            metrics.onAck(30_000_000L + (i & 0xFFFF) * 100);
+            metrics.onNotification(GuitarProtocol.Notification.ACK);
+        }
+    }
+
+    /**
+     * 가상 기타로 실제 전송을 흉내내서 전송/ack/Notification 카운터가 서로 맞는지 확인
+     */
+    @Test
+    public void protocol_countsChunksAcksAndNotifications() {
+        SimulationClock clock = new SimulationClock();
+        SimulatedGuitar guitar = new SimulatedGuitar(clock, ChunkTransfer.Mode.FRAMED);
+        GuitarProtocol protocol = new GuitarProtocol(guitar, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+        guitar.attach(protocol);
+        guitar.songCacheCapacity = 4;
+        guitar.packetLossRate = 0.1;
+        guitar.jitterMicros = 10_000;
+        protocol.applyCapabilities(TestCapabilities.FULL);
+
+        assertTrue(protocol.send(TestSongs.get(5), "guitar"));
+        clock.runUntilIdle();
+        guitar.sendNotification(new byte[]{BleProtocol.NOTIFY_FRET_EVENT, (byte) (6 << 5 | 3), 20});
+        guitar.sendNotification("hello".getBytes(StandardCharsets.UTF_8));
+        clock.runUntilIdle();
+
+        BleMetrics.Snapshot snapshot = protocol.getMetrics().snapshot(clock.nanoTime());
+
+        long chunks = guitar.writeCount - guitar.cacheQueryCount; // 캐시 확인 write 는 조각이 아님
+        assertEquals(chunks, snapshot.chunksWritten);
+        assertEquals(chunks, snapshot.writeLatency.getCount());
+        assertEquals(chunks, snapshot.ackRtt.getCount());
+        assertEquals(chunks, snapshot.getNotificationCount(GuitarProtocol.Notification.ACK));
+        assertEquals(1, snapshot.getNotificationCount(GuitarProtocol.Notification.CACHE_STATUS));
+        assertEquals(1, snapshot.getNotificationCount(GuitarProtocol.Notification.FRET_EVENT));
+        assertEquals(1, snapshot.getNotificationCount(GuitarProtocol.Notification.DATA));
+        assertEquals(1, snapshot.transfersStarted);
+        assertEquals(1, snapshot.transfersCompleted);
+        assertEquals(0, snapshot.transfersFailed);
+        assertEquals(0, snapshot.writeFailures);
+        assertEquals(protocol.getTransfer().getLastThroughput(), snapshot.lastThroughput, 0.001);
+        assertTrue(guitar.retransmitCount > 0);
+        assertTrue(snapshot.format(null).contains("sent " + chunks + " chunks / " + snapshot.bytesWritten + " bytes (resent "
+                + snapshot.chunksRetransmitted + ")"));
+
+        // 손실로 늦어진 조각은 ack 왕복 시간의 꼬리에 나타남
+        assertTrue(snapshot.ackRtt.getPercentileNanos(99) > snapshot.ackRtt.getPercentileNanos(50));
+        assertTrue(snapshot.ackRtt.getPercentileNanos(50) >= guitar.connectionIntervalMicros * 1000);
+    }
+
+    @Test
+    public void notificationRate_comparesSnapshots() {
+        BleMetrics metrics = new BleMetrics();
+        BleMetrics.Snapshot first = metrics.snapshot(0);
+        for (int i = 0; i < 50; i++) {
+            metrics.onNotification(GuitarProtocol.Notification.FRET_EVENT);
+        }
+        BleMetrics.Snapshot second = metrics.snapshot(500_000_000);
+        assertEquals(100.0, second.getNotificationRate(first), 0.001);
+        assertEquals(0.0, second.getNotificationRate(null), 0.001);
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot(0).getNotificationCount());
+    }
+}
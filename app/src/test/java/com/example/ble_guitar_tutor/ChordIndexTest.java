@@ -0,0 +1,194 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ChordIndex 의 모양 interning, tick/마디 조회, 메모리와 조회 속도를 확인하는 테스트
+ */
+public class ChordIndexTest {
+    private static final String[] SHAPES = {
+            "1,3-2,3-3,4-4,5-5,5-6,3-", "1,0-2,1-3,0-4,2-5,3-", "1,0-2,0-3,1-4,2-5,2-6,0-", "2,1-3,2-4,2-5,0-",
+            "1,2-2,3-3,2-4,0-", "1,3-2,0-3,0-4,0-5,2-6,3-", "1,1-2,1-3,2-4,3-5,3-6,1-", "3,2-4,0-",
+            "1,0-2,3-3,2-4,0-5,1-", "6,3-", "5,2-", "4,0-",
+    };
+
+    @Test
+    public void sameShape_isInternedRegardlessOfOrder() {
+        ChordIndex index = ChordIndex.parse("120!Q1,3-2,5-@E0,0-@Q2,5-1,3-@080!H1,3-2,5-1,3-@Q4,0-@");
+        assertEquals(5, index.getEventCount()); // 템포 제외
+        assertEquals(3, index.getShapeCount()); // 쉼표, {1,3 2,5}, {4,0}
+        assertEquals(ChordIndex.REST_SHAPE, index.getShape(1));
+        int shape = index.getShape(0);
+        assertEquals(shape, index.getShape(2));
+        assertEquals(shape, index.getShape(3)); // 같은 음이 두 번 있어도 같은 모양
+        assertNotEquals(shape, index.getShape(4));
+
+        assertEquals(2, index.getNoteCount(shape));
+        assertEquals(1, index.getString(shape, 0));
+        assertEquals(3, index.getFret(shape, 0));
+        assertEquals("1,3-2,5-", index.formatShape(shape));
+        assertEquals((1 << 1) | (1 << 2), index.getStringMask(shape));
+        assertTrue(index.contains(shape, 2, 5));
+        assertFalse(index.contains(shape, 2, 3));
+        assertFalse(index.contains(shape, 4, 0));
+        assertEquals(0, index.getNoteCount(ChordIndex.REST_SHAPE));
+        assertEquals(Score.Duration.HALF, index.getDuration(3));
+    }
+
+    @Test
+    public void parseAndScore_giveSameIndex() {
+        for (int n = 1; n <= TestSongs.COUNT; n++) {
+            String text = TestSongs.get(n);
+            ChordIndex parsed = ChordIndex.parse(text);
+            ChordIndex built = ChordIndex.of(ScoreCodec.parse(text));
+            assertEquals(built.getEventCount(), parsed.getEventCount());
+            assertEquals(built.getShapeCount(), parsed.getShapeCount());
+            assertEquals(built.getTotalTicks(), parsed.getTotalTicks());
+            for (int i = 0; i < parsed.getEventCount(); i++) {
+                assertEquals(built.getShape(i), parsed.getShape(i));
+                assertEquals(built.getTick(i), parsed.getTick(i));
+            }
+        }
+    }
+
+    /**
+     * 마디를 걸치는 음이 있어도 tick 조회가 처음부터 훑어서 찾은 결과와 같음
+     */
+    @Test
+    public void lookup_matchesLinearScan() {
+        // W(32) 로 시작해 H(16) 가 마디를 걸치고, q(1) 처럼 짧은 음도 섞음
+        ChordIndex index = ChordIndex.parse(song(2_000, new Random(3), true));
+        assertTrue(index.getMeasureCount() > 100);
+        for (long tick = -1; tick <= index.getTotalTicks(); tick++) {
+            int expected = -1;
+            for (int i = 0; i < index.getEventCount() && index.getTick(i) <= tick && tick < index.getTotalTicks(); i++) {
+                expected = i;
+            }
+            assertEquals(expected, index.getEventAt(tick));
+            int next = tick < 0 ? 0 : expected < 0 ? -1 : expected + 1;
+            assertEquals(next >= 0 && next < index.getEventCount() ? index.getShape(next) : -1, index.getNextShapeAt(tick));
+        }
+        int measure = 7;
+        assertEquals(index.getEventAt((long) measure * index.getTicksPerMeasure() + 5), index.getEventAt(measure, 5));
+        assertEquals(index.getEventAt((long) measure * index.getTicksPerMeasure()), index.getMeasureEvent(measure));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidScore_isRejected() {
+        ChordIndex.parse("080!Q1,,3-@");
+    }
+
+    /**
+     * 모양 12 개를 반복하는 큰 곡에서 색인의 크기를 문자열과 비교하고, 조회 속도를 문자열을 다시 훑는 경우와 비교
+     */
+    @Test
+    public void index_isSmallerAndFasterThanRescan() {
+        String text = song(200_000, new Random(11), false);
+        ChordIndex index = ChordIndex.parse(text);
+        Score score = ScoreCodec.parse(text);
+
+        long textBytes = text.length();     // Latin-1 문자열 (compact string) 기준, UTF-16 이면 두 배
+        long scoreBytes = estimateScoreBytes(score);
+        assertEquals(SHAPES.length + 1, index.getShapeCount());
+        assertTrue(index.getMemoryBytes() < textBytes);
+        assertTrue(index.getMemoryBytes() * 4 < scoreBytes);
+
+        // 조회 : 무작위 tick 에서 지금/다음 모양 (JIT warm-up 포함)
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Random random = new Random(5);
+        int lookups = 2_000_000;
+        long[] ticks = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            ticks[i] = (long) (random.nextDouble() * index.getTotalTicks());
+        }
+        long checksum = lookup(index, ticks);
+        long before = Allocations.allocatedBytes(threads);
+        long start = System.nanoTime();
+        checksum += lookup(index, ticks);
+        long lookupNanos = System.nanoTime() - start;
+        long allocated = Allocations.allocatedBytes(threads) - before;
+
+        // 비교 : 같은 조회를 악보 문자열을 처음부터 다시 읽어서 할 때
+        int scans = 20;
+        start = System.nanoTime();
+        for (int i = 0; i < scans; i++) {
+            checksum += scanForShape(text, ticks[i]);
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        assertTrue(checksum > 0);
+        if (before >= 0) {
+            assertEquals(0, allocated);
+        }
+        assertTrue((double) lookupNanos / lookups < scanNanos / scans / 1000.0);
+    }
+
+    private static long lookup(ChordIndex index, long[] ticks) {
+        long sum = 0;
+        for (long tick : ticks) {
+            int event = index.getEventAt(tick);
+            sum += index.getShape(event) * 31 + index.getNextShapeAt(tick);
+        }
+        return sum;
+    }
+
+    /**
+     * tick 위치의 음 개수를 악보 문자열을 처음부터 읽어 구하는 메소드 (색인 없이 조회하는 경우)
+     */
+    private static long scanForShape(String text, long tick) {
+        final long[] found = {0};
+        StreamingScoreParser parser = new StreamingScoreParser(new StreamingScoreParser.Listener() {
+            @Override
+            public void onTempo(int tempo) {
+            }
+
+            @Override
+            public void onNote(StreamingScoreParser.Note note) {
+                if (note.tick <= tick && tick < note.tick + note.duration.ticks) {
+                    found[0] += note.string;
+                }
+            }
+
+            @Override
+            public void onEventEnd(StreamingScoreParser.Note lastNote, int noteCount) {
+            }
+        });
+        parser.feed(text);
+        return found[0];
+    }
+
+    /**
+     * Score 가 차지하는 크기 추정 (이벤트 객체 24 byte + 배열 2 개 + ArrayList 참조 4 byte)
+     */
+    private static long estimateScoreBytes(Score score) {
+        long bytes = 0;
+        for (Score.Event event : score.getEvents()) {
+            bytes += 24 + 4 + 2 * (16 + ((event.strings.length + 7) & ~7));
+        }
+        return bytes;
+    }
+
+    /**
+     * SHAPES 에서 고른 모양으로 만든 곡 (가끔 쉼표와 템포 변경)
+     *
+     * @param mixed true 이면 마디를 걸치는 긴 음과 아주 짧은 음을 섞음
+     */
+    private static String song(int events, Random random, boolean mixed) {
+        char[] durations = mixed ? new char[]{'W', 'H', 'Q', 'E', 'S', 'q'} : new char[]{'Q', 'E', 'E', 'S', 'H'};
+        StringBuilder builder = new StringBuilder("100!");
+        for (int i = 0; i < events; i++) {
+            if (i % 500 == 499) {
+                builder.append(String.format("%03d!", 60 + random.nextInt(120)));
+            }
+            builder.append(durations[random.nextInt(durations.length)]);
+            builder.append(random.nextInt(16) == 0 ? "0,0-" : SHAPES[random.nextInt(SHAPES.length)]).append('@');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * ChunkSource 의 UTF-8 변환과 건너뛰기, ChunkTransfer 로 스트리밍 전송할 때의 결과와 메모리 사용량을 확인하는 테스트
+ */
+public class ChunkSourceTest {
+    private static final String[] TEXTS = {
+            "",
+            "!80@4,1-3,2@",
+            "기타 연습 곡 !120@",
+            "🎸 emoji 🎵@",             // surrogate pair
+            "lone high \uD83C at end \uD83C",              // 짝이 없는 surrogate
+            "lone low \uDFB8 é ß €",
+    };
+
+    private static byte[] readAll(ChunkSource source, int chunkLength) throws IOException {
+        byte[] result = new byte[source.length()];
+        for (int offset = 0; offset < result.length; offset += chunkLength) {
+            source.read(result, offset, Math.min(chunkLength, result.length - offset));
+        }
+        return result;
+    }
+
+    @Test
+    public void textSource_matchesGetBytesAcrossChunkBoundaries() throws IOException {
+        for (String text : TEXTS) {
+            byte[] expected = (text + "$").getBytes(StandardCharsets.UTF_8);
+            for (int chunkLength : new int[]{1, 2, 3, 5, 20, 300}) {
+                assertArrayEquals(text + " / " + chunkLength, expected, readAll(ChunkSource.of(text, true), chunkLength));
+            }
+            assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), readAll(ChunkSource.of(new StringBuilder(text), false), 4));
+        }
+    }
+
+    @Test
+    public void skip_continuesFromOffset() throws IOException {
+        String text = "!80@기타@🎸@4,1-3,2@";
+        byte[] bytes = (text + "$").getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < bytes.length; offset++) {
+            byte[] tail = Arrays.copyOfRange(bytes, offset, bytes.length);
+            ChunkSource[] sources = {
+                    ChunkSource.of(bytes),
+                    ChunkSource.of(ByteBuffer.wrap(bytes)),
+                    ChunkSource.of(new ByteArrayInputStream(bytes), bytes.length),
+                    ChunkSource.of(text, true),
+            };
+            for (ChunkSource source : sources) {
+                source.skip(offset);
+                byte[] rest = new byte[tail.length];
+                source.read(rest, 0, rest.length);
+                assertArrayEquals("offset " + offset, tail, rest);
+            }
+        }
+    }
+
+    @Test
+    public void bufferSource_doesNotMoveOriginalPosition() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap("xx0123".getBytes(StandardCharsets.UTF_8));
+        buffer.position(2);
+        ChunkSource source = ChunkSource.of(buffer);
+        assertEquals(4, source.length());
+        assertArrayEquals("0123".getBytes(StandardCharsets.UTF_8), readAll(source, 3));
+        assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void streamEndingEarly_failsTransfer() {
+        DrainTransport transport = new DrainTransport();
+        ChunkTransfer transfer = new ChunkTransfer(transport);
+        transfer.setMode(ChunkTransfer.Mode.LEGACY);
+        final int[] failed = {0};
+        transfer.setListener(new ChunkTransfer.Listener() {
+            @Override
+            public void onTransferProgress(int sentBytes, int totalBytes) {
+            }
+
+            @Override
+            public void onTransferComplete() {
+            }
+
+            @Override
+            public void onTransferFailed() {
+                failed[0]++;
+            }
+        });
+        transfer.setLegacyChunkLength(20);
+
+        // 100 바이트라고 했지만 30 바이트에서 끝나는 스트림 : 두 번째 조각을 읽을 때 실패
+        assertTrue(transfer.start(ChunkSource.of(new ByteArrayInputStream(new byte[30]), 100)));
+        transport.drain(transfer);
+        assertEquals(1, failed[0]);
+        assertFalse(transfer.isActive());
+        assertEquals(1, transport.writeCount);
+
+        // 첫 조각부터 읽지 못하면 시작하지 않음
+        assertFalse(transfer.start(ChunkSource.of(new ByteArrayInputStream(new byte[5]), 100)));
+        assertEquals(2, failed[0]);
+    }
+
+    @Test
+    public void sendText_streamsToLegacyAndFramedGuitars() {
+        String text = TestSongs.get(3);
+        for (ChunkTransfer.Mode mode : ChunkTransfer.Mode.values()) {
+            SimulationClock clock = new SimulationClock();
+            SimulatedGuitar guitar = new SimulatedGuitar(clock, mode);
+            GuitarProtocol protocol = new GuitarProtocol(guitar, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+            guitar.attach(protocol);
+            guitar.packetLossRate = 0.05;
+            protocol.getTransfer().setLegacyChunkLength(BleManager.MAX_LENGTH);
+            protocol.applyCapabilities(mode == ChunkTransfer.Mode.FRAMED ? TestCapabilities.FULL : DeviceCapabilities.LEGACY);
+
+            assertTrue(protocol.sendText(text));
+            assertFalse(protocol.sendText(text)); // 전송 중
+            clock.runUntilIdle();
+            assertArrayEquals((text + "$").getBytes(StandardCharsets.UTF_8), guitar.getReceivedMessage());
+            assertEquals(0, guitar.cacheQueryCount);
+            assertFalse(protocol.isBusy());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sendText_rejectsInvalidScore() {
+        SimulationClock clock = new SimulationClock();
+        SimulatedGuitar guitar = new SimulatedGuitar(clock, ChunkTransfer.Mode.LEGACY);
+        GuitarProtocol protocol = new GuitarProtocol(guitar, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+        protocol.sendText("!80@4,1-x@");
+    }
+
+    /**
+     * 큰 악보를 보낼 때 세 방식의 할당량과 CPU 시간 비교
+     * - 예전 방식 : 문자열에 '$' 를 붙이고 substring(MAX_LENGTH) 로 남은 부분을 계속 잘라내며 조각마다 getBytes()
+     * - byte[] : 전체를 한 번에 getBytes() 해서 ChunkTransfer.start(byte[])
+     * - ChunkSource : 문자열을 조각마다 변환 (전체 byte[] 없음)
+     * 예전 방식은 O(n²) 복사라서 1 MB 악보에서도 다른 두 방식보다 훨씬 느림.
+     */
+    @Test
+    public void largeScore_streamsWithConstantMemory() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        String small = repeatSong(64 * 1024);
+        String large = repeatSong(1024 * 1024);
+        DrainTransport transport = new DrainTransport();
+        ChunkTransfer transfer = new ChunkTransfer(transport);
+        transfer.setMode(ChunkTransfer.Mode.LEGACY);
+        transfer.setLegacyChunkLength(BleManager.MAX_LENGTH);
+
+        for (int i = 0; i < 5; i++) { // JIT warm-up
+            sendSubstrings(transport, small);
+            sendBytes(transfer, transport, small);
+            sendStream(transfer, transport, small);
+        }
+
+        Measurement substring = measure(threads, () -> sendSubstrings(transport, large));
+        long[] substringChecksum = transport.checksum();
+        Measurement bytes = measure(threads, () -> sendBytes(transfer, transport, large));
+        Measurement stream = measure(threads, () -> sendStream(transfer, transport, large));
+        assertArrayEquals(transport.checksum(large), transport.lastChecksum);
+        assertArrayEquals(transport.lastChecksum, substringChecksum);
+
+        if (stream.allocatedBytes >= 0) {
+            assertTrue(bytes.allocatedBytes > large.length());
+            assertTrue(stream.allocatedBytes < 16 * 1024); // 곡 길이와 상관없이 일정
+            assertTrue(substring.allocatedBytes > 100L * large.length());
+        }
+        if (stream.cpuNanos >= 0) {
+            // 조각마다 변환해도 전체를 한 번에 변환하는 것과 비슷하고, 예전 방식보다는 훨씬 빠름
+            assertTrue(stream.cpuNanos < 3 * bytes.cpuNanos + 50_000_000L);
+            assertTrue(substring.cpuNanos > 5 * stream.cpuNanos);
+        }
+    }
+
+    private interface Sender {
+        void send() throws IOException;
+    }
+
+    private static class Measurement {
+        long cpuNanos;       // 측정할 수 없으면 -1
+        long allocatedBytes; // 측정할 수 없으면 -1
+    }
+
+    private static Measurement measure(ThreadMXBean threads, Sender sender) throws IOException {
+        boolean cpuSupported = threads.isCurrentThreadCpuTimeSupported();
+        long allocatedBefore = Allocations.allocatedBytes(threads);
+        long cpuBefore = cpuSupported ? threads.getCurrentThreadCpuTime() : -1;
+        sender.send();
+        Measurement measurement = new Measurement();
+        measurement.cpuNanos = cpuSupported ? threads.getCurrentThreadCpuTime() - cpuBefore : -1;
+        measurement.allocatedBytes = allocatedBefore < 0 ? -1 : Allocations.allocatedBytes(threads) - allocatedBefore;
+        return measurement;
+    }
+
+    private static String repeatSong(int length) {
+        String song = TestSongs.get(5);
+        StringBuilder builder = new StringBuilder(length + song.length());
+        while (builder.length() < length) {
+            builder.append(song);
+        }
+        return builder.toString();
+    }
+
+    /* 예전 BleManager.writeCharacteristic() 의 조각 나누기 */
+    private static void sendSubstrings(DrainTransport transport, String text) {
+        transport.begin();
+        String remaining = text + "$";
+        while (!remaining.isEmpty()) {
+            String message;
+            if (remaining.length() > BleManager.MAX_LENGTH) {
+                message = remaining.substring(0, BleManager.MAX_LENGTH);
+                remaining = remaining.substring(BleManager.MAX_LENGTH);
+            } else {
+                message = remaining;
+                remaining = "";
+            }
+            transport.write(0, message.getBytes(StandardCharsets.UTF_8), true);
+        }
+    }
+
+    private static void sendBytes(ChunkTransfer transfer, DrainTransport transport, String text) {
+        transport.begin();
+        assertTrue(transfer.start((text + "$").getBytes(StandardCharsets.UTF_8)));
+        transport.drain(transfer);
+    }
+
+    private static void sendStream(ChunkTransfer transfer, DrainTransport transport, String text) {
+        transport.begin();
+        assertTrue(transfer.start(ChunkSource.of(text, true)));
+        transport.drain(transfer);
+    }
+
+    /**
+     * 받은 데이터를 저장하지 않고 checksum 만 계산하는 transport
+     * drain() 이 write 완료와 ack 를 반복해서 넣어 전송을 끝까지 진행시킴 (콜백 안에서 재귀하지 않음).
+     */
+    private static class DrainTransport implements BleTransport {
+        private static final byte[] LEGACY_ACK = new byte[0];
+
+        int writeCount;
+        int lastWriteId = -1;
+        long sum1;
+        long sum2;
+        long[] lastChecksum;
+
+        @Override
+        public int getMaxWriteLength(boolean withResponse) {
+            return 512;
+        }
+
+        @Override
+        public boolean supportsWriteWithoutResponse() {
+            return false;
+        }
+
+        @Override
+        public boolean write(int writeId, byte[] value, boolean withResponse) {
+            writeCount++;
+            lastWriteId = writeId;
+            for (byte b : value) {
+                sum1 = (sum1 + (b & 0xFF)) % 65521;
+                sum2 = (sum2 + sum1) % 65521;
+            }
+            return true;
+        }
+
+        void begin() {
+            writeCount = 0;
+            lastWriteId = -1;
+            sum1 = 1;
+            sum2 = 0;
+        }
+
+        void drain(ChunkTransfer transfer) {
+            while (transfer.isActive()) {
+                transfer.onWriteComplete(lastWriteId, true);
+                transfer.onNotification(LEGACY_ACK);
+            }
+            lastChecksum = new long[]{sum1, sum2};
+        }
+
+        long[] checksum() {
+            return new long[]{sum1, sum2};
+        }
+
+        long[] checksum(String text) {
+            long a = 1;
+            long b = 0;
+            for (byte value : (text + "$").getBytes(StandardCharsets.UTF_8)) {
+                a = (a + (value & 0xFF)) % 65521;
+                b = (b + a) % 65521;
+            }
+            return new long[]{a, b};
+        }
+    }
+}
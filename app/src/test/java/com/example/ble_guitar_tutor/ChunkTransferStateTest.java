@@ -0,0 +1,203 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * write 완료 콜백과 Notification 의 도착 순서를 바꿔 가며 ChunkTransfer 상태 전이를 확인하는 테스트
+ * 콜백은 테스트가 직접 호출하므로 어떤 순서로든 주입할 수 있음.
+ */
+public class ChunkTransferStateTest {
+
+    /**
+     * write 요청을 기록만 하고 완료 콜백은 보내지 않는 transport
+     */
+    private static class ScriptedTransport implements BleTransport {
+        final List<Integer> writeIds = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();
+        int maxWriteLength = 10;
+
+        @Override
+        public int getMaxWriteLength(boolean withResponse) {
+            return maxWriteLength;
+        }
+
+        @Override
+        public boolean supportsWriteWithoutResponse() {
+            return true;
+        }
+
+        @Override
+        public boolean write(int writeId, byte[] value, boolean withResponse) {
+            writeIds.add(writeId);
+            values.add(value);
+            return true;
+        }
+
+        int lastWriteId() {
+            return writeIds.get(writeIds.size() - 1);
+        }
+    }
+
+    private ScriptedTransport mTransport;
+    private ChunkTransfer mTransfer;
+    private int mCompleted;
+    private int mFailed;
+
+    @Before
+    public void setUp() {
+        mTransport = new ScriptedTransport();
+        mTransfer = new ChunkTransfer(mTransport);
+        mCompleted = 0;
+        mFailed = 0;
+        mTransfer.setListener(new ChunkTransfer.Listener() {
+            @Override
+            public void onTransferProgress(int sentBytes, int totalBytes) {
+            }
+
+            @Override
+            public void onTransferComplete() {
+                mCompleted++;
+            }
+
+            @Override
+            public void onTransferFailed() {
+                mFailed++;
+            }
+        });
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] ack(int sequence) {
+        return new byte[]{BleProtocol.NOTIFY_ACK, (byte) sequence};
+    }
+
+    @Test
+    public void legacyAckBeforeWriteComplete() {
+        mTransfer.setMode(ChunkTransfer.Mode.LEGACY);
+        assertTrue(mTransfer.start(bytes("0123456789abcde$")));
+        assertEquals(1, mTransport.writeIds.size());
+
+        // ack 가 먼저 도착해도 write 가 끝나기 전에는 다음 조각을 보내지 않음
+        assertTrue(mTransfer.onNotification(new byte[0]));
+        assertEquals(1, mTransport.writeIds.size());
+        mTransfer.onWriteComplete(mTransport.lastWriteId(), true);
+        assertEquals(2, mTransport.writeIds.size());
+        assertEquals(ChunkTransfer.State.DRAINING, mTransfer.getState());
+
+        // 마지막 조각도 ack 가 먼저 오면 바로 완료되고, 늦게 온 write 완료는 무시됨
+        int lastWriteId = mTransport.lastWriteId();
+        assertTrue(mTransfer.onNotification(new byte[0]));
+        assertEquals(1, mCompleted);
+        assertEquals(ChunkTransfer.State.IDLE, mTransfer.getState());
+        mTransfer.onWriteComplete(lastWriteId, true);
+        assertEquals(2, mTransport.writeIds.size());
+        assertEquals(0, mFailed);
+    }
+
+    @Test
+    public void legacyDataNotificationIsNotAck() {
+        mTransfer.setMode(ChunkTransfer.Mode.LEGACY);
+        // 전송 중이 아니면 빈 Notification 도 일반 데이터
+        assertFalse(mTransfer.onNotification(new byte[0]));
+
+        assertTrue(mTransfer.start(bytes("0123456789abcde$")));
+        assertFalse(mTransfer.onNotification(bytes("3")));
+        mTransfer.onWriteComplete(mTransport.lastWriteId(), true);
+        assertTrue(mTransfer.onNotification(new byte[0]));
+        assertFalse(mTransfer.onNotification(bytes("5")));
+        mTransfer.onWriteComplete(mTransport.lastWriteId(), true);
+        assertTrue(mTransfer.onNotification(new byte[0]));
+        assertEquals(1, mCompleted);
+        // 보낸 조각이 모두 ack 된 뒤에 온 빈 Notification 은 ack 가 아님
+        assertFalse(mTransfer.onNotification(new byte[0]));
+        assertEquals(2, mTransport.writeIds.size());
+    }
+
+    @Test
+    public void framedDuplicateAndOutOfWindowAcks() {
+        mTransfer.setMode(ChunkTransfer.Mode.FRAMED);
+        mTransfer.setWindowSize(4);
+        assertTrue(mTransfer.start(new byte[40])); // 8 바이트씩 5 조각
+        for (int i = 0; i < 3; i++) {
+            mTransfer.onWriteComplete(mTransport.lastWriteId(), true);
+        }
+        assertEquals(4, mTransport.writeIds.size());
+
+        // 아직 보내지 않은 조각의 ack 와 중복 ack 는 소비되지만 상태를 바꾸지 않음
+        assertTrue(mTransfer.onNotification(ack(4)));
+        assertTrue(mTransfer.onNotification(ack(1)));
+        assertTrue(mTransfer.onNotification(ack(1)));
+        assertTrue(mTransfer.onNotification(ack(0)));
+        assertEquals(4, mTransport.writeIds.size());
+
+        // write 완료는 id 가 맞아야만 처리됨
+        mTransfer.onWriteComplete(mTransport.writeIds.get(0), true);
+        assertEquals(4, mTransport.writeIds.size());
+        mTransfer.onWriteComplete(mTransport.lastWriteId(), true);
+        assertEquals(5, mTransport.writeIds.size());
+        assertEquals(BleProtocol.FRAME_DATA_END, mTransport.values.get(4)[0]);
+
+        assertTrue(mTransfer.onNotification(ack(4)));
+        assertEquals(1, mCompleted);
+        assertFalse(mTransfer.onNotification(ack(4)));
+    }
+
+    @Test
+    public void staleWriteCompleteFromPreviousTransferIsIgnored() {
+        mTransfer.setMode(ChunkTransfer.Mode.FRAMED);
+        assertTrue(mTransfer.start(new byte[8]));
+        int firstWriteId = mTransport.lastWriteId();
+        assertTrue(mTransfer.onNotification(ack(0)));
+        assertEquals(1, mCompleted);
+
+        assertTrue(mTransfer.start(new byte[16]));
+        assertEquals(2, mTransport.writeIds.size());
+        // 이전 전송의 write 실패가 늦게 와도 새 전송에는 영향 없음
+        mTransfer.onWriteComplete(firstWriteId, false);
+        assertEquals(0, mFailed);
+        assertTrue(mTransfer.isActive());
+        assertEquals(2, mTransport.writeIds.size());
+
+        mTransfer.onWriteComplete(mTransport.lastWriteId(), true);
+        assertEquals(3, mTransport.writeIds.size());
+        assertTrue(mTransfer.onNotification(ack(1)));
+        assertEquals(2, mCompleted);
+    }
+
+    @Test
+    public void interleavedDataNotificationsPassThrough() {
+        mTransfer.setMode(ChunkTransfer.Mode.FRAMED);
+        assertTrue(mTransfer.start(new byte[24]));
+        assertFalse(mTransfer.onNotification(bytes("Q1,3-@")));
+        assertFalse(mTransfer.onNotification(new byte[0]));
+        assertFalse(mTransfer.onNotification(new byte[]{BleProtocol.NOTIFY_ACK}));
+        mTransfer.onWriteComplete(mTransport.lastWriteId(), true);
+        assertTrue(mTransfer.onNotification(ack(1)));
+        assertFalse(mTransfer.onNotification(bytes("E2,0-@")));
+        mTransfer.onWriteComplete(mTransport.lastWriteId(), true);
+        assertTrue(mTransfer.onNotification(ack(2)));
+        assertEquals(1, mCompleted);
+        assertEquals(0, mFailed);
+    }
+
+    @Test
+    public void writeFailureEndsTransfer() {
+        mTransfer.setMode(ChunkTransfer.Mode.LEGACY);
+        assertTrue(mTransfer.start(bytes("0123456789abcde$")));
+        assertTrue(mTransfer.onNotification(new byte[0]));
+        mTransfer.onWriteComplete(mTransport.lastWriteId(), false);
+        assertEquals(1, mFailed);
+        assertEquals(ChunkTransfer.State.IDLE, mTransfer.getState());
+        assertFalse(mTransfer.onNotification(new byte[0]));
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * ChunkTransfer 를 가상 BLE 기타와 연결하여 전송 결과와 전송 시간을 확인하는 테스트
+ */
+public class ChunkTransferTest {
+    private static final String SONG = "080!Q1,8-4,10-@Q1,7-4,9-@Q1,5-4,7-@Q1,3-4,5-@Q1,1-4,3-@Q1,0-4,2-@Q2,3-4,0-@Q2,1-5,3-@Q0,0-@"
+            + "H1,1-2,1-3,2-4,3-5,3-6,1-@H0,0-@W1,3-2,3-3,4-4,5-5,5-6,3-@Q1,3-2,3-3,4-4,5-5,5-6,3-@q5,3-@q5,3-4,2-@";
+
+    private static byte[] longMessage(int repeat) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < repeat; i++) {
+            builder.append(SONG);
+        }
+        return builder.append(BleProtocol.MESSAGE_TERMINATOR).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Result {
+        long elapsedMicros;
+        double throughput;
+        int writeCount;
+        boolean completed;
+        byte[] received;
+    }
+
+    private static Result send(ChunkTransfer.Mode mode, int windowSize, byte[] message) {
+        return send(mode, windowSize, 23, message);
+    }
+
+    private static Result send(ChunkTransfer.Mode mode, int windowSize, int mtu, byte[] message) {
+        SimulationClock clock = new SimulationClock();
+        SimulatedGuitar guitar = new SimulatedGuitar(clock, mode);
+        guitar.mtu = mtu;
+        ChunkTransfer transfer = new ChunkTransfer(guitar, clock);
+        guitar.attach(transfer);
+        transfer.setMode(mode);
+        transfer.setWindowSize(windowSize);
+
+        Result result = new Result();
+        transfer.setListener(new ChunkTransfer.Listener() {
+            @Override
+            public void onTransferProgress(int sentBytes, int totalBytes) {
+            }
+
+            @Override
+            public void onTransferComplete() {
+                result.completed = true;
+                result.elapsedMicros = clock.nowMicros();
+            }
+
+            @Override
+            public void onTransferFailed() {
+                fail("transfer failed");
+            }
+        });
+
+        assertTrue(transfer.start(message));
+        clock.runUntilIdle();
+        result.received = guitar.getReceivedMessage();
+        result.throughput = transfer.getLastThroughput();
+        result.writeCount = guitar.writeCount;
+        return result;
+    }
+
+    @Test
+    public void legacy_deliversWholeMessage() {
+        byte[] message = longMessage(5);
+        Result result = send(ChunkTransfer.Mode.LEGACY, 1, message);
+
+        assertTrue(result.completed);
+        assertArrayEquals(message, result.received);
+    }
+
+    @Test
+    public void framed_deliversWholeMessageAcrossSequenceWrap() {
+        byte[] message = longMessage(40); // 256 개보다 많은 프레임
+        Result result = send(ChunkTransfer.Mode.FRAMED, 16, message);
+
+        assertTrue(result.completed);
+        assertArrayEquals(message, result.received);
+    }
+
+    @Test
+    public void framed_isFasterThanStopAndWait() {
+        byte[] message = longMessage(20);
+        Result legacy = send(ChunkTransfer.Mode.LEGACY, 1, message);
+        Result framed = send(ChunkTransfer.Mode.FRAMED, ChunkTransfer.DEFAULT_WINDOW_SIZE, message);
+
+        assertArrayEquals(message, framed.received);
+        assertTrue(framed.elapsedMicros * 2 < legacy.elapsedMicros);
+    }
+
+    @Test
+    public void framed_largerWindowIsFaster() {
+        byte[] message = longMessage(10);
+        Result window1 = send(ChunkTransfer.Mode.FRAMED, 1, message);
+        Result window8 = send(ChunkTransfer.Mode.FRAMED, 8, message);
+
+        assertTrue(window8.elapsedMicros < window1.elapsedMicros);
+    }
+
+    @Test
+    public void payloadSize_followsMtuAndCharacteristicLength() {
+        SimulatedGuitar guitar = new SimulatedGuitar(new SimulationClock(), ChunkTransfer.Mode.FRAMED);
+        ChunkTransfer transfer = new ChunkTransfer(guitar);
+        transfer.setMode(ChunkTransfer.Mode.FRAMED);
+
+        assertEquals(20 - BleProtocol.FRAME_HEADER_LENGTH, transfer.getPayloadSize());
+        guitar.mtu = 185;
+        assertEquals(182 - BleProtocol.FRAME_HEADER_LENGTH, transfer.getPayloadSize());
+        guitar.mtu = 517;
+        assertEquals(300 - BleProtocol.FRAME_HEADER_LENGTH, transfer.getPayloadSize());
+    }
+
+    @Test
+    public void largerMtu_improvesThroughput() {
+        byte[] message = longMessage(20);
+        Result defaultMtu = send(ChunkTransfer.Mode.FRAMED, ChunkTransfer.DEFAULT_WINDOW_SIZE, 23, message);
+        Result largeMtu = send(ChunkTransfer.Mode.FRAMED, ChunkTransfer.DEFAULT_WINDOW_SIZE, 247, message);
+
+        assertArrayEquals(message, largeMtu.received);
+        assertTrue(largeMtu.writeCount < defaultMtu.writeCount);
+        assertTrue(largeMtu.throughput > defaultMtu.throughput * 4);
+        assertEquals(message.length * 1_000_000.0 / largeMtu.elapsedMicros, largeMtu.throughput, 1.0);
+    }
+
+    @Test
+    public void ackRtt_followsConnectionInterval() {
+        long[] intervals = {7_500, 30_000};
+        for (long interval : intervals) {
+            SimulationClock clock = new SimulationClock();
+            SimulatedGuitar guitar = new SimulatedGuitar(clock, ChunkTransfer.Mode.LEGACY);
+            guitar.connectionIntervalMicros = interval;
+            ChunkTransfer transfer = new ChunkTransfer(guitar, clock);
+            guitar.attach(transfer);
+
+            assertEquals(0, transfer.getSmoothedAckRttNanos());
+            assertTrue(transfer.start(longMessage(1)));
+            clock.runUntilIdle();
+            // write 한 번(연결 간격 1개) + 다음 연결 간격의 ack
+            assertEquals(2 * interval * 1000, transfer.getSmoothedAckRttNanos());
+        }
+    }
+
+    @Test
+    public void start_whileActive_returnsFalse() {
+        SimulationClock clock = new SimulationClock();
+        SimulatedGuitar guitar = new SimulatedGuitar(clock, ChunkTransfer.Mode.LEGACY);
+        ChunkTransfer transfer = new ChunkTransfer(guitar);
+        guitar.attach(transfer);
+
+        assertTrue(transfer.start(longMessage(2)));
+        assertFalse(transfer.start(longMessage(1)));
+        clock.runUntilIdle();
+        assertFalse(transfer.isActive());
+    }
+}
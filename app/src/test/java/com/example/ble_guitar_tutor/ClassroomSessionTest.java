@@ -0,0 +1,207 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 여러 가상 기타에 같은 악보를 보내는 교실 모드(ClassroomSession) 테스트
+ * 모든 기타가 같은 SimulationClock 을 사용하므로 연결들이 실제로 동시에 진행됨.
+ */
+public class ClassroomSessionTest {
+
+    private static class Classroom implements ClassroomSession.Listener {
+        final SimulationClock clock = new SimulationClock();
+        final ClassroomSession session;
+        final List<SimulatedGuitar> guitars = new ArrayList<>();
+        final HashMap<String, Long> completeMicros = new HashMap<>();
+        final HashMap<String, Integer> lastProgress = new HashMap<>();
+        int broadcastCount = 0;
+        int succeeded = -1;
+        int failed = -1;
+
+        Classroom(int maxInFlight) {
+            session = new ClassroomSession(clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task), maxInFlight);
+            session.setListener(this);
+        }
+
+        SimulatedGuitar add(ChunkTransfer.Mode mode, DeviceCapabilities capabilities) {
+            SimulatedGuitar guitar = new SimulatedGuitar(clock, mode);
+            guitar.songCacheCapacity = 4;
+            guitar.mtu = 185;
+            ClassroomSession.Link link = session.addDevice("guitar-" + guitars.size(), guitar, capabilities);
+            guitar.attach(link);
+            guitars.add(guitar);
+            return guitar;
+        }
+
+        /**
+         * 모든 기타에 보내고, 마지막 기타가 끝날 때까지 걸린 시간을 반환하는 메소드
+         */
+        long broadcast(ScoreCache.Entry entry) {
+            long start = clock.nowMicros();
+            completeMicros.clear();
+            lastProgress.clear();
+            assertTrue(session.broadcast(entry));
+            while (session.isBroadcasting() && clock.runNext()) {
+                assertTrue(session.getInFlight() <= session.getMaxInFlight());
+            }
+            long elapsed = clock.nowMicros() - start;
+            clock.runUntilIdle();
+            return elapsed;
+        }
+
+        @Override
+        public void onDeviceProgress(String deviceId, int sentBytes, int totalBytes) {
+            Integer last = lastProgress.put(deviceId, sentBytes);
+            assertTrue(last == null || sentBytes >= last);
+            assertTrue(sentBytes <= totalBytes);
+        }
+
+        @Override
+        public void onDeviceComplete(String deviceId, boolean success) {
+            completeMicros.put(deviceId, clock.nowMicros());
+        }
+
+        @Override
+        public void onBroadcastComplete(int succeeded, int failed) {
+            broadcastCount++;
+            this.succeeded = succeeded;
+            this.failed = failed;
+        }
+    }
+
+    @Test
+    public void broadcast_reachesEveryGuitarInItsOwnFormat() {
+        ScoreCache.Entry entry = new ScoreCache().get(TestSongs.get(5));
+        Classroom classroom = new Classroom(ClassroomSession.DEFAULT_MAX_IN_FLIGHT);
+        for (int i = 0; i < 4; i++) {
+            classroom.add(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        }
+        classroom.add(ChunkTransfer.Mode.LEGACY, DeviceCapabilities.LEGACY);
+        classroom.add(ChunkTransfer.Mode.LEGACY, DeviceCapabilities.LEGACY);
+
+        classroom.broadcast(entry);
+        assertEquals(1, classroom.broadcastCount);
+        assertEquals(6, classroom.succeeded);
+        assertEquals(0, classroom.failed);
+        for (int i = 0; i < 6; i++) {
+            boolean framed = i < 4;
+            assertArrayEquals(entry.getPayload(framed), classroom.guitars.get(i).getReceivedMessage());
+            ClassroomSession.Link link = classroom.session.getLink("guitar-" + i);
+            assertEquals(ClassroomSession.LinkState.DONE, link.getState());
+            assertEquals(link.getTotalBytes(), link.getSentBytes());
+        }
+        assertTrue(classroom.session.getPeakInFlight() <= ClassroomSession.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * 기타 수가 동시에 보낼 수 있는 write 수보다 많아도 돌아가며 보내므로 모든 기타가 비슷한 시점에 끝나는지 확인
+     */
+    @Test
+    public void roundRobin_sharesLinksFairly() {
+        ScoreCache.Entry entry = new ScoreCache().get(TestSongs.get(5));
+        Classroom classroom = new Classroom(2);
+        for (int i = 0; i < 6; i++) {
+            classroom.add(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        }
+        long elapsed = classroom.broadcast(entry);
+        assertEquals(6, classroom.succeeded);
+        assertEquals(2, classroom.session.getPeakInFlight());
+
+        long first = Long.MAX_VALUE;
+        long last = 0;
+        for (long micros : classroom.completeMicros.values()) {
+            first = Math.min(first, micros);
+            last = Math.max(last, micros);
+        }
+        assertEquals(elapsed, last);
+        assertTrue((last - first) * 5 < last);
+        for (ClassroomSession.Link link : classroom.session.getLinks()) {
+            assertTrue(link.getThroughput() > 0);
+        }
+    }
+
+    /**
+     * 동시에 진행되는 write 수를 늘리면 전체 시간이 줄어드는지 확인
+     */
+    @Test
+    public void moreInFlight_finishesSooner() {
+        ScoreCache.Entry entry = new ScoreCache().get(TestSongs.get(5));
+        long[] elapsed = new long[2];
+        int[] budgets = {1, 4};
+        for (int b = 0; b < budgets.length; b++) {
+            Classroom classroom = new Classroom(budgets[b]);
+            for (int i = 0; i < 4; i++) {
+                classroom.add(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+            }
+            elapsed[b] = classroom.broadcast(entry);
+            assertEquals(4, classroom.succeeded);
+        }
+        assertTrue(elapsed[1] * 2 < elapsed[0]);
+    }
+
+    @Test
+    public void removedGuitar_doesNotBlockOthers() {
+        ScoreCache.Entry entry = new ScoreCache().get(TestSongs.get(5));
+        Classroom classroom = new Classroom(2);
+        for (int i = 0; i < 3; i++) {
+            classroom.add(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        }
+        classroom.clock.schedule(50_000, () -> classroom.session.removeDevice("guitar-1"));
+        classroom.broadcast(entry);
+
+        assertEquals(1, classroom.broadcastCount);
+        assertEquals(2, classroom.succeeded);
+        assertEquals(1, classroom.failed);
+        assertEquals(2, classroom.session.size());
+        assertEquals(0, classroom.session.getInFlight());
+        assertArrayEquals(entry.getPayload(true), classroom.guitars.get(0).getReceivedMessage());
+        assertArrayEquals(entry.getPayload(true), classroom.guitars.get(2).getReceivedMessage());
+        assertEquals(0, classroom.guitars.get(1).getReceivedMessage().length);
+    }
+
+    @Test
+    public void secondBroadcast_usesDeviceCacheAndPatches() {
+        ScoreCache cache = new ScoreCache();
+        ScoreCache.Entry first = cache.get(TestSongs.get(5));
+        Classroom classroom = new Classroom(ClassroomSession.DEFAULT_MAX_IN_FLIGHT);
+        for (int i = 0; i < 3; i++) {
+            classroom.add(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        }
+        long full = classroom.broadcast(first);
+        int writes = classroom.guitars.get(0).writeCount;
+        long cached = classroom.broadcast(first);
+        for (ClassroomSession.Link link : classroom.session.getLinks()) {
+            assertEquals(1, link.getUploader().getDeviceHitCount());
+        }
+        assertEquals(writes + 1, classroom.guitars.get(0).writeCount); // 캐시 확인 write 하나
+        assertTrue(cached < full);
+
+        // 한 음만 바꾼 악보는 패치로 보냄
+        String edited = TestSongs.get(5).replaceFirst("Q1,8-", "Q1,9-");
+        ScoreCache.Entry second = cache.get(edited);
+        classroom.broadcast(second);
+        assertEquals(3, classroom.succeeded);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, classroom.guitars.get(i).patchCount);
+            assertArrayEquals(second.getPayload(true), classroom.guitars.get(i).getReceivedMessage());
+        }
+    }
+
+    @Test
+    public void broadcast_isRejectedWhileInProgress() {
+        ScoreCache.Entry entry = new ScoreCache().get(TestSongs.get(2));
+        Classroom classroom = new Classroom(2);
+        classroom.add(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        assertTrue(classroom.session.broadcast(entry));
+        assertFalse(classroom.session.broadcast(entry));
+        classroom.clock.runUntilIdle();
+        assertFalse(classroom.session.isBroadcasting());
+        assertEquals(1, classroom.broadcastCount);
+    }
+}
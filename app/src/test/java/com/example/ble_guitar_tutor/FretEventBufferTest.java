@@ -0,0 +1,135 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * FretEventBuffer 의 순서 보장, 버림 처리, Notification 해석과 처리량을 확인하는 테스트
+ */
+public class FretEventBufferTest {
+
+    /**
+     * 받은 이벤트를 순서대로 확인하는 consumer
+     */
+    private static class CheckingConsumer implements FretEventBuffer.Consumer {
+        long count = 0;
+        long lastTimestamp = -1;
+        boolean ordered = true;
+
+        @Override
+        public void onFretEvent(long timestampNanos, int string, int fret) {
+            if (timestampNanos <= lastTimestamp || string != (int) (timestampNanos % 7) || fret != (int) (timestampNanos % 32)) {
+                ordered = false;
+            }
+            lastTimestamp = timestampNanos;
+            count++;
+        }
+    }
+
+    @Test
+    public void events_comeOutInOrderAcrossWrap() {
+        FretEventBuffer buffer = new FretEventBuffer(8);
+        CheckingConsumer consumer = new CheckingConsumer();
+        long timestamp = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 5; i++, timestamp++) {
+                assertTrue(buffer.offer(timestamp, (int) (timestamp % 7), (int) (timestamp % 32)));
+            }
+            assertEquals(5, buffer.size());
+            assertEquals(3, buffer.drain(consumer, 3));
+            assertEquals(2, buffer.drain(consumer));
+        }
+        assertEquals(50, consumer.count);
+        assertTrue(consumer.ordered);
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void fullBuffer_dropsNewEvents() {
+        FretEventBuffer buffer = new FretEventBuffer(4);
+        for (int i = 0; i < 6; i++) {
+            buffer.offer(i, i % 7, i % 32);
+        }
+        assertEquals(4, buffer.size());
+        assertEquals(2, buffer.getDroppedCount());
+
+        CheckingConsumer consumer = new CheckingConsumer();
+        assertEquals(4, buffer.drain(consumer));
+        assertEquals(3, consumer.lastTimestamp); // 앞의 이벤트가 남고 뒤의 이벤트가 버려짐
+        assertTrue(buffer.offer(10, 3, 10));
+    }
+
+    @Test
+    public void notification_isDecodedWithAge() {
+        FretEventBuffer buffer = new FretEventBuffer(16);
+        byte[] value = {BleProtocol.NOTIFY_FRET_EVENT, (byte) (6 << 5 | 3), 20, (byte) (1 << 5 | 31), 0};
+        assertTrue(FretEventBuffer.isFretEvent(value));
+        assertEquals(2, buffer.offerNotification(100_000_000L, value));
+
+        final long[] timestamps = new long[2];
+        final int[] notes = new int[4];
+        buffer.drain(new FretEventBuffer.Consumer() {
+            int index = 0;
+
+            @Override
+            public void onFretEvent(long timestampNanos, int string, int fret) {
+                timestamps[index] = timestampNanos;
+                notes[index * 2] = string;
+                notes[index * 2 + 1] = fret;
+                index++;
+            }
+        });
+        assertArrayEquals(new long[]{80_000_000L, 100_000_000L}, timestamps);
+        assertArrayEquals(new int[]{6, 3, 1, 31}, notes);
+
+        assertEquals(0, buffer.offerNotification(0, new byte[]{BleProtocol.NOTIFY_FRET_EVENT, 1}));
+        assertEquals(1, buffer.getMalformedCount());
+        assertFalse(FretEventBuffer.isFretEvent(new byte[0]));
+        assertFalse(FretEventBuffer.isFretEvent("Q1,3-@".getBytes()));
+    }
+
+    @Test
+    public void sustainedEvents_stayOrderedWithoutAllocation() throws InterruptedException {
+        final FretEventBuffer buffer = new FretEventBuffer(FretEventBuffer.DEFAULT_CAPACITY);
+        final long total = 20_000_000L;
+        final CheckingConsumer consumer = new CheckingConsumer();
+        final long[] consumerAllocated = {-1};
+
+        Thread consumerThread = new Thread(() -> {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long before = Allocations.allocatedBytes(threads);
+            while (consumer.count < total) {
+                if (buffer.drain(consumer, 256) == 0) {
+                    Thread.yield();
+                }
+            }
+            if (before >= 0) {
+                consumerAllocated[0] = Allocations.allocatedBytes(threads) - before;
+            }
+        });
+        consumerThread.start();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long producerBefore = Allocations.allocatedBytes(threads);
+        for (long timestamp = 0; timestamp < total; ) {
+            if (buffer.offer(timestamp, (int) (timestamp % 7), (int) (timestamp % 32))) {
+                timestamp++;
+            } else {
+                Thread.yield(); // 버리지 않고 다시 시도해 모든 이벤트가 순서대로 도착하는지 확인
+            }
+        }
+        consumerThread.join();
+        long producerAllocated = Allocations.allocatedBytes(threads) - producerBefore;
+
+        assertEquals(total, consumer.count);
+        assertTrue(consumer.ordered);
+        if (producerBefore >= 0) {
+            assertTrue(producerAllocated < 1024);
+            assertTrue(consumerAllocated[0] < 1024);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 가짜 GATT 로 GattCommandQueue 의 직렬 실행, 재시도, 시간 초과, backpressure 를 확인하는 테스트
+ */
+public class GattCommandQueueTest {
+    private static final long TIMEOUT_MILLIS = 100;
+    private static final byte[] LATE_VALUE = {'L'};
+
+    private ScheduledExecutorService mExecutor;
+    private FakeGatt mGatt;
+    private GattCommandQueue mQueue;
+
+    /**
+     * 요청을 받으면 일정 시간 뒤에 결과 콜백을 보내는 가짜 GATT
+     * rejectCount 만큼 요청을 거부하고, dropCount 만큼 콜백을 보내지 않고, errorCount 만큼 오류 상태를 보냄.
+     * lateCount 만큼은 lateDelayMillis 뒤에 (제한 시간이 지난 뒤에) LATE_VALUE 로 콜백을 보냄.
+     * 콜백에는 Android 처럼 요청의 시도 번호가 아니라 콜백 시점에 마지막으로 시작된 시도 번호를 붙임 (GattLink 와 같음).
+     */
+    private class FakeGatt implements GattCommandQueue.GattOperations {
+        final List<String> log = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger maxOutstanding = new AtomicInteger();
+        volatile long delayMillis = 5;
+        volatile int rejectCount = 0;
+        volatile int dropCount = 0;
+        volatile int errorCount = 0;
+        volatile int lateCount = 0;
+        volatile long lateDelayMillis = 0;
+        volatile boolean respond = true;
+        volatile int lastAttemptId = GattCommandQueue.NO_ATTEMPT;
+
+        private boolean start(int attemptId, GattCommand.Type type, String name, byte[] value, int mtu) {
+            if (rejectCount > 0) {
+                rejectCount--;
+                return false;
+            }
+            log.add(name);
+            lastAttemptId = attemptId;
+            maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+
+            if (!respond) {
+                return true;
+            }
+            if (dropCount > 0) {
+                dropCount--;
+                outstanding.decrementAndGet();
+                return true;
+            }
+            final int status = errorCount-- > 0 ? 133 : GattCommand.STATUS_SUCCESS;
+            final boolean late = lateCount-- > 0;
+            final byte[] result = late && value != null ? LATE_VALUE : value;
+            mExecutor.schedule(() -> {
+                outstanding.decrementAndGet();
+                mQueue.onCommandResult(lastAttemptId, type, status, result, mtu);
+            }, late ? lateDelayMillis : delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        @Override
+        public boolean readCharacteristic(int attemptId) {
+            return start(attemptId, GattCommand.Type.READ, "read", new byte[]{'V', '2'}, 0);
+        }
+
+        @Override
+        public boolean writeCharacteristic(int attemptId, byte[] value, boolean withResponse) {
+            return start(attemptId, GattCommand.Type.WRITE, "write" + value[0], null, 0);
+        }
+
+        @Override
+        public boolean writeDescriptor(int attemptId, byte[] value) {
+            return start(attemptId, GattCommand.Type.WRITE_DESCRIPTOR, "descriptor", null, 0);
+        }
+
+        @Override
+        public boolean requestMtu(int attemptId, int mtu) {
+            return start(attemptId, GattCommand.Type.REQUEST_MTU, "mtu", null, 247);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mGatt = new FakeGatt();
+        mQueue = new GattCommandQueue(mGatt, mExecutor, 4, TIMEOUT_MILLIS, 2);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    private static void await(GattCommand command) throws InterruptedException {
+        assertTrue("command did not finish", command.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void commands_runOneAtATimeInOrder() throws InterruptedException {
+        GattCommand descriptor = mQueue.submit(GattCommand.writeDescriptor(new byte[]{1, 0}));
+        GattCommand mtu = mQueue.submit(GattCommand.requestMtu(517));
+        GattCommand read = mQueue.submit(GattCommand.read());
+        GattCommand write = mQueue.submit(GattCommand.write(new byte[]{7}, true));
+        await(write);
+
+        assertTrue(descriptor.isSuccess() && mtu.isSuccess() && read.isSuccess() && write.isSuccess());
+        assertEquals(247, mtu.getMtu());
+        assertArrayEquals(new byte[]{'V', '2'}, read.getValue());
+        assertEquals(1, mGatt.maxOutstanding.get());
+        assertEquals(java.util.Arrays.asList("descriptor", "mtu", "read", "write7"), mGatt.log);
+    }
+
+    @Test
+    public void rejectedRequest_isRetried() throws InterruptedException {
+        mGatt.rejectCount = 2;
+        GattCommand write = mQueue.submit(GattCommand.write(new byte[]{1}, true));
+        await(write);
+
+        assertTrue(write.isSuccess());
+        assertEquals(3, write.getAttempts());
+    }
+
+    @Test
+    public void errorStatus_isRetriedThenReported() throws InterruptedException {
+        mGatt.errorCount = 10;
+        GattCommand write = mQueue.submit(GattCommand.sequencedWrite(new byte[]{1}, true));
+        await(write);
+
+        assertEquals(133, write.getStatus());
+        assertEquals(3, write.getAttempts());
+    }
+
+    @Test
+    public void unsequencedWrite_isNotRetriedAfterErrorOrTimeout() throws InterruptedException {
+        mGatt.errorCount = 1;
+        GattCommand error = mQueue.submit(GattCommand.write(new byte[]{1}, true));
+        await(error);
+        assertEquals(133, error.getStatus());
+        assertEquals(1, error.getAttempts());
+
+        // 시간 초과된 write 는 기기에 도착했을 수 있으므로 다시 보내지 않음
+        mGatt.dropCount = 1;
+        GattCommand lost = mQueue.submit(GattCommand.write(new byte[]{2}, true));
+        await(lost);
+        assertEquals(GattCommand.STATUS_TIMEOUT, lost.getStatus());
+        assertEquals(1, lost.getAttempts());
+        assertEquals(java.util.Arrays.asList("write1", "write2"), mGatt.log);
+    }
+
+    @Test
+    public void lateCallback_afterTimeout_isResultOfTimedOutAttempt() throws InterruptedException {
+        // 첫 시도의 콜백이 제한 시간이 지난 뒤에 도착함. 그 사이에 다시 시도하면 늦은 콜백을 새 시도의 결과로 착각하게 됨
+        mGatt.lateCount = 1;
+        mGatt.lateDelayMillis = TIMEOUT_MILLIS + 40;
+        GattCommand read = mQueue.submit(GattCommand.read());
+        GattCommand next = mQueue.submit(GattCommand.read());
+        await(next);
+
+        assertTrue(read.isSuccess());
+        assertEquals(1, read.getAttempts());
+        assertArrayEquals(LATE_VALUE, read.getValue());
+        assertTrue(next.isSuccess());
+        assertArrayEquals(new byte[]{'V', '2'}, next.getValue());
+        assertEquals(1, mGatt.maxOutstanding.get());
+        assertEquals(java.util.Arrays.asList("read", "read"), mGatt.log);
+
+        // 끝난 명령의 시도 번호로 온 콜백은 다음 명령에 영향을 주지 않음
+        mGatt.respond = false;
+        GattCommand last = mQueue.submit(GattCommand.read());
+        Thread.sleep(20);
+        mQueue.onCommandResult(mGatt.lastAttemptId - 1, GattCommand.Type.READ, GattCommand.STATUS_SUCCESS, LATE_VALUE, 0);
+        Thread.sleep(20);
+        assertFalse(last.isDone());
+        mQueue.onCommandResult(mGatt.lastAttemptId, GattCommand.Type.READ, GattCommand.STATUS_SUCCESS, new byte[]{'V', '2'}, 0);
+        await(last);
+        assertArrayEquals(new byte[]{'V', '2'}, last.getValue());
+    }
+
+    @Test
+    public void timedOutWrite_failsButHoldsQueueUntilLateCallback() throws InterruptedException {
+        mGatt.lateCount = 1;
+        mGatt.lateDelayMillis = TIMEOUT_MILLIS + 50;
+        GattCommand lost = mQueue.submit(GattCommand.write(new byte[]{1}, true));
+        GattCommand next = mQueue.submit(GattCommand.write(new byte[]{2}, true));
+        await(lost);
+
+        // 순번 없는 write 는 바로 실패로 알리지만, 늦은 콜백이 오기 전에는 다음 write 를 시작하지 않음
+        assertEquals(GattCommand.STATUS_TIMEOUT, lost.getStatus());
+        assertEquals(java.util.Arrays.asList("write1"), new ArrayList<>(mGatt.log));
+        await(next);
+        assertTrue(next.isSuccess());
+        assertEquals(1, mGatt.maxOutstanding.get());
+    }
+
+    @Test
+    public void missingCallback_stallsThenQueueMovesOn() throws InterruptedException {
+        AtomicInteger stalls = new AtomicInteger();
+        mQueue.setStallListener(stalls::incrementAndGet);
+        mGatt.dropCount = 1;
+        GattCommand lost = mQueue.submit(GattCommand.sequencedWrite(new byte[]{1}, true));
+        GattCommand next = mQueue.submit(GattCommand.write(new byte[]{2}, true));
+        await(next);
+
+        // 늦은 콜백을 제한 시간만큼 더 기다려도 오지 않으면, 다시 보내지 않고 멈춘 것으로 알림
+        assertEquals(GattCommand.STATUS_TIMEOUT, lost.getStatus());
+        assertEquals(1, lost.getAttempts());
+        assertEquals(1, stalls.get());
+        assertTrue(next.isSuccess());
+    }
+
+    @Test
+    public void fullQueue_appliesBackpressure() throws InterruptedException {
+        mGatt.respond = false;
+        mQueue = new GattCommandQueue(mGatt, mExecutor, 2, 60_000, 0);
+
+        // 하나는 실행 중, 둘은 대기 중
+        assertTrue(mQueue.offer(GattCommand.write(new byte[]{1}, true)));
+        Thread.sleep(50);
+        assertTrue(mQueue.offer(GattCommand.write(new byte[]{2}, true)));
+        assertTrue(mQueue.offer(GattCommand.write(new byte[]{3}, true)));
+        assertFalse(mQueue.offer(GattCommand.write(new byte[]{4}, true)));
+
+        final GattCommand blocked = GattCommand.write(new byte[]{5}, true);
+        Thread producer = new Thread(() -> {
+            try {
+                mQueue.submit(blocked);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        Thread.sleep(100);
+        assertTrue(producer.isAlive());
+
+        // 실행 중인 명령이 끝나면 대기 중인 명령이 실행되고 자리가 생김
+        mGatt.respond = true;
+        mQueue.onCommandResult(mGatt.lastAttemptId, GattCommand.Type.WRITE, GattCommand.STATUS_SUCCESS, null, 0);
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        await(blocked);
+        assertTrue(blocked.isSuccess());
+    }
+
+    @Test
+    public void clear_cancelsCurrentAndPending() throws InterruptedException {
+        mGatt.respond = false;
+        GattCommand current = mQueue.submit(GattCommand.write(new byte[]{1}, true));
+        GattCommand pending = mQueue.submit(GattCommand.write(new byte[]{2}, true));
+        mQueue.clear();
+        await(pending);
+
+        assertEquals(GattCommand.STATUS_CANCELLED, current.getStatus());
+        assertEquals(GattCommand.STATUS_CANCELLED, pending.getStatus());
+
+        mGatt.respond = true;
+        GattCommand after = mQueue.submit(GattCommand.read());
+        await(after);
+        assertTrue(after.isSuccess());
+    }
+}
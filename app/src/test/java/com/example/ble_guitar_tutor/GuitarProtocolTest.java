@@ -0,0 +1,377 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * android.bluetooth 없이 GuitarProtocol 과 가상 기타(SimulatedGuitar)로 BleManager 의 송수신 동작을 확인하는 테스트
+ * MTU, 지연, 지연 흔들림(jitter), 패킷 손실을 바꿔 가며 전송 시간을 비교하는 벤치마크도 포함함.
+ */
+public class GuitarProtocolTest {
+    private static final DeviceCapabilities CHECKED = DeviceCapabilities.parse("V2:CDZK".getBytes(StandardCharsets.UTF_8));
+
+    private static class Device {
+        final SimulationClock clock = new SimulationClock();
+        final SimulatedGuitar guitar;
+        final GuitarProtocol protocol;
+
+        Device(ChunkTransfer.Mode mode, DeviceCapabilities capabilities) {
+            guitar = new SimulatedGuitar(clock, mode);
+            protocol = new GuitarProtocol(guitar, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+            guitar.attach(protocol);
+            if (mode == ChunkTransfer.Mode.FRAMED) {
+                guitar.songCacheCapacity = 4;
+            }
+            protocol.getTransfer().setLegacyChunkLength(BleManager.MAX_LENGTH);
+            protocol.applyCapabilities(capabilities);
+        }
+
+        /**
+         * 악보를 보내고 업로드가 끝날 때까지 걸린 시간을 반환하는 메소드
+         */
+        long send(String score) {
+            long start = clock.nowMicros();
+            assertTrue(protocol.send(score, "guitar"));
+            while (protocol.isBusy() && clock.runNext()) {
+            }
+            long elapsed = clock.nowMicros() - start;
+            clock.runUntilIdle();
+            return elapsed;
+        }
+    }
+
+    @Test
+    public void legacyGuitar_receivesDollarTerminatedText() {
+        Device device = new Device(ChunkTransfer.Mode.LEGACY, DeviceCapabilities.LEGACY);
+        String score = TestSongs.get(3);
+        device.send(score);
+        assertFalse(device.protocol.isFramed());
+        assertArrayEquals((score + "$").getBytes(StandardCharsets.UTF_8), device.guitar.getReceivedMessage());
+    }
+
+    @Test
+    public void legacyGuitarWithWriteWithoutResponse_staysLegacy() {
+        SimulationClock clock = new SimulationClock();
+        SimulatedGuitar guitar = new SimulatedGuitar(clock, ChunkTransfer.Mode.LEGACY);
+        guitar.writeWithoutResponse = true; // 속성만 있고 프레임은 모르는 기존 펌웨어
+        GuitarProtocol protocol = new GuitarProtocol(guitar, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+        guitar.attach(protocol);
+        protocol.getTransfer().setLegacyChunkLength(BleManager.MAX_LENGTH);
+        protocol.applyCapabilities(DeviceCapabilities.LEGACY);
+        assertFalse(protocol.isFramed());
+
+        String score = TestSongs.get(3);
+        assertTrue(protocol.send(score, "guitar"));
+        clock.runUntilIdle();
+        assertArrayEquals((score + "$").getBytes(StandardCharsets.UTF_8), guitar.getReceivedMessage());
+    }
+
+    @Test
+    public void framedGuitar_receivesBinaryScore() {
+        Device device = new Device(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        String score = TestSongs.get(5);
+        device.send(score);
+        assertTrue(device.protocol.isFramed());
+        assertArrayEquals(ScoreCodec.encode(ScoreCodec.parse(score)), device.guitar.getReceivedMessage());
+        assertEquals(1, device.protocol.getScoreCache().getMissCount());
+
+        device.send(score); // 같은 곡은 기기 캐시에서 선택
+        assertEquals(1, device.protocol.getScoreCache().getHitCount());
+        assertEquals(1, device.protocol.getUploader().getDeviceHitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidScore_isRejected() {
+        new Device(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL).protocol.send("not a score", "guitar");
+    }
+
+    @Test
+    public void notifications_areClassified() {
+        Device device = new Device(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        device.send(TestSongs.get(1));
+        assertEquals(GuitarProtocol.Notification.ACK, device.guitar.lastNotification);
+
+        device.guitar.sendNotification(new byte[]{BleProtocol.NOTIFY_FRET_EVENT, (byte) (6 << 5 | 3), 20});
+        device.clock.runUntilIdle();
+        assertEquals(GuitarProtocol.Notification.FRET_EVENT, device.guitar.lastNotification);
+        assertEquals(1, device.protocol.getFretEvents().size());
+
+        device.guitar.sendNotification("080!Q1,1-@".getBytes(StandardCharsets.UTF_8));
+        device.clock.runUntilIdle();
+        assertEquals(GuitarProtocol.Notification.DATA, device.guitar.lastNotification);
+    }
+
+    /**
+     * 운지 이벤트 시각은 BLE 스레드에서 처리한 시각이 아니라 GATT 콜백에서 받은 시각을 기준으로 함
+     */
+    @Test
+    public void fretEvent_isStampedWithReceiveTime() {
+        Device device = new Device(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        device.clock.schedule(100_000, () -> {
+        });
+        device.clock.runUntilIdle();
+        long receiveNanos = device.clock.nanoTime() - 50_000_000L; // BLE 스레드가 50 ms 늦게 처리함
+        device.protocol.onNotification(new byte[]{BleProtocol.NOTIFY_FRET_EVENT, (byte) (6 << 5 | 3), 20}, receiveNanos);
+
+        long[] timestamp = new long[1];
+        assertEquals(1, device.protocol.getFretEvents().drain((timestampNanos, string, fret) -> timestamp[0] = timestampNanos));
+        assertEquals(receiveNanos - 20_000_000L, timestamp[0]); // 기기가 알린 20 ms 전
+    }
+
+    @Test
+    public void timeSync_isSentOnlyToSupportingIdleDevice() {
+        Device device = new Device(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        assertFalse(device.protocol.sendTimeSync(1_000)); // 기능 문자 T 가 없음
+
+        device = new Device(ChunkTransfer.Mode.FRAMED, DeviceCapabilities.parse("V2:CDZT".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(device.protocol.getCapabilities().supportsTimeSync());
+        assertTrue(device.protocol.sendTimeSync(123_456));
+        device.clock.runUntilIdle();
+        assertEquals(1, device.guitar.timeSyncCount);
+        assertEquals(123_456, device.guitar.lastTimeSyncMillis);
+
+        assertTrue(device.protocol.send(TestSongs.get(5), "guitar"));
+        assertFalse(device.protocol.sendTimeSync(2_000)); // 업로드를 늦추지 않음
+        device.clock.runUntilIdle();
+        assertArrayEquals(ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(5))), device.guitar.getReceivedMessage());
+        assertEquals(1, device.guitar.timeSyncCount);
+    }
+
+    @Test
+    public void lossAndJitter_delayButDoNotCorrupt() {
+        String score = TestSongs.get(5);
+        for (ChunkTransfer.Mode mode : ChunkTransfer.Mode.values()) {
+            Device device = new Device(mode, mode == ChunkTransfer.Mode.FRAMED ? TestCapabilities.FULL : DeviceCapabilities.LEGACY);
+            device.guitar.packetLossRate = 0.3;
+            device.guitar.jitterMicros = 20_000;
+            device.send(score);
+            assertTrue(device.guitar.retransmitCount > 0);
+            byte[] expected = device.protocol.getScoreCache().get(score).getPayload(mode == ChunkTransfer.Mode.FRAMED);
+            assertArrayEquals(expected, device.guitar.getReceivedMessage());
+        }
+    }
+
+    @Test
+    public void sameSeed_givesSameTiming() {
+        long[] elapsed = new long[2];
+        for (int i = 0; i < 2; i++) {
+            Device device = new Device(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+            device.guitar.setSeed(7);
+            device.guitar.packetLossRate = 0.1;
+            device.guitar.jitterMicros = 5_000;
+            elapsed[i] = device.send(TestSongs.get(4));
+        }
+        assertEquals(elapsed[0], elapsed[1]);
+    }
+
+    @Test
+    public void crc16_matchesCcittFalse() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, Crc16.compute(check, 0, check.length));
+        assertEquals(Crc16.compute(check, 0, check.length), Crc16.update(Crc16.compute(check, 0, 4), check, 4, 5));
+    }
+
+    /**
+     * 기능 문자 K 가 없으면 깨진 프레임을 그대로 받아 전송이 성공한 것처럼 끝나고, 빠진 프레임이 있으면 전송이 멈춤
+     */
+    @Test
+    public void withoutIntegrityCheck_lossGoesUndetected() {
+        String score = TestSongs.get(5);
+        Device device = new Device(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        assertFalse(device.protocol.isCheckingIntegrity());
+        device.guitar.frameCorruptRate = 0.05;
+        device.send(score);
+        assertTrue(device.guitar.corruptedFrameCount > 0);
+        assertFalse(Arrays.equals(expectedPayload(device, score), device.guitar.getReceivedMessage()));
+
+        device = new Device(ChunkTransfer.Mode.FRAMED, TestCapabilities.FULL);
+        device.guitar.frameDropRate = 0.05;
+        assertTrue(device.protocol.send(score, "guitar"));
+        device.clock.runUntilIdle();
+        assertTrue(device.guitar.droppedFrameCount > 0);
+        assertTrue(device.protocol.isBusy()); // ack 가 오지 않아 끝나지 않음
+    }
+
+    @Test
+    public void integrityCheck_resendsOnlyNackedChunks() {
+        String score = TestSongs.get(5);
+        Device device = new Device(ChunkTransfer.Mode.FRAMED, CHECKED);
+        assertTrue(device.protocol.isCheckingIntegrity());
+        device.guitar.checksIntegrity = true;
+        device.guitar.frameDropRate = 0.03;
+        device.guitar.frameCorruptRate = 0.03;
+        device.send(score);
+
+        ChunkTransfer transfer = device.protocol.getTransfer();
+        int lost = device.guitar.droppedFrameCount + device.guitar.crcErrorCount;
+        assertTrue(lost > 0);
+        assertEquals(device.guitar.corruptedFrameCount, device.guitar.crcErrorCount);
+        assertArrayEquals(expectedPayload(device, score), device.guitar.getReceivedMessage());
+        assertTrue(transfer.getNackCount() > 0);
+        assertTrue(transfer.getRetransmittedChunkCount() >= lost);
+        assertTrue(transfer.getRetransmittedChunkCount() <= lost + transfer.getTimeoutCount());
+        assertEquals(transfer.getRetransmittedChunkCount(), device.protocol.getMetrics().snapshot(0).chunksRetransmitted);
+        assertEquals(0, device.guitar.checksumFailureCount);
+    }
+
+    /**
+     * 마지막 프레임이 빠지면 기기는 알 수 없으므로 재전송 대기 시간이 지난 뒤 다시 보냄
+     */
+    @Test
+    public void integrityCheck_timeoutResendsLostLastFrame() {
+        Device device = new Device(ChunkTransfer.Mode.FRAMED, CHECKED);
+        device.guitar.checksIntegrity = true;
+        device.guitar.mtu = 247;
+        device.protocol.applyCapabilities(device.protocol.getCapabilities()); // MTU 반영, 악보가 프레임 하나에 들어감
+        device.guitar.frameDropRate = 1;
+        device.clock.schedule(100_000, () -> device.guitar.frameDropRate = 0);
+
+        long micros = device.send(TestSongs.get(1));
+        assertEquals(1, device.guitar.droppedFrameCount);
+        assertEquals(1, device.protocol.getTransfer().getTimeoutCount());
+        assertEquals(1, device.protocol.getTransfer().getRetransmittedChunkCount());
+        assertTrue(micros >= ChunkTransfer.MIN_RETRANSMIT_TIMEOUT_MILLIS * 1000);
+        assertArrayEquals(expectedPayload(device, TestSongs.get(1)), device.guitar.getReceivedMessage());
+    }
+
+    /**
+     * 기기가 아무 응답도 하지 않으면 MAX_TIMEOUT_RETRIES 번 다시 보낸 뒤 실패로 처리함
+     */
+    @Test
+    public void integrityCheck_givesUpWhenDeviceStopsAnswering() {
+        Device device = new Device(ChunkTransfer.Mode.FRAMED, CHECKED);
+        device.guitar.checksIntegrity = true;
+        device.guitar.frameDropRate = 1;
+        boolean[] failed = {false};
+        device.protocol.setListener(new ChunkTransfer.Listener() {
+            @Override
+            public void onTransferProgress(int sentBytes, int totalBytes) {
+            }
+
+            @Override
+            public void onTransferComplete() {
+            }
+
+            @Override
+            public void onTransferFailed() {
+                failed[0] = true;
+            }
+        });
+        assertTrue(device.protocol.send(TestSongs.get(1), null));
+        device.clock.runUntilIdle();
+        assertTrue(failed[0]);
+        assertFalse(device.protocol.isBusy());
+        assertEquals(ChunkTransfer.MAX_TIMEOUT_RETRIES + 1, device.protocol.getTransfer().getTimeoutCount());
+    }
+
+    /**
+     * 프레임 손실률별로 빠진 조각만 다시 보내는 경우와, 손실을 알아채면 메시지 전체를 다시 보내는 경우의 완료 시간을 비교
+     * 전체 다시 보내기는 기기가 [NACK] 으로 실패를 알리면 바로 다시 업로드하는 것으로 흉내냄 (사용자가 버튼을 다시 누르는 것보다 빠름).
+     */
+    @Test
+    public void selectiveResend_beatsFullResend() {
+        String score = TestSongs.get(5);
+        double[] lossRates = {0, 0.01, 0.02, 0.05, 0.1};
+        int seeds = 5;
+        long lossless = 0;
+        for (double lossRate : lossRates) {
+            long selectiveMicros = 0;
+            long fullMicros = 0;
+            long resent = 0;
+            int attempts = 0;
+            for (int seed = 0; seed < seeds; seed++) {
+                Device device = lossyDevice(lossRate, seed, true);
+                selectiveMicros += device.send(score);
+                assertArrayEquals(expectedPayload(device, score), device.guitar.getReceivedMessage());
+                resent += device.protocol.getTransfer().getRetransmittedChunkCount();
+
+                device = lossyDevice(lossRate, seed, false);
+                byte[] expected = expectedPayload(device, score);
+                long start = device.clock.nowMicros();
+                do {
+                    attempts++;
+                    assertTrue(attempts < 10_000);
+                    assertTrue(device.protocol.send(score, null));
+                    while (device.protocol.isBusy() && device.clock.runNext()) {
+                    }
+                } while (!Arrays.equals(expected, device.guitar.getReceivedMessage()));
+                fullMicros += device.clock.nowMicros() - start;
+                device.clock.runUntilIdle();
+            }
+            selectiveMicros /= seeds;
+            fullMicros /= seeds;
+
+            if (lossRate == 0) {
+                lossless = selectiveMicros;
+                assertEquals(selectiveMicros, fullMicros);
+                assertEquals(0, resent);
+                assertEquals(seeds, attempts);
+            } else {
+                assertTrue(resent > 0);
+                assertTrue(selectiveMicros < fullMicros);
+                if (lossRate <= 0.05) {
+                    assertTrue(selectiveMicros < lossless * 2);
+                }
+            }
+        }
+    }
+
+    private static Device lossyDevice(double lossRate, long seed, boolean selectiveRepeat) {
+        Device device = new Device(ChunkTransfer.Mode.FRAMED, CHECKED);
+        device.guitar.setSeed(seed);
+        device.guitar.checksIntegrity = true;
+        device.guitar.selectiveRepeat = selectiveRepeat;
+        device.guitar.frameDropRate = lossRate / 2;
+        device.guitar.frameCorruptRate = lossRate / 2;
+        return device;
+    }
+
+    private static byte[] expectedPayload(Device device, String score) {
+        return device.protocol.getScoreCache().get(score).getPayload(true);
+    }
+
+    /**
+     * 펌웨어 종류 x MTU x 패킷 손실 x 지연 흔들림 조합별로 test_string_5 전송 시간을 비교
+     * 손실이 많으면 손실이 없을 때보다 느리고, FRAMED 펌웨어는 MTU 가 클수록 빠름
+     */
+    @Test
+    public void transferTime_followsMtuAndLoss() {
+        String score = TestSongs.get(5);
+        int[] mtus = {23, 185, 247};
+        double[] lossRates = {0, 0.05, 0.2};
+        long[] jitters = {0, 15_000};
+        for (ChunkTransfer.Mode mode : ChunkTransfer.Mode.values()) {
+            long previousLossless = Long.MAX_VALUE;
+            for (int mtu : mtus) {
+                long lossless = 0;
+                for (double lossRate : lossRates) {
+                    for (long jitter : jitters) {
+                        Device device = new Device(mode, mode == ChunkTransfer.Mode.FRAMED ? TestCapabilities.FULL : DeviceCapabilities.LEGACY);
+                        device.guitar.mtu = mtu;
+                        device.guitar.latencyMicros = 5_000;
+                        device.guitar.jitterMicros = jitter;
+                        device.guitar.packetLossRate = lossRate;
+                        device.protocol.applyCapabilities(device.protocol.getCapabilities()); // MTU 반영
+                        long micros = device.send(score);
+                        int bytes = device.protocol.getLastPayloadLength();
+                        assertEquals(bytes, device.guitar.getReceivedMessage().length);
+
+                        if (lossRate == 0 && jitter == 0) {
+                            lossless = micros;
+                        } else if (lossRate >= 0.2) {
+                            assertTrue(micros > lossless);
+                        }
+                    }
+                }
+                if (mode == ChunkTransfer.Mode.FRAMED) {
+                    assertTrue(lossless < previousLossless);
+                }
+                previousLossless = lossless;
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 합성한 운지 이벤트 기록으로 PlayAlongScorer 의 판정과 통계를 확인하는 테스트
+ */
+public class PlayAlongScorerTest {
+    private static final long MS = 1_000_000L;
+    private static final long START = 5_000 * MS;
+
+    /**
+     * 악보대로 연주한 이벤트를 scorer 에 넣는 메소드
+     *
+     * @param delayNanos 모든 이벤트에 더할 지연
+     * @param jitterNanos 이벤트마다 더할 무작위 오차의 최대값
+     * @param skipEvery  0 이 아니면 이 간격마다 음을 빼먹음
+     */
+    private static void play(PlayAlongScorer scorer, Score score, long delayNanos, long jitterNanos, int skipEvery, Random random) {
+        int index = 0;
+        for (Score.Event event : score.getEvents()) {
+            for (int i = 0; i < event.strings.length; i++) {
+                if (event.strings[i] == 0) {
+                    continue;
+                }
+                long jitter = jitterNanos == 0 ? 0 : (long) ((random.nextDouble() * 2 - 1) * jitterNanos);
+                if (skipEvery == 0 || index % skipEvery != 0) {
+                    scorer.onFretEvent(START + scorer.getExpectedNanos(index) + delayNanos + jitter, event.strings[i], event.frets[i]);
+                }
+                index++;
+            }
+        }
+    }
+
+    @Test
+    public void timeline_followsTempoAndDurations() {
+        PlayAlongScorer scorer = new PlayAlongScorer(ScoreCodec.parse("120!Q1,3-2,5-@E0,0-@E3,2-@060!Q4,0-@H1,1-@"));
+        assertEquals(5, scorer.getExpectedNoteCount()); // 쉼표 제외
+        assertEquals(0, scorer.getExpectedNanos(0));
+        assertEquals(0, scorer.getExpectedNanos(1));
+        assertEquals(750 * MS, scorer.getExpectedNanos(2));     // Q(500ms) + E 쉼표(250ms)
+        assertEquals(1000 * MS, scorer.getExpectedNanos(3));
+        assertEquals(2000 * MS, scorer.getExpectedNanos(4));    // 60 BPM 의 Q = 1s
+    }
+
+    @Test
+    public void perfectPlay_withCompensatedLatency_hitsEveryNote() {
+        for (int n = 1; n <= TestSongs.COUNT; n++) {
+            Score score = ScoreCodec.parse(TestSongs.get(n));
+            PlayAlongScorer scorer = new PlayAlongScorer(score);
+            scorer.setLatencyNanos(45 * MS);
+            scorer.start(START);
+            play(scorer, score, 45 * MS, 0, 0, null);
+            scorer.finish();
+
+            assertEquals(scorer.getExpectedNoteCount(), scorer.getHitCount());
+            assertEquals(scorer.getExpectedNoteCount(), scorer.getPerfectCount());
+            assertEquals(0, scorer.getMissCount());
+            assertEquals(1.0, scorer.getAccuracy(), 0);
+            assertEquals(0, scorer.getMeanErrorNanos(), 1);
+        }
+    }
+
+    @Test
+    public void uncompensatedLatency_showsUpAsMeanError() {
+        Score score = ScoreCodec.parse(TestSongs.get(3));
+        PlayAlongScorer scorer = new PlayAlongScorer(score);
+        scorer.start(START);
+        play(scorer, score, 40 * MS, 0, 0, null);
+
+        assertEquals(scorer.getExpectedNoteCount(), scorer.getHitCount());
+        assertEquals(0, scorer.getPerfectCount());
+        assertEquals(40 * MS, scorer.getMeanErrorNanos(), 1);
+        assertEquals(40 * MS, scorer.getMinErrorNanos());
+        assertEquals(40 * MS, scorer.getMaxErrorNanos());
+        assertEquals(0, scorer.getStdDevErrorNanos(), 1);
+    }
+
+    @Test
+    public void jitter_isReflectedInStatistics() {
+        Score score = ScoreCodec.parse(TestSongs.get(5));
+        PlayAlongScorer scorer = new PlayAlongScorer(score);
+        scorer.setLatencyNanos(30 * MS);
+        scorer.start(START);
+        play(scorer, score, 30 * MS, 20 * MS, 0, new Random(7));
+        scorer.finish();
+
+        assertEquals(scorer.getExpectedNoteCount(), scorer.getHitCount());
+        assertTrue(scorer.getMinErrorNanos() >= -20 * MS && scorer.getMaxErrorNanos() <= 20 * MS);
+        assertEquals(0, scorer.getMeanErrorNanos(), 3 * MS);
+        assertEquals(20 * MS / Math.sqrt(3), scorer.getStdDevErrorNanos(), 2 * MS); // 균등 분포의 표준편차
+        assertTrue(scorer.getMeanAbsErrorNanos() > 5 * MS && scorer.getMeanAbsErrorNanos() < 15 * MS);
+    }
+
+    @Test
+    public void missedAndWrongNotes_areCounted() {
+        Score score = ScoreCodec.parse("120!Q1,3-@Q1,5-@Q2,3-@Q2,5-@");
+        PlayAlongScorer scorer = new PlayAlongScorer(score);
+        scorer.start(START);
+
+        scorer.onFretEvent(START + 10 * MS, 1, 3);          // HIT
+        scorer.onFretEvent(START + 500 * MS, 6, 6);         // 틀린 음
+        scorer.onFretEvent(START + 500 * MS + 300 * MS, 1, 5); // 허용 범위 밖 -> 틀린 음, 두 번째 음은 MISSED
+        assertEquals(1, scorer.getHitCount());
+        assertEquals(2, scorer.getExtraCount());
+        assertEquals(1, scorer.getMissCount());
+        assertEquals(PlayAlongScorer.MISSED, scorer.getNoteResult(1));
+
+        scorer.advanceTo(START + 1200 * MS);                // 세 번째 음(1000ms)의 허용 범위가 지남
+        assertEquals(2, scorer.getMissCount());
+        scorer.onFretEvent(START + 1490 * MS, 2, 5);
+        assertEquals(PlayAlongScorer.HIT, scorer.getNoteResult(3));
+        assertEquals(-10 * MS, scorer.getTimingErrorNanos(3));
+        assertEquals(0.5, scorer.getAccuracy(), 0);
+    }
+
+    @Test
+    public void repeatedNote_matchesNearestExpected() {
+        PlayAlongScorer scorer = new PlayAlongScorer(ScoreCodec.parse("240!S1,0-@S1,0-@S1,0-@"));
+        scorer.start(0);
+        // 16분음표 간격은 62.5ms 이므로 허용 범위 안에 같은 음이 여러 개 있음
+        scorer.onFretEvent(70 * MS, 1, 0);
+        assertEquals(PlayAlongScorer.PENDING, scorer.getNoteResult(0));
+        assertEquals(PlayAlongScorer.HIT, scorer.getNoteResult(1));
+        assertEquals(7500 * 1000, scorer.getTimingErrorNanos(1));
+    }
+
+    @Test
+    public void skippedNotes_andRestart() {
+        Score score = ScoreCodec.parse(TestSongs.get(2));
+        PlayAlongScorer scorer = new PlayAlongScorer(score);
+        scorer.start(START);
+        play(scorer, score, 0, 0, 4, null);
+        scorer.finish();
+
+        int expectedMisses = (scorer.getExpectedNoteCount() + 3) / 4;
+        assertEquals(expectedMisses, scorer.getMissCount());
+        assertEquals(scorer.getExpectedNoteCount() - expectedMisses, scorer.getHitCount());
+        assertEquals(0, scorer.getExtraCount());
+
+        scorer.start(START);
+        assertEquals(0, scorer.getHitCount());
+        assertEquals(PlayAlongScorer.PENDING, scorer.getNoteResult(0));
+    }
+
+    /**
+     * 긴 곡의 모든 음을 채점하는 데 걸리는 시간이 곡 길이의 1% 보다 짧음 (재생 중에 채점이 밀리지 않음)
+     */
+    @Test
+    public void longSong_scoresFasterThanRealTime() {
+        StringBuilder builder = new StringBuilder(TestSongs.get(5));
+        String body = TestSongs.get(5).substring(4);
+        for (int i = 0; i < 200; i++) {
+            builder.append(body);
+        }
+        Score score = ScoreCodec.parse(builder);
+        PlayAlongScorer scorer = new PlayAlongScorer(score);
+        scorer.start(START);
+
+        long start = System.nanoTime();
+        play(scorer, score, 0, 10 * MS, 0, new Random(1));
+        scorer.finish();
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(scorer.getExpectedNoteCount(), scorer.getHitCount());
+        assertTrue(elapsed * 100 < score.getDurationMillis() * MS);
+    }
+}
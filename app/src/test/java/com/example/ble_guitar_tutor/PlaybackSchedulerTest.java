@@ -0,0 +1,376 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * PlaybackScheduler 의 시간표와 시간 보정, 실제 스레드에서의 지터를 확인하는 테스트
+ */
+public class PlaybackSchedulerTest {
+    private static final long MS = 1_000_000L;
+
+    /**
+     * 재우면 시계를 그만큼 (+ 무작위로 늦게) 진행시키는 가상 시계
+     */
+    private static class VirtualClock implements NanoClock, PlaybackScheduler.Sleeper {
+        private final Random mRandom;
+        private final long mMaxOversleepNanos;
+        long now = 1_000 * MS;
+        long stallAt = Long.MAX_VALUE;  // 이 시각을 지나 처음 재울 때 한 번 stallNanos 만큼 멈춤 (GC 등)
+        long stallNanos = 0;
+
+        VirtualClock(long maxOversleepNanos, long seed) {
+            mMaxOversleepNanos = maxOversleepNanos;
+            mRandom = new Random(seed);
+        }
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void sleepNanos(long nanos) {
+            now += nanos + (mMaxOversleepNanos == 0 ? 0 : (long) (mRandom.nextDouble() * mMaxOversleepNanos));
+            if (now >= stallAt) {
+                now += stallNanos;
+                stallAt = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    /**
+     * 실행된 항목을 "종류 번호 시각(ms)" 문자열로 모으는 Listener
+     */
+    private static class RecordingListener implements PlaybackScheduler.Listener {
+        final List<String> cues = new ArrayList<>();
+        final List<Long> eventLateness = new ArrayList<>();
+        private final NanoClock mClock;
+        private final long mStartNanos;
+
+        RecordingListener(NanoClock clock, long startNanos) {
+            mClock = clock;
+            mStartNanos = startNanos;
+        }
+
+        @Override
+        public void onEvent(int eventIndex, Score.Event event, long positionNanos) {
+            cues.add("event " + eventIndex + " " + positionNanos / MS);
+            eventLateness.add(mClock.nanoTime() - mStartNanos - positionNanos);
+        }
+
+        @Override
+        public void onBeat(int beat, long positionNanos) {
+            cues.add("beat " + beat + " " + positionNanos / MS);
+        }
+
+        @Override
+        public void onSync(long positionNanos) {
+            cues.add("sync " + positionNanos / MS);
+        }
+
+        @Override
+        public void onFinish() {
+            cues.add("finish");
+        }
+    }
+
+    /**
+     * 가상 시계는 재울 때만 진행하므로 시각 직전에 yield 로 기다리지 않게 설정한 스케줄러
+     */
+    private static PlaybackScheduler virtualScheduler(Score score, VirtualClock clock, long syncPeriodNanos) {
+        PlaybackScheduler scheduler = new PlaybackScheduler(score, clock, clock, syncPeriodNanos);
+        scheduler.setTiming(0, PlaybackScheduler.DEFAULT_MAX_LATENESS_NANOS);
+        return scheduler;
+    }
+
+    @Test
+    public void timeline_followsTempoAndDurations() {
+        // 120 BPM : Q = 500ms, E = 250ms / 60 BPM : Q = 1s, H = 2s
+        Score score = ScoreCodec.parse("120!Q1,3-2,5-@E0,0-@E3,2-@060!Q4,0-@H1,1-@");
+        VirtualClock clock = new VirtualClock(0, 0);
+        PlaybackScheduler scheduler = virtualScheduler(score, clock, 1_500 * MS);
+        RecordingListener listener = new RecordingListener(clock, clock.now);
+        scheduler.setListener(listener);
+        assertEquals(5, scheduler.getEventCount());
+        assertEquals(5, scheduler.getBeatCount());
+        assertEquals(score.getDurationMillis() * MS, scheduler.getDurationNanos());
+
+        scheduler.run(clock.now, 0);
+        assertEquals(Arrays.asList(
+                "sync 0", "beat 0 0", "event 1 0",          // 같은 시각이면 비콘, 박자, 이벤트 순서
+                "beat 1 500", "event 2 500", "event 3 750", // 쉼표도 이벤트로 실행
+                "beat 2 1000", "event 5 1000",
+                "sync 1500",
+                "beat 3 2000", "event 6 2000",
+                "sync 3000", "beat 4 3000",                 // H 중간의 박자
+                "finish"), listener.cues);
+        assertFalse(scheduler.isPlaying());
+        assertEquals(scheduler.getDurationNanos(), scheduler.getPositionNanos());
+        assertEquals(0, scheduler.getLateness().getMaxNanos());
+    }
+
+    @Test
+    public void missingTempo_isRejected() {
+        List<Score.Event> events = new ArrayList<>();
+        events.add(Score.Event.notes(Score.Duration.QUARTER, new byte[]{1}, new byte[]{0}));
+        try {
+            new PlaybackScheduler(new Score(events));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * 멈춘 위치에서 다시 시작하면 그 뒤의 항목부터 같은 시간표로 실행함
+     */
+    @Test
+    public void stopAndResume_continuesFromPosition() {
+        Score score = ScoreCodec.parse(TestSongs.get(5));
+        VirtualClock clock = new VirtualClock(0, 0);
+        PlaybackScheduler scheduler = virtualScheduler(score, clock, 0);
+        final long start = clock.now;
+        RecordingListener listener = new RecordingListener(clock, start) {
+            @Override
+            public void onEvent(int eventIndex, Score.Event event, long positionNanos) {
+                super.onEvent(eventIndex, event, positionNanos);
+                if (cues.size() >= 40 && scheduler.isPlaying()) {
+                    clock.now += MS; // 이 이벤트를 실행하고 조금 뒤에 멈춤
+                    scheduler.stop();
+                }
+            }
+        };
+        scheduler.setListener(listener);
+        scheduler.run(start, 0);
+        assertFalse(scheduler.isPlaying());
+        int stoppedAt = listener.cues.size();
+        long position = scheduler.getPositionNanos();
+        assertEquals(clock.now - start, position);
+        assertFalse(listener.cues.contains("finish"));
+
+        clock.now += 10_000 * MS; // 멈춘 동안 흐른 시간
+        RecordingListener resumed = new RecordingListener(clock, clock.now - position);
+        scheduler.setListener(resumed);
+        scheduler.run(clock.now - position, position);
+        assertEquals("finish", resumed.cues.get(resumed.cues.size() - 1));
+
+        RecordingListener full = new RecordingListener(clock, clock.now);
+        PlaybackScheduler reference = virtualScheduler(score, clock, 0);
+        reference.setListener(full);
+        reference.run(clock.now, 0);
+        assertEquals(full.cues.subList(stoppedAt, full.cues.size()), resumed.cues);
+    }
+
+    /**
+     * 매번 최대 2ms 늦게 깨어나도 늦음이 쌓이지 않음.
+     * 같은 조건에서 앞 항목이 끝난 뒤 다음 간격만큼 기다리는 방식(Handler.postDelayed 를 이어 붙이는 방식)은 곡이 길수록 밀림.
+     */
+    @Test
+    public void oversleep_doesNotAccumulate() {
+        Score score = longSong(4000, 120);
+        long maxOversleep = 2 * MS;
+
+        VirtualClock clock = new VirtualClock(maxOversleep, 7);
+        PlaybackScheduler scheduler = virtualScheduler(score, clock, PlaybackScheduler.DEFAULT_SYNC_PERIOD_NANOS);
+        RecordingListener listener = new RecordingListener(clock, clock.now);
+        scheduler.setListener(listener);
+        scheduler.run(clock.now, 0);
+
+        long lastLateness = listener.eventLateness.get(listener.eventLateness.size() - 1);
+        long chainedDrift = chainedDrift(scheduler, score, maxOversleep);
+        assertEquals(4000, listener.eventLateness.size());
+        assertTrue(scheduler.getLateness().getMaxNanos() <= maxOversleep);
+        assertTrue(lastLateness <= maxOversleep);
+        assertEquals(0, scheduler.getSkippedCount());
+        assertTrue(chainedDrift > 100 * maxOversleep);
+    }
+
+    /**
+     * 앞 이벤트가 실행된 시각에서 다음 이벤트까지의 간격만큼 기다리는 방식으로 재생했을 때 마지막 이벤트가 늦어진 시간
+     */
+    private static long chainedDrift(PlaybackScheduler scheduler, Score score, long maxOversleep) {
+        VirtualClock clock = new VirtualClock(maxOversleep, 7);
+        long start = clock.now;
+        long previous = 0;
+        long lastLateness = 0;
+        int tempo = 0;
+        double nanos = 0;
+        for (Score.Event event : score.getEvents()) {
+            if (event.isTempoChange()) {
+                tempo = event.tempo;
+                continue;
+            }
+            long position = Math.round(nanos);
+            clock.sleepNanos(position - previous);
+            lastLateness = clock.now - start - position;
+            previous = position;
+            nanos += 60e9 * event.duration.ticks / (tempo * Score.Duration.TICKS_PER_BEAT);
+        }
+        return lastLateness;
+    }
+
+    /**
+     * 600ms 멈췄다가 깨어나면 밀린 박자는 건너뛰고 이벤트는 모두 실행한 뒤 원래 시간표로 돌아옴
+     */
+    @Test
+    public void stall_skipsLateBeatsButKeepsEvents() {
+        Score score = longSong(200, 240); // S = 62.5ms
+        VirtualClock clock = new VirtualClock(0, 0);
+        clock.stallAt = clock.now + 3_000 * MS;
+        clock.stallNanos = 600 * MS;
+        PlaybackScheduler scheduler = virtualScheduler(score, clock, 0);
+        RecordingListener listener = new RecordingListener(clock, clock.now);
+        scheduler.setListener(listener);
+        scheduler.run(clock.now, 0);
+
+        assertEquals(200, listener.eventLateness.size());
+        assertTrue(scheduler.getSkippedCount() > 0);
+        assertTrue(scheduler.getLateness().getMaxNanos() >= 500 * MS);
+        assertEquals(0, (long) listener.eventLateness.get(listener.eventLateness.size() - 1));
+        assertEquals("finish", listener.cues.get(listener.cues.size() - 1));
+    }
+
+    /**
+     * 5ms 간격의 긴 곡에서 깨어날 때마다 최대 1.5ms 늦고 중간에 한 번 4ms 멈춰도
+     * 이벤트 늦음의 p50 은 1ms, p99 는 5ms 안에 들어옴
+     */
+    @Test
+    public void shortIntervals_meetLatenessBudget() {
+        Score score = longSong(1500, 1500); // q = 5ms, 7.5초
+        VirtualClock clock = new VirtualClock(MS * 3 / 2, 11);
+        clock.stallAt = clock.now + 3_000 * MS;
+        clock.stallNanos = 4 * MS;
+        PlaybackScheduler scheduler = virtualScheduler(score, clock, 100 * MS);
+        RecordingListener listener = new RecordingListener(clock, clock.now);
+        scheduler.setListener(listener);
+        scheduler.run(clock.now, 0);
+
+        assertEquals(scheduler.getEventCount(), listener.eventLateness.size());
+        long[] sorted = new long[listener.eventLateness.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = listener.eventLateness.get(i);
+        }
+        Arrays.sort(sorted);
+        assertTrue(sorted[sorted.length / 2] < MS);
+        assertTrue(sorted[sorted.length * 99 / 100] < 5 * MS);
+        assertTrue(sorted[sorted.length - 1] >= 4 * MS); // 멈춘 동안의 이벤트
+        assertEquals("finish", listener.cues.get(listener.cues.size() - 1));
+    }
+
+    /**
+     * 다른 스레드에서 stop() 하면 실행 중인 콜백이 끝날 때까지 기다리고, 그 뒤에는 콜백이 호출되지 않음
+     */
+    @Test
+    public void stop_waitsForPlaybackThread() throws InterruptedException {
+        PlaybackScheduler scheduler = new PlaybackScheduler(longSong(1000, 600), NanoClock.SYSTEM, PlaybackScheduler.Sleeper.PARK, 0);
+        CountDownLatch inCallback = new CountDownLatch(1);
+        AtomicInteger callbacks = new AtomicInteger();
+        AtomicBoolean finishedCallback = new AtomicBoolean();
+        scheduler.setListener(new PlaybackScheduler.Listener() {
+            @Override
+            public void onEvent(int eventIndex, Score.Event event, long positionNanos) {
+                callbacks.incrementAndGet();
+                inCallback.countDown();
+                try {
+                    Thread.sleep(50); // stop() 이 이 콜백 도중에 불림
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finishedCallback.set(true);
+            }
+
+            @Override
+            public void onBeat(int beat, long positionNanos) {
+                callbacks.incrementAndGet();
+            }
+
+            @Override
+            public void onSync(long positionNanos) {
+                callbacks.incrementAndGet();
+            }
+
+            @Override
+            public void onFinish() {
+                callbacks.incrementAndGet();
+            }
+        });
+
+        scheduler.start(0);
+        assertTrue(inCallback.await(5, TimeUnit.SECONDS));
+        scheduler.stop();
+        assertTrue(finishedCallback.get());
+        assertFalse(scheduler.isPlaying());
+        int stoppedAt = callbacks.get();
+        Thread.sleep(20);
+        assertEquals(stoppedAt, callbacks.get());
+    }
+
+    /**
+     * 실제 스레드와 System.nanoTime() 으로 5ms 간격의 긴 곡을 재생해도 이벤트 늦음의 p50 은 1ms,
+     * p99 는 20ms 안에 들어오고, 늦음이 쌓이지 않아 마지막 이벤트도 크게 밀리지 않음
+     * 기기 부하에 따라 달라지므로 기준은 shortIntervals_meetLatenessBudget 보다 느슨하게 잡음.
+     */
+    @Test
+    public void realThread_meetsLatenessBudget() throws InterruptedException {
+        Score score = longSong(1500, 1500); // q = 5ms, 7.5초
+        PlaybackScheduler scheduler = new PlaybackScheduler(score, NanoClock.SYSTEM, PlaybackScheduler.Sleeper.PARK, 100 * MS);
+        long[] lateness = new long[scheduler.getEventCount()];
+        int[] count = {0};
+        long startNanos = System.nanoTime() + 10 * MS;
+        scheduler.setListener(new PlaybackScheduler.Listener() {
+            @Override
+            public void onEvent(int eventIndex, Score.Event event, long positionNanos) {
+                lateness[count[0]++] = System.nanoTime() - startNanos - positionNanos;
+            }
+
+            @Override
+            public void onBeat(int beat, long positionNanos) {
+            }
+
+            @Override
+            public void onSync(long positionNanos) {
+            }
+
+            @Override
+            public void onFinish() {
+            }
+        });
+
+        Thread thread = new Thread(() -> scheduler.run(startNanos, 0));
+        thread.start();
+        thread.join();
+
+        assertEquals(lateness.length, count[0]);
+        long[] sorted = lateness.clone();
+        Arrays.sort(sorted);
+        assertTrue(sorted[0] >= 0); // 시간표보다 먼저 실행하지 않음
+        assertTrue(sorted[sorted.length / 2] < MS);
+        assertTrue(sorted[sorted.length * 99 / 100] < 20 * MS);
+        assertTrue(lateness[lateness.length - 1] < 50 * MS); // 이어 붙인 sleep 이면 1500 번 동안 늦음이 쌓임
+    }
+
+    /**
+     * 같은 줄을 반복하는 긴 곡 (thirty-second 음표, 가끔 쉼표)
+     */
+    private static Score longSong(int events, int tempo) {
+        List<Score.Event> list = new ArrayList<>();
+        list.add(Score.Event.tempo(tempo));
+        Score.Duration[] durations = {Score.Duration.THIRTY_SECOND, Score.Duration.SIXTEENTH, Score.Duration.EIGHTH};
+        for (int i = 0; i < events; i++) {
+            Score.Duration duration = tempo > 1000 ? Score.Duration.THIRTY_SECOND : durations[i % durations.length];
+            byte string = (byte) (i % 7 == 6 ? 0 : 1 + i % 6);
+            list.add(Score.Event.notes(duration, new byte[]{string}, new byte[]{(byte) (i % 12)}));
+        }
+        return new Score(list);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * 다시 연결하는 간격(ReconnectBackoff)과, 연결이 끊긴 업로드를 이어서 보내는 동작(ScoreUploader.suspend/resume)을 확인하는 테스트
+ */
+public class ReconnectTest {
+
+    @Test
+    public void backoff_doublesUpToMaxThenGivesUp() {
+        ReconnectBackoff backoff = new ReconnectBackoff(250, 2000, 6);
+        long[] expected = {250, 500, 1000, 2000, 2000, 2000};
+        for (long delay : expected) {
+            assertEquals(delay, backoff.nextDelayMillis());
+        }
+        assertEquals(ReconnectBackoff.GIVE_UP, backoff.nextDelayMillis());
+        assertEquals(6, backoff.getAttempts());
+
+        backoff.reset();
+        assertEquals(250, backoff.nextDelayMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backoff_rejectsMaxBelowInitial() {
+        new ReconnectBackoff(1000, 500, 3);
+    }
+
+    private static class Device extends SimulatedDevice {
+        Device() {
+            super(4);
+        }
+
+        /**
+         * 기기가 partialBytes 이상 받을 때까지 업로드한 뒤 연결을 끊는 메소드
+         */
+        void uploadAndDrop(byte[] payload, boolean useDeviceCache, int partialBytes) {
+            assertTrue(uploader.upload(payload, ScoreCache.contentHash(payload), useDeviceCache));
+            while (guitar.getPartialLength() < partialBytes && clock.runNext()) {
+            }
+            assertTrue(transfer.isActive());
+            guitar.disconnect();
+            assertTrue(uploader.suspend());
+            assertFalse(uploader.isBusy());
+            clock.runUntilIdle(); // 끊긴 연결에 남은 이벤트
+        }
+
+        /**
+         * 다시 연결된 뒤 보관한 업로드를 끝까지 보내고, 걸린 시간을 반환하는 메소드
+         */
+        long resume(byte[] payload, boolean useDeviceCache) {
+            long start = clock.nowMicros();
+            assertTrue(uploader.resume(useDeviceCache));
+            while (uploader.isBusy() && clock.runNext()) {
+            }
+            long elapsed = clock.nowMicros() - start;
+            clock.runUntilIdle();
+            assertFalse(uploader.hasSuspendedUpload());
+            assertArrayEquals(payload, guitar.getReceivedMessage());
+            return elapsed;
+        }
+    }
+
+    @Test
+    public void droppedUpload_resumesFromDeviceOffset() {
+        byte[] payload = (TestSongs.get(5) + "$").getBytes(StandardCharsets.UTF_8);
+
+        Device resumed = new Device();
+        resumed.uploadAndDrop(payload, true, payload.length * 3 / 4);
+        int partial = resumed.guitar.getPartialLength();
+        long resumeMicros = resumed.resume(payload, true);
+        assertEquals(1, resumed.uploader.getResumedCount());
+        assertEquals(1, resumed.guitar.resumeCount);
+        assertTrue(resumed.uploader.getSkippedBytes() >= partial);
+        assertEquals(1, resumed.guitar.getCachedSongCount()); // 이어 붙인 곡도 해시로 저장됨
+
+        Device restarted = new Device();
+        restarted.guitar.keepsPartialMessage = false;
+        restarted.uploadAndDrop(payload, true, payload.length * 3 / 4);
+        long restartMicros = restarted.resume(payload, true);
+        assertEquals(0, restarted.uploader.getResumedCount());
+        assertEquals(0, restarted.uploader.getSkippedBytes());
+
+        // 4 분의 3 을 받아 둔 뒤에는 나머지만 보내므로 처음부터 다시 보내는 것보다 훨씬 빠름
+        assertTrue(partial >= payload.length * 3 / 4);
+        assertTrue(resumeMicros * 2 < restartMicros);
+    }
+
+    @Test
+    public void droppedCompressedUpload_resumesWithSameBytes() {
+        byte[] payload = (TestSongs.get(5) + "$").getBytes(StandardCharsets.UTF_8);
+        Device device = new Device();
+        device.uploader.setCompression(true);
+        device.uploadAndDrop(payload, true, 300);
+        device.resume(payload, true);
+        assertEquals(1, device.uploader.getResumedCount());
+        assertEquals(1, device.guitar.compressedCount);
+    }
+
+    @Test
+    public void withoutDeviceCache_resumeRestartsUpload() {
+        byte[] payload = ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(5)));
+        Device device = new Device();
+        device.uploadAndDrop(payload, false, 200);
+        device.resume(payload, false);
+        assertEquals(0, device.uploader.getResumedCount());
+        assertEquals(0, device.guitar.resumeCount);
+    }
+
+    @Test
+    public void newUpload_discardsSuspendedUpload() {
+        byte[] first = ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(5)));
+        byte[] second = ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(2)));
+        Device device = new Device();
+        device.uploadAndDrop(first, true, 200);
+        assertTrue(device.uploader.hasSuspendedUpload());
+
+        assertTrue(device.uploader.upload(second, ScoreCache.contentHash(second), true));
+        assertFalse(device.uploader.hasSuspendedUpload());
+        device.clock.runUntilIdle();
+        assertArrayEquals(second, device.guitar.getReceivedMessage());
+        assertEquals(0, device.guitar.resumeCount);
+        assertFalse(device.uploader.resume(true));
+    }
+}
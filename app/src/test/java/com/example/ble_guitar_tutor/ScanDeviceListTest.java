@@ -0,0 +1,101 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 스캔 결과를 RSSI 순서로 정렬하는 ScanDeviceList 테스트
+ */
+public class ScanDeviceListTest {
+
+    @Test
+    public void devices_areRankedByRssi() {
+        ScanDeviceList list = new ScanDeviceList();
+        assertTrue(list.update("AA", "guitar-1", -80));
+        assertTrue(list.update("BB", "guitar-2", -50));
+        assertTrue(list.update("CC", null, -65));
+
+        List<ScanDeviceList.Device> ranked = list.getRanked();
+        assertEquals("BB", ranked.get(0).getAddress());
+        assertEquals("CC", ranked.get(1).getAddress());
+        assertEquals("AA", ranked.get(2).getAddress());
+        assertEquals(ScanDeviceList.UNKNOWN_NAME, ranked.get(1).getName());
+        assertEquals(-50, ranked.get(0).getRssi());
+    }
+
+    @Test
+    public void sameOrder_doesNotRequestRedraw() {
+        ScanDeviceList list = new ScanDeviceList();
+        list.update("AA", "guitar-1", -50);
+        list.update("BB", "guitar-2", -80);
+        assertFalse(list.update("AA", "guitar-1", -52));
+        assertFalse(list.update("BB", "guitar-2", -79));
+        assertEquals(2, list.get("AA").getSeenCount());
+    }
+
+    @Test
+    public void lateName_isUpdated() {
+        ScanDeviceList list = new ScanDeviceList();
+        list.update("AA", null, -60);
+        assertTrue(list.update("AA", "guitar-1", -60));
+        assertEquals("guitar-1", list.get("AA").getName());
+        assertFalse(list.update("AA", null, -60)); // 이름이 없는 광고는 이름을 지우지 않음
+        assertEquals("guitar-1", list.get("AA").getName());
+    }
+
+    @Test
+    public void strongerDevice_overtakesAfterFewAdvertisements() {
+        ScanDeviceList list = new ScanDeviceList();
+        list.update("AA", "near", -75);
+        list.update("BB", "far", -60);
+        int updates = 0;
+        while (!list.getRanked().get(0).getAddress().equals("AA")) {
+            list.update("AA", "near", -45); // 학생이 기타를 들고 다가옴
+            updates++;
+        }
+        assertTrue(updates <= 4);
+    }
+
+    /**
+     * 광고마다 ±8 dB 흔들리는 RSSI 에서, 평균이 10 dB 차이 나는 두 기기의 순서가 거의 바뀌지 않는지 확인
+     */
+    @Test
+    public void noisyRssi_keepsRankingStable() {
+        Random random = new Random(14);
+        ScanDeviceList list = new ScanDeviceList();
+        int rawSwaps = 0;
+        int smoothedSwaps = 0;
+        int lastRssiA = -60;
+        int lastRssiB = -70;
+        String lastFirst = null;
+        boolean rawAFirst = true;
+        for (int i = 0; i < 2000; i++) {
+            if (i % 2 == 0) {
+                lastRssiA = -60 + random.nextInt(17) - 8;
+                list.update("AA", "near", lastRssiA);
+            } else {
+                lastRssiB = -70 + random.nextInt(17) - 8;
+                list.update("BB", "far", lastRssiB);
+            }
+            boolean aFirst = lastRssiA >= lastRssiB;
+            if (i > 0 && aFirst != rawAFirst) {
+                rawSwaps++;
+            }
+            rawAFirst = aFirst;
+
+            String first = list.getRanked().get(0).getAddress();
+            if (lastFirst != null && !first.equals(lastFirst)) {
+                smoothedSwaps++;
+            }
+            lastFirst = first;
+        }
+        assertTrue(rawSwaps > 100); // 마지막 광고끼리 비교하면 자주 뒤바뀜
+        assertTrue(smoothedSwaps * 4 < rawSwaps);
+        assertTrue(smoothedSwaps <= 2);
+        assertEquals("AA", lastFirst);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * 폰의 ScoreCache 와, 가상 기기의 악보 캐시를 사용하는 ScoreUploader 를 확인하는 테스트
+ */
+public class ScoreCacheTest {
+
+    @Test
+    public void cache_evictsLeastRecentlyUsed() {
+        ScoreCache cache = new ScoreCache(2);
+        ScoreCache.Entry first = cache.get(TestSongs.get(1));
+        cache.get(TestSongs.get(2));
+        assertSame(first, cache.get(TestSongs.get(1)));
+        cache.get(TestSongs.get(3)); // 가장 오래 사용하지 않은 2번 곡이 빠짐
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(TestSongs.get(1)));
+        assertFalse(cache.contains(TestSongs.get(2)));
+        assertTrue(cache.contains(TestSongs.get(3)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void invalidScore_isNotCached() {
+        ScoreCache cache = new ScoreCache();
+        try {
+            cache.get("080!Q1,,3-@");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void entry_holdsTextAndBinaryPayloads() {
+        String song = TestSongs.get(4);
+        ScoreCache.Entry entry = new ScoreCache().get(song);
+
+        assertTrue(entry.hasBinary());
+        assertArrayEquals((song + "$").getBytes(StandardCharsets.UTF_8), entry.getPayload(false));
+        assertArrayEquals(ScoreCodec.encode(entry.score), entry.getPayload(true));
+        assertEquals(ScoreCache.contentHash(entry.getPayload(true)), entry.getHash(true));
+        assertNotEquals(entry.getHash(false), entry.getHash(true));
+    }
+
+    @Test
+    public void contentHash_isFnv1a64() {
+        assertEquals(0xcbf29ce484222325L, ScoreCache.contentHash(new byte[0]));
+        assertEquals(0xaf63dc4c8601ec8cL, ScoreCache.contentHash("a".getBytes(StandardCharsets.UTF_8)));
+        assertNotEquals(ScoreCache.contentHash(TestSongs.get(1).getBytes(StandardCharsets.UTF_8)),
+                ScoreCache.contentHash(TestSongs.get(2).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static class Device extends SimulatedDevice {
+        Device(int songCacheCapacity) {
+            super(songCacheCapacity);
+        }
+
+        int upload(ScoreCache.Entry entry, boolean useDeviceCache) {
+            int writesBefore = guitar.writeCount;
+            assertTrue(uploader.upload(entry.getPayload(true), entry.getHash(true), useDeviceCache));
+            assertTrue(uploader.isBusy());
+            clock.runUntilIdle();
+            assertFalse(uploader.isBusy());
+            assertArrayEquals(entry.getPayload(true), guitar.getReceivedMessage());
+            return guitar.writeCount - writesBefore;
+        }
+    }
+
+    @Test
+    public void reupload_isSkippedWhenDeviceHasSong() {
+        ScoreCache cache = new ScoreCache();
+        Device device = new Device(4);
+
+        int firstWrites = device.upload(cache.get(TestSongs.get(5)), true);
+        device.upload(cache.get(TestSongs.get(1)), true);
+        assertTrue(firstWrites > 10);
+        assertEquals(2, device.guitar.getCachedSongCount());
+
+        // 다시 선택하면 확인 요청 한 번으로 끝남
+        assertEquals(1, device.upload(cache.get(TestSongs.get(5)), true));
+        assertEquals(1, device.uploader.getDeviceHitCount());
+        assertEquals(2, device.uploader.getDeviceMissCount());
+        assertEquals(cache.get(TestSongs.get(5)).getPayload(true).length, device.uploader.getSkippedBytes());
+        assertEquals(3, device.guitar.cacheQueryCount);
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void deviceCache_evictsAndFallsBackToUpload() {
+        ScoreCache cache = new ScoreCache();
+        Device device = new Device(1);
+
+        device.upload(cache.get(TestSongs.get(1)), true);
+        device.upload(cache.get(TestSongs.get(2)), true);
+        assertTrue(device.upload(cache.get(TestSongs.get(1)), true) > 1); // 기기 캐시에서 빠졌으므로 다시 보냄
+        assertEquals(0, device.uploader.getDeviceHitCount());
+        assertEquals(3, device.uploader.getDeviceMissCount());
+    }
+
+    @Test
+    public void unansweredQuery_timesOutAndUploads() {
+        ScoreCache cache = new ScoreCache();
+        Device device = new Device(0); // 캐시 요청에 응답하지 않는 기기
+
+        ScoreCache.Entry entry = cache.get(TestSongs.get(2));
+        assertTrue(device.upload(entry, true) > 1);
+        assertEquals(1, device.uploader.getQueryTimeoutCount());
+        assertTrue(device.clock.nowMicros() >= ScoreUploader.QUERY_TIMEOUT_MILLIS * 1000);
+
+        // 시간이 지난 뒤에 온 응답은 소비만 하고 무시함
+        assertTrue(device.uploader.onNotification(new byte[]{BleProtocol.NOTIFY_CACHE_STATUS, BleProtocol.CACHE_HIT}));
+        assertEquals(0, device.uploader.getDeviceHitCount());
+    }
+
+    @Test
+    public void withoutDeviceCache_uploadsDirectly() {
+        ScoreCache cache = new ScoreCache();
+        Device device = new Device(4);
+
+        device.upload(cache.get(TestSongs.get(1)), false);
+        device.upload(cache.get(TestSongs.get(1)), false);
+        assertEquals(0, device.guitar.cacheQueryCount);
+        assertEquals(0, device.guitar.getCachedSongCount());
+    }
+}
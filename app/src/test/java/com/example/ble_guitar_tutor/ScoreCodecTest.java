@@ -0,0 +1,191 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * ScoreCodec 의 문자열/바이너리 변환 테스트
+ */
+public class ScoreCodecTest {
+
+    @Test
+    public void parse_readsTempoDurationsAndNotes() {
+        Score score = ScoreCodec.parse("080!Q1,8-4,10-@H0,0-@q5,3@");
+
+        assertEquals(80, score.getTempo());
+        assertEquals(4, score.getEvents().size());
+        Score.Event first = score.getEvents().get(1);
+        assertEquals(Score.Duration.QUARTER, first.duration);
+        assertArrayEquals(new byte[]{1, 4}, first.strings);
+        assertArrayEquals(new byte[]{8, 10}, first.frets);
+        assertEquals(Score.Duration.THIRTY_SECOND, score.getEvents().get(3).duration);
+        assertEquals(4, score.getNoteCount());
+    }
+
+    @Test
+    public void format_restoresWellFormedText() {
+        String text = "120!W1,3-2,3-3,4-4,5-5,5-6,3-@S4,3-2,1-@E0,0-@";
+        assertEquals(text, ScoreCodec.format(ScoreCodec.parse(text)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsUnknownDuration() {
+        ScoreCodec.parse("080!X1,2-@");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsNoteWithoutFret() {
+        ScoreCodec.parse("080!Q1-@");
+    }
+
+    @Test
+    public void parse_rejectsStringOrFretOutOfRange() {
+        String[] texts = {"080!Q1,200-@", "080!Q8,1-@", "080!Q1,32@", "080!Q1,3-9999,0-@"};
+        for (String text : texts) {
+            try {
+                ScoreCodec.parse(text);
+                fail(text);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("string/fret"));
+            }
+        }
+        // 범위의 끝은 허용
+        assertEquals(ScoreCodec.format(ScoreCodec.parse("080!Q7,31-@")),
+                ScoreCodec.format(ScoreCodec.decode(ScoreCodec.encode(ScoreCodec.parse("080!Q7,31-@")))));
+    }
+
+    @Test
+    public void encode_rejectsNegativeStringOrFret() {
+        byte[][][] notes = {
+                {{(byte) 200}, {3}},
+                {{1}, {(byte) 200}},
+                {{-1}, {-1}}
+        };
+        for (byte[][] note : notes) {
+            Score score = new Score(Collections.singletonList(Score.Event.notes(Score.Duration.QUARTER, note[0], note[1])));
+            try {
+                ScoreCodec.encode(score);
+                fail(note[0][0] + "," + note[1][0]);
+            } catch (IllegalArgumentException e) {
+                // ScoreCache.Entry 는 이 예외를 받으면 문자열로 보냄
+            }
+        }
+    }
+
+    @Test
+    public void binary_roundTripsBundledSongs() {
+        for (int i = 1; i <= TestSongs.COUNT; i++) {
+            Score score = ScoreCodec.parse(TestSongs.get(i));
+            byte[] binary = ScoreCodec.encode(score);
+
+            assertTrue(ScoreCodec.isBinary(binary));
+            assertEquals(ScoreCodec.format(score), ScoreCodec.format(ScoreCodec.decode(binary)));
+        }
+    }
+
+    @Test
+    public void parse_keepsCompleteNotesOfCutOffLastEvent() {
+        Score score = ScoreCodec.parse("080!Q1,2-@q4,3-2,");
+
+        assertEquals(3, score.getEvents().size());
+        Score.Event last = score.getEvents().get(2);
+        assertEquals(Score.Duration.THIRTY_SECOND, last.duration);
+        assertArrayEquals(new byte[]{4}, last.strings);
+        assertArrayEquals(new byte[]{3}, last.frets);
+        assertEquals("080!Q1,2-@q4,3-@", ScoreCodec.format(score));
+
+        // 완성된 음이 없으면 이벤트를 남기지 않음
+        assertEquals("080!Q1,2-@", ScoreCodec.format(ScoreCodec.parse("080!Q1,2-@q4,")));
+    }
+
+    /**
+     * 번들 악보를 바이너리로 보내도 문자열에 있는 음을 하나도 잃지 않는지 확인
+     * (format(parse) 끼리 비교하면 파싱에서 버린 음은 알 수 없으므로 문자열에서 직접 셈)
+     */
+    @Test
+    public void binary_keepsEveryNoteOfBundledSongs() {
+        for (int i = 1; i <= TestSongs.COUNT; i++) {
+            String text = TestSongs.get(i);
+            Score decoded = ScoreCodec.decode(ScoreCodec.encode(ScoreCodec.parse(text)));
+
+            int notes = 0;
+            for (Score.Event event : decoded.getEvents()) {
+                notes += event.getNoteCount();
+            }
+            assertEquals("test_string_" + i, countTextNotes(text), notes);
+        }
+    }
+
+    /**
+     * 문자열에서 완성된 음의 수를 세는 메소드
+     * 템포 앞에서 '@' 없이 잘린 이벤트는 버리고(StreamingScoreParser.Listener 참고), 마지막 이벤트는 '-' 로 끝난 음만 셈.
+     */
+    private static int countTextNotes(String text) {
+        String[] segments = text.split("\\d+!", -1);
+        int count = 0;
+        for (int s = 0; s < segments.length; s++) {
+            String[] events = segments[s].split("@", -1);
+            for (int e = 0; e < events.length; e++) {
+                boolean open = e == events.length - 1;
+                if (open && s < segments.length - 1) {
+                    continue;
+                }
+                Matcher matcher = Pattern.compile(open ? "\\d+,\\d+-" : "\\d+,\\d+(-|$)").matcher(events[e]);
+                while (matcher.find()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void binary_isMuchSmallerThanText() {
+        for (int i = 1; i <= TestSongs.COUNT; i++) {
+            String text = TestSongs.get(i);
+            Score score = ScoreCodec.parse(text);
+            int textBytes = (text + BleProtocol.MESSAGE_TERMINATOR).getBytes(StandardCharsets.UTF_8).length;
+            int binaryBytes = ScoreCodec.encode(score).length;
+
+            // 템포 3 byte, 음표 이벤트는 머리 1 byte 와 음마다 1 byte
+            int expected = ScoreCodec.HEADER_LENGTH;
+            for (Score.Event event : score.getEvents()) {
+                expected += event.isTempoChange() ? 3 : 1 + event.getNoteCount();
+            }
+            assertEquals(expected, binaryBytes);
+            assertTrue(binaryBytes * 3 < textBytes);
+        }
+    }
+
+    @Test
+    public void capabilities_parseVersionFromCharacteristic() {
+        assertEquals(1, DeviceCapabilities.parse(null).getVersion());
+        assertEquals(1, DeviceCapabilities.parse(new byte[0]).getVersion());
+        assertEquals(1, DeviceCapabilities.parse("080!Q1,2-@".getBytes(StandardCharsets.UTF_8)).getVersion());
+        assertEquals(2, DeviceCapabilities.parse("V2".getBytes(StandardCharsets.UTF_8)).getVersion());
+        assertEquals(DeviceCapabilities.PHONE_VERSION, DeviceCapabilities.parse("V9".getBytes(StandardCharsets.UTF_8)).getVersion());
+        assertTrue(DeviceCapabilities.parse("V2".getBytes(StandardCharsets.UTF_8)).supportsBinaryScore());
+    }
+
+    @Test
+    public void capabilities_parseFeatureFlags() {
+        assertFalse(DeviceCapabilities.parse("V2".getBytes(StandardCharsets.UTF_8)).supportsSongCache());
+        assertTrue(DeviceCapabilities.parse("V2:C".getBytes(StandardCharsets.UTF_8)).supportsSongCache());
+        assertTrue(DeviceCapabilities.parse("V2:XC".getBytes(StandardCharsets.UTF_8)).supportsSongCache());
+        // 버전 1 은 추가 기능을 사용할 수 없음
+        assertFalse(DeviceCapabilities.parse("V1:C".getBytes(StandardCharsets.UTF_8)).supportsSongCache());
+        assertEquals(2, DeviceCapabilities.parse("V2:C".getBytes(StandardCharsets.UTF_8)).getVersion());
+        // 패치는 캐시 확인으로 결과를 검사하므로 C 와 D 가 모두 있어야 함
+        assertFalse(DeviceCapabilities.parse("V2:D".getBytes(StandardCharsets.UTF_8)).supportsScorePatch());
+        assertTrue(DeviceCapabilities.parse("V2:CD".getBytes(StandardCharsets.UTF_8)).supportsScorePatch());
+        DeviceCapabilities checked = DeviceCapabilities.parse("V2:KC".getBytes(StandardCharsets.UTF_8));
+        assertTrue(checked.supportsIntegrityCheck());
+        assertEquals("V2:CK", checked.toString());
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ScoreCompressor 의 압축/해제를 확인하고, 테스트 곡의 압축률과 전송 시간을 측정하는 테스트
+ */
+public class ScoreCompressorTest {
+
+    private static byte[] textPayload(int song) {
+        return (TestSongs.get(song) + "$").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] binaryPayload(int song) {
+        return ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(song)));
+    }
+
+    @Test
+    public void testSongs_roundTrip() {
+        for (int song = 1; song <= TestSongs.COUNT; song++) {
+            for (byte[] payload : new byte[][]{textPayload(song), binaryPayload(song)}) {
+                byte[] compressed = ScoreCompressor.compress(payload);
+                if (compressed == null) {
+                    continue;
+                }
+                assertTrue(ScoreCompressor.isCompressed(compressed));
+                assertTrue(compressed.length < payload.length);
+                assertArrayEquals("song " + song, payload, ScoreCompressor.decompress(compressed));
+            }
+        }
+    }
+
+    @Test
+    public void randomData_roundTripsOrIsLeftAlone() {
+        Random random = new Random(12);
+        for (int round = 0; round < 300; round++) {
+            byte[] data = new byte[random.nextInt(5000)];
+            int alphabet = 1 + random.nextInt(round % 3 == 0 ? 256 : 8); // 반복이 많은 데이터와 무작위 데이터
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) random.nextInt(alphabet);
+            }
+            byte[] compressed = ScoreCompressor.compress(data);
+            if (compressed != null) {
+                assertArrayEquals("round " + round, data, ScoreCompressor.decompress(compressed));
+            }
+        }
+    }
+
+    @Test
+    public void repeatedMeasures_compressWell() {
+        byte[] measure = "080!Q1,3-Q2,5-Q3,7-@".getBytes(StandardCharsets.UTF_8);
+        byte[] song = new byte[measure.length * 64];
+        for (int i = 0; i < 64; i++) {
+            System.arraycopy(measure, 0, song, i * measure.length, measure.length);
+        }
+        byte[] compressed = ScoreCompressor.compress(song);
+        assertNotNull(compressed);
+        assertTrue(compressed.length * 20 < song.length);
+        assertArrayEquals(song, ScoreCompressor.decompress(compressed));
+    }
+
+    @Test
+    public void malformedMessage_isRejected() {
+        byte[] payload = textPayload(5);
+        byte[] compressed = ScoreCompressor.compress(payload);
+        assertNotNull(compressed);
+
+        assertNull(ScoreCompressor.decompress(Arrays.copyOf(compressed, compressed.length - 1)));
+        assertNull(ScoreCompressor.decompress(payload));
+        assertNull(ScoreCompressor.decompress(new byte[]{ScoreCompressor.MAGIC, ScoreCompressor.FORMAT_VERSION}));
+        // 출력보다 앞을 가리키는 거리
+        assertNull(ScoreCompressor.decompress(new byte[]{ScoreCompressor.MAGIC, ScoreCompressor.FORMAT_VERSION, 8,
+                0x00, 'a', (byte) 0x80, 0x00, 0x02}));
+        // 선언한 길이를 넘는 출력
+        assertNull(ScoreCompressor.decompress(new byte[]{ScoreCompressor.MAGIC, ScoreCompressor.FORMAT_VERSION, 1,
+                0x01, 'a', 'b'}));
+        // 겹치는 복사로 같은 byte 반복
+        assertArrayEquals("aaaaa".getBytes(StandardCharsets.UTF_8), ScoreCompressor.decompress(new byte[]{
+                ScoreCompressor.MAGIC, ScoreCompressor.FORMAT_VERSION, 5, 0x00, 'a', (byte) 0x80, 0x00, 0x01}));
+    }
+
+    private static class Device extends SimulatedDevice {
+        Device(boolean compression) {
+            super(0);
+            uploader.setCompression(compression);
+        }
+
+        long upload(byte[] payload) {
+            long start = clock.nowMicros();
+            assertTrue(uploader.upload(payload, ScoreCache.contentHash(payload), false));
+            clock.runUntilIdle();
+            assertFalse(uploader.isBusy());
+            assertArrayEquals(payload, guitar.getReceivedMessage());
+            return clock.nowMicros() - start;
+        }
+    }
+
+    @Test
+    public void compressedUpload_deliversOriginalMessage() {
+        Device device = new Device(true);
+        byte[] payload = binaryPayload(5);
+        device.upload(payload);
+        assertEquals(1, device.guitar.compressedCount);
+        assertTrue(device.uploader.getCompressedSavedBytes() > 0);
+
+        Device plain = new Device(false);
+        plain.upload(payload);
+        assertEquals(0, plain.guitar.compressedCount);
+        assertEquals(0, plain.uploader.getCompressedSavedBytes());
+    }
+
+    /**
+     * 테스트 곡마다 압축하지 않고 보낼 때와 (압축 + 전송) 시간을 비교
+     * 압축이 안 되는 곡도 느려지지 않고, 전체로는 압축하는 편이 빠름
+     */
+    @Test
+    public void compression_neverSlowsUploadAndSavesOverall() {
+        long rawTotal = 0;
+        long compressedTotal = 0;
+        for (int song = 1; song <= TestSongs.COUNT; song++) {
+            for (int kind = 0; kind < 2; kind++) {
+                byte[] payload = kind == 0 ? textPayload(song) : binaryPayload(song);
+
+                long compressStart = System.nanoTime();
+                byte[] compressed = ScoreCompressor.compress(payload);
+                long compressNanos = System.nanoTime() - compressStart;
+                int compressedLength = compressed != null ? compressed.length : payload.length;
+
+                long rawMicros = new Device(false).upload(payload);
+                long compressedMicros = new Device(true).upload(payload) + compressNanos / 1000;
+                rawTotal += rawMicros;
+                compressedTotal += compressedMicros;
+
+                assertTrue(compressedLength <= payload.length);
+                assertTrue(compressedMicros <= rawMicros + 5_000); // 압축이 안 되면 원래대로 보내므로 느려지지 않음
+            }
+        }
+        assertTrue(compressedTotal < rawTotal);
+    }
+}
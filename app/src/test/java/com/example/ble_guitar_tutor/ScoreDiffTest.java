@@ -0,0 +1,221 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 무작위로 고친 악보로 ScoreDiff 패치 생성/적용을 확인하고, 패치 업로드가 전체 업로드보다 빠른지 확인하는 테스트
+ */
+public class ScoreDiffTest {
+
+    private static Score.Event randomEvent(Random random) {
+        if (random.nextInt(20) == 0) {
+            return Score.Event.tempo(40 + random.nextInt(200));
+        }
+        int count = 1 + random.nextInt(4);
+        byte[] strings = new byte[count];
+        byte[] frets = new byte[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = (byte) random.nextInt(7);
+            frets[i] = (byte) random.nextInt(25);
+        }
+        return Score.Event.notes(Score.Duration.fromOrdinal(random.nextInt(6)), strings, frets);
+    }
+
+    /**
+     * 마디를 무작위로 넣고, 지우고, 바꾼 악보를 만드는 메소드
+     */
+    private static Score mutate(Score score, int edits, Random random) {
+        List<Score.Event> events = new ArrayList<>(score.getEvents());
+        for (int e = 0; e < edits; e++) {
+            int index = random.nextInt(events.size() + 1);
+            switch (random.nextInt(3)) {
+                case 0:
+                    events.add(index, randomEvent(random));
+                    break;
+                case 1:
+                    if (index < events.size()) {
+                        events.remove(index);
+                    }
+                    break;
+                default:
+                    if (index < events.size()) {
+                        events.set(index, randomEvent(random));
+                    }
+                    break;
+            }
+        }
+        return new Score(events);
+    }
+
+    @Test
+    public void randomMutations_patchReproducesTarget() {
+        Random random = new Random(11);
+        int patched = 0;
+        for (int round = 0; round < 500; round++) {
+            Score base = ScoreCodec.parse(TestSongs.get(1 + random.nextInt(TestSongs.COUNT)));
+            int edits = 1 + random.nextInt(round % 10 == 0 ? 80 : 6);
+            Score target = mutate(base, edits, random);
+
+            byte[] basePayload = ScoreCodec.encode(base);
+            byte[] targetPayload = ScoreCodec.encode(target);
+            byte[] patch = ScoreDiff.createPatch(basePayload, targetPayload);
+            if (patch == null) {
+                continue; // 전체를 보내는 편이 작은 경우
+            }
+            patched++;
+            assertTrue(ScoreDiff.isPatch(patch));
+            assertTrue(patch.length < targetPayload.length);
+            assertArrayEquals("round " + round, targetPayload, ScoreDiff.applyPatch(basePayload, patch));
+        }
+        assertTrue(patched > 400);
+    }
+
+    @Test
+    public void smallEdit_givesSmallPatch() {
+        Score base = ScoreCodec.parse(TestSongs.get(5));
+        List<Score.Event> events = new ArrayList<>(base.getEvents());
+        events.set(10, Score.Event.notes(Score.Duration.HALF, new byte[]{1, 2}, new byte[]{3, 4}));
+        events.remove(40);
+        events.add(100, Score.Event.tempo(120));
+        byte[] basePayload = ScoreCodec.encode(base);
+        byte[] targetPayload = ScoreCodec.encode(new Score(events));
+
+        byte[] patch = ScoreDiff.createPatch(basePayload, targetPayload);
+        assertNotNull(patch);
+        assertTrue(patch.length < 50);
+        assertArrayEquals(targetPayload, ScoreDiff.applyPatch(basePayload, patch));
+    }
+
+    @Test
+    public void identicalScores_giveEmptyPatch() {
+        byte[] payload = ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(3)));
+        byte[] patch = ScoreDiff.createPatch(payload, payload.clone());
+        assertNotNull(patch);
+        assertArrayEquals(payload, ScoreDiff.applyPatch(payload, patch));
+    }
+
+    @Test
+    public void patch_isRejectedForWrongBaseOrCorruption() {
+        byte[] base = ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(4)));
+        byte[] target = ScoreCodec.encode(mutate(ScoreCodec.decode(base), 3, new Random(3)));
+        byte[] patch = ScoreDiff.createPatch(base, target);
+        assertNotNull(patch);
+
+        byte[] otherBase = ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(2)));
+        assertNull(ScoreDiff.applyPatch(otherBase, patch));
+        assertNull(ScoreDiff.applyPatch(base, Arrays.copyOf(patch, patch.length - 1)));
+
+        byte[] corrupted = patch.clone();
+        corrupted[corrupted.length - 1] ^= 0x01; // 결과 해시가 target 과 달라짐
+        assertNull(ScoreDiff.applyPatch(base, corrupted));
+        assertNull(ScoreDiff.createPatch("080!Q1,3-@$".getBytes(), target));
+    }
+
+    private static class Device extends SimulatedDevice {
+        int completeCount = 0;
+
+        Device() {
+            super(4);
+            uploader.setListener(new ChunkTransfer.Listener() {
+                @Override
+                public void onTransferProgress(int sentBytes, int totalBytes) {
+                }
+
+                @Override
+                public void onTransferComplete() {
+                    assertFalse(uploader.isBusy()); // 패치는 적용을 확인한 뒤에 끝남
+                    completeCount++;
+                }
+
+                @Override
+                public void onTransferFailed() {
+                }
+            });
+        }
+
+        long upload(byte[] payload, byte[] patch) {
+            long start = clock.nowMicros();
+            assertTrue(uploader.upload(payload, ScoreCache.contentHash(payload), true, patch));
+            while (uploader.isBusy() && clock.runNext()) {
+            }
+            long elapsed = clock.nowMicros() - start;
+            clock.runUntilIdle(); // 남은 응답 대기 타이머
+            assertFalse(uploader.isBusy());
+            assertArrayEquals(payload, guitar.getReceivedMessage());
+            return elapsed;
+        }
+    }
+
+    @Test
+    public void editedLongSong_landsInFractionOfFullUpload() {
+        Score base = ScoreCodec.parse(TestSongs.get(5));
+        Score edited = mutate(base, 3, new Random(5));
+        byte[] basePayload = ScoreCodec.encode(base);
+        byte[] editedPayload = ScoreCodec.encode(edited);
+        byte[] patch = ScoreDiff.createPatch(basePayload, editedPayload);
+        assertNotNull(patch);
+
+        Device full = new Device();
+        full.upload(basePayload, null);
+        long fullMicros = full.upload(editedPayload, null);
+
+        Device patched = new Device();
+        patched.upload(basePayload, null);
+        long patchMicros = patched.upload(editedPayload, patch);
+        assertEquals(1, patched.uploader.getPatchAppliedCount());
+        assertEquals(1, patched.guitar.patchCount);
+        assertEquals(2, patched.completeCount);
+
+        assertTrue(patch.length * 10 < editedPayload.length);
+        assertTrue(patchMicros * 2 < fullMicros);
+
+        // 패치를 적용한 곡도 기기 캐시에 저장되어 다시 선택하면 확인 요청만 보냄
+        patched.upload(basePayload, null);
+        int writes = patched.guitar.writeCount;
+        patched.upload(editedPayload, null);
+        assertEquals(writes + 1, patched.guitar.writeCount);
+    }
+
+    @Test
+    public void everyUpload_completesExactlyOnce() {
+        byte[] base = ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(5)));
+        byte[] edited = ScoreCodec.encode(mutate(ScoreCodec.decode(base), 2, new Random(3)));
+        byte[] patch = ScoreDiff.createPatch(base, edited);
+
+        Device device = new Device();
+        device.upload(base, null); // 기기 캐시에 없음
+        assertEquals(1, device.uploader.getDeviceMissCount());
+        assertEquals(1, device.completeCount);
+
+        device.upload(edited, patch); // 패치 적용
+        assertEquals(1, device.uploader.getPatchAppliedCount());
+        assertEquals(2, device.completeCount);
+
+        device.upload(base, null); // 기기 캐시에서 선택
+        assertEquals(1, device.uploader.getDeviceHitCount());
+        assertEquals(3, device.completeCount);
+    }
+
+    @Test
+    public void rejectedPatch_fallsBackToFullUpload() {
+        byte[] base = ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(5)));
+        byte[] other = ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(4)));
+        byte[] edited = ScoreCodec.encode(mutate(ScoreCodec.decode(base), 2, new Random(9)));
+        byte[] patch = ScoreDiff.createPatch(base, edited);
+
+        Device device = new Device();
+        device.upload(other, null); // 기기의 현재 곡이 패치 기준과 다름
+        assertEquals(1, device.completeCount);
+        device.upload(edited, patch);
+        assertEquals(1, device.uploader.getPatchRejectedCount());
+        assertEquals(0, device.uploader.getPatchAppliedCount());
+        assertEquals(2, device.completeCount); // 패치 전송이 아니라 전체 전송이 끝났을 때 한 번만 알림
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * SessionRecorder 의 파일 형식과 기록 비용, SessionReplay 로 기록한 전송을 다시 재현하는지 확인하는 테스트
+ */
+public class SessionRecorderTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = Files.createTempFile("session", ".gtsr").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void records_areReadBackInOrder() throws IOException {
+        SessionRecorder recorder = SessionRecorder.create(mFile, 1 << 20, 1_000);
+        recorder.recordLink(2_000, TestCapabilities.FULL, 20, true);
+        recorder.recordMark(3_000, "writeSong #1");
+        recorder.recordWrite(4_000, 7, new byte[]{1, 2, 3}, false);
+        recorder.recordWriteComplete(5_000, 7, true);
+        recorder.recordNotification(6_000, new byte[]{BleProtocol.NOTIFY_ACK, 0});
+        recorder.close();
+        assertEquals(recorder.getLength(), mFile.length()); // 닫으면 기록한 길이로 잘림
+
+        try (SessionRecorder.Reader reader = SessionRecorder.Reader.open(mFile)) {
+            assertTrue(reader.next());
+            assertEquals(SessionRecorder.TYPE_LINK, reader.getType());
+            assertEquals(1_000, reader.getTimeNanos());
+            assertEquals(20, reader.getId());
+            assertTrue(reader.getFlag());
+            assertEquals("V2:CDZ", new String(reader.getPayload(), StandardCharsets.UTF_8));
+
+            assertTrue(reader.next());
+            assertEquals(SessionRecorder.TYPE_MARK, reader.getType());
+            assertEquals("writeSong #1", new String(reader.getPayload(), StandardCharsets.UTF_8));
+
+            assertTrue(reader.next());
+            assertEquals(SessionRecorder.TYPE_WRITE, reader.getType());
+            assertEquals(7, reader.getId());
+            assertFalse(reader.getFlag());
+            assertArrayEquals(new byte[]{1, 2, 3}, reader.getPayload());
+
+            assertTrue(reader.next());
+            assertEquals(SessionRecorder.TYPE_WRITE_COMPLETE, reader.getType());
+            assertEquals(4_000, reader.getTimeNanos());
+            assertTrue(reader.getFlag());
+
+            assertTrue(reader.next());
+            assertEquals(SessionRecorder.TYPE_NOTIFICATION, reader.getType());
+            assertEquals(2, reader.getPayloadLength());
+            assertFalse(reader.next());
+        }
+    }
+
+    /**
+     * 닫지 않은(앱이 종료된) 기록도 마지막으로 끝까지 쓴 레코드까지 읽을 수 있음
+     */
+    @Test
+    public void unclosedRecording_isReadableUpToLastRecord() throws IOException {
+        SessionRecorder recorder = SessionRecorder.create(mFile, 1 << 20, 0);
+        for (int i = 0; i < 100; i++) {
+            recorder.recordWrite(i, i, new byte[20], true);
+        }
+        assertTrue(mFile.length() > recorder.getLength()); // 매핑한 크기만큼 늘어나 있음
+
+        int count = 0;
+        try (SessionRecorder.Reader reader = SessionRecorder.Reader.open(mFile)) {
+            while (reader.next()) {
+                assertEquals(count++, reader.getId());
+            }
+        }
+        assertEquals(100, count);
+        recorder.close();
+    }
+
+    @Test
+    public void maxLength_dropsLaterRecords() throws IOException {
+        int recordLength = SessionRecorder.RECORD_HEADER_LENGTH + 20;
+        try (SessionRecorder recorder = SessionRecorder.create(mFile, SessionRecorder.HEADER_LENGTH + 10 * recordLength, 0)) {
+            for (int i = 0; i < 15; i++) {
+                recorder.recordWrite(i, i, new byte[20], true);
+            }
+            assertEquals(10, recorder.getRecordCount());
+            assertEquals(5, recorder.getDroppedCount());
+        }
+    }
+
+    /**
+     * 매핑된 메모리에 쓰기만 하므로 조각마다 기록해도 객체를 만들지 않는지 확인
+     */
+    @Test
+    public void recording_isCheapOnHotPath() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        byte[] chunk = new byte[242];
+        byte[] ack = {BleProtocol.NOTIFY_ACK, 0};
+        int chunks = 200_000;
+        try (SessionRecorder recorder = SessionRecorder.create(mFile, 128L * 1024 * 1024, 0)) {
+            record(recorder, chunk, ack, 10_000); // JIT warm-up
+
+            long before = Allocations.allocatedBytes(threads);
+            record(recorder, chunk, ack, chunks);
+            long allocated = Allocations.allocatedBytes(threads) - before;
+
+            assertEquals(0, recorder.getDroppedCount());
+            if (before >= 0) {
+                assertTrue(allocated < chunks / 10); // 다시 매핑할 때만 할당
+            }
+        }
+    }
+
+    private static void record(SessionRecorder recorder, byte[] chunk, byte[] ack, int chunks) {
+        for (int i = 0; i < chunks; i++) {
+            recorder.recordWrite(i * 3L, i, chunk, false);
+            recorder.recordWriteComplete(i * 3L + 1, i, true);
+            recorder.recordNotification(i * 3L + 2, ack);
+        }
+    }
+
+    /**
+     * 손실과 지연이 있는 가상 기타와의 전송을 기록하고, 기기 없이 같은 속도와 10 배 속도로 재현
+     */
+    @Test
+    public void replay_reproducesRecordedTransfer() throws IOException {
+        String song = TestSongs.get(5);
+        recordTransfer(song);
+
+        for (double speed : new double[]{1, 10}) {
+            SimulationClock clock = new SimulationClock();
+            SessionReplay replay = SessionReplay.load(mFile, clock, (delayNanos, task) -> clock.schedule(delayNanos / 1000, task), speed);
+            GuitarProtocol protocol = new GuitarProtocol(replay, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+            replay.attach(protocol);
+            int[] completed = {0};
+            protocol.setListener(new CountingListener(completed));
+
+            replay.start(() -> assertTrue(protocol.send(song, "guitar")));
+            clock.runUntilIdle();
+
+            assertTrue(replay.getRecordedWriteCount() > 0);
+            assertEquals(Arrays.asList("upload test_string_5"), replay.getMarks());
+            assertEquals(0, replay.getMissingWrites());
+            assertEquals(0, replay.getMismatchedWrites());
+            assertEquals(0, replay.getExtraWrites());
+            assertEquals(1, completed[0]);
+            assertFalse(protocol.isBusy());
+            long recordedNanos = replay.getRecordedNanos();
+            assertEquals(recordedNanos / speed, replay.getReplayedNanos(), recordedNanos * 0.001);
+        }
+    }
+
+    /**
+     * 프로토콜이 기록과 다른 데이터를 보내면 알 수 있고, 기다리지 않는 재현은 기록보다 훨씬 빨리 끝남
+     */
+    @Test
+    public void replay_reportsDivergenceAndRunsOffline() throws IOException {
+        recordTransfer(TestSongs.get(5));
+
+        SimulationClock clock = new SimulationClock();
+        SessionReplay replay = SessionReplay.load(mFile, clock, (delayNanos, task) -> clock.schedule(delayNanos / 1000, task), 1);
+        GuitarProtocol protocol = new GuitarProtocol(replay, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+        replay.attach(protocol);
+        replay.start(() -> assertTrue(protocol.send(TestSongs.get(4), "guitar")));
+        clock.runUntilIdle();
+        assertTrue(replay.getMismatchedWrites() > 0);
+
+        // 같은 기록을 여러 번 기다리지 않고 재현하는 시간 (프로토콜 처리 비용)
+        int rounds = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            SimulationClock fast = new SimulationClock();
+            SessionReplay offline = SessionReplay.load(mFile, fast, (delayNanos, task) -> fast.schedule(0, task), Double.POSITIVE_INFINITY);
+            GuitarProtocol replayed = new GuitarProtocol(offline, fast, (delayMillis, task) -> fast.schedule(delayMillis * 1000, task));
+            offline.attach(replayed);
+            offline.start(() -> replayed.send(TestSongs.get(5), "guitar"));
+            fast.runUntilIdle();
+            assertEquals(0, offline.getMissingWrites());
+            assertEquals(0, offline.getMismatchedWrites());
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue(elapsed / rounds < replay.getRecordedNanos());
+    }
+
+    /**
+     * 10% 손실, 10 ms 지터가 있는 가상 기타로 song 을 보내면서 BleManager 와 같은 위치에서 기록하는 메소드
+     */
+    private void recordTransfer(String song) throws IOException {
+        SimulationClock clock = new SimulationClock();
+        SimulatedGuitar guitar = new SimulatedGuitar(clock, ChunkTransfer.Mode.FRAMED);
+        guitar.packetLossRate = 0.1;
+        guitar.jitterMicros = 10_000;
+        guitar.songCacheCapacity = 4;
+
+        try (SessionRecorder recorder = SessionRecorder.create(mFile, 1 << 20, 0)) {
+            BleTransport transport = new BleTransport() {
+                @Override
+                public int getMaxWriteLength(boolean withResponse) {
+                    return guitar.getMaxWriteLength(withResponse);
+                }
+
+                @Override
+                public boolean supportsWriteWithoutResponse() {
+                    return guitar.supportsWriteWithoutResponse();
+                }
+
+                @Override
+                public boolean write(int writeId, byte[] value, boolean withResponse) {
+                    recorder.recordWrite(clock.nanoTime(), writeId, value, withResponse);
+                    return guitar.write(writeId, value, withResponse);
+                }
+            };
+            GuitarProtocol protocol = new GuitarProtocol(transport, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task)) {
+                @Override
+                public void onWriteComplete(int writeId, boolean success) {
+                    recorder.recordWriteComplete(clock.nanoTime(), writeId, success);
+                    super.onWriteComplete(writeId, success);
+                }
+
+                @Override
+                public Notification onNotification(byte[] value, long receiveNanos) {
+                    recorder.recordNotification(receiveNanos, value);
+                    return super.onNotification(value, receiveNanos);
+                }
+            };
+            guitar.attach(protocol);
+            protocol.applyCapabilities(TestCapabilities.FULL);
+            recorder.recordLink(clock.nanoTime(), TestCapabilities.FULL, guitar.getMaxWriteLength(true), guitar.supportsWriteWithoutResponse());
+
+            recorder.recordMark(clock.nanoTime(), "upload test_string_5");
+            assertTrue(protocol.send(song, "guitar"));
+            clock.runUntilIdle();
+            assertArrayEquals(new ScoreCache().get(song).getPayload(true), guitar.getReceivedMessage());
+            assertTrue(guitar.retransmitCount > 0);
+        }
+    }
+
+    private static class CountingListener implements ChunkTransfer.Listener {
+        private final int[] mCompleted;
+
+        CountingListener(int[] completed) {
+            mCompleted = completed;
+        }
+
+        @Override
+        public void onTransferProgress(int sentBytes, int totalBytes) {
+        }
+
+        @Override
+        public void onTransferComplete() {
+            mCompleted[0]++;
+        }
+
+        @Override
+        public void onTransferFailed() {
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.ble_guitar_tutor;
+
+/**
+ * ScoreUploader 테스트용으로 FRAMED 펌웨어의 가상 기타, ChunkTransfer, ScoreUploader 를 한 가상 시계에 연결한 묶음
+ * 응답 대기 타이머(ScoreUploader.Timer)도 같은 시계로 실행됨. 테스트마다 필요한 업로드 메소드는 상속해서 추가함.
+ */
+class SimulatedDevice {
+    final SimulationClock clock = new SimulationClock();
+    final SimulatedGuitar guitar = new SimulatedGuitar(clock, ChunkTransfer.Mode.FRAMED);
+    final ChunkTransfer transfer = new ChunkTransfer(guitar, clock);
+    final ScoreUploader uploader = new ScoreUploader(guitar, transfer, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+
+    /**
+     * @param songCacheCapacity 가상 기타의 악보 캐시 크기 (0 이면 캐시 확인에 응답하지 않음)
+     */
+    SimulatedDevice(int songCacheCapacity) {
+        guitar.songCacheCapacity = songCacheCapacity;
+        guitar.attach(transfer, uploader);
+        transfer.setMode(ChunkTransfer.Mode.FRAMED);
+    }
+}
@@ -0,0 +1,551 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * 테스트용 가상 BLE 기타(peripheral)
+ *
+ * 연결 간격(connection interval) 단위로 GATT 동작 시간을 흉내냄.
+ * - 응답 있는 write : MTU 보다 길면 Long Write(Prepare Write) 로 나누어 보내므로 조각마다 왕복 한 번
+ * - 응답 없는 write : 한 연결 간격에 여러 패킷을 보낼 수 있음
+ * - 기기가 데이터를 받으면 다음 연결 간격에 Notification 으로 ack 를 보냄
+ * - packetLossRate : 패킷이 손실되면 링크 계층이 다음 연결 간격에 다시 보냄 (데이터는 잃지 않고 늦어짐)
+ * - latencyMicros, jitterMicros : 폰의 블루투스 스택이 콜백을 전달하기까지의 지연과 그 흔들림 (콜백 순서는 유지)
+ * - songCacheCapacity 가 0 보다 크면 받은 악보를 해시별로 LRU 캐시에 보관하고 CACHE_QUERY 에 응답함
+ * - ScoreDiff 패치를 받으면 현재 곡에 적용함
+ * - attach(ClassroomSession.Link) 하면 완료 콜백을 세션으로 보냄 (여러 기타를 같은 시계로 시뮬레이션)
+ * - disconnect() 하면 받던 메시지의 앞부분을 보관하고, 같은 해시로 CACHE_QUERY 를 받으면 그 길이를 응답하며 RESUME 을 받으면 이어 붙임
+ * - frameDropRate, frameCorruptRate : 링크 계층이 복구하지 못하는 손실 (펌웨어 수신 버퍼 넘침, UART 잡음 등)로
+ *   FRAMED 데이터 프레임을 놓치거나 한 byte 가 깨짐
+ * - checksIntegrity 이면 프레임 CRC-16 과 메시지 CRC-32 를 확인하고 (기능 문자 K), 순번이 건너뛰면 받은 프레임은 보관하고
+ *   빠진 순번을 한 번씩 NACK 함. selectiveRepeat 가 false 이면 대신 메시지 전체를 버리고 [NACK] 만 보냄 (전체 다시 보내기 비교용)
+ */
+class SimulatedGuitar implements BleTransport {
+    private final SimulationClock mClock;
+    private final ChunkTransfer.Mode mFirmwareMode;
+    private ChunkTransfer mTransfer;
+    private ScoreUploader mUploader;
+    private ClassroomSession.Link mSessionLink;
+    private GuitarProtocol mProtocol;
+
+    int mtu = 23;
+    int characteristicMaxLength = 300;
+    long connectionIntervalMicros = 30_000;
+    int packetsPerInterval = 4;
+    double packetLossRate = 0;
+    boolean writeWithoutResponse; // Characteristic 의 WRITE_NO_RESPONSE 속성 (기본값은 FRAMED 펌웨어만 true)
+    long latencyMicros = 0;
+    long jitterMicros = 0;
+    private final Random mRandom = new Random(16);
+
+    private final ByteArrayOutputStream mReceived = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream mCurrent = new ByteArrayOutputStream();
+    private int mExpectedSequence = 0;
+    private boolean mMessageStarted = false; // 지금 받는 메시지의 첫 프레임을 받았는지 여부
+    private boolean mContinuing = false;     // RESUME 을 받아 다음 메시지를 보관한 앞부분 뒤에 이어 붙임
+    private int mLink = 0;                   // disconnect() 이전에 예약된 동작을 버리기 위한 연결 번호
+    private long mLinkBusyUntilMicros = 0;   // write 는 한 번에 하나씩 순서대로 전달됨 (GATT 큐)
+    private long mLastWriteCallbackMicros = 0; // 지연이 흔들려도 write 완료 콜백의 순서는 유지
+    private long mLastNotifyMicros = 0;        // 지연이 흔들려도 Notification 순서는 유지
+    int writeCount = 0;
+    int resumeCount = 0;
+    int timeSyncCount = 0;
+    long lastTimeSyncMillis = -1; // 마지막으로 받은 TIME_SYNC 의 곡 위치
+    int retransmitCount = 0;
+    GuitarProtocol.Notification lastNotification;
+    boolean keepsPartialMessage = true;
+
+    /* Integrity Check */
+    boolean checksIntegrity = false;
+    boolean selectiveRepeat = true;
+    double frameDropRate = 0;
+    double frameCorruptRate = 0;
+    int droppedFrameCount = 0;
+    int corruptedFrameCount = 0;
+    int crcErrorCount = 0;
+    int nackCount = 0;
+    int checksumFailureCount = 0;
+    private final Random mLossRandom = new Random(23); // 기존 시뮬레이션의 타이밍이 바뀌지 않도록 따로 사용
+    private final HashMap<Integer, byte[]> mOutOfOrder = new HashMap<>(); // 순번별로 먼저 도착한 프레임
+    private final boolean[] mNacked = new boolean[BleProtocol.SEQUENCE_MODULO];
+    private int mMessageStart = 0;           // 이번 메시지가 mCurrent 에서 시작하는 위치 (RESUME 으로 이어 붙이면 앞부분 뒤)
+    private boolean mMessageBroken = false;  // 메시지를 버렸으므로 순번 0 프레임이 올 때까지 무시
+
+    /* Song Cache */
+    int songCacheCapacity = 0;
+    int cacheQueryCount = 0;
+    int patchCount = 0;
+    int compressedCount = 0;
+    private long mPendingHash;
+    private boolean mHasPendingHash = false;
+    private final LinkedHashMap<Long, byte[]> mSongCache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > songCacheCapacity;
+        }
+    };
+
+    SimulatedGuitar(SimulationClock clock, ChunkTransfer.Mode firmwareMode) {
+        mClock = clock;
+        mFirmwareMode = firmwareMode;
+        writeWithoutResponse = firmwareMode == ChunkTransfer.Mode.FRAMED;
+    }
+
+    void attach(ChunkTransfer transfer) {
+        mTransfer = transfer;
+    }
+
+    void attach(ChunkTransfer transfer, ScoreUploader uploader) {
+        mTransfer = transfer;
+        mUploader = uploader;
+    }
+
+    /**
+     * BleManager 처럼 write 완료와 Notification 을 GuitarProtocol 로 전달하는 메소드
+     */
+    void attach(GuitarProtocol protocol) {
+        mProtocol = protocol;
+        mTransfer = protocol.getTransfer();
+    }
+
+    /**
+     * 교실 모드처럼 write 완료와 Notification 을 세션의 Link 로 전달하는 메소드
+     */
+    void attach(ClassroomSession.Link link) {
+        mSessionLink = link;
+    }
+
+    void setSeed(long seed) {
+        mRandom.setSeed(seed);
+        mLossRandom.setSeed(seed);
+    }
+
+    int getCachedSongCount() {
+        return mSongCache.size();
+    }
+
+    byte[] getReceivedMessage() {
+        return mReceived.toByteArray();
+    }
+
+    int getPartialLength() {
+        return mCurrent.size();
+    }
+
+    /**
+     * 연결이 끊긴 것처럼 진행 중인 write 와 Notification 을 버리는 메소드
+     * 받던 메시지의 앞부분은 보관하고, 다음 연결에서는 순번 0 부터 받음.
+     */
+    void disconnect() {
+        mLink++;
+        mLinkBusyUntilMicros = 0;
+        mLastWriteCallbackMicros = 0;
+        mLastNotifyMicros = 0;
+        mExpectedSequence = 0;
+        mMessageStarted = false;
+        mContinuing = false;
+        clearReordering();
+        mMessageBroken = false;
+    }
+
+    @Override
+    public int getMaxWriteLength(boolean withResponse) {
+        return Math.min(mtu - 3, characteristicMaxLength);
+    }
+
+    @Override
+    public boolean supportsWriteWithoutResponse() {
+        return writeWithoutResponse;
+    }
+
+    @Override
+    public boolean write(int writeId, byte[] value, boolean withResponse) {
+        writeCount++;
+        final byte[] copy = value.clone();
+
+        long writeMicros;
+        int packets;
+        if (withResponse) {
+            int attPayload = mtu - 3;
+            int rounds = copy.length <= attPayload ? 1 : (copy.length + (mtu - 5) - 1) / (mtu - 5) + 1;
+            writeMicros = rounds * connectionIntervalMicros;
+            packets = rounds;
+        } else {
+            writeMicros = connectionIntervalMicros / packetsPerInterval;
+            packets = 1;
+        }
+        writeMicros += retransmitDelay(packets);
+
+        long doneMicros = Math.max(mClock.nowMicros(), mLinkBusyUntilMicros) + writeMicros;
+        mLinkBusyUntilMicros = doneMicros;
+        long callbackMicros = Math.max(doneMicros + stackDelay(), mLastWriteCallbackMicros);
+        mLastWriteCallbackMicros = callbackMicros;
+        final int link = mLink;
+        mClock.schedule(callbackMicros - mClock.nowMicros(), () -> {
+            if (link != mLink) {
+                return; // 끊긴 연결에서 보낸 write
+            }
+            receive(copy);
+            if (mSessionLink != null) {
+                mSessionLink.onWriteComplete(writeId, true);
+            } else if (mProtocol != null) {
+                mProtocol.onWriteComplete(writeId, true);
+            } else {
+                mTransfer.onWriteComplete(writeId, true);
+            }
+        });
+        return true;
+    }
+
+    private void receive(byte[] value) {
+        final byte[] ack;
+        if (mFirmwareMode == ChunkTransfer.Mode.FRAMED && songCacheCapacity > 0 && value[0] == BleProtocol.FRAME_CACHE_QUERY) {
+            ack = answerCacheQuery(value);
+        } else if (mFirmwareMode == ChunkTransfer.Mode.LEGACY) {
+            mCurrent.write(value, 0, value.length);
+            if (value.length > 0 && value[value.length - 1] == BleProtocol.MESSAGE_TERMINATOR) {
+                flushMessage();
+            }
+            ack = new byte[0];
+        } else {
+            if (value[0] == BleProtocol.FRAME_RESUME) {
+                resumeCount++;
+                mContinuing = keepsPartialMessage && mHasPendingHash && readOffset(value, 1) == mCurrent.size();
+                if (!mContinuing) {
+                    mCurrent.reset();
+                    mHasPendingHash = false; // 맞지 않는 앞부분에 이어 붙인 메시지는 캐시하지 않음
+                }
+                return;
+            }
+            if (value[0] == BleProtocol.FRAME_TIME_SYNC) {
+                timeSyncCount++;
+                lastTimeSyncMillis = readOffset(value, 1); // 같은 4 byte big endian
+                return;
+            }
+            if (value[0] != BleProtocol.FRAME_DATA && value[0] != BleProtocol.FRAME_DATA_END) {
+                return; // 모르는 프레임은 무시
+            }
+            if (loseFrame(value)) {
+                return;
+            }
+            if (checksIntegrity) {
+                byte[] reply = receiveChecked(value);
+                if (reply != null) {
+                    scheduleNotification(reply);
+                }
+                return;
+            }
+            int sequence = value[1] & 0xFF;
+            if (sequence != mExpectedSequence) {
+                return;
+            }
+            if (!mMessageStarted) {
+                if (!mContinuing) {
+                    mCurrent.reset(); // RESUME 없이 시작한 메시지는 보관한 앞부분을 버림
+                }
+                mContinuing = false;
+                mMessageStarted = true;
+            }
+            mExpectedSequence = (mExpectedSequence + 1) % BleProtocol.SEQUENCE_MODULO;
+            mCurrent.write(value, BleProtocol.FRAME_HEADER_LENGTH, value.length - BleProtocol.FRAME_HEADER_LENGTH);
+            if (value[0] == BleProtocol.FRAME_DATA_END) {
+                flushMessage();
+                mExpectedSequence = 0; // 순번은 메시지마다 0 부터 시작
+            }
+            ack = new byte[]{BleProtocol.NOTIFY_ACK, (byte) sequence};
+        }
+        scheduleNotification(ack);
+    }
+
+    /**
+     * frameDropRate 로 프레임을 놓치거나 frameCorruptRate 로 데이터 한 byte 를 깨뜨리는 메소드
+     *
+     * @return 프레임을 놓쳤으면 true
+     */
+    private boolean loseFrame(byte[] value) {
+        if (frameDropRate > 0 && mLossRandom.nextDouble() < frameDropRate) {
+            droppedFrameCount++;
+            return true;
+        }
+        if (frameCorruptRate > 0 && value.length > BleProtocol.FRAME_HEADER_LENGTH && mLossRandom.nextDouble() < frameCorruptRate) {
+            corruptedFrameCount++;
+            int index = BleProtocol.FRAME_HEADER_LENGTH + mLossRandom.nextInt(value.length - BleProtocol.FRAME_HEADER_LENGTH);
+            value[index] ^= 1 << mLossRandom.nextInt(8);
+        }
+        return false;
+    }
+
+    /**
+     * 무결성 검사를 하는 펌웨어의 데이터 프레임 처리
+     *
+     * @return 보낼 Notification (ack 또는 NACK), 없으면 null
+     */
+    private byte[] receiveChecked(byte[] value) {
+        int crcStart = value.length - BleProtocol.FRAME_CRC_LENGTH;
+        if (crcStart < BleProtocol.FRAME_HEADER_LENGTH
+                || Crc16.compute(value, 0, crcStart) != ((value[crcStart] & 0xFF) << 8 | (value[crcStart + 1] & 0xFF))) {
+            crcErrorCount++; // 순번도 믿을 수 없으므로 버리고, 다음 프레임의 순번으로 빠진 것을 알아냄
+            return selectiveRepeat ? null : breakMessage();
+        }
+        int sequence = value[1] & 0xFF;
+        if (mMessageBroken) {
+            if (sequence != 0) {
+                return null; // 버린 메시지의 나머지 프레임
+            }
+            mMessageBroken = false;
+        }
+        int distance = (sequence - mExpectedSequence + BleProtocol.SEQUENCE_MODULO) % BleProtocol.SEQUENCE_MODULO;
+        if (distance >= BleProtocol.MAX_WINDOW_SIZE) {
+            // 이미 받은 프레임이 다시 옴 (ack 가 늦어 다시 보낸 경우 등), 마지막으로 받은 순번을 다시 ack
+            return new byte[]{BleProtocol.NOTIFY_ACK, (byte) (mExpectedSequence - 1)};
+        }
+        if (distance > 0) {
+            if (!selectiveRepeat) {
+                return breakMessage();
+            }
+            mOutOfOrder.put(sequence, value);
+            return nackMissing(sequence);
+        }
+
+        boolean end = false;
+        int lastSequence = sequence;
+        byte[] frame = value;
+        while (frame != null) {
+            lastSequence = frame[1] & 0xFF;
+            end = acceptChecked(frame);
+            if (end) {
+                break;
+            }
+            frame = mOutOfOrder.remove(mExpectedSequence);
+        }
+        if (!end) {
+            return new byte[]{BleProtocol.NOTIFY_ACK, (byte) lastSequence};
+        }
+
+        clearReordering();
+        mExpectedSequence = 0; // 순번은 메시지마다 0 부터 시작
+        if (!finishChecked()) {
+            checksumFailureCount++;
+            nackCount++;
+            return new byte[]{BleProtocol.NOTIFY_NACK};
+        }
+        return new byte[]{BleProtocol.NOTIFY_ACK, (byte) lastSequence};
+    }
+
+    /**
+     * 순서가 맞는 프레임의 데이터를 이어 붙이는 메소드
+     *
+     * @return 메시지의 마지막 프레임이면 true
+     */
+    private boolean acceptChecked(byte[] frame) {
+        if (!mMessageStarted) {
+            if (!mContinuing) {
+                mCurrent.reset();
+            }
+            mContinuing = false;
+            mMessageStarted = true;
+            mMessageStart = mCurrent.size();
+        }
+        int sequence = frame[1] & 0xFF;
+        mNacked[sequence] = false;
+        mExpectedSequence = (sequence + 1) % BleProtocol.SEQUENCE_MODULO;
+        mCurrent.write(frame, BleProtocol.FRAME_HEADER_LENGTH,
+                frame.length - BleProtocol.FRAME_HEADER_LENGTH - BleProtocol.FRAME_CRC_LENGTH);
+        return frame[0] == BleProtocol.FRAME_DATA_END;
+    }
+
+    /**
+     * 이번 메시지 끝의 CRC-32 를 확인하고 떼어낸 뒤 메시지를 처리하는 메소드
+     *
+     * @return CRC-32 가 맞으면 true
+     */
+    private boolean finishChecked() {
+        byte[] data = mCurrent.toByteArray();
+        int crcStart = data.length - BleProtocol.MESSAGE_CRC_LENGTH;
+        boolean valid = crcStart >= mMessageStart;
+        if (valid) {
+            CRC32 crc = new CRC32();
+            crc.update(data, mMessageStart, crcStart - mMessageStart);
+            valid = crc.getValue() == readOffset(data, crcStart); // 같은 4 byte big endian
+        }
+        mCurrent.reset();
+        if (!valid) {
+            mMessageStarted = false;
+            mHasPendingHash = false;
+            return false;
+        }
+        mCurrent.write(data, 0, crcStart);
+        flushMessage();
+        return true;
+    }
+
+    /**
+     * sequence 앞에서 아직 받지 못했고 NACK 하지 않은 순번을 NACK 으로 만드는 메소드
+     *
+     * @return NACK, 새로 알릴 순번이 없으면 null
+     */
+    private byte[] nackMissing(int sequence) {
+        byte[] nack = new byte[1 + BleProtocol.MAX_WINDOW_SIZE];
+        int count = 0;
+        for (int s = mExpectedSequence; s != sequence; s = (s + 1) % BleProtocol.SEQUENCE_MODULO) {
+            if (!mNacked[s] && !mOutOfOrder.containsKey(s)) {
+                mNacked[s] = true;
+                nack[1 + count++] = (byte) s;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        nackCount++;
+        nack[0] = BleProtocol.NOTIFY_NACK;
+        return Arrays.copyOf(nack, 1 + count);
+    }
+
+    /**
+     * 조각 단위로 다시 요청하지 않는 펌웨어가 받던 메시지를 버리고 [NACK] 으로 알리는 메소드
+     */
+    private byte[] breakMessage() {
+        if (mMessageBroken) {
+            return null;
+        }
+        mCurrent.reset();
+        mMessageStarted = false;
+        mContinuing = false;
+        mHasPendingHash = false;
+        mExpectedSequence = 0;
+        clearReordering();
+        mMessageBroken = true;
+        nackCount++;
+        return new byte[]{BleProtocol.NOTIFY_NACK};
+    }
+
+    private void clearReordering() {
+        mOutOfOrder.clear();
+        Arrays.fill(mNacked, false);
+    }
+
+    /**
+     * 기기가 폰으로 Notification(운지 이벤트, 문자열 등)을 보내는 메소드
+     */
+    void sendNotification(byte[] value) {
+        scheduleNotification(value.clone());
+    }
+
+    private void scheduleNotification(byte[] value) {
+        long notifyMicros = mClock.nowMicros() + connectionIntervalMicros + retransmitDelay(1) + stackDelay();
+        notifyMicros = Math.max(notifyMicros, mLastNotifyMicros);
+        mLastNotifyMicros = notifyMicros;
+        final int link = mLink;
+        mClock.schedule(notifyMicros - mClock.nowMicros(), () -> {
+            if (link == mLink) {
+                notify(value);
+            }
+        });
+    }
+
+    /**
+     * 손실된 패킷을 링크 계층이 다시 보내느라 늦어지는 시간
+     */
+    private long retransmitDelay(int packets) {
+        if (packetLossRate <= 0) {
+            return 0;
+        }
+        long delay = 0;
+        for (int i = 0; i < packets; i++) {
+            while (mRandom.nextDouble() < packetLossRate) {
+                retransmitCount++;
+                delay += connectionIntervalMicros;
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * 블루투스 스택이 콜백을 전달하기까지의 지연
+     */
+    private long stackDelay() {
+        return latencyMicros + (jitterMicros > 0 ? (long) (mRandom.nextDouble() * jitterMicros) : 0);
+    }
+
+    private void notify(byte[] value) {
+        if (mSessionLink != null) {
+            mSessionLink.onNotification(value, mClock.nanoTime());
+            return;
+        }
+        if (mProtocol != null) {
+            lastNotification = mProtocol.onNotification(value, mClock.nanoTime());
+            return;
+        }
+        if (mUploader == null || !mUploader.onNotification(value)) {
+            mTransfer.onNotification(value);
+        }
+    }
+
+    private byte[] answerCacheQuery(byte[] value) {
+        cacheQueryCount++;
+        long hash = 0;
+        for (int i = 1; i <= BleProtocol.CACHE_HASH_LENGTH; i++) {
+            hash = hash << 8 | (value[i] & 0xFF);
+        }
+
+        byte[] song = mSongCache.get(hash);
+        if (song != null) {
+            mReceived.reset();
+            mReceived.write(song, 0, song.length); // 캐시된 곡을 현재 곡으로 선택
+            return new byte[]{BleProtocol.NOTIFY_CACHE_STATUS, BleProtocol.CACHE_HIT};
+        }
+        if (keepsPartialMessage && mHasPendingHash && mPendingHash == hash && !mMessageStarted && mCurrent.size() > 0) {
+            int offset = mCurrent.size(); // 끊기기 전에 받던 메시지를 이어서 받을 수 있음
+            return new byte[]{BleProtocol.NOTIFY_CACHE_STATUS, BleProtocol.CACHE_MISS,
+                    (byte) (offset >>> 24), (byte) (offset >>> 16), (byte) (offset >>> 8), (byte) offset};
+        }
+        mCurrent.reset();
+        mMessageStarted = false;
+        mExpectedSequence = 0;
+        mPendingHash = hash;
+        mHasPendingHash = true;
+        return new byte[]{BleProtocol.NOTIFY_CACHE_STATUS, BleProtocol.CACHE_MISS};
+    }
+
+    private static long readOffset(byte[] value, int start) {
+        long offset = 0;
+        for (int i = 0; i < BleProtocol.RESUME_OFFSET_LENGTH; i++) {
+            offset = offset << 8 | (value[start + i] & 0xFF);
+        }
+        return offset;
+    }
+
+    private void flushMessage() {
+        byte[] message = mCurrent.toByteArray();
+        mCurrent.reset();
+        mMessageStarted = false;
+        if (ScoreCompressor.isCompressed(message)) {
+            compressedCount++;
+            message = ScoreCompressor.decompress(message);
+            if (message == null) {
+                mHasPendingHash = false; // 풀지 못한 메시지는 버림
+                return;
+            }
+        }
+        if (ScoreDiff.isPatch(message)) {
+            patchCount++;
+            message = ScoreDiff.applyPatch(mReceived.toByteArray(), message);
+            if (message == null) {
+                mHasPendingHash = false; // 적용하지 못한 패치는 버리고 현재 곡을 유지
+                return;
+            }
+        }
+        mReceived.reset();
+        mReceived.write(message, 0, message.length);
+        if (mHasPendingHash) {
+            mSongCache.put(mPendingHash, message);
+            mHasPendingHash = false;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.ble_guitar_tutor;
+
+import java.util.PriorityQueue;
+
+/**
+ * 테스트용 가상 시계
+ * 실제로 기다리지 않고, 예약된 이벤트를 시간 순서대로 실행하여 BLE 통신을 시뮬레이션함.
+ */
+class SimulationClock implements NanoClock {
+    private final PriorityQueue<Event> mEvents = new PriorityQueue<>();
+    private long mNowMicros = 0;
+    private long mOrder = 0;
+
+    private static class Event implements Comparable<Event> {
+        final long timeMicros;
+        final long order;
+        final Runnable action;
+
+        Event(long timeMicros, long order, Runnable action) {
+            this.timeMicros = timeMicros;
+            this.order = order;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (timeMicros != other.timeMicros) {
+                return Long.compare(timeMicros, other.timeMicros);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    long nowMicros() {
+        return mNowMicros;
+    }
+
+    @Override
+    public long nanoTime() {
+        return mNowMicros * 1000;
+    }
+
+    void schedule(long delayMicros, Runnable action) {
+        mEvents.add(new Event(mNowMicros + delayMicros, mOrder++, action));
+    }
+
+    /**
+     * 더 이상 예약된 이벤트가 없을 때까지 실행하는 메소드
+     */
+    void runUntilIdle() {
+        while (runNext()) {
+        }
+    }
+
+    /**
+     * 가장 먼저 예약된 이벤트 하나를 실행하는 메소드
+     *
+     * @return 실행할 이벤트가 없으면 false
+     */
+    boolean runNext() {
+        Event event = mEvents.poll();
+        if (event == null) {
+            return false;
+        }
+        mNowMicros = event.timeMicros;
+        event.action.run();
+        return true;
+    }
+}
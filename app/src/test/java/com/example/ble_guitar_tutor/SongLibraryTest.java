@@ -0,0 +1,217 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * 곡 보관함(SongLibrary)의 저장/다시 열기, 중단된 추가 복구, 많은 곡에서의 열기 시간과 전송을 확인하는 테스트
+ */
+public class SongLibraryTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("song-library").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void songs_surviveReopen() throws IOException {
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            for (int i = 1; i <= TestSongs.COUNT; i++) {
+                assertEquals(i - 1, library.add("Test Song " + i, TestSongs.get(i)));
+            }
+        }
+
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            assertEquals(TestSongs.COUNT, library.size());
+            for (int i = 0; i < TestSongs.COUNT; i++) {
+                Score score = ScoreCodec.parse(TestSongs.get(i + 1));
+                assertEquals("Test Song " + (i + 1), library.getTitle(i));
+                assertEquals(80, library.getTempo(i));
+                assertEquals(score.getNoteCount(), library.getNoteCount(i));
+                assertEquals(score.getDurationMillis(), library.getDurationMillis(i));
+                assertEquals(SongLibrary.FORMAT_BINARY, library.getFormat(i));
+
+                ScoreCache.Entry expected = new ScoreCache().get(TestSongs.get(i + 1));
+                ScoreCache.Entry entry = library.loadEntry(i);
+                assertArrayEquals(expected.getPayload(true), entry.getPayload(true));
+                assertEquals(expected.getHash(true), entry.getHash(true));
+                assertEquals(expected.getHash(true), library.getHash(i));
+                // 문자열은 기존 기기로 보낼 때 바이너리에서 다시 만듦
+                assertArrayEquals((ScoreCodec.format(score) + "$").getBytes(StandardCharsets.UTF_8), entry.getPayload(false));
+            }
+        }
+    }
+
+    @Test
+    public void body_isReadOnlySliceOfMappedFile() throws IOException {
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            library.add("first", TestSongs.get(1));
+            ByteBuffer first = library.getBody(0);
+            library.add("second", TestSongs.get(2)); // 매핑 뒤에 추가된 곡도 읽을 수 있음
+            ByteBuffer second = library.getBody(1);
+
+            assertTrue(first.isReadOnly());
+            assertEquals(first.remaining(), first.capacity());
+            byte[] body = new byte[second.remaining()];
+            second.get(body);
+            assertArrayEquals(ScoreCodec.encode(ScoreCodec.parse(TestSongs.get(2))), body);
+        }
+    }
+
+    @Test
+    public void title_isTruncatedOnCharacterBoundary() throws IOException {
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            title.append("기타");
+        }
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            library.add(title.toString(), TestSongs.get(1));
+            String stored = library.getTitle(0);
+            assertTrue(title.toString().startsWith(stored));
+            assertEquals(SongLibrary.MAX_TITLE_BYTES / 3, stored.length());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidScore_isNotAdded() throws IOException {
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            try {
+                library.add("broken", "not a score");
+            } finally {
+                assertEquals(0, library.size());
+            }
+        }
+    }
+
+    /**
+     * 곡을 추가하다 앱이 종료되어 본문만 기록된 경우, 다시 열면 그 곡은 보이지 않고 다음 곡이 그 자리를 덮어씀
+     */
+    @Test
+    public void interruptedAdd_isIgnoredOnReopen() throws IOException {
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            library.add("kept", TestSongs.get(1));
+        }
+        try (RandomAccessFile data = new RandomAccessFile(new File(mDirectory, SongLibrary.DATA_FILE), "rw")) {
+            data.seek(data.length());
+            data.write(new byte[500]); // 곡 수에 포함되지 않은 본문
+        }
+
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            assertEquals(1, library.size());
+            library.add("next", TestSongs.get(3));
+            assertArrayEquals(new ScoreCache().get(TestSongs.get(3)).getPayload(true), library.loadEntry(1).getPayload(true));
+            assertEquals("kept", library.getTitle(0));
+        }
+    }
+
+    /**
+     * 곡이 수천 개여도 열기는 헤더만 읽으므로 바로 끝나는지 확인
+     */
+    @Test
+    public void largeLibrary_opensWithoutScanning() throws IOException {
+        int songs = 5000;
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            for (int i = 0; i < songs; i++) {
+                library.add("Song " + i, TestSongs.get(i % TestSongs.COUNT + 1));
+            }
+            library.flush();
+        }
+
+        SongLibrary.open(mDirectory).close(); // 파일 캐시 준비
+        long openStart = System.nanoTime();
+        SongLibrary library = SongLibrary.open(mDirectory);
+        long openNanos = System.nanoTime() - openStart;
+
+        assertEquals(songs, library.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("Song " + (songs - 1 - i), library.getTitle(songs - 1 - i)); // 목록 한 화면
+        }
+        ScoreCache.Entry entry = library.loadEntry(songs - 1);
+        library.close();
+
+        // 색인은 곡마다 고정 길이 레코드이고, 두 배씩 늘리므로 필요한 크기의 두 배를 넘지 않음
+        long indexBytes = new File(mDirectory, SongLibrary.INDEX_FILE).length();
+        assertTrue(indexBytes >= (long) songs * SongLibrary.RECORD_LENGTH);
+        assertTrue(indexBytes <= 2L * (songs + 1) * SongLibrary.RECORD_LENGTH);
+        assertTrue(new File(mDirectory, SongLibrary.DATA_FILE).length() > 0);
+        assertTrue(entry.hasBinary());
+        assertTrue(openNanos < 50_000_000);
+    }
+
+    @Test
+    public void librarySong_uploadsToBinaryAndLegacyGuitars() throws IOException {
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            library.add("song", TestSongs.get(4));
+            ScoreCache.Entry entry = library.loadEntry(0);
+
+            for (ChunkTransfer.Mode mode : ChunkTransfer.Mode.values()) {
+                SimulationClock clock = new SimulationClock();
+                SimulatedGuitar guitar = new SimulatedGuitar(clock, mode);
+                GuitarProtocol protocol = new GuitarProtocol(guitar, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+                guitar.attach(protocol);
+                protocol.getTransfer().setLegacyChunkLength(BleManager.MAX_LENGTH);
+                protocol.applyCapabilities(mode == ChunkTransfer.Mode.FRAMED ? TestCapabilities.FULL : DeviceCapabilities.LEGACY);
+
+                assertTrue(protocol.upload(entry, "guitar"));
+                clock.runUntilIdle();
+                boolean framed = mode == ChunkTransfer.Mode.FRAMED;
+                byte[] expected = framed ? entry.getPayload(true) : entry.getPayload(false);
+                assertArrayEquals(expected, guitar.getReceivedMessage());
+            }
+        }
+    }
+
+    @Test
+    public void librarySong_streamsBodyAndQueriesWithStoredHash() throws IOException {
+        try (SongLibrary library = SongLibrary.open(mDirectory)) {
+            library.add("song", TestSongs.get(4));
+            ByteBuffer body = library.getBody(0);
+            byte[] expected = new byte[body.remaining()];
+            body.get(expected);
+
+            SimulationClock clock = new SimulationClock();
+            SimulatedGuitar guitar = new SimulatedGuitar(clock, ChunkTransfer.Mode.FRAMED);
+            guitar.songCacheCapacity = 4;
+            GuitarProtocol protocol = new GuitarProtocol(guitar, clock, (delayMillis, task) -> clock.schedule(delayMillis * 1000, task));
+            guitar.attach(protocol);
+            protocol.applyCapabilities(TestCapabilities.FULL);
+
+            // 처음에는 기기 캐시에 없으므로 본문을 그대로 보내고, 기기는 저장된 해시로 보관함
+            assertTrue(protocol.upload(library, 0, "guitar"));
+            clock.runUntilIdle();
+            assertArrayEquals(expected, guitar.getReceivedMessage());
+            assertEquals(1, guitar.getCachedSongCount());
+            assertEquals(1, protocol.getUploader().getDeviceMissCount());
+
+            // 같은 곡은 저장된 해시로 확인해서 보내지 않음
+            assertTrue(protocol.upload(library, 0, "guitar"));
+            clock.runUntilIdle();
+            assertEquals(1, protocol.getUploader().getDeviceHitCount());
+            assertEquals(expected.length, protocol.getUploader().getSkippedBytes());
+            assertFalse(protocol.isBusy());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.ble_guitar_tutor;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * StreamingScoreParser 의 조각 단위 파싱 테스트와 대용량 악보 마이크로벤치마크
+ */
+public class StreamingScoreParserTest {
+
+    /**
+     * 받은 음을 다시 악보 문자열로 이어 붙이는 Listener
+     */
+    private static class Collector implements StreamingScoreParser.Listener {
+        final StringBuilder text = new StringBuilder();
+        int tempoCount;
+        long noteCount;
+        long eventCount;
+        long checksum;
+
+        @Override
+        public void onTempo(int tempo) {
+            tempoCount++;
+            text.append(String.format("%03d!", tempo));
+        }
+
+        @Override
+        public void onNote(StreamingScoreParser.Note note) {
+            noteCount++;
+            text.append(note.noteIndex == 0 ? String.valueOf(note.duration.symbol) : "")
+                    .append(note.string).append(',').append(note.fret).append('-');
+        }
+
+        @Override
+        public void onEventEnd(StreamingScoreParser.Note lastNote, int noteCount) {
+            eventCount++;
+            if (noteCount == 0) {
+                text.append(lastNote.duration.symbol);
+            }
+            text.append('@');
+        }
+    }
+
+    /**
+     * 문자열을 만들지 않고 개수와 값만 누적하는 Listener (벤치마크용)
+     */
+    private static class Counter implements StreamingScoreParser.Listener {
+        long noteCount;
+        long checksum;
+
+        @Override
+        public void onTempo(int tempo) {
+            checksum += tempo;
+        }
+
+        @Override
+        public void onNote(StreamingScoreParser.Note note) {
+            noteCount++;
+            checksum += note.string * 31 + note.fret + note.tick;
+        }
+
+        @Override
+        public void onEventEnd(StreamingScoreParser.Note lastNote, int noteCount) {
+            checksum += noteCount;
+        }
+    }
+
+    @Test
+    public void randomChunking_givesSameResultAsWholeInput() {
+        String song = TestSongs.get(5);
+        Collector whole = new Collector();
+        assertTrue(new StreamingScoreParser(whole).feed(song));
+
+        Random random = new Random(5);
+        for (int round = 0; round < 20; round++) {
+            Collector chunked = new Collector();
+            StreamingScoreParser parser = new StreamingScoreParser(chunked);
+            byte[] bytes = song.getBytes(StandardCharsets.US_ASCII);
+            int offset = 0;
+            while (offset < bytes.length) {
+                int length = Math.min(bytes.length - offset, 1 + random.nextInt(40));
+                assertTrue(parser.feed(bytes, offset, length));
+                offset += length;
+            }
+            assertEquals(whole.text.toString(), chunked.text.toString());
+            assertEquals(whole.noteCount, chunked.noteCount);
+        }
+        assertEquals(ScoreCodec.format(ScoreCodec.parse(song)), whole.text.toString());
+    }
+
+    @Test
+    public void ticks_followDurations() {
+        final long[] ticks = new long[3];
+        StreamingScoreParser parser = new StreamingScoreParser(new StreamingScoreParser.Listener() {
+            @Override
+            public void onTempo(int tempo) {
+            }
+
+            @Override
+            public void onNote(StreamingScoreParser.Note note) {
+            }
+
+            @Override
+            public void onEventEnd(StreamingScoreParser.Note lastNote, int noteCount) {
+                ticks[lastNote.eventIndex] = lastNote.tick;
+            }
+        });
+
+        assertTrue(parser.feed("080!W1,0-@Q2,1-@E3,2-@"));
+        assertArrayEquals(new long[]{0, 32, 40}, ticks);
+        assertEquals(44, parser.getTotalTicks());
+        assertTrue(parser.isAtEventBoundary());
+    }
+
+    @Test
+    public void tempoInsideEvent_discardsNotesAlreadyDelivered() {
+        final StringBuilder calls = new StringBuilder();
+        StreamingScoreParser parser = new StreamingScoreParser(new StreamingScoreParser.Listener() {
+            @Override
+            public void onTempo(int tempo) {
+                calls.append('T').append(tempo).append(' ');
+            }
+
+            @Override
+            public void onNote(StreamingScoreParser.Note note) {
+                calls.append('N').append(note.eventIndex).append('.').append(note.noteIndex)
+                        .append('@').append(note.tick).append(' ');
+            }
+
+            @Override
+            public void onEventEnd(StreamingScoreParser.Note lastNote, int noteCount) {
+                calls.append('E').append(lastNote.eventIndex).append('x').append(noteCount).append(' ');
+            }
+        });
+
+        // 번들 악보처럼 "q4,3-2,080!" : 음 하나를 보낸 뒤 '@' 없이 템포가 옴
+        assertTrue(parser.feed("080!Q1,2-@q4,3-2,090!H5,6-@"));
+        assertEquals("T80 N0.0@0 E0x1 N1.0@8 T90 N1.0@8 E1x1 ", calls.toString());
+        assertEquals(8 + 16, parser.getTotalTicks());
+        assertTrue(parser.isAtEventBoundary());
+
+        // ScoreCodec.parse() 는 버려진 이벤트의 음을 남기지 않음
+        assertEquals("080!Q1,2-@090!H5,6-@", ScoreCodec.format(ScoreCodec.parse("080!Q1,2-@q4,3-2,090!H5,6-@")));
+    }
+
+    @Test
+    public void error_reportsOffsetAndStops() {
+        Collector collector = new Collector();
+        StreamingScoreParser parser = new StreamingScoreParser(collector);
+
+        assertTrue(parser.feed("080!Q1,2-@"));
+        assertFalse(parser.feed("Q1,,2-@"));
+        assertEquals(StreamingScoreParser.Error.UNEXPECTED_SEPARATOR, parser.getError());
+        assertEquals(13, parser.getErrorOffset());
+        assertFalse(parser.feed("Q1,2-@"));
+        assertEquals(1, collector.eventCount);
+
+        parser.reset();
+        assertTrue(parser.feed("Q1,2-@"));
+    }
+
+    @Test
+    public void multiMegabyteScore_parsesWithoutAllocation() {
+        String song = TestSongs.get(5);
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 4 * 1024 * 1024) {
+            builder.append(song);
+        }
+        byte[] score = builder.toString().getBytes(StandardCharsets.US_ASCII);
+
+        Counter counter = new Counter();
+        StreamingScoreParser parser = new StreamingScoreParser(counter);
+        for (int warmup = 0; warmup < 3; warmup++) {
+            parse(parser, score, 244);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = Allocations.allocatedBytes(threads);
+        counter.noteCount = 0;
+        int rounds = 5;
+        for (int round = 0; round < rounds; round++) {
+            parse(parser, score, 244);
+        }
+        long allocated = Allocations.allocatedBytes(threads) - allocatedBefore;
+
+        assertTrue(counter.noteCount > 500_000);
+        if (allocatedBefore >= 0) {
+            assertTrue(allocated < counter.noteCount / 10);
+        }
+    }
+
+    private static void parse(StreamingScoreParser parser, byte[] score, int chunkLength) {
+        parser.reset();
+        for (int offset = 0; offset < score.length; offset += chunkLength) {
+            if (!parser.feed(score, offset, Math.min(chunkLength, score.length - offset))) {
+                throw new AssertionError(parser.getError() + " at " + parser.getErrorOffset());
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.ble_guitar_tutor;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 여러 테스트에서 함께 쓰는 기기 기능 조합
+ */
+final class TestCapabilities {
+    /**
+     * 버전 2 에 악보 캐시(C), 패치(D), 압축(Z)을 지원하는 기기
+     */
+    static final DeviceCapabilities FULL = DeviceCapabilities.parse("V2:CDZ".getBytes(StandardCharsets.UTF_8));
+
+    private TestCapabilities() {
+    }
+}
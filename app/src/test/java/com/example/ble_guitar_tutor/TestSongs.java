@@ -0,0 +1,33 @@
+package com.example.ble_guitar_tutor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * strings.xml 에 들어있는 테스트 악보(test_string_1 ~ 5)를 읽어오는 테스트 도우미
+ * 로컬 단위 테스트는 app 모듈 디렉터리에서 실행됨.
+ */
+final class TestSongs {
+    static final int COUNT = 5;
+    private static final String STRINGS_XML = "src/main/res/values/strings.xml";
+
+    private TestSongs() {
+    }
+
+    static String get(int number) {
+        try {
+            String xml = new String(Files.readAllBytes(Paths.get(STRINGS_XML)), StandardCharsets.UTF_8);
+            Matcher matcher = Pattern.compile("<string name=\"test_string_" + number + "\">([^<]*)</string>").matcher(xml);
+            if (!matcher.find()) {
+                throw new IllegalArgumentException("test_string_" + number);
+            }
+            return matcher.group(1);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}